@@ -15,12 +15,14 @@
  */
 package consulo.vfs.impl.archive;
 
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.containers.EmptyIterator;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 
 public interface ArchiveFile {
@@ -64,6 +66,23 @@ public interface ArchiveFile {
   @Nullable
   InputStream getInputStream(@NotNull ArchiveEntry entry) throws IOException;
 
+  /**
+   * @return content of the entry, which must not be modified. Implementations may return a view of the mapped archive instead of
+   * a copy of the content, such a view mustn't be used after the archive is {@link #close() closed}
+   */
+  @Nullable
+  default ByteBuffer getBuffer(@NotNull ArchiveEntry entry) throws IOException {
+    InputStream stream = getInputStream(entry);
+    if (stream == null) return null;
+    try {
+      long size = entry.getSize();
+      return ByteBuffer.wrap(size >= 0 ? FileUtil.loadBytes(stream, (int)size) : FileUtil.loadBytes(stream));
+    }
+    finally {
+      stream.close();
+    }
+  }
+
   @NotNull
   Iterator<? extends ArchiveEntry> entries();
 
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.SystemProperties;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.text.ByteArrayCharSequence;
+import consulo.util.io.DirectBufferReflect;
+import gnu.trove.TObjectIntHashMap;
+import gnu.trove.TObjectLongHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.TestOnly;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Persistent, memory mapped index of archive entries: a file per archive, identified by the archive path, length and timestamp, so
+ * entries of an unchanged archive are looked up without parsing its central directory and without a map on the heap, also after
+ * a restart.
+ * <p/>
+ * The file consists of a header, fixed size records of the entries sorted by UTF-8 bytes of their paths (so an entry is found with
+ * binary search) and the paths themselves. Records link entries to their parents, first children and next siblings, so a directory
+ * is listed without looking at other entries.
+ * <p/>
+ * Index files of archives which aren't opened anymore are removed by {@link #cleanup}: files which weren't used for a while and then
+ * the least recently used ones while the directory is too large.
+ *
+ * @author agent
+ */
+class ArchiveEntryIndex {
+  private static final Logger LOG = Logger.getInstance(ArchiveEntryIndex.class);
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int VERSION = 1;
+  private static final long DAY = 24L * 60 * 60 * 1000;
+  private static final long MAX_UNUSED_TIME = SystemProperties.getIntProperty("idea.archive.entry.index.max.unused.days", 30) * DAY;
+  private static final long MAX_TOTAL_SIZE = SystemProperties.getIntProperty("idea.archive.entry.index.max.size.mb", 256) * 1024L * 1024;
+  private static final int HEADER_SIZE = 4 + 8 + 8 + 4 + 4;
+
+  private static final int RECORD_SIZE = 6 * 4 + 2 * 8;
+  private static final int PATH_OFFSET = 0;
+  private static final int PATH_LENGTH = 4;
+  private static final int PARENT = 8;
+  private static final int FIRST_CHILD = 12;
+  private static final int NEXT_SIBLING = 16;
+  private static final int IS_DIRECTORY = 20;
+  private static final int LENGTH = 24;
+  private static final int TIMESTAMP = 32;
+
+  private final ByteBuffer myBuffer;
+  private final int myCount;
+  private final int myPathsStart;
+
+  private ArchiveEntryIndex(@NotNull ByteBuffer buffer, int count, int pathsStart) {
+    myBuffer = buffer;
+    myCount = count;
+    myPathsStart = pathsStart;
+  }
+
+  /**
+   * @return the index of the archive or null if there is no up-to-date index file for it
+   */
+  @Nullable
+  static ArchiveEntryIndex open(@NotNull File dir, @NotNull String archivePath, long archiveLength, long archiveTimestamp) {
+    File file = getIndexFile(dir, archivePath, archiveLength, archiveTimestamp);
+    if (!file.exists()) return null;
+
+    ByteBuffer buffer;
+    try {
+      buffer = map(file);
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      return null;
+    }
+
+    ArchiveEntryIndex index = null;
+    try {
+      index = read(buffer, archivePath, archiveLength, archiveTimestamp);
+    }
+    catch (IndexOutOfBoundsException ignored) {
+    }
+    if (index == null) {
+      // the name of the file is bound to the archive, so an index file which doesn't match the header is corrupted, it's rebuilt
+      LOG.info("Corrupted archive index: " + file);
+      DirectBufferReflect.clean(buffer);
+      FileUtil.delete(file);
+      return null;
+    }
+    markUsed(file);
+    return index;
+  }
+
+  @Nullable
+  private static ArchiveEntryIndex read(@NotNull ByteBuffer buffer, @NotNull String archivePath, long archiveLength, long archiveTimestamp) {
+    if (buffer.getInt(0) != VERSION || buffer.getLong(4) != archiveLength || buffer.getLong(12) != archiveTimestamp) return null;
+    int count = buffer.getInt(20);
+    int archivePathLength = buffer.getInt(24);
+    long pathsStart = HEADER_SIZE + (long)archivePathLength + (long)count * RECORD_SIZE;
+    if (count <= 0 || archivePathLength < 0 || pathsStart > buffer.limit()) return null;
+    if (!archivePath.equals(readString(buffer, HEADER_SIZE, archivePathLength))) return null;
+
+    // paths of the records follow each other, the last one ends the file: a truncated or extended file is detected here
+    ArchiveEntryIndex index = new ArchiveEntryIndex(buffer, count, (int)pathsStart);
+    long pathsLength = (long)index.getInt(count - 1, PATH_OFFSET) + index.getInt(count - 1, PATH_LENGTH);
+    return pathsLength == buffer.limit() - pathsStart ? index : null;
+  }
+
+  /**
+   * Writes the index of the archive with the given entries (relative path -> entry, including the root one) and opens it.
+   */
+  @NotNull
+  static ArchiveEntryIndex write(@NotNull File dir,
+                                 @NotNull String archivePath,
+                                 long archiveLength,
+                                 long archiveTimestamp,
+                                 @NotNull Map<String, ArchiveHandler.EntryInfo> entries) throws IOException {
+    final byte[][] paths = new byte[entries.size()][];
+    final List<String> pathStrings = new ArrayList<String>(entries.keySet());
+    Integer[] order = new Integer[pathStrings.size()];
+    for (int i = 0; i < order.length; i++) {
+      paths[i] = pathStrings.get(i).getBytes(UTF_8);
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        return compareBytes(paths[o1], paths[o2]);
+      }
+    });
+
+    TObjectIntHashMap<String> indices = new TObjectIntHashMap<String>(order.length);
+    for (int i = 0; i < order.length; i++) {
+      indices.put(pathStrings.get(order[i]), i);
+    }
+    int[] parents = new int[order.length];
+    int[] firstChildren = new int[order.length];
+    int[] nextSiblings = new int[order.length];
+    Arrays.fill(firstChildren, -1);
+    for (int i = order.length - 1; i >= 0; i--) {
+      String path = pathStrings.get(order[i]);
+      int parent = path.isEmpty() ? -1 : indices.get(getParentPath(path));
+      parents[i] = parent;
+      nextSiblings[i] = -1;
+      if (parent >= 0) {
+        nextSiblings[i] = firstChildren[parent];
+        firstChildren[parent] = i;
+      }
+    }
+
+    byte[] archivePathBytes = archivePath.getBytes(UTF_8);
+    File file = getIndexFile(dir, archivePath, archiveLength, archiveTimestamp);
+    deleteIndexFiles(dir, archivePath);
+    FileUtil.createDirectory(dir);
+    // concurrent writers of the same index (e.g. other instances) don't mix their files, the complete one replaces the index atomically
+    File temp = File.createTempFile(file.getName(), ".tmp", dir);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+    try {
+      out.writeInt(VERSION);
+      out.writeLong(archiveLength);
+      out.writeLong(archiveTimestamp);
+      out.writeInt(order.length);
+      out.writeInt(archivePathBytes.length);
+      out.write(archivePathBytes);
+
+      int pathOffset = 0;
+      for (int i = 0; i < order.length; i++) {
+        ArchiveHandler.EntryInfo info = entries.get(pathStrings.get(order[i]));
+        out.writeInt(pathOffset);
+        out.writeInt(paths[order[i]].length);
+        out.writeInt(parents[i]);
+        out.writeInt(firstChildren[i]);
+        out.writeInt(nextSiblings[i]);
+        out.writeInt(info.isDirectory ? 1 : 0);
+        out.writeLong(info.length);
+        out.writeLong(info.timestamp);
+        pathOffset += paths[order[i]].length;
+      }
+      for (Integer index : order) {
+        out.write(paths[index]);
+      }
+    }
+    finally {
+      out.close();
+    }
+
+    try {
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally {
+      FileUtil.delete(temp);
+    }
+
+    ArchiveEntryIndex index = open(dir, archivePath, archiveLength, archiveTimestamp);
+    if (index == null) throw new IOException("Can't open " + file);
+    return index;
+  }
+
+  /**
+   * Deletes index files unused for {@link #MAX_UNUSED_TIME} and then the least recently used ones while the files take more than
+   * {@link #MAX_TOTAL_SIZE}.
+   */
+  static void cleanup(@NotNull File dir) {
+    cleanup(dir, System.currentTimeMillis() - MAX_UNUSED_TIME, MAX_TOTAL_SIZE);
+  }
+
+  @TestOnly
+  static void cleanup(@NotNull File dir, long unusedSince, long maxTotalSize) {
+    File[] files = dir.listFiles();
+    if (files == null) return;
+
+    final TObjectLongHashMap<File> lastUsed = new TObjectLongHashMap<File>(files.length);
+    List<File> remaining = new ArrayList<File>(files.length);
+    long totalSize = 0;
+    for (File file : files) {
+      long modified = file.lastModified();
+      if (modified < unusedSince) {
+        // index files of other sessions are never mapped here, a failed deletion (e.g. by another instance on Windows) is retried later
+        FileUtil.delete(file);
+        continue;
+      }
+      lastUsed.put(file, modified);
+      remaining.add(file);
+      totalSize += file.length();
+    }
+    if (totalSize <= maxTotalSize) return;
+
+    Collections.sort(remaining, new Comparator<File>() {
+      @Override
+      public int compare(File o1, File o2) {
+        long d = lastUsed.get(o1) - lastUsed.get(o2);
+        return d < 0 ? -1 : d > 0 ? 1 : 0;
+      }
+    });
+    for (File file : remaining) {
+      if (totalSize <= maxTotalSize) break;
+      long length = file.length();
+      if (FileUtil.delete(file)) totalSize -= length;
+    }
+  }
+
+  private static void markUsed(@NotNull File file) {
+    // the modification time is the last use of the index for the cleanup, it's updated at most once a day to avoid writes
+    long now = System.currentTimeMillis();
+    if (now - file.lastModified() > DAY && !file.setLastModified(now)) {
+      LOG.debug("Can't update the timestamp of " + file);
+    }
+  }
+
+  @Nullable
+  ArchiveHandler.EntryInfo getEntryInfo(@NotNull String relativePath) {
+    int index = find(relativePath);
+    return index >= 0 ? createEntryInfo(index) : null;
+  }
+
+  @NotNull
+  String[] list(@NotNull String relativePath) {
+    int index = find(relativePath);
+    if (index < 0 || !isDirectory(index)) return ArrayUtil.EMPTY_STRING_ARRAY;
+
+    List<String> names = new ArrayList<String>();
+    for (int child = getInt(index, FIRST_CHILD); child >= 0; child = getInt(child, NEXT_SIBLING)) {
+      names.add(getShortName(child));
+    }
+    return ArrayUtil.toStringArray(names);
+  }
+
+  private int find(@NotNull String relativePath) {
+    byte[] path = relativePath.getBytes(UTF_8);
+    int low = 0;
+    int high = myCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = comparePath(mid, path);
+      if (cmp < 0) {
+        low = mid + 1;
+      }
+      else if (cmp > 0) {
+        high = mid - 1;
+      }
+      else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  @NotNull
+  private ArchiveHandler.EntryInfo createEntryInfo(int index) {
+    int parent = getInt(index, PARENT);
+    return new ArchiveHandler.EntryInfo(ByteArrayCharSequence.convertToBytesIfAsciiString(getShortName(index)), isDirectory(index),
+                                        myBuffer.getLong(getRecordOffset(index) + LENGTH), myBuffer.getLong(getRecordOffset(index) + TIMESTAMP),
+                                        parent >= 0 ? createEntryInfo(parent) : null);
+  }
+
+  private boolean isDirectory(int index) {
+    return getInt(index, IS_DIRECTORY) != 0;
+  }
+
+  @NotNull
+  private String getShortName(int index) {
+    int start = myPathsStart + getInt(index, PATH_OFFSET);
+    int end = start + getInt(index, PATH_LENGTH);
+    int nameStart = start;
+    for (int i = end - 1; i >= start; i--) {
+      if (myBuffer.get(i) == '/') {
+        nameStart = i + 1;
+        break;
+      }
+    }
+    return readString(myBuffer, nameStart, end - nameStart);
+  }
+
+  private int comparePath(int index, @NotNull byte[] path) {
+    int start = myPathsStart + getInt(index, PATH_OFFSET);
+    int length = getInt(index, PATH_LENGTH);
+    int common = Math.min(length, path.length);
+    for (int i = 0; i < common; i++) {
+      int d = (myBuffer.get(start + i) & 0xFF) - (path[i] & 0xFF);
+      if (d != 0) return d;
+    }
+    return length - path.length;
+  }
+
+  private int getInt(int index, int field) {
+    return myBuffer.getInt(getRecordOffset(index) + field);
+  }
+
+  private int getRecordOffset(int index) {
+    return myPathsStart - (myCount - index) * RECORD_SIZE;
+  }
+
+  @NotNull
+  private static String getParentPath(@NotNull String path) {
+    int p = path.lastIndexOf('/');
+    return p > 0 ? path.substring(0, p) : "";
+  }
+
+  private static int compareBytes(@NotNull byte[] b1, @NotNull byte[] b2) {
+    int common = Math.min(b1.length, b2.length);
+    for (int i = 0; i < common; i++) {
+      int d = (b1[i] & 0xFF) - (b2[i] & 0xFF);
+      if (d != 0) return d;
+    }
+    return b1.length - b2.length;
+  }
+
+  @NotNull
+  private static String readString(@NotNull ByteBuffer buffer, int offset, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(offset + i);
+    }
+    return new String(bytes, UTF_8);
+  }
+
+  @NotNull
+  private static ByteBuffer map(@NotNull File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      // the mapping stays valid after the file is closed
+      return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  @NotNull
+  private static File getIndexFile(@NotNull File dir, @NotNull String archivePath, long archiveLength, long archiveTimestamp) {
+    return new File(dir, getIndexFilePrefix(archivePath) + Long.toHexString(archiveLength) + "." + Long.toHexString(archiveTimestamp));
+  }
+
+  @NotNull
+  private static String getIndexFilePrefix(@NotNull String archivePath) {
+    return new File(archivePath).getName() + "." + Integer.toHexString(FileUtil.pathHashCode(archivePath)) + ".";
+  }
+
+  private static void deleteIndexFiles(@NotNull File dir, @NotNull String archivePath) {
+    // index files of previous versions of the archive, may fail on Windows if they are still mapped
+    IOUtil.deleteAllFilesStartingWith(new File(dir, getIndexFilePrefix(archivePath)));
+  }
+}
@@ -17,10 +17,11 @@ package com.intellij.openapi.vfs.impl;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.io.BufferExposingByteArrayInputStream;
 import com.intellij.openapi.util.io.FileAttributes;
 import com.intellij.openapi.util.io.FileSystemUtil;
-import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.io.FileAccessorCache;
 import com.intellij.util.text.ByteArrayCharSequence;
 import consulo.vfs.impl.archive.ArchiveEntry;
@@ -32,8 +33,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 public abstract class ZipHandler extends ArchiveHandler {
   private static final FileAccessorCache<ZipHandler, ArchiveFile> ourZipFileFileAccessorCache = new FileAccessorCache<ZipHandler, ArchiveFile>(20, 10) {
@@ -59,15 +62,84 @@ public abstract class ZipHandler extends ArchiveHandler {
     }
   };
 
+  // index directories cleaned up in this session, see ArchiveEntryIndex#cleanup
+  private static final Set<File> ourCleanedEntryIndexDirs = ContainerUtil.newConcurrentSet();
+
   private volatile String myCanonicalPathToZip;
   private volatile long myFileStamp;
 
   private volatile long myFileLength;
 
+  private final Object myEntryIndexLock = new Object();
+  private volatile ArchiveEntryIndex myEntryIndex;
+  private boolean myEntryIndexFailed;
+
   public ZipHandler(@NotNull String path) {
     super(path);
   }
 
+  /**
+   * @return directory for persistent indices of archive entries (see {@link ArchiveEntryIndex}), or null if entries should be kept
+   * in memory only
+   */
+  @Nullable
+  protected File getEntryIndexDir() {
+    return null;
+  }
+
+  @Nullable
+  @Override
+  protected EntryInfo getEntryInfo(@NotNull String relativePath) {
+    ArchiveEntryIndex index = getEntryIndex();
+    return index != null ? index.getEntryInfo(relativePath) : super.getEntryInfo(relativePath);
+  }
+
+  @NotNull
+  @Override
+  public String[] list(@NotNull String relativePath) {
+    ArchiveEntryIndex index = getEntryIndex();
+    return index != null ? index.list(relativePath) : super.list(relativePath);
+  }
+
+  @Nullable
+  private ArchiveEntryIndex getEntryIndex() {
+    ArchiveEntryIndex index = myEntryIndex;
+    if (index != null) return index;
+
+    File dir = getEntryIndexDir();
+    if (dir == null) return null;
+    if (ourCleanedEntryIndexDirs.add(dir)) {
+      ArchiveEntryIndex.cleanup(dir);
+    }
+
+    synchronized (myEntryIndexLock) {
+      index = myEntryIndex;
+      if (index != null || myEntryIndexFailed) return index;
+
+      try {
+        String path = getCanonicalPathToZip();
+        FileAttributes attributes = FileSystemUtil.getAttributes(path);
+        if (attributes == null) {
+          myEntryIndexFailed = true;
+          return null;
+        }
+
+        index = ArchiveEntryIndex.open(dir, path, attributes.length, attributes.lastModified);
+        if (index == null) {
+          // entry timestamps are taken from the opened archive, so the index is bound to its attributes at the time of opening
+          Map<String, EntryInfo> entries = createEntriesMap();
+          index = ArchiveEntryIndex.write(dir, path, myFileLength, myFileStamp, entries);
+        }
+        return myEntryIndex = index;
+      }
+      catch (Exception e) {
+        myEntryIndexFailed = true;
+        Logger.getInstance(getClass()).info("Can't index " + getFile() + ", entries are kept in memory", e);
+        return null;
+      }
+    }
+  }
+
   public abstract ArchiveFile createArchiveFile(@NotNull String path) throws IOException;
 
   @NotNull
@@ -136,6 +208,10 @@ public abstract class ZipHandler extends ArchiveHandler {
   @Override
   public void dispose() {
     super.dispose();
+    synchronized (myEntryIndexLock) {
+      myEntryIndex = null;
+      myEntryIndexFailed = false;
+    }
     removeZipHandlerFromCache();
   }
 
@@ -200,38 +276,139 @@ public abstract class ZipHandler extends ArchiveHandler {
   @NotNull
   @Override
   public byte[] contentsToByteArray(@NotNull String relativePath) throws IOException {
-    FileAccessorCache.Handle<ArchiveFile> zipRef;
+    FileAccessorCache.Handle<ArchiveFile> zipRef = acquireZipFileHandle();
+    try {
+      return toByteArray(getContent(zipRef.get(), relativePath));
+    }
+    finally {
+      zipRef.release();
+    }
+  }
 
+  /**
+   * @return stream of the entry content. Stored entries of mapped archives (see {@link ArchiveFile#getBuffer(ArchiveEntry)}) are read
+   * from the mapping without copying them to the heap: such a stream pins the archive (its file handle and mapping) until it's closed,
+   * so the caller must close it, like any stream of {@link com.intellij.openapi.vfs.VirtualFile#getInputStream()}
+   */
+  @NotNull
+  public InputStream getInputStream(@NotNull String relativePath) throws IOException {
+    FileAccessorCache.Handle<ArchiveFile> zipRef = acquireZipFileHandle();
+    boolean release = true;
     try {
-      zipRef = getZipFileHandle();
+      ByteBuffer buffer = getContent(zipRef.get(), relativePath);
+      if (buffer.hasArray()) {
+        return new BufferExposingByteArrayInputStream(toByteArray(buffer));
+      }
+      release = false;
+      return new MappedContentInputStream(buffer, zipRef);
+    }
+    finally {
+      if (release) zipRef.release();
+    }
+  }
+
+  @NotNull
+  private static byte[] toByteArray(@NotNull ByteBuffer buffer) {
+    if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length) {
+      return buffer.array();
+    }
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  @NotNull
+  private ByteBuffer getContent(@NotNull ArchiveFile zip, @NotNull String relativePath) throws IOException {
+    ArchiveEntry entry = zip.getEntry(relativePath);
+    if (entry != null) {
+      ByteBuffer buffer = zip.getBuffer(entry);
+      if (buffer != null) return buffer;
+    }
+    throw new FileNotFoundException(getFile() + "!/" + relativePath);
+  }
+
+  @NotNull
+  private FileAccessorCache.Handle<ArchiveFile> acquireZipFileHandle() throws IOException {
+    try {
+      return getZipFileHandle();
     }
     catch (RuntimeException ex) {
       Throwable cause = ex.getCause();
       if (cause instanceof IOException) throw (IOException)cause;
       throw ex;
     }
+  }
 
-    try {
-      ArchiveFile zip = zipRef.get();
-      ArchiveEntry entry = zip.getEntry(relativePath);
-      if (entry != null) {
-        InputStream stream = zip.getInputStream(entry);
-        if (stream != null) {
-          // ZipFile.c#Java_java_util_zip_ZipFile_read reads data in 8K (stack allocated) blocks - no sense to create BufferedInputStream
-          try {
-            return FileUtil.loadBytes(stream, (int)entry.getSize());
-          }
-          finally {
-            stream.close();
-          }
-        }
+  /**
+   * Reads content mapped from the archive. The stream holds a handle of the archive, which keeps it open and mapped, until it's closed;
+   * an unclosed stream pins the mapping and the file handle of the archive forever.
+   */
+  private static class MappedContentInputStream extends InputStream {
+    private final ByteBuffer myBuffer;
+    private FileAccessorCache.Handle<ArchiveFile> myZipRef;
+
+    private MappedContentInputStream(@NotNull ByteBuffer buffer, @NotNull FileAccessorCache.Handle<ArchiveFile> zipRef) {
+      myBuffer = buffer;
+      myZipRef = zipRef;
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+      checkOpen();
+      try {
+        return myBuffer.hasRemaining() ? myBuffer.get() & 0xFF : -1;
+      }
+      catch (InternalError e) {
+        throw mappingFailed(e);
       }
     }
-    finally {
-      zipRef.release();
+
+    @Override
+    public synchronized int read(@NotNull byte[] b, int off, int len) throws IOException {
+      checkOpen();
+      if (len == 0) return 0;
+      if (!myBuffer.hasRemaining()) return -1;
+      int count = Math.min(len, myBuffer.remaining());
+      try {
+        myBuffer.get(b, off, count);
+      }
+      catch (InternalError e) {
+        throw mappingFailed(e);
+      }
+      return count;
     }
 
-    throw new FileNotFoundException(getFile() + "!/" + relativePath);
+    @Override
+    public synchronized long skip(long n) throws IOException {
+      checkOpen();
+      int count = (int)Math.max(0, Math.min(n, myBuffer.remaining()));
+      myBuffer.position(myBuffer.position() + count);
+      return count;
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+      checkOpen();
+      return myBuffer.remaining();
+    }
+
+    @Override
+    public synchronized void close() {
+      if (myZipRef != null) {
+        myZipRef.release();
+        myZipRef = null;
+      }
+    }
+
+    private void checkOpen() throws IOException {
+      if (myZipRef == null) throw new IOException("Stream closed");
+    }
+
+    @NotNull
+    private static IOException mappingFailed(@NotNull InternalError e) {
+      // the JVM reports an access to a mapping of a truncated file this way instead of crashing
+      return new IOException("Archive was modified while being read", e);
+    }
   }
 
   // also used in Kotlin
@@ -16,7 +16,6 @@
 package com.intellij.openapi.vfs.impl.jar;
 
 import com.intellij.openapi.util.Couple;
-import com.intellij.openapi.util.io.BufferExposingByteArrayInputStream;
 import com.intellij.openapi.util.io.FileAttributes;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -140,7 +139,8 @@ public class CoreJarVirtualFile extends VirtualFile {
 
   @Override
   public InputStream getInputStream() throws IOException {
-    return new BufferExposingByteArrayInputStream(contentsToByteArray());
+    Couple<String> pair = ((CoreJarFileSystem)getFileSystem()).splitPath(getPath());
+    return myHandler.getInputStream(pair.second);
   }
 
   @Override
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.vfs.impl.zip;
+
+import consulo.util.io.DirectBufferReflect;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.ZipEntry;
+
+/**
+ * Archive mapped into memory together with a hash table of its central directory records, so content of a stored (uncompressed) entry
+ * is returned as a slice of the mapping without reading or copying it.
+ * <p/>
+ * Only plain archives are supported: zip64 archives, archives with a prefix (like self-extracting ones) and archives over 2Gb aren't
+ * opened, their entries are read through {@link java.util.zip.ZipFile} as usual.
+ * <p/>
+ * Reading a mapping of a file which was truncated or rewritten in place fails (or crashes the JVM). The archive is checked to be unchanged
+ * while it's mapped, once per opening; later changes are detected by {@link com.intellij.openapi.vfs.impl.ZipHandler}, which checks
+ * length and timestamp of the archive whenever it's accessed and reopens (so remaps) a changed one. The mapping is released by
+ * {@link #close()}: slices mustn't be used after that.
+ *
+ * @author agent
+ */
+class MappedZipDirectory {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int END_SIZE = 22;
+  private static final int CENTRAL_SIGNATURE = 0x02014b50;
+  private static final int CENTRAL_SIZE = 46;
+  private static final int LOCAL_SIGNATURE = 0x04034b50;
+  private static final int LOCAL_SIZE = 30;
+
+  private final ByteBuffer myBuffer;
+  // central directory record offset + 1 per slot, 0 for free slots
+  private final int[] myTable;
+
+  private MappedZipDirectory(@NotNull ByteBuffer buffer, @NotNull int[] table) {
+    myBuffer = buffer;
+    myTable = table;
+  }
+
+  /**
+   * @return mapped archive or null if it isn't supported
+   */
+  @Nullable
+  static MappedZipDirectory open(@NotNull File file) throws IOException {
+    long timestamp = file.lastModified();
+    long length;
+    ByteBuffer buffer;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      length = raf.length();
+      if (length < END_SIZE || length > Integer.MAX_VALUE) return null;
+      // the mapping stays valid after the file is closed
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    finally {
+      raf.close();
+    }
+
+    int[] table = createTable(buffer);
+    if (table == null || file.length() != length || file.lastModified() != timestamp) {
+      DirectBufferReflect.clean(buffer);
+      return null;
+    }
+    return new MappedZipDirectory(buffer, table);
+  }
+
+  @Nullable
+  private static int[] createTable(@NotNull ByteBuffer buffer) {
+    int end = findEnd(buffer);
+    if (end < 0) return null;
+    int count = getShort(buffer, end + 10);
+    long directorySize = getUnsignedInt(buffer, end + 12);
+    long directoryOffset = getUnsignedInt(buffer, end + 16);
+    if (count == 0xFFFF || directoryOffset + directorySize != end) return null;
+
+    int[] table = new int[Integer.highestOneBit(Math.max(count, 1)) * 4];
+    int record = (int)directoryOffset;
+    for (int i = 0; i < count; i++) {
+      if (record + CENTRAL_SIZE > end || buffer.getInt(record) != CENTRAL_SIGNATURE) return null;
+      int nameLength = getShort(buffer, record + 28);
+      int slot = hash(buffer, record + CENTRAL_SIZE, nameLength) & table.length - 1;
+      while (table[slot] != 0) slot = slot + 1 & table.length - 1;
+      table[slot] = record + 1;
+      record += CENTRAL_SIZE + nameLength + getShort(buffer, record + 30) + getShort(buffer, record + 32);
+    }
+    return table;
+  }
+
+  /**
+   * @return read-only content of the stored entry, valid until the directory is closed, or null if the entry is compressed or isn't found
+   * in the central directory
+   */
+  @Nullable
+  ByteBuffer getStoredContent(@NotNull ZipEntry entry) {
+    if (entry.getMethod() != ZipEntry.STORED) return null;
+    int record = find(entry.getName().getBytes(UTF_8));
+    if (record < 0 || getShort(myBuffer, record + 10) != ZipEntry.STORED) return null;
+
+    long size = getUnsignedInt(myBuffer, record + 24);
+    long local = getUnsignedInt(myBuffer, record + 42);
+    if (size != getUnsignedInt(myBuffer, record + 20) || local + LOCAL_SIZE > myBuffer.limit()) return null;
+    if (myBuffer.getInt((int)local) != LOCAL_SIGNATURE) return null;
+    // name and extra field lengths of the local header may differ from the central directory ones
+    long start = local + LOCAL_SIZE + getShort(myBuffer, (int)local + 26) + getShort(myBuffer, (int)local + 28);
+    if (start + size > myBuffer.limit()) return null;
+
+    ByteBuffer content = myBuffer.duplicate();
+    content.limit((int)(start + size)).position((int)start);
+    return content.slice();
+  }
+
+  /**
+   * Unmaps the archive instead of waiting for the mapping to be collected.
+   */
+  void close() {
+    DirectBufferReflect.clean(myBuffer);
+  }
+
+  private int find(@NotNull byte[] name) {
+    int slot = hash(name) & myTable.length - 1;
+    while (myTable[slot] != 0) {
+      int record = myTable[slot] - 1;
+      if (nameEquals(record, name)) return record;
+      slot = slot + 1 & myTable.length - 1;
+    }
+    return -1;
+  }
+
+  private boolean nameEquals(int record, @NotNull byte[] name) {
+    if (getShort(myBuffer, record + 28) != name.length) return false;
+    for (int i = 0; i < name.length; i++) {
+      if (myBuffer.get(record + CENTRAL_SIZE + i) != name[i]) return false;
+    }
+    return true;
+  }
+
+  private static int findEnd(@NotNull ByteBuffer buffer) {
+    // the end record is followed by a comment of up to 64K
+    int min = Math.max(0, buffer.limit() - END_SIZE - 0xFFFF);
+    for (int offset = buffer.limit() - END_SIZE; offset >= min; offset--) {
+      if (buffer.getInt(offset) == END_SIGNATURE && offset + END_SIZE + getShort(buffer, offset + 20) == buffer.limit()) return offset;
+    }
+    return -1;
+  }
+
+  private static int hash(@NotNull ByteBuffer buffer, int offset, int length) {
+    int hash = 0;
+    for (int i = 0; i < length; i++) {
+      hash = hash * 31 + buffer.get(offset + i);
+    }
+    return mix(hash);
+  }
+
+  private static int hash(@NotNull byte[] bytes) {
+    int hash = 0;
+    for (byte b : bytes) {
+      hash = hash * 31 + b;
+    }
+    return mix(hash);
+  }
+
+  private static int mix(int hash) {
+    return hash ^ hash >>> 16;
+  }
+
+  private static int getShort(@NotNull ByteBuffer buffer, int offset) {
+    return buffer.getShort(offset) & 0xFFFF;
+  }
+
+  private static long getUnsignedInt(@NotNull ByteBuffer buffer, int offset) {
+    return buffer.getInt(offset) & 0xFFFFFFFFL;
+  }
+}
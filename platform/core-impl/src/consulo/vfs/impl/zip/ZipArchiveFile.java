@@ -15,12 +15,18 @@
  */
 package consulo.vfs.impl.zip;
 
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.util.SystemProperties;
 import consulo.vfs.impl.archive.ArchiveEntry;
 import consulo.vfs.impl.archive.ArchiveFile;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.zip.ZipEntry;
@@ -31,7 +37,12 @@ import java.util.zip.ZipFile;
  * @since 18:40/13.07.13
  */
 public class ZipArchiveFile implements ArchiveFile {
+  private static final Logger LOG = Logger.getInstance(ZipArchiveFile.class);
+  // a mapped file can't be deleted or replaced on Windows until the mapping is garbage collected
+  private static final boolean MAP_ARCHIVES = SystemProperties.getBooleanProperty("idea.zip.mmap", !SystemInfo.isWindows);
+
   private final ZipFile myZipFile;
+  private volatile Object myMappedDirectory; // MappedZipDirectory, or this if the archive can't be mapped or is closed
 
   public ZipArchiveFile(@NotNull String path) throws IOException{
     myZipFile = new ZipFile(path);
@@ -55,6 +66,41 @@ public class ZipArchiveFile implements ArchiveFile {
     return myZipFile.getInputStream(((ZipArchiveEntry)entry).getEntry());
   }
 
+  /**
+   * Content of stored entries is a slice of the archive mapped into memory, it's valid until the archive is closed.
+   */
+  @Nullable
+  @Override
+  public ByteBuffer getBuffer(@NotNull ArchiveEntry entry) throws IOException {
+    MappedZipDirectory directory = getMappedDirectory();
+    if (directory != null) {
+      ByteBuffer content = directory.getStoredContent(((ZipArchiveEntry)entry).getEntry());
+      if (content != null) return content;
+    }
+    return ArchiveFile.super.getBuffer(entry);
+  }
+
+  @Nullable
+  private MappedZipDirectory getMappedDirectory() {
+    if (!MAP_ARCHIVES) return null;
+    Object directory = myMappedDirectory;
+    if (directory == null) {
+      synchronized (this) {
+        directory = myMappedDirectory;
+        if (directory == null) {
+          try {
+            directory = MappedZipDirectory.open(new File(myZipFile.getName()));
+          }
+          catch (IOException e) {
+            LOG.info(e);
+          }
+          myMappedDirectory = directory = directory != null ? directory : this;
+        }
+      }
+    }
+    return directory instanceof MappedZipDirectory ? (MappedZipDirectory)directory : null;
+  }
+
   @NotNull
   @Override
   public Iterator<? extends ArchiveEntry> entries() {
@@ -81,6 +127,14 @@ public class ZipArchiveFile implements ArchiveFile {
 
   @Override
   public void close() {
+    Object directory;
+    synchronized (this) {
+      directory = myMappedDirectory;
+      myMappedDirectory = this;
+    }
+    if (directory instanceof MappedZipDirectory) {
+      ((MappedZipDirectory)directory).close();
+    }
     try {
       myZipFile.close();
     }
@@ -50,6 +50,31 @@ public abstract class StubIndex {
     return StubIndexHolder.ourInstance;
   }
 
+  /**
+   * Processes keys {@code k} of the index such that {@code from <= k <= to}. Unlike {@link #processAllKeys} the implementation doesn't
+   * need to enumerate all the keys of the index. As with {@link #processAllKeys}, some of the keys may have no elements in the scope.
+   */
+  public <K extends Comparable<? super K>> boolean processKeysInRange(@NotNull StubIndexKey<K, ?> indexKey,
+                                                                      @NotNull K from,
+                                                                      @NotNull K to,
+                                                                      @NotNull Processor<K> processor,
+                                                                      @NotNull GlobalSearchScope scope,
+                                                                      @Nullable IdFilter idFilter) {
+    return processAllKeys(indexKey, key -> from.compareTo(key) > 0 || key.compareTo(to) > 0 || processor.process(key), scope, idFilter);
+  }
+
+  /**
+   * Processes keys of the index which start with the given prefix (case-sensitively), see {@link #processKeysInRange}.
+   */
+  public boolean processKeysWithPrefix(@NotNull StubIndexKey<String, ?> indexKey,
+                                       @NotNull String prefix,
+                                       @NotNull Processor<String> processor,
+                                       @NotNull GlobalSearchScope scope,
+                                       @Nullable IdFilter idFilter) {
+    // U+FFFF is not a character, so it can't follow the prefix in a key
+    return processKeysInRange(indexKey, prefix, prefix + Character.MAX_VALUE, processor, scope, idFilter);
+  }
+
   /**
    * @deprecated use {@link #getElements(StubIndexKey, Object, com.intellij.openapi.project.Project, com.intellij.psi.search.GlobalSearchScope, Class)}
    */
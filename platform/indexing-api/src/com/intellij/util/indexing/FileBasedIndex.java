@@ -148,6 +148,18 @@ public abstract class FileBasedIndex implements BaseComponent {
     return processAllKeys(indexId, processor, scope.getProject());
   }
 
+  /**
+   * Processes keys of the index which start with the given prefix (case-sensitively). Indices backed by a persistent map answer it without
+   * enumerating all the keys. As with {@link #processAllKeys}, some of the keys may have no values in the scope.
+   */
+  public boolean processKeysWithPrefix(@NotNull ID<String, ?> indexId,
+                                       @NotNull final String prefix,
+                                       @NotNull final Processor<String> processor,
+                                       @NotNull GlobalSearchScope scope,
+                                       @Nullable IdFilter idFilter) {
+    return processAllKeys(indexId, key -> !key.startsWith(prefix) || processor.process(key), scope, idFilter);
+  }
+
   public static void iterateRecursively(@Nullable final VirtualFile root,
                                         @NotNull final ContentIterator processor,
                                         @Nullable final ProgressIndicator indicator,
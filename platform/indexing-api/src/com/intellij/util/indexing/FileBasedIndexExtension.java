@@ -73,4 +73,12 @@ public abstract class FileBasedIndexExtension<K, V> extends IndexExtension<K, V,
   public boolean hasSnapshotMapping() {
     return false;
   }
+
+  /**
+   * @return true if data of a file inside an archive depends only on the file content, so it can be taken from an index snapshot
+   * of the archive exported on another machine instead of indexing the file
+   */
+  public boolean hasArchiveSnapshots() {
+    return dependsOnFileContent() && hasSnapshotMapping();
+  }
 }
@@ -56,6 +56,7 @@ import com.intellij.util.text.StringSearcher;
 import gnu.trove.THashMap;
 import gnu.trove.THashSet;
 import gnu.trove.TIntProcedure;
+import gnu.trove.TObjectLongHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -299,7 +300,7 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
           completed &= ContainerUtil.process(files, processor);
         }
         else {
-          completed &= JobLauncher.getInstance().invokeConcurrentlyUnderProgress(files, progress, false, false, processor);
+          completed &= JobLauncher.getInstance().invokeConcurrentlyUnderProgress(sortBySizeDescending(files), progress, false, false, processor);
         }
 
         if (failedFiles.isEmpty()) {
@@ -317,6 +318,25 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
     }
   }
 
+  /**
+   * Large files go first, so that they don't end up scanned by one thread while the others are idle
+   */
+  @NotNull
+  private static List<VirtualFile> sortBySizeDescending(@NotNull List<VirtualFile> files) {
+    List<VirtualFile> sorted = new ArrayList<VirtualFile>(files);
+    final TObjectLongHashMap<VirtualFile> sizes = new TObjectLongHashMap<VirtualFile>(files.size());
+    for (VirtualFile file : files) {
+      sizes.put(file, file.isValid() ? file.getLength() : 0);
+    }
+    Collections.sort(sorted, new Comparator<VirtualFile>() {
+      @Override
+      public int compare(VirtualFile o1, VirtualFile o2) {
+        return Long.compare(sizes.get(o2), sizes.get(o1));
+      }
+    });
+    return sorted;
+  }
+
   private void processVirtualFile(@NotNull final VirtualFile vfile,
                                   @NotNull final ProgressIndicator progress,
                                   @NotNull final Processor<? super PsiFile> localProcessor,
@@ -34,6 +34,15 @@ public abstract class SerializationManagerEx extends SerializationManager {
   @NotNull
   public abstract Stub deserialize(@NotNull InputStream stream) throws SerializerNotFoundException;
 
+  /**
+   * Same as {@link #serialize} but refers to stub serializers by their external ids, so the tree can be read by another installation
+   * with {@link #deserializePortable}.
+   */
+  public abstract void serializePortable(@NotNull Stub rootStub, @NotNull OutputStream stream);
+
+  @NotNull
+  public abstract Stub deserializePortable(@NotNull InputStream stream) throws SerializerNotFoundException;
+
   public abstract boolean isNameStorageCorrupted();
 
   public abstract void repairNameStorage();
@@ -41,4 +50,10 @@ public abstract class SerializationManagerEx extends SerializationManager {
   public abstract void flushNameStorage();
 
   public abstract void reinitializeNameStorage();
+
+  /**
+   * @return hash of external ids of registered stub serializers, portable stubs serialized by installations with the same fingerprint
+   * (and stub versions) are compatible
+   */
+  public abstract int getSerializersFingerprint();
 }
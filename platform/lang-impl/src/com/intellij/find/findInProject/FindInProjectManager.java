@@ -16,27 +16,38 @@
 
 package com.intellij.find.findInProject;
 
+import com.intellij.find.FindBundle;
 import com.intellij.find.FindManager;
 import com.intellij.find.FindModel;
 import com.intellij.find.FindSettings;
 import com.intellij.find.FindUtil;
 import com.intellij.find.impl.FindInProjectUtil;
 import com.intellij.find.impl.FindManagerImpl;
+import com.intellij.find.impl.FindResultBuffer;
 import com.intellij.find.replaceInProject.ReplaceInProjectManager;
 import com.intellij.openapi.actionSystem.CommonDataKeys;
 import com.intellij.openapi.actionSystem.DataContext;
 import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Factory;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.content.Content;
 import com.intellij.usageView.UsageInfo;
 import com.intellij.usageView.UsageViewManager;
 import com.intellij.usages.*;
 import com.intellij.util.Processor;
+import com.intellij.util.ui.UIUtil;
 import org.jetbrains.annotations.NotNull;
 
+import javax.swing.*;
+import java.util.Collections;
+
 public class FindInProjectManager {
   private final Project myProject;
   private volatile boolean myIsFindInProgress = false;
@@ -113,6 +124,7 @@ public class FindInProjectManager {
 
     ((FindManagerImpl)FindManager.getInstance(myProject)).getFindUsagesManager().addToHistory(usageTarget);
 
+    final FindResultBuffer resultBuffer = new FindResultBuffer();
     manager.searchAndShowUsages(new UsageTarget[] {usageTarget},
                                 new Factory<UsageSearcher>() {
                                   @Override
@@ -131,7 +143,8 @@ public class FindInProjectManager {
                                               return processor.process(usage);
                                             }
                                           };
-                                          FindInProjectUtil.findUsages(findModelCopy, myProject, consumer, processPresentation);
+                                          FindInProjectUtil.findUsages(findModelCopy, myProject, consumer, processPresentation,
+                                                                       Collections.<VirtualFile>emptySet(), resultBuffer);
                                         }
                                         finally {
                                           myIsFindInProgress = false;
@@ -142,10 +155,65 @@ public class FindInProjectManager {
                                 },
                                 processPresentation,
                                 presentation,
-                                null
+                                new com.intellij.usages.UsageViewManager.UsageViewStateListener() {
+                                  @Override
+                                  public void usageViewCreated(@NotNull UsageView usageView) {
+                                  }
+
+                                  @Override
+                                  public void findingUsagesFinished(final UsageView usageView) {
+                                    if (usageView != null && resultBuffer.getPendingCount() > 0) {
+                                      ApplicationManager.getApplication().invokeLater(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                          if (resultBuffer.isFull()) {
+                                            showResultBufferFullNotice(usageView, resultBuffer);
+                                          }
+                                          addShowMoreResultsButton(usageView, resultBuffer, findModelCopy);
+                                        }
+                                      }, myProject.getDisposed());
+                                    }
+                                  }
+                                }
     );
   }
 
+  private static void showResultBufferFullNotice(@NotNull UsageView usageView, @NotNull FindResultBuffer resultBuffer) {
+    JLabel label = new JLabel(FindBundle.message("find.result.buffer.full.notice", resultBuffer.getResultCount()), UIUtil.getBalloonWarningIcon(),
+                              SwingConstants.LEFT);
+    label.setBorder(BorderFactory.createEmptyBorder(2, 5, 2, 5));
+    usageView.setAdditionalComponent(label);
+  }
+
+  private void addShowMoreResultsButton(@NotNull final UsageView usageView,
+                                        @NotNull final FindResultBuffer resultBuffer,
+                                        @NotNull final FindModel findModel) {
+    usageView.addButtonToLowerPane(new Runnable() {
+      @Override
+      public void run() {
+        if (resultBuffer.getPendingCount() == 0) return;
+        ProgressManager.getInstance().run(new Task.Backgroundable(myProject, FindBundle.message("find.loading.more.results.progress")) {
+          @Override
+          public void run(@NotNull ProgressIndicator indicator) {
+            resultBuffer.materializeNext(myProject, findModel, FindResultBuffer.MATERIALIZED_RESULTS_LIMIT, new Processor<UsageInfo>() {
+              @Override
+              public boolean process(UsageInfo info) {
+                final Usage usage = UsageInfo2UsageAdapter.CONVERTER.fun(info);
+                ApplicationManager.getApplication().runReadAction(new Runnable() {
+                  @Override
+                  public void run() {
+                    usageView.appendUsage(usage);
+                  }
+                });
+                return !myProject.isDisposed();
+              }
+            });
+          }
+        });
+      }
+    }, FindBundle.message("find.show.more.results.button"));
+  }
+
   public boolean isWorkInProgress() {
     return myIsFindInProgress;
   }
@@ -21,6 +21,7 @@ import com.intellij.find.FindBundle;
 import com.intellij.find.FindModel;
 import com.intellij.find.findInProject.FindInProjectManager;
 import com.intellij.find.ngrams.TrigramIndex;
+import com.intellij.find.ngrams.TrigramQuery;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ApplicationNamesInfo;
 import com.intellij.openapi.diagnostic.Logger;
@@ -40,7 +41,6 @@ import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
-import com.intellij.openapi.util.text.TrigramBuilder;
 import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileFilter;
@@ -58,7 +58,6 @@ import com.intellij.usageView.UsageInfo;
 import com.intellij.usages.FindUsagesProcessPresentation;
 import com.intellij.usages.UsageLimitUtil;
 import com.intellij.usages.impl.UsageViewManagerImpl;
-import com.intellij.util.CommonProcessors;
 import com.intellij.util.Processor;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.indexing.FileBasedIndex;
@@ -88,9 +87,15 @@ class FindInProjectTask {
   private final Set<VirtualFile> myFilesToScanInitially;
   private boolean myWarningShown;
   private final String myStringToFindInIndices;
+  @Nullable private final TrigramQuery myTrigramQuery;
+  @Nullable private final FindResultBuffer myResultBuffer;
 
-  FindInProjectTask(@NotNull final FindModel findModel, @NotNull final Project project, @NotNull Set<VirtualFile> filesToScanInitially) {
+  FindInProjectTask(@NotNull final FindModel findModel,
+                    @NotNull final Project project,
+                    @NotNull Set<VirtualFile> filesToScanInitially,
+                    @Nullable FindResultBuffer resultBuffer) {
     myFindModel = findModel;
+    myResultBuffer = resultBuffer;
     myProject = project;
     myFilesToScanInitially = filesToScanInitially;
     myDirectory = FindInProjectUtil.getDirectory(findModel);
@@ -125,6 +130,16 @@ class FindInProjectTask {
     }
 
     myStringToFindInIndices = stringToFind;
+    myTrigramQuery = createTrigramQuery();
+  }
+
+  @Nullable
+  private TrigramQuery createTrigramQuery() {
+    if (!TrigramIndex.ENABLED) return null;
+    if (myFindModel.isRegularExpressions()) {
+      return Registry.is("idea.regexp.search.uses.indices") ? TrigramQuery.forRegExp(myFindModel.getStringToFind()) : null;
+    }
+    return TrigramQuery.forText(myStringToFindInIndices);
   }
 
   public void findUsages(@NotNull final Processor<UsageInfo> consumer, @NotNull final FindUsagesProcessPresentation processPresentation) {
@@ -212,6 +227,11 @@ class FindInProjectTask {
 
     for (final VirtualFile virtualFile : virtualFiles) {
       final int index = i++;
+      if (myResultBuffer != null && myResultBuffer.isFull()) {
+        LOG.info("Find in Path result buffer is full, search for " + myFindModel.getStringToFind() + " stopped after " +
+                 myResultBuffer.getResultCount() + " results");
+        break;
+      }
       if (!virtualFile.isValid()) continue;
 
       long fileLength = UsageViewManagerImpl.getFileLength(virtualFile);
@@ -245,7 +265,7 @@ class FindInProjectTask {
         public boolean process(UsageInfo info) {
           return skipProjectFile || consumer.process(info);
         }
-      });
+      }, skipProjectFile ? null : myResultBuffer);
 
       if (countInFile > 0 && skipProjectFile) {
         processPresentation.projectFileUsagesFound(new Runnable() {
@@ -280,7 +300,7 @@ class FindInProjectTask {
     final GlobalSearchScope globalCustomScope = customScope == null ? null : toGlobal(customScope);
 
     final ProjectFileIndex fileIndex = ProjectFileIndex.SERVICE.getInstance(myProject);
-    final boolean hasTrigrams = hasTrigrams(myStringToFindInIndices);
+    final boolean hasTrigrams = myTrigramQuery != null;
 
     class EnumContentIterator implements ContentIterator {
       private final Set<VirtualFile> myFiles = new LinkedHashSet<VirtualFile>();
@@ -422,33 +442,22 @@ class FindInProjectTask {
     // a local scope may be over a non-indexed file
     if (myFindModel.getCustomScope() instanceof LocalSearchScope) return false;
 
+    if (myTrigramQuery != null) return true;
+
     String text = myStringToFindInIndices;
     if (StringUtil.isEmptyOrSpaces(text)) return false;
 
-    if (hasTrigrams(text)) return true;
-
     // $ is used to separate words when indexing plain-text files but not when indexing
     // Java identifiers, so we can't consistently break a string containing $ characters into words
 
     return myFindModel.isWholeWordsOnly() && text.indexOf('$') < 0 && !StringUtil.getWordsInStringLongestFirst(text).isEmpty();
   }
 
-  private static boolean hasTrigrams(@NotNull String text) {
-    return TrigramIndex.ENABLED &&
-           !TrigramBuilder.processTrigrams(text, new TrigramBuilder.TrigramProcessor() {
-             @Override
-             public boolean execute(int value) {
-               return false;
-             }
-           });
-  }
-
-
   @NotNull
   private Set<VirtualFile> getFilesForFastWordSearch() {
     String stringToFind = myStringToFindInIndices;
 
-    if (stringToFind.isEmpty() || DumbService.getInstance(myProject).isDumb()) {
+    if (stringToFind.isEmpty() && myTrigramQuery == null || DumbService.getInstance(myProject).isDumb()) {
       return Collections.emptySet();
     }
 
@@ -461,33 +470,14 @@ class FindInProjectTask {
 
     final GlobalSearchScope scope = toGlobal(FindInProjectUtil.getScopeFromModel(myProject, myFindModel));
 
-    if (TrigramIndex.ENABLED) {
-      final Set<Integer> keys = ContainerUtil.newTroveSet();
-      TrigramBuilder.processTrigrams(stringToFind, new TrigramBuilder.TrigramProcessor() {
-        @Override
-        public boolean execute(int value) {
-          keys.add(value);
-          return true;
+    if (myTrigramQuery != null) {
+      for (VirtualFile hit : myTrigramQuery.findFiles(scope)) {
+        if (myFileMask.value(hit)) {
+          resultFiles.add(hit);
         }
-      });
-
-      if (!keys.isEmpty()) {
-        final List<VirtualFile> hits = new ArrayList<VirtualFile>();
-        ApplicationManager.getApplication().runReadAction(new Runnable() {
-          @Override
-          public void run() {
-            FileBasedIndex.getInstance().getFilesWithKey(TrigramIndex.INDEX_ID, keys, new CommonProcessors.CollectProcessor<VirtualFile>(hits), scope);
-          }
-        });
-
-        for (VirtualFile hit : hits) {
-          if (myFileMask.value(hit)) {
-            resultFiles.add(hit);
-          }
-        }
-
-        return resultFiles;
       }
+
+      return resultFiles;
     }
 
     PsiSearchHelperImpl helper = (PsiSearchHelperImpl)PsiSearchHelper.SERVICE.getInstance(myProject);
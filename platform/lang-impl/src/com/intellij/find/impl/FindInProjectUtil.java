@@ -238,11 +238,26 @@ public class FindInProjectUtil {
                                 @NotNull final Processor<UsageInfo> consumer,
                                 @NotNull FindUsagesProcessPresentation processPresentation,
                                 @NotNull Set<VirtualFile> filesToStart) {
-    new FindInProjectTask(findModel, project, filesToStart).findUsages(consumer, processPresentation);
+    findUsages(findModel, project, consumer, processPresentation, filesToStart, null);
+  }
+
+  /**
+   * @param resultBuffer if not null, results beyond {@link FindResultBuffer#MATERIALIZED_RESULTS_LIMIT} are stored there instead of being passed to the consumer
+   */
+  public static void findUsages(@NotNull FindModel findModel,
+                                @NotNull final Project project,
+                                @NotNull final Processor<UsageInfo> consumer,
+                                @NotNull FindUsagesProcessPresentation processPresentation,
+                                @NotNull Set<VirtualFile> filesToStart,
+                                @Nullable FindResultBuffer resultBuffer) {
+    new FindInProjectTask(findModel, project, filesToStart, resultBuffer).findUsages(consumer, processPresentation);
   }
 
   // returns number of hits
-  static int processUsagesInFile(@NotNull final PsiFile psiFile, @NotNull final FindModel findModel, @NotNull final Processor<UsageInfo> consumer) {
+  static int processUsagesInFile(@NotNull final PsiFile psiFile,
+                                 @NotNull final FindModel findModel,
+                                 @NotNull final Processor<UsageInfo> consumer,
+                                 @Nullable final FindResultBuffer resultBuffer) {
     if (findModel.getStringToFind().isEmpty()) {
       if (!ApplicationManager.getApplication().runReadAction(new Computable<Boolean>() {
         @Override
@@ -275,7 +290,7 @@ public class FindInProjectUtil {
         @Override
         public Integer compute() {
           if (!psiFile.isValid()) return 0;
-          return addToUsages(document, consumer, findModel, psiFile, offset, USAGES_PER_READ_ACTION);
+          return addToUsages(document, consumer, findModel, psiFile, offset, USAGES_PER_READ_ACTION, resultBuffer);
         }
       });
       count += found;
@@ -289,7 +304,8 @@ public class FindInProjectUtil {
                                  @NotNull FindModel findModel,
                                  @NotNull final PsiFile psiFile,
                                  @NotNull int[] offsetRef,
-                                 int maxUsages) {
+                                 int maxUsages,
+                                 @Nullable FindResultBuffer resultBuffer) {
     int count = 0;
     CharSequence text = document.getCharsSequence();
     int textLength = document.getTextLength();
@@ -314,6 +330,11 @@ public class FindInProjectUtil {
         final TextRange range = new TextRange(result.getStartOffset(), result.getEndOffset());
         if (!((LocalSearchScope)customScope).containsRange(psiFile, range)) continue;
       }
+      if (resultBuffer != null && resultBuffer.add(psiFile.getVirtualFile(), result.getStartOffset(), result.getEndOffset())) {
+        count++;
+        if (resultBuffer.isFull()) break;
+        continue;
+      }
       UsageInfo info = new FindResultUsageInfo(findManager, psiFile, offset, findModel, result);
       if (!consumer.process(info)) {
         throw new ProcessCanceledException();
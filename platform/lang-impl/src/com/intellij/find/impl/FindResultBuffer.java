@@ -0,0 +1,168 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.impl;
+
+import com.intellij.find.FindManager;
+import com.intellij.find.FindModel;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.openapi.vfs.newvfs.ManagingFS;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.usageView.UsageInfo;
+import com.intellij.util.Processor;
+import com.intellij.util.SystemProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.TestOnly;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps Find in Path results beyond the first {@link #MATERIALIZED_RESULTS_LIMIT} ones as (file id, start offset, end offset) records in
+ * pages of ints instead of {@link UsageInfo}s with their smart pointers and usage view nodes, so a search with a huge number of hits
+ * doesn't run out of memory. Buffered results are turned into usages on demand, page by page. When the buffer reaches its
+ * memory ceiling the search stops.
+ *
+ * @author agent
+ */
+public class FindResultBuffer {
+  public static final int MATERIALIZED_RESULTS_LIMIT = SystemProperties.getIntProperty("idea.find.in.path.materialized.results", 10000);
+  private static final int MAX_BUFFER_SIZE_MB = SystemProperties.getIntProperty("idea.find.in.path.result.buffer.mb", 32);
+
+  private static final int RECORD_SIZE = 3;
+  static final int PAGE_RECORDS = 4096;
+
+  private final int myMaterializedLimit;
+  private final int myMaxRecords;
+  private final List<int[]> myPages = new ArrayList<int[]>();
+  private int myMaterializedResults;
+  private int mySize;
+  private int myNextRecord;
+  private boolean myFull;
+
+  public FindResultBuffer() {
+    this(MATERIALIZED_RESULTS_LIMIT, (int)Math.min(Integer.MAX_VALUE, (long)MAX_BUFFER_SIZE_MB * 1024 * 1024 / (RECORD_SIZE * 4)));
+  }
+
+  FindResultBuffer(int materializedLimit, int maxRecords) {
+    myMaterializedLimit = materializedLimit;
+    myMaxRecords = maxRecords;
+  }
+
+  /**
+   * @return false if the result should be shown right away, true if it was buffered (or dropped because the buffer is {@link #isFull()})
+   */
+  synchronized boolean add(@NotNull VirtualFile file, int startOffset, int endOffset) {
+    if (myMaterializedResults < myMaterializedLimit || !(file instanceof VirtualFileWithId)) {
+      myMaterializedResults++;
+      return false;
+    }
+    if (mySize >= myMaxRecords) {
+      myFull = true;
+      return true;
+    }
+    int pageIndex = mySize / PAGE_RECORDS;
+    if (pageIndex == myPages.size()) {
+      myPages.add(new int[PAGE_RECORDS * RECORD_SIZE]);
+    }
+    int[] page = myPages.get(pageIndex);
+    int offset = mySize % PAGE_RECORDS * RECORD_SIZE;
+    page[offset] = ((VirtualFileWithId)file).getId();
+    page[offset + 1] = startOffset;
+    page[offset + 2] = endOffset;
+    mySize++;
+    return true;
+  }
+
+  /**
+   * @return true if results were dropped because the memory ceiling was reached, the search should stop then
+   */
+  public synchronized boolean isFull() {
+    return myFull;
+  }
+
+  public synchronized int getPendingCount() {
+    return mySize - myNextRecord;
+  }
+
+  /**
+   * @return number of results found so far, both shown and buffered ones
+   */
+  public synchronized int getResultCount() {
+    return myMaterializedResults + mySize;
+  }
+
+  /**
+   * Moves to the next buffered record and stores its file id, start and end offsets into {@code record}, freeing the page
+   * which was completely processed.
+   *
+   * @return false if there are no more buffered records
+   */
+  synchronized boolean nextRecord(@NotNull int[] record) {
+    if (myNextRecord >= mySize) return false;
+    int[] page = myPages.get(myNextRecord / PAGE_RECORDS);
+    System.arraycopy(page, myNextRecord % PAGE_RECORDS * RECORD_SIZE, record, 0, RECORD_SIZE);
+    myNextRecord++;
+    if (myNextRecord % PAGE_RECORDS == 0) {
+      myPages.set(myNextRecord / PAGE_RECORDS - 1, null);
+    }
+    return true;
+  }
+
+  @TestOnly
+  synchronized int getAllocatedPageCount() {
+    int count = 0;
+    for (int[] page : myPages) {
+      if (page != null) count++;
+    }
+    return count;
+  }
+
+  /**
+   * Creates usage infos for the next {@code count} buffered results still valid against the current file contents.
+   */
+  public void materializeNext(@NotNull Project project, @NotNull final FindModel findModel, int count, @NotNull Processor<UsageInfo> consumer) {
+    final FindManager findManager = FindManager.getInstance(project);
+    final ManagingFS fs = ManagingFS.getInstance();
+    final PsiManager psiManager = PsiManager.getInstance(project);
+    int[] record = new int[RECORD_SIZE];
+    while (count-- > 0) {
+      ProgressManager.checkCanceled();
+      if (!nextRecord(record)) return;
+      final int fileId = record[0];
+      final int startOffset = record[1];
+      final int endOffset = record[2];
+
+      UsageInfo info = ApplicationManager.getApplication().runReadAction((Computable<UsageInfo>)() -> {
+        VirtualFile file = fs.findFileById(fileId);
+        if (file == null || !file.isValid()) return null;
+        PsiFile psiFile = psiManager.findFile(file);
+        Document document = FileDocumentManager.getInstance().getDocument(file);
+        if (psiFile == null || document == null || endOffset > document.getTextLength()) return null;
+        int searchEnd = startOffset == endOffset ? endOffset + 1 : endOffset;
+        return new FindResultUsageInfo(findManager, psiFile, searchEnd, findModel, new FindResultImpl(startOffset, endOffset));
+      });
+      if (info != null && !consumer.process(info)) return;
+    }
+  }
+}
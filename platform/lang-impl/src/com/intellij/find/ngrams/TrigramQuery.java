@@ -0,0 +1,417 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import com.intellij.openapi.util.text.TrigramBuilder;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.CommonProcessors;
+import com.intellij.util.SmartList;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.indexing.FileBasedIndex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Boolean query over {@link TrigramIndex}: a file can contain a match only if it has all the trigrams of the query and, for every group
+ * of alternatives, satisfies at least one of them.
+ * <p/>
+ * A query is built either for a plain text or for a regular expression. For a regular expression only the literal parts which have to be
+ * present in every match are taken into account (alternations turn into groups of alternatives), anything the parser doesn't understand
+ * just contributes no trigrams, so the query may select more files than necessary but never less.
+ *
+ * @author agent
+ */
+public class TrigramQuery {
+  private final Set<Integer> myTrigrams = ContainerUtil.newTroveSet();
+  private final List<List<TrigramQuery>> myAlternatives = new SmartList<List<TrigramQuery>>();
+
+  private TrigramQuery() {
+  }
+
+  /**
+   * @return query for files containing the text, or null if the text has no trigrams
+   */
+  @Nullable
+  public static TrigramQuery forText(@NotNull CharSequence text) {
+    TrigramQuery query = new TrigramQuery();
+    query.addTrigrams(text);
+    return query.isEmpty() ? null : query;
+  }
+
+  /**
+   * @return query for files which may contain a match of the regular expression, or null if no file can be excluded by trigrams
+   */
+  @Nullable
+  public static TrigramQuery forRegExp(@NotNull String regExp) {
+    try {
+      RegExpParser parser = new RegExpParser(regExp);
+      TrigramQuery query = parser.parseAlternatives();
+      if (!parser.atEnd()) return null; // unbalanced ')'
+      return query.isEmpty() ? null : query;
+    }
+    catch (UnsupportedRegExpException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Should be called under read action.
+   */
+  @NotNull
+  public Set<VirtualFile> findFiles(@NotNull GlobalSearchScope scope) {
+    Set<VirtualFile> result = null;
+    if (!myTrigrams.isEmpty()) {
+      result = ContainerUtil.newTroveSet();
+      FileBasedIndex.getInstance().getFilesWithKey(TrigramIndex.INDEX_ID, myTrigrams, new CommonProcessors.CollectProcessor<VirtualFile>(result), scope);
+    }
+    for (List<TrigramQuery> alternatives : myAlternatives) {
+      if (result != null && result.isEmpty()) break;
+
+      Set<VirtualFile> union = ContainerUtil.newTroveSet();
+      for (TrigramQuery alternative : alternatives) {
+        union.addAll(alternative.findFiles(scope));
+      }
+      if (result == null) {
+        result = union;
+      }
+      else {
+        result.retainAll(union);
+      }
+    }
+    return result == null ? Collections.<VirtualFile>emptySet() : result;
+  }
+
+  private boolean isEmpty() {
+    return myTrigrams.isEmpty() && myAlternatives.isEmpty();
+  }
+
+  private void addTrigrams(@NotNull CharSequence text) {
+    if (text.length() < 3) return;
+    TrigramBuilder.processTrigrams(text, new TrigramBuilder.TrigramProcessor() {
+      @Override
+      public boolean execute(int value) {
+        myTrigrams.add(value);
+        return true;
+      }
+    });
+  }
+
+  private void and(@NotNull TrigramQuery query) {
+    myTrigrams.addAll(query.myTrigrams);
+    myAlternatives.addAll(query.myAlternatives);
+  }
+
+  private void or(@NotNull List<TrigramQuery> alternatives) {
+    for (TrigramQuery alternative : alternatives) {
+      if (alternative.isEmpty()) return; // matches everything
+    }
+    if (alternatives.size() == 1) {
+      and(alternatives.get(0));
+    }
+    else {
+      myAlternatives.add(alternatives);
+    }
+  }
+
+  @Override
+  public String toString() {
+    List<String> parts = new ArrayList<String>();
+    for (int trigram : new TreeSet<Integer>(myTrigrams)) {
+      parts.add(new String(new char[]{(char)(trigram >> 16 & 0xFF), (char)(trigram >> 8 & 0xFF), (char)(trigram & 0xFF)}));
+    }
+    for (List<TrigramQuery> alternatives : myAlternatives) {
+      StringBuilder builder = new StringBuilder("(");
+      for (TrigramQuery alternative : alternatives) {
+        if (builder.length() > 1) builder.append(" | ");
+        builder.append(alternative);
+      }
+      parts.add(builder.append(')').toString());
+    }
+    StringBuilder builder = new StringBuilder();
+    for (String part : parts) {
+      if (builder.length() > 0) builder.append(" & ");
+      builder.append(part);
+    }
+    return builder.toString();
+  }
+
+  private static class UnsupportedRegExpException extends RuntimeException {
+  }
+
+  /**
+   * Conservative parser of {@link java.util.regex.Pattern} syntax collecting the literal strings every match must contain.
+   */
+  private static class RegExpParser {
+    private static final int NO_QUANTIFIER = 0;
+    private static final int OPTIONAL = 1; // min == 0
+    private static final int REPEATED = 2; // min >= 1, max > 1
+
+    private final String myRegExp;
+    private int myIndex;
+
+    private RegExpParser(@NotNull String regExp) {
+      myRegExp = regExp;
+    }
+
+    private boolean atEnd() {
+      return myIndex >= myRegExp.length();
+    }
+
+    private char peek() {
+      return myRegExp.charAt(myIndex);
+    }
+
+    private char next() {
+      if (atEnd()) throw new UnsupportedRegExpException();
+      return myRegExp.charAt(myIndex++);
+    }
+
+    private boolean skip(char c) {
+      if (atEnd() || peek() != c) return false;
+      myIndex++;
+      return true;
+    }
+
+    @NotNull
+    private TrigramQuery parseAlternatives() {
+      List<TrigramQuery> branches = new SmartList<TrigramQuery>();
+      do {
+        branches.add(parseBranch());
+      }
+      while (skip('|'));
+
+      TrigramQuery result = new TrigramQuery();
+      result.or(branches);
+      return result;
+    }
+
+    @NotNull
+    private TrigramQuery parseBranch() {
+      TrigramQuery result = new TrigramQuery();
+      StringBuilder literal = new StringBuilder();
+      while (!atEnd() && peek() != '|' && peek() != ')') {
+        char c = next();
+        switch (c) {
+          case '(':
+            flush(result, literal);
+            parseGroup(result);
+            break;
+          case '[':
+            flush(result, literal);
+            skipCharacterClass();
+            parseQuantifier();
+            break;
+          case '.':
+          case '^':
+          case '$':
+            flush(result, literal);
+            parseQuantifier();
+            break;
+          case '\\':
+            parseEscape(result, literal);
+            break;
+          case '*':
+          case '+':
+          case '?':
+          case '{':
+            throw new UnsupportedRegExpException(); // dangling quantifier
+          default:
+            appendLiteral(result, literal, c);
+        }
+      }
+      flush(result, literal);
+      return result;
+    }
+
+    private void parseGroup(@NotNull TrigramQuery result) {
+      boolean lookaround = false;
+      if (skip('?')) {
+        char c = next();
+        if (c == '=' || c == '!') {
+          lookaround = true;
+        }
+        else if (c == '<') {
+          if (skip('=') || skip('!')) {
+            lookaround = true;
+          }
+          else {
+            while (next() != '>') ; // named group
+          }
+        }
+        else if (c != ':' && c != '>') {
+          // inline flags: (?idmsux-idmsux) or (?idmsux-idmsux:X)
+          while (c != ')' && c != ':') {
+            if (c == 'x') throw new UnsupportedRegExpException(); // whitespace and comments in pattern
+            c = next();
+          }
+          if (c == ')') return;
+        }
+      }
+
+      TrigramQuery group = parseAlternatives();
+      if (!skip(')')) throw new UnsupportedRegExpException();
+      if (parseQuantifier() != OPTIONAL && !lookaround) {
+        result.and(group);
+      }
+    }
+
+    private void parseEscape(@NotNull TrigramQuery result, @NotNull StringBuilder literal) {
+      char c = next();
+      if (c == 'Q') {
+        int end = myRegExp.indexOf("\\E", myIndex);
+        if (end < 0) end = myRegExp.length();
+        String quoted = myRegExp.substring(myIndex, end);
+        myIndex = Math.min(end + 2, myRegExp.length());
+        if (!quoted.isEmpty()) {
+          literal.append(quoted, 0, quoted.length() - 1);
+          appendLiteral(result, literal, quoted.charAt(quoted.length() - 1));
+        }
+        return;
+      }
+      if (!Character.isLetterOrDigit(c)) {
+        appendLiteral(result, literal, c);
+        return;
+      }
+
+      // character classes, anchors, control characters and back references: consume the arguments and break the literal
+      flush(result, literal);
+      switch (c) {
+        case 'x':
+          if (skip('{')) {
+            skipUntil('}');
+          }
+          else {
+            next();
+            next();
+          }
+          break;
+        case 'u':
+          for (int i = 0; i < 4; i++) next();
+          break;
+        case 'c':
+          next();
+          break;
+        case '0':
+          for (int i = 0; i < 3 && !atEnd() && peek() >= '0' && peek() <= '7'; i++) myIndex++;
+          break;
+        case 'p':
+        case 'P':
+        case 'N':
+          if (skip('{')) {
+            skipUntil('}');
+          }
+          else {
+            next();
+          }
+          break;
+        case 'k':
+          if (skip('<')) skipUntil('>');
+          break;
+        default:
+          if (c >= '1' && c <= '9') {
+            while (!atEnd() && Character.isDigit(peek())) myIndex++;
+          }
+      }
+      parseQuantifier();
+    }
+
+    private void appendLiteral(@NotNull TrigramQuery result, @NotNull StringBuilder literal, char c) {
+      int quantifier = parseQuantifier();
+      if (quantifier == OPTIONAL) {
+        flush(result, literal);
+      }
+      else if (quantifier == REPEATED) {
+        literal.append(c);
+        flush(result, literal);
+        literal.append(c);
+      }
+      else {
+        literal.append(c);
+      }
+    }
+
+    private int parseQuantifier() {
+      if (atEnd()) return NO_QUANTIFIER;
+      int quantifier;
+      switch (peek()) {
+        case '*':
+        case '?':
+          myIndex++;
+          quantifier = OPTIONAL;
+          break;
+        case '+':
+          myIndex++;
+          quantifier = REPEATED;
+          break;
+        case '{':
+          myIndex++;
+          int min = parseNumber();
+          int max = min;
+          if (skip(',')) {
+            max = !atEnd() && peek() == '}' ? Integer.MAX_VALUE : parseNumber();
+          }
+          if (!skip('}')) throw new UnsupportedRegExpException();
+          quantifier = min == 0 ? OPTIONAL : max > 1 ? REPEATED : NO_QUANTIFIER;
+          break;
+        default:
+          return NO_QUANTIFIER;
+      }
+      if (!skip('?')) skip('+'); // reluctant or possessive
+      return quantifier;
+    }
+
+    private int parseNumber() {
+      int start = myIndex;
+      while (!atEnd() && Character.isDigit(peek())) myIndex++;
+      if (start == myIndex || myIndex - start > 9) throw new UnsupportedRegExpException();
+      return Integer.parseInt(myRegExp.substring(start, myIndex));
+    }
+
+    private void skipCharacterClass() {
+      int depth = 1;
+      skip('^');
+      skip(']');
+      while (depth > 0) {
+        char c = next();
+        if (c == '\\') {
+          if (next() == 'Q') {
+            int end = myRegExp.indexOf("\\E", myIndex);
+            if (end < 0) throw new UnsupportedRegExpException();
+            myIndex = end + 2;
+          }
+        }
+        else if (c == '[') {
+          depth++;
+        }
+        else if (c == ']') {
+          depth--;
+        }
+      }
+    }
+
+    private void skipUntil(char c) {
+      while (next() != c) ;
+    }
+
+    private static void flush(@NotNull TrigramQuery result, @NotNull StringBuilder literal) {
+      result.addTrigrams(literal);
+      literal.setLength(0);
+    }
+  }
+}
@@ -16,7 +16,17 @@
 package com.intellij.ide.util.gotoByName;
 
 import com.intellij.util.Processor;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
 
 public interface ChooseByNameModelEx extends ChooseByNameModel {
   void processNames(Processor<String> processor, boolean inLibraries);
+
+  /**
+   * Processes names which may start with one of the given prefixes, other names may be passed too.
+   */
+  default void processNames(Processor<String> processor, boolean inLibraries, @NotNull Collection<String> namePrefixes) {
+    processNames(processor, inLibraries);
+  }
 }
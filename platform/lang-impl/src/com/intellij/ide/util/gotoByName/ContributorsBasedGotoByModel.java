@@ -32,6 +32,7 @@ import com.intellij.openapi.progress.util.ProgressIndicatorBase;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.IndexNotReadyException;
 import com.intellij.openapi.project.Project;
+import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.CommonProcessors;
 import com.intellij.util.Processor;
@@ -41,12 +42,14 @@ import com.intellij.util.indexing.IdFilter;
 import gnu.trove.THashSet;
 import gnu.trove.TIntHashSet;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import consulo.annotations.RequiredReadAction;
 
 import javax.swing.*;
 import java.awt.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentMap;
@@ -92,6 +95,15 @@ public abstract class ContributorsBasedGotoByModel implements ChooseByNameModelE
 
   @Override
   public void processNames(final Processor<String> nameProcessor, final boolean checkBoxState) {
+    doProcessNames(nameProcessor, checkBoxState, null);
+  }
+
+  @Override
+  public void processNames(Processor<String> processor, boolean inLibraries, @NotNull Collection<String> namePrefixes) {
+    doProcessNames(processor, inLibraries, namePrefixes);
+  }
+
+  private void doProcessNames(final Processor<String> nameProcessor, final boolean checkBoxState, @Nullable final Collection<String> namePrefixes) {
     long start = System.currentTimeMillis();
     List<ChooseByNameContributor> liveContribs = filterDumb(myContributors);
     ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
@@ -105,7 +117,7 @@ public abstract class ContributorsBasedGotoByModel implements ChooseByNameModelE
             final TIntHashSet filter = new TIntHashSet(1000);
             myContributorToItsSymbolsMap.put(contributor, filter);
             if (contributor instanceof ChooseByNameContributorEx) {
-              ((ChooseByNameContributorEx)contributor).processNames(new Processor<String>() {
+              Processor<String> processor = new Processor<String>() {
                 @Override
                 public boolean process(String s) {
                   if (nameProcessor.process(s)) {
@@ -113,7 +125,14 @@ public abstract class ContributorsBasedGotoByModel implements ChooseByNameModelE
                   }
                   return true;
                 }
-              }, FindSymbolParameters.searchScopeFor(myProject, checkBoxState), getIdFilter(checkBoxState));
+              };
+              GlobalSearchScope scope = FindSymbolParameters.searchScopeFor(myProject, checkBoxState);
+              if (namePrefixes != null) {
+                ((ChooseByNameContributorEx)contributor).processNamesWithPrefixes(processor, namePrefixes, scope, getIdFilter(checkBoxState));
+              }
+              else {
+                ((ChooseByNameContributorEx)contributor).processNames(processor, scope, getIdFilter(checkBoxState));
+              }
             } else {
               String[] names = contributor.getNames(myProject, checkBoxState);
               for (String element : names) {
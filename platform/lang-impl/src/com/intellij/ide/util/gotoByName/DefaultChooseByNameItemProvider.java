@@ -70,7 +70,7 @@ public class DefaultChooseByNameItemProvider implements ChooseByNameItemProvider
       indicator.checkCanceled();
       started = System.currentTimeMillis();
       final MinusculeMatcher matcher = buildPatternMatcher(matchingPattern, NameUtil.MatchingCaseSensitivity.NONE);
-      ((ChooseByNameModelEx)model).processNames(new Processor<String>() {
+      Processor<String> processor = new Processor<String>() {
         @Override
         public boolean process(String sequence) {
           indicator.checkCanceled();
@@ -81,7 +81,14 @@ public class DefaultChooseByNameItemProvider implements ChooseByNameItemProvider
           }
           return false;
         }
-      }, everywhere);
+      };
+      List<String> namePrefixes = getNamePrefixes(model, matchingPattern);
+      if (namePrefixes != null) {
+        ((ChooseByNameModelEx)model).processNames(processor, everywhere, namePrefixes);
+      }
+      else {
+        ((ChooseByNameModelEx)model).processNames(processor, everywhere);
+      }
       if (LOG.isDebugEnabled()) {
         LOG.debug("loaded + matched:"+ (System.currentTimeMillis() - started)+ "," + collect.getResult().size());
       }
@@ -328,6 +335,23 @@ public class DefaultChooseByNameItemProvider implements ChooseByNameItemProvider
     }
   }
 
+  /**
+   * A name matches a pattern without leading wildcards only if it starts with the first pattern character in any case
+   * (see {@link MinusculeMatcher}), so names may be fetched by these prefixes instead of enumerating them all.
+   */
+  @Nullable
+  private static List<String> getNamePrefixes(@NotNull ChooseByNameModel model, @NotNull String matchingPattern) {
+    if (model instanceof CustomMatcherModel || matchingPattern.isEmpty()) return null;
+    char c = matchingPattern.charAt(0);
+    if (c == '*' || c == ' ') return null;
+
+    List<String> prefixes = new SmartList<String>(String.valueOf(c));
+    for (char prefix : new char[]{StringUtil.toLowerCase(c), StringUtil.toUpperCase(c)}) {
+      if (!prefixes.contains(String.valueOf(prefix))) prefixes.add(String.valueOf(prefix));
+    }
+    return prefixes;
+  }
+
   @NotNull
   private static String convertToMatchingPattern(@NotNull ChooseByNameBase base, @NotNull String pattern) {
     pattern = removeModelSpecificMarkup(base.getModel(), pattern);
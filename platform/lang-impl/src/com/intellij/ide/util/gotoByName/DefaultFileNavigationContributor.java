@@ -30,6 +30,9 @@ import com.intellij.util.indexing.FindSymbolParameters;
 import com.intellij.util.indexing.IdFilter;
 import gnu.trove.THashSet;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
 
 public class DefaultFileNavigationContributor implements ChooseByNameContributorEx, DumbAware {
   public static final Logger LOGGER = Logger.getInstance(DefaultFileNavigationContributor.class);
@@ -79,6 +82,16 @@ public class DefaultFileNavigationContributor implements ChooseByNameContributor
     }
   }
 
+  @Override
+  public void processNamesWithPrefixes(@NotNull Processor<String> processor,
+                                       @NotNull Collection<String> prefixes,
+                                       @NotNull GlobalSearchScope scope,
+                                       @Nullable IdFilter filter) {
+    for (String prefix : prefixes) {
+      if (!FileBasedIndex.getInstance().processKeysWithPrefix(FilenameIndex.NAME, prefix, processor, scope, filter)) return;
+    }
+  }
+
   @Override
   public void processElementsWithName(@NotNull String name,
                                       @NotNull Processor<NavigationItem> processor,
@@ -22,8 +22,22 @@ import com.intellij.util.indexing.IdFilter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
+
 public interface ChooseByNameContributorEx extends ChooseByNameContributor {
   void processNames(@NotNull Processor<String> processor, @NotNull GlobalSearchScope scope, @Nullable IdFilter filter);
+
+  /**
+   * Processes names which may start with one of the given prefixes, other names are filtered out by the caller. Contributors backed by
+   * a stub index may use {@link com.intellij.psi.stubs.StubIndex#processKeysWithPrefix} to not enumerate all the keys of the index.
+   */
+  default void processNamesWithPrefixes(@NotNull Processor<String> processor,
+                                        @NotNull Collection<String> prefixes,
+                                        @NotNull GlobalSearchScope scope,
+                                        @Nullable IdFilter filter) {
+    processNames(processor, scope, filter);
+  }
+
   void processElementsWithName(@NotNull String name,
                                @NotNull Processor<NavigationItem> processor,
                                @NotNull FindSymbolParameters parameters);
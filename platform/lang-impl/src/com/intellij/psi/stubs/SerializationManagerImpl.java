@@ -113,6 +113,12 @@ public class SerializationManagerImpl extends SerializationManagerEx implements
     repairNameStorage();
   }
 
+  @Override
+  public int getSerializersFingerprint() {
+    initSerializers();
+    return myStubSerializationHelper.getSerializersFingerprint();
+  }
+
   protected void nameStorageCrashed() {
     myNameStorageCrashed.set(true);
   }
@@ -184,4 +190,31 @@ public class SerializationManagerImpl extends SerializationManagerEx implements
       throw new RuntimeException(e);
     }
   }
+
+  @Override
+  public void serializePortable(@NotNull Stub rootStub, @NotNull OutputStream stream) {
+    initSerializers();
+    try {
+      myStubSerializationHelper.serializePortable(rootStub, stream);
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      nameStorageCrashed();
+    }
+  }
+
+  @NotNull
+  @Override
+  public Stub deserializePortable(@NotNull InputStream stream) throws SerializerNotFoundException {
+    initSerializers();
+
+    try {
+      return myStubSerializationHelper.deserializePortable(stream);
+    }
+    catch (IOException e) {
+      nameStorageCrashed();
+      LOG.info(e);
+      throw new RuntimeException(e);
+    }
+  }
 }
@@ -19,6 +19,7 @@
  */
 package com.intellij.psi.stubs;
 
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.util.CompressionUtil;
 import com.intellij.util.io.DataInputOutputUtil;
 import com.intellij.util.io.PersistentHashMapValueStorage;
@@ -88,6 +89,33 @@ public class SerializedStubTree {
     return SerializationManagerEx.getInstanceEx().deserialize(new UnsyncByteArrayInputStream(myBytes));
   }
 
+  /**
+   * @return copy of the tree that can be read by another installation, see {@link SerializationManagerEx#serializePortable}
+   */
+  @NotNull
+  SerializedStubTree toPortable() throws SerializerNotFoundException {
+    Stub stub = myStubElement;
+    if (stub == null) stub = SerializationManagerEx.getInstanceEx().deserialize(new UnsyncByteArrayInputStream(myBytes));
+    BufferExposingByteArrayOutputStream out = new BufferExposingByteArrayOutputStream();
+    SerializationManagerEx.getInstanceEx().serializePortable(stub, out);
+    return new SerializedStubTree(out.getInternalBuffer(), out.size(), null, myByteContentLength, myCharContentLength);
+  }
+
+  /**
+   * @return tree serialized with ids of this installation from the one made by {@link #toPortable()}
+   */
+  @NotNull
+  SerializedStubTree fromPortable() throws SerializerNotFoundException {
+    Stub stub = SerializationManagerEx.getInstanceEx().deserializePortable(new UnsyncByteArrayInputStream(myBytes, 0, myLength));
+    BufferExposingByteArrayOutputStream out = new BufferExposingByteArrayOutputStream();
+    SerializationManagerEx.getInstanceEx().serialize(stub, out);
+    return new SerializedStubTree(out.getInternalBuffer(), out.size(), stub, myByteContentLength, myCharContentLength);
+  }
+
+  int getCharContentLength() {
+    return myCharContentLength;
+  }
+
   public boolean contentLengthMatches(long byteContentLength, int charContentLength) {
     if (myCharContentLength >= 0 && charContentLength >= 0) {
       return myCharContentLength == charContentLength;
@@ -433,6 +433,36 @@ public class StubIndexImpl extends StubIndex implements ApplicationComponent, Pe
     return true;
   }
 
+  @Override
+  public <K extends Comparable<? super K>> boolean processKeysInRange(@NotNull StubIndexKey<K, ?> indexKey,
+                                                                      @NotNull K from,
+                                                                      @NotNull K to,
+                                                                      @NotNull Processor<K> processor,
+                                                                      @NotNull GlobalSearchScope scope,
+                                                                      @Nullable IdFilter idFilter) {
+    FileBasedIndex.getInstance().ensureUpToDate(StubUpdatingIndex.INDEX_ID, scope.getProject(), scope);
+
+    final MyIndex<K> index = (MyIndex<K>)getAsyncState().myIndices.get(indexKey);
+    myAccessValidator.checkAccessingIndexDuringOtherIndexProcessing(indexKey);
+    try {
+      myAccessValidator.startedProcessingActivityForIndex(indexKey);
+      return index.processKeysInRange(from, to, processor, scope, idFilter);
+    }
+    catch (StorageException e) {
+      forceRebuild(e);
+    }
+    catch (RuntimeException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException || cause instanceof StorageException) {
+        forceRebuild(e);
+      }
+      throw e;
+    } finally {
+      myAccessValidator.stoppedProcessingActivityForIndex(indexKey);
+    }
+    return true;
+  }
+
   @NotNull
   @Override
   public <Key> IdIterator getContainingIds(@NotNull StubIndexKey<Key, ?> indexKey,
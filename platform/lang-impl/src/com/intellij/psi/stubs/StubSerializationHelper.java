@@ -23,17 +23,25 @@ import com.intellij.util.containers.RecentStringInterner;
 import com.intellij.util.io.AbstractStringEnumerator;
 import com.intellij.util.io.DataInputOutputUtil;
 import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.UnsyncByteArrayInputStream;
+import gnu.trove.THashMap;
 import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TObjectIntHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Author: dmitrylomov
@@ -43,6 +51,7 @@ public class StubSerializationHelper {
 
   protected final TIntObjectHashMap<ObjectStubSerializer> myIdToSerializer = new TIntObjectHashMap<>();
   protected final TObjectIntHashMap<ObjectStubSerializer> mySerializerToId = new TObjectIntHashMap<>();
+  private final Map<String, ObjectStubSerializer> myExternalIdToSerializer = new THashMap<>();
 
   public StubSerializationHelper(@NotNull AbstractStringEnumerator nameStorage) {
     myNameStorage = nameStorage;
@@ -55,30 +64,50 @@ public class StubSerializationHelper {
 
     final int oldId = mySerializerToId.put(serializer, id);
     assert oldId == 0 : "Serializer " + serializer + " is already registered; Old ID:" + oldId;
+    myExternalIdToSerializer.put(serializer.getExternalId(), serializer);
+  }
+
+  public int getSerializersFingerprint() {
+    final List<String> ids = new ArrayList<>(myExternalIdToSerializer.keySet());
+    Collections.sort(ids);
+    return ids.hashCode();
   }
 
   private int persistentId(@NotNull final ObjectStubSerializer serializer) throws IOException {
     return myNameStorage.enumerate(serializer.getExternalId());
   }
 
-  private void doSerialize(@NotNull Stub rootStub, @NotNull StubOutputStream stream) throws IOException {
+  private void doSerialize(@NotNull Stub rootStub, @NotNull StubOutputStream stream, boolean portable) throws IOException {
     final ObjectStubSerializer serializer = StubSerializationUtil.getSerializer(rootStub);
 
     if (((ObjectStubBase)rootStub).isDangling()) {
       stream.writeByte(0);
     }
-    DataInputOutputUtil.writeINT(stream, getClassId(serializer));
+    // portable trees refer to serializers by external ids kept in the file string table, such ids are positive too
+    DataInputOutputUtil.writeINT(stream, portable ? stream.getStringId(serializer.getExternalId()) : getClassId(serializer));
     serializer.serialize(rootStub, stream);
 
     final List<? extends Stub> children = rootStub.getChildrenStubs();
     final int childrenSize = children.size();
     DataInputOutputUtil.writeINT(stream, childrenSize);
     for (int i = 0; i < childrenSize; ++i) {
-      doSerialize(children.get(i), stream);
+      doSerialize(children.get(i), stream, portable);
     }
   }
 
   public void serialize(@NotNull Stub rootStub, @NotNull OutputStream stream) throws IOException {
+    serialize(rootStub, stream, false);
+  }
+
+  /**
+   * Serializes the tree so that it can be read by another installation with the same set of serializers: serializers are referred to by
+   * their external ids instead of ids from the local name storage.
+   */
+  public void serializePortable(@NotNull Stub rootStub, @NotNull OutputStream stream) throws IOException {
+    serialize(rootStub, stream, true);
+  }
+
+  private void serialize(@NotNull Stub rootStub, @NotNull OutputStream stream, boolean portable) throws IOException {
     BufferExposingByteArrayOutputStream out = new BufferExposingByteArrayOutputStream();
     FileLocalStringEnumerator storage = new FileLocalStringEnumerator(true);
     StubOutputStream stubOutputStream = new StubOutputStream(out, storage);
@@ -92,21 +121,17 @@ public class StubSerializationHelper {
         doDefaultSerialization = false;
         DataInputOutputUtil.writeINT(stubOutputStream, roots.length);
         for (PsiFileStub root : roots) {
-          doSerialize(root, stubOutputStream);
+          doSerialize(root, stubOutputStream, portable);
         }
       }
     }
 
     if (doDefaultSerialization) {
       DataInputOutputUtil.writeINT(stubOutputStream, 1);
-      doSerialize(rootStub, stubOutputStream);
+      doSerialize(rootStub, stubOutputStream, portable);
     }
     DataOutputStream resultStream = new DataOutputStream(stream);
-    DataInputOutputUtil.writeINT(resultStream, storage.myStrings.size());
-    byte[] buffer = IOUtil.allocReadWriteUTFBuffer();
-    for(String s:storage.myStrings) {
-      IOUtil.writeUTFFast(buffer, resultStream, s);
-    }
+    storage.writeStringTable(resultStream);
     resultStream.write(out.getInternalBuffer(), 0, out.size());
   }
 
@@ -120,28 +145,32 @@ public class StubSerializationHelper {
 
   @NotNull
   public Stub deserialize(@NotNull InputStream stream) throws IOException, SerializerNotFoundException {
+    return deserialize(stream, false);
+  }
+
+  /**
+   * Reads the tree written by {@link #serializePortable}.
+   */
+  @NotNull
+  public Stub deserializePortable(@NotNull InputStream stream) throws IOException, SerializerNotFoundException {
+    return deserialize(stream, true);
+  }
+
+  @NotNull
+  private Stub deserialize(@NotNull InputStream stream, boolean portable) throws IOException, SerializerNotFoundException {
     FileLocalStringEnumerator storage = new FileLocalStringEnumerator(false);
     StubInputStream inputStream = new StubInputStream(stream, storage);
-    final int numberOfStrings = DataInputOutputUtil.readINT(inputStream);
-    byte[] buffer = IOUtil.allocReadWriteUTFBuffer();
-    storage.myStrings.ensureCapacity(numberOfStrings);
-
-    int i = 0;
-    while(i < numberOfStrings) {
-      String s = myStringInterner.get(IOUtil.readUTFFast(buffer, inputStream));
-      storage.myStrings.add(s);
-      ++i;
-    }
+    storage.readStringTable(inputStream);
 
     final int stubFilesCount = DataInputOutputUtil.readINT(inputStream);
     if (stubFilesCount <= 0) {
       Logger.getInstance(getClass()).error("Incorrect stub files count during deserialization:"+stubFilesCount);
     }
-    final Stub baseStub = deserialize(inputStream, null);
+    final Stub baseStub = deserialize(inputStream, null, portable);
     final List<PsiFileStub> stubs = ContainerUtil.newArrayListWithCapacity(stubFilesCount);
     if (baseStub instanceof PsiFileStub) stubs.add((PsiFileStub)baseStub);
     for (int j = 1; j < stubFilesCount; j++) {
-      final Stub deserialize = deserialize(inputStream, null);
+      final Stub deserialize = deserialize(inputStream, null, portable);
       if (deserialize instanceof PsiFileStub) {
         final PsiFileStub fileStub = (PsiFileStub)deserialize;
         stubs.add(fileStub);
@@ -164,7 +193,8 @@ public class StubSerializationHelper {
   }
 
   @NotNull
-  private Stub deserialize(@NotNull StubInputStream stream, @Nullable Stub parentStub) throws IOException, SerializerNotFoundException {
+  private Stub deserialize(@NotNull StubInputStream stream, @Nullable Stub parentStub, boolean portable)
+    throws IOException, SerializerNotFoundException {
     boolean dangling = false;
     int id = DataInputOutputUtil.readINT(stream);
     if (id == 0) {
@@ -172,11 +202,11 @@ public class StubSerializationHelper {
       id = DataInputOutputUtil.readINT(stream);
     }
 
-    final ObjectStubSerializer serializer = getClassById(id);
+    final ObjectStubSerializer serializer = portable ? myExternalIdToSerializer.get(stream.stringFromId(id)) : getClassById(id);
     if (serializer == null) {
       String externalId = null;
       try {
-        externalId = myNameStorage.valueOf(id);
+        externalId = portable ? stream.stringFromId(id) : myNameStorage.valueOf(id);
       } catch (Throwable ignore) {}
       throw new SerializerNotFoundException(
               "No serializer registered for stub: ID=" + id + ", externalId:" + externalId +
@@ -189,7 +219,7 @@ public class StubSerializationHelper {
     }
     int childCount = DataInputOutputUtil.readINT(stream);
     for (int i = 0; i < childCount; i++) {
-      deserialize(stream, stub);
+      deserialize(stream, stub, portable);
     }
     return stub;
   }
@@ -199,9 +229,43 @@ public class StubSerializationHelper {
     return myIdToSerializer.get(id);
   }
 
-  private static class FileLocalStringEnumerator implements AbstractStringEnumerator {
+  // see IOUtil.writeUTFFast: strings longer than 64K are written after this marker
+  private static final byte[] LONGER_THAN_64K_MARKER = "LONGER_THAN_64K".getBytes(IOUtil.US_ASCII);
+
+  private static boolean isLongerThan64KMarker(@NotNull byte[] bytes, int offset, int length) {
+    if (length != LONGER_THAN_64K_MARKER.length) return false;
+    for (int i = 0; i < length; i++) {
+      if (bytes[offset + i] != LONGER_THAN_64K_MARKER[i]) return false;
+    }
+    return true;
+  }
+
+  private static void copy(@NotNull DataInputStream in, @NotNull DataOutputStream out, @NotNull byte[] buffer, int length)
+    throws IOException {
+    while (length > 0) {
+      int chunk = Math.min(length, buffer.length);
+      in.readFully(buffer, 0, chunk);
+      out.write(buffer, 0, chunk);
+      length -= chunk;
+    }
+  }
+
+  @NotNull
+  private static String readUTF(@NotNull byte[] bytes, int offset) throws IOException {
+    return IOUtil.readUTF(new DataInputStream(new UnsyncByteArrayInputStream(bytes, offset, bytes.length)));
+  }
+
+  /**
+   * Strings of a stub tree are referenced by {@link StringRef}s which are resolved lazily, and most of them are never asked for
+   * (e.g. only a few stubs of a file are needed for a resolve). So on reading the string table is only scanned: raw bytes of the strings
+   * are kept together with their offsets, and a string is decoded and interned on the first {@link #valueOf} call. The raw bytes are
+   * dropped when all the strings are decoded.
+   */
+  class FileLocalStringEnumerator implements AbstractStringEnumerator {
     private final TObjectIntHashMap<String> myEnumerates;
     private final ArrayList<String> myStrings = new ArrayList<>();
+    private volatile StringTable myStringTable; // null when all the strings are decoded
+    private AtomicReferenceArray<String> myDecodedStrings;
 
     FileLocalStringEnumerator(boolean forSavingStub) {
       if (forSavingStub) myEnumerates = new TObjectIntHashMap<>();
@@ -220,10 +284,70 @@ public class StubSerializationHelper {
       return i;
     }
 
+    /**
+     * Writes the enumerated strings to be read by {@link #readStringTable}.
+     */
+    void writeStringTable(@NotNull DataOutputStream out) throws IOException {
+      DataInputOutputUtil.writeINT(out, myStrings.size());
+      byte[] buffer = IOUtil.allocReadWriteUTFBuffer();
+      for (String s : myStrings) {
+        IOUtil.writeUTFFast(buffer, out, s);
+      }
+    }
+
+    /**
+     * Copies strings written by {@link IOUtil#writeUTFFast} without decoding them.
+     */
+    void readStringTable(@NotNull DataInputStream in) throws IOException {
+      int numberOfStrings = DataInputOutputUtil.readINT(in);
+      BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream(numberOfStrings * 16);
+      DataOutputStream out = new DataOutputStream(bytes);
+      byte[] buffer = IOUtil.allocReadWriteUTFBuffer();
+      int[] offsets = new int[numberOfStrings];
+      for (int i = 0; i < numberOfStrings; i++) {
+        offsets[i] = bytes.size();
+        int len = in.readUnsignedByte();
+        out.writeByte(len);
+        if (len != 0xFF) {
+          copy(in, out, buffer, len);
+          continue;
+        }
+        int utfLength = in.readUnsignedShort();
+        out.writeShort(utfLength);
+        copy(in, out, buffer, utfLength);
+        if (isLongerThan64KMarker(bytes.getInternalBuffer(), offsets[i] + 3, utfLength)) {
+          int length = in.readInt();
+          out.writeInt(length);
+          if (length > 0) copy(in, out, buffer, length * 2);
+        }
+      }
+      myDecodedStrings = new AtomicReferenceArray<>(numberOfStrings);
+      myStringTable = numberOfStrings == 0 ? null : new StringTable(bytes.getInternalBuffer(), offsets);
+    }
+
     @Override
     public String valueOf(int idx) throws IOException {
       if (idx == 0) return null;
-      return myStrings.get(idx - 1);
+      AtomicReferenceArray<String> decodedStrings = myDecodedStrings;
+      if (decodedStrings == null) return myStrings.get(idx - 1);
+
+      String s = decodedStrings.get(idx - 1);
+      if (s != null) return s;
+      StringTable table = myStringTable;
+      if (table == null) return decodedStrings.get(idx - 1); // the last strings have been decoded meanwhile
+
+      s = myStringInterner.get(readUTF(table.myBytes, table.myOffsets[idx - 1]));
+      // a string may be decoded by several threads at once, only the first one counts it
+      if (!decodedStrings.compareAndSet(idx - 1, null, s)) return decodedStrings.get(idx - 1);
+      if (table.myUndecodedStrings.decrementAndGet() == 0) {
+        myStringTable = null;
+      }
+      return s;
+    }
+
+    @TestOnly
+    boolean hasUndecodedStrings() {
+      return myStringTable != null;
     }
 
     @Override
@@ -243,4 +367,16 @@ public class StubSerializationHelper {
     public void force() {
     }
   }
+
+  private static class StringTable {
+    private final byte[] myBytes;
+    private final int[] myOffsets;
+    private final AtomicInteger myUndecodedStrings;
+
+    private StringTable(@NotNull byte[] bytes, @NotNull int[] offsets) {
+      myBytes = bytes;
+      myOffsets = offsets;
+      myUndecodedStrings = new AtomicInteger(offsets.length);
+    }
+  }
 }
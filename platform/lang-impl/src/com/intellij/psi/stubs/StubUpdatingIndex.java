@@ -24,6 +24,7 @@ import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.fileTypes.LanguageFileType;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.ThrowableComputable;
 import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -39,6 +40,7 @@ import com.intellij.util.indexing.*;
 import com.intellij.util.indexing.impl.*;
 import com.intellij.util.io.*;
 import gnu.trove.THashMap;
+import gnu.trove.TIntArrayList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -196,18 +198,7 @@ public class StubUpdatingIndex extends CustomImplementationFileBasedIndexExtensi
       @Override
       @NotNull
       public Map<Integer, SerializedStubTree> map(@NotNull final FileContent inputData) {
-        final Map<Integer, SerializedStubTree> result = new THashMap<Integer, SerializedStubTree>() {
-          StubUpdatingIndexKeys myKeySet;
-
-          @Override
-          public Set<Integer> keySet() {
-            if (myKeySet == null) {
-              myKeySet = new StubUpdatingIndexKeys(super.keySet());
-            }
-
-            return myKeySet;
-          }
-        };
+        final Map<Integer, SerializedStubTree> result = createIndexData();
 
         ApplicationManager.getApplication().runReadAction(() -> {
           final Stub rootStub = StubTreeBuilder.buildStubTree(inputData);
@@ -252,6 +243,22 @@ public class StubUpdatingIndex extends CustomImplementationFileBasedIndexExtensi
     };
   }
 
+  @NotNull
+  private static Map<Integer, SerializedStubTree> createIndexData() {
+    return new THashMap<Integer, SerializedStubTree>() {
+      StubUpdatingIndexKeys myKeySet;
+
+      @Override
+      public Set<Integer> keySet() {
+        if (myKeySet == null) {
+          myKeySet = new StubUpdatingIndexKeys(super.keySet());
+        }
+
+        return myKeySet;
+      }
+    };
+  }
+
   private static void check(Stub stub, Stub stub2) {
     assert stub.getStubType() == stub2.getStubType();
     List<? extends Stub> stubs = stub.getChildrenStubs();
@@ -319,6 +326,11 @@ public class StubUpdatingIndex extends CustomImplementationFileBasedIndexExtensi
     return VERSION;
   }
 
+  @Override
+  public boolean hasArchiveSnapshots() {
+    return true;
+  }
+
   @NotNull
   @Override
   public UpdatableIndex<Integer, SerializedStubTree, FileContent> createIndexImplementation(@NotNull final FileBasedIndexExtension<Integer, SerializedStubTree> extension,
@@ -449,6 +461,61 @@ public class StubUpdatingIndex extends CustomImplementationFileBasedIndexExtensi
       }
     }
 
+    @NotNull
+    @Override
+    protected String getArchiveSnapshotVersion() {
+      // snapshots keep portable stub trees, which refer to serializers by external ids
+      return super.getArchiveSnapshotVersion() + "-" + CumulativeStubVersion.getCumulativeVersion() + "-" +
+             Integer.toHexString(SerializationManagerEx.getInstanceEx().getSerializersFingerprint());
+    }
+
+    @Nullable
+    @Override
+    protected Map<Integer, SerializedStubTree> exportArchiveSnapshotData(@NotNull FileContent content,
+                                                                         @NotNull Map<Integer, SerializedStubTree> data) {
+      if (data.size() != 1) return data.isEmpty() ? data : null;
+      Map.Entry<Integer, SerializedStubTree> entry = data.entrySet().iterator().next();
+      try {
+        return Collections.singletonMap(entry.getKey(), entry.getValue().toPortable());
+      }
+      catch (SerializerNotFoundException e) {
+        LOG.info("Can't export stub tree of " + content.getFile() + " to archive snapshot", e);
+        return null;
+      }
+    }
+
+    @Nullable
+    @Override
+    protected Map<Integer, SerializedStubTree> restoreArchiveSnapshotData(@NotNull FileContent content,
+                                                                          @NotNull Map<Integer, SerializedStubTree> data) {
+      if (data.size() != 1) return data.isEmpty() ? data : null;
+
+      // snapshot data are keyed by id of the file on the exporting machine
+      final SerializedStubTree tree;
+      try {
+        tree = data.values().iterator().next().fromPortable();
+      }
+      catch (SerializerNotFoundException e) {
+        LOG.info("Can't use stub tree of " + content.getFile() + " from archive snapshot", e);
+        return null;
+      }
+      final VirtualFile file = content.getFile();
+      final int key = Math.abs(FileBasedIndex.getFileId(file));
+      return ApplicationManager.getApplication().runReadAction((Computable<Map<Integer, SerializedStubTree>>)() -> {
+        Map<Integer, SerializedStubTree> result = createIndexData();
+        result.put(key, tree);
+        try {
+          ((StubUpdatingIndexKeys)result.keySet()).myStubIndicesValueMap = calcStubIndicesValueMap(tree, key);
+        }
+        catch (StorageException e) {
+          LOG.info("Can't use stub tree of " + file + " from archive snapshot", e);
+          return null;
+        }
+        rememberIndexingStamp(file, tree.getCharContentLength());
+        return result;
+      });
+    }
+
     @Override
     public void flush() throws StorageException {
       final StubIndexImpl stubIndex = getStubIndex();
@@ -500,6 +567,47 @@ public class StubUpdatingIndex extends CustomImplementationFileBasedIndexExtensi
       }
     }
 
+    @Override
+    protected void updateWithMap(@NotNull TIntArrayList inputIds,
+                                 @NotNull List<UpdateData<Integer, SerializedStubTree>> updates) throws StorageException {
+      checkNameStorage();
+      final StubIndexImpl stubIndex = getStubIndex();
+      final Collection<StubIndexKey> allStubIndices = stubIndex.getAllStubIndexKeys();
+      try {
+        // first write-lock affected stub indices to avoid deadlocks
+        for (StubIndexKey key : allStubIndices) {
+          stubIndex.getWriteLock(key).lock();
+        }
+
+        try {
+          getWriteLock().lock();
+
+          super.updateWithMap(inputIds, updates);
+
+          for (int i = 0; i < updates.size(); i++) {
+            StubUpdatingData stubUpdatingData = (StubUpdatingData)updates.get(i);
+            final Map<StubIndexKey, Map<Object, StubIdList>> newStubIndicesValueMap = stubUpdatingData.getNewStubIndicesValueMap();
+            final Map<StubIndexKey, Map<Object, StubIdList>> previousStubIndicesValueMap = stubUpdatingData.getOldStubIndicesValueMap();
+
+            updateStubIndices(
+                    getAffectedIndices(previousStubIndicesValueMap, newStubIndicesValueMap),
+                    inputIds.get(i),
+                    previousStubIndicesValueMap,
+                    newStubIndicesValueMap
+            );
+          }
+        }
+        finally {
+          getWriteLock().unlock();
+        }
+      }
+      finally {
+        for (StubIndexKey key : allStubIndices) {
+          stubIndex.getWriteLock(key).unlock();
+        }
+      }
+    }
+
     private StubIndexImpl getStubIndex() {
       StubIndexImpl index = myStubIndex;
       if (index == null) {
@@ -0,0 +1,540 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.NotNullLazyValue;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.ConcurrencyUtil;
+import com.intellij.util.SystemProperties;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.io.*;
+import com.intellij.util.io.DataOutputStream;
+import consulo.vfs.ArchiveFileSystem;
+import consulo.vfs.util.ArchiveVfsUtil;
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Index data of files inside archives (library jars, archives of SDKs) shared between machines through a local directory given by
+ * {@code idea.index.snapshots.dir} property.
+ * <p/>
+ * A snapshot holds data of one index for all files of one archive. It's identified by the CRC32 of the archive central directory
+ * (which holds names, sizes and CRC32 of all entries) and the archive length, so every machine using the same jar finds the same
+ * snapshot at {@code <snapshots dir>/<archive key>/<index name>.<index version>}. The key is computed once per archive and recomputed
+ * when length or timestamp of the archive change. Archives without a plain end of central directory record (zip64 ones) have no key
+ * and no snapshots.
+ * An existing snapshot is mounted read-only and index data of the archive files are read from it instead of indexing them, files
+ * missing in the snapshot are indexed as usual.
+ * <p/>
+ * With {@code idea.index.snapshots.export} enabled data of archives without snapshots are recorded while indexing and published
+ * to the directory when indexing of a project is finished, so snapshots are complete only when exported on a fresh index.
+ * Snapshot files are written once and never modified: a snapshot of an archive published concurrently by another process wins.
+ * Data of every file and the table of files are checksummed, data that don't match their checksum are indexed as usual.
+ * Absence of a snapshot is remembered for {@link #MISSING_SNAPSHOT_TTL} only, so snapshots published later by other machines are found.
+ *
+ * @author agent
+ */
+class ArchiveIndexSnapshots<Key, Value> {
+  private static final Logger LOG = Logger.getInstance(ArchiveIndexSnapshots.class);
+  private static final String SNAPSHOTS_DIR = System.getProperty("idea.index.snapshots.dir");
+  private static final boolean EXPORT_SNAPSHOTS = SystemProperties.getBooleanProperty("idea.index.snapshots.export", false);
+
+  private static final int MAGIC = 0x49445853;
+  private static final int FORMAT_VERSION = 2;
+  private static final int HEADER_SIZE = 8;
+  private static final int FOOTER_SIZE = 16;
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int END_SIZE = 22;
+  private static final long MISSING_SNAPSHOT_TTL = TimeUnit.MINUTES.toMillis(5);
+
+  private static final ConcurrentMap<String, ArchiveKey> ourArchiveKeys = ContainerUtil.newConcurrentMap();
+
+  private final ID<Key, Value> myIndexId;
+  private final KeyDescriptor<Key> myKeyDescriptor;
+  private final DataExternalizer<Value> myValueExternalizer;
+  private final NotNullLazyValue<String> mySnapshotName;
+  private final File mySnapshotsDir;
+  private final boolean myExport;
+  private final ConcurrentMap<String, Snapshot> mySnapshots = ContainerUtil.newConcurrentMap(); // archive key -> snapshot
+
+  ArchiveIndexSnapshots(@NotNull IndexExtension<Key, Value, ?> extension, @NotNull NotNullLazyValue<String> version) {
+    this(extension.getName(), extension.getKeyDescriptor(), extension.getValueExternalizer(), version, new File(SNAPSHOTS_DIR),
+         EXPORT_SNAPSHOTS);
+  }
+
+  ArchiveIndexSnapshots(@NotNull ID<Key, Value> indexId,
+                        @NotNull KeyDescriptor<Key> keyDescriptor,
+                        @NotNull DataExternalizer<Value> valueExternalizer,
+                        @NotNull NotNullLazyValue<String> version,
+                        @NotNull File snapshotsDir,
+                        boolean export) {
+    myIndexId = indexId;
+    myKeyDescriptor = keyDescriptor;
+    myValueExternalizer = valueExternalizer;
+    mySnapshotsDir = snapshotsDir;
+    myExport = export;
+    mySnapshotName = new NotNullLazyValue<String>() {
+      @NotNull
+      @Override
+      protected String compute() {
+        return myIndexId.toString() + "." + version.getValue();
+      }
+    };
+  }
+
+  static boolean isEnabled() {
+    return SNAPSHOTS_DIR != null;
+  }
+
+  /**
+   * @return data of the file taken from a mounted snapshot of its archive, null if there's no such data
+   */
+  @Nullable
+  Map<Key, Value> read(@NotNull VirtualFile file) {
+    String archiveKey = getArchiveKey(file);
+    return archiveKey != null ? read(archiveKey, getPathInArchive(file)) : null;
+  }
+
+  @Nullable
+  Map<Key, Value> read(@NotNull String archiveKey, @NotNull String path) {
+    Snapshot snapshot = getSnapshot(archiveKey);
+    try {
+      ByteSequence bytes = snapshot.read(path);
+      return bytes != null ? readData(bytes) : null;
+    }
+    catch (IOException e) {
+      LOG.info("Can't read index snapshot of " + path + " in " + archiveKey + " for " + myIndexId, e);
+      return null;
+    }
+  }
+
+  /**
+   * @return true if snapshot of the file archive is being exported
+   */
+  boolean isRecording(@NotNull VirtualFile file) {
+    String archiveKey = getArchiveKey(file);
+    return archiveKey != null && isRecording(archiveKey);
+  }
+
+  boolean isRecording(@NotNull String archiveKey) {
+    return getSnapshot(archiveKey).isRecording();
+  }
+
+  /**
+   * Saves indexed data of the file if snapshot of its archive is being exported.
+   */
+  void record(@NotNull VirtualFile file, @NotNull Map<Key, Value> data) {
+    String archiveKey = getArchiveKey(file);
+    if (archiveKey != null) record(archiveKey, getPathInArchive(file), data);
+  }
+
+  void record(@NotNull String archiveKey, @NotNull String path, @NotNull Map<Key, Value> data) {
+    Snapshot snapshot = getSnapshot(archiveKey);
+    if (!snapshot.isRecording()) return;
+    try {
+      BufferExposingByteArrayOutputStream out = new BufferExposingByteArrayOutputStream();
+      DataOutputStream stream = new DataOutputStream(out);
+      DataInputOutputUtil.writeINT(stream, data.size());
+      for (Map.Entry<Key, Value> entry : data.entrySet()) {
+        myKeyDescriptor.save(stream, entry.getKey());
+        myValueExternalizer.save(stream, entry.getValue());
+      }
+      snapshot.record(path, out);
+    }
+    catch (IOException e) {
+      LOG.info("Can't record index snapshot of " + path + " in " + archiveKey + " for " + myIndexId, e);
+    }
+  }
+
+  /**
+   * Moves snapshots recorded so far to the snapshots directory, following requests for their archives are served from there.
+   */
+  void publish() {
+    for (Map.Entry<String, Snapshot> entry : mySnapshots.entrySet()) {
+      if (entry.getValue().isRecording() && mySnapshots.remove(entry.getKey(), entry.getValue())) {
+        entry.getValue().close(true);
+      }
+    }
+  }
+
+  /**
+   * Closes mounted snapshots, unpublished data are discarded.
+   */
+  void dispose() {
+    for (Snapshot snapshot : mySnapshots.values()) {
+      snapshot.close(false);
+    }
+    mySnapshots.clear();
+  }
+
+  @NotNull
+  private Map<Key, Value> readData(@NotNull ByteSequence bytes) throws IOException {
+    DataInputStream stream = new DataInputStream(new UnsyncByteArrayInputStream(bytes.getBytes(), bytes.getOffset(), bytes.getLength()));
+    int size = DataInputOutputUtil.readINT(stream);
+    if (size == 0) return Collections.emptyMap();
+    Map<Key, Value> data = new THashMap<>(size);
+    for (int i = 0; i < size; ++i) {
+      Key key = myKeyDescriptor.read(stream);
+      data.put(key, myValueExternalizer.read(stream));
+    }
+    return data;
+  }
+
+  @NotNull
+  private Snapshot getSnapshot(@NotNull String archiveKey) {
+    Snapshot snapshot = mySnapshots.get(archiveKey);
+    if (snapshot == null || snapshot.isExpired()) {
+      synchronized (mySnapshots) {
+        snapshot = mySnapshots.get(archiveKey);
+        if (snapshot == null || snapshot.isExpired()) {
+          snapshot = openSnapshot(new File(new File(mySnapshotsDir, archiveKey), mySnapshotName.getValue()));
+          mySnapshots.put(archiveKey, snapshot);
+        }
+      }
+    }
+    return snapshot;
+  }
+
+  @NotNull
+  private Snapshot openSnapshot(@NotNull File file) {
+    if (file.exists()) {
+      try {
+        return new MountedSnapshot(file);
+      }
+      catch (IOException e) {
+        LOG.info("Can't mount index snapshot " + file, e);
+        return new MissingSnapshot();
+      }
+    }
+    if (myExport) {
+      try {
+        return new RecordedSnapshot(file);
+      }
+      catch (IOException e) {
+        LOG.info("Can't create index snapshot " + file, e);
+      }
+    }
+    return new MissingSnapshot();
+  }
+
+  @NotNull
+  private static String getPathInArchive(@NotNull VirtualFile file) {
+    String path = StringUtil.substringAfter(file.getPath(), URLUtil.ARCHIVE_SEPARATOR);
+    return path != null ? path : file.getPath();
+  }
+
+  @Nullable
+  private static String getArchiveKey(@NotNull VirtualFile file) {
+    if (!(file.getFileSystem() instanceof ArchiveFileSystem)) return null;
+    VirtualFile archive = ArchiveVfsUtil.getVirtualFileForArchive(file);
+    if (archive == null) return null;
+    return getArchiveKey(VfsUtilCore.virtualToIoFile(archive), archive.getTimeStamp(), archive.getLength());
+  }
+
+  /**
+   * @return key of the archive snapshots, or null if the archive can't be read or has no plain central directory
+   */
+  @Nullable
+  static String getArchiveKey(@NotNull File archive, long timeStamp, long length) {
+    String path = archive.getPath();
+    ArchiveKey key = ourArchiveKeys.get(path);
+    if (key == null || !key.isUpToDate(timeStamp, length)) {
+      ArchiveKey newKey = new ArchiveKey(archive, timeStamp, length);
+      if (key == null) {
+        key = ConcurrencyUtil.cacheOrGet(ourArchiveKeys, path, newKey);
+      }
+      else {
+        ourArchiveKeys.replace(path, key, newKey);
+        key = newKey;
+      }
+    }
+    return key.getValue();
+  }
+
+  private static class ArchiveKey {
+    private final File myFile;
+    private final long myTimeStamp;
+    private final long myLength;
+    private volatile String myKey;
+    private boolean myComputed; // guarded by this
+
+    ArchiveKey(@NotNull File file, long timeStamp, long length) {
+      myFile = file;
+      myTimeStamp = timeStamp;
+      myLength = length;
+    }
+
+    boolean isUpToDate(long timeStamp, long length) {
+      return myTimeStamp == timeStamp && myLength == length;
+    }
+
+    @Nullable
+    String getValue() {
+      String key = myKey;
+      if (key != null) return key;
+      synchronized (this) {
+        if (!myComputed) {
+          myComputed = true;
+          try {
+            long crc = getCentralDirectoryChecksum(myFile, myLength);
+            if (crc >= 0) myKey = Long.toHexString(crc) + "-" + Long.toHexString(myLength);
+          }
+          catch (IOException e) {
+            LOG.info("Can't read central directory of " + myFile, e);
+          }
+        }
+        return myKey;
+      }
+    }
+  }
+
+  /**
+   * @return CRC32 of the central directory of the archive, -1 if the archive has no plain end of central directory record
+   */
+  private static long getCentralDirectoryChecksum(@NotNull File archive, long length) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(archive, "r");
+    try {
+      if (length < END_SIZE || file.length() != length) return -1;
+      // the end record is followed by a comment of up to 64K
+      int tailLength = (int)Math.min(length, END_SIZE + 0xFFFF);
+      byte[] tail = new byte[tailLength];
+      file.seek(length - tailLength);
+      file.readFully(tail);
+      ByteBuffer buffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+
+      for (int end = tailLength - END_SIZE; end >= 0; end--) {
+        if (buffer.getInt(end) != END_SIGNATURE || end + END_SIZE + (buffer.getShort(end + 20) & 0xFFFF) != tailLength) continue;
+        long directorySize = buffer.getInt(end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+        if ((buffer.getShort(end + 10) & 0xFFFF) == 0xFFFF || directoryOffset + directorySize > length - tailLength + end) return -1;
+
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[(int)Math.min(directorySize, 64 * 1024)];
+        file.seek(directoryOffset);
+        for (long remaining = directorySize; remaining > 0; ) {
+          int read = (int)Math.min(remaining, chunk.length);
+          file.readFully(chunk, 0, read);
+          crc.update(chunk, 0, read);
+          remaining -= read;
+        }
+        return crc.getValue();
+      }
+      return -1;
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  private abstract static class Snapshot {
+    @Nullable
+    ByteSequence read(@NotNull String path) throws IOException {
+      return null;
+    }
+
+    boolean isRecording() {
+      return false;
+    }
+
+    /**
+     * @return true if the snapshot should be opened again
+     */
+    boolean isExpired() {
+      return false;
+    }
+
+    void record(@NotNull String path, @NotNull BufferExposingByteArrayOutputStream data) throws IOException {
+    }
+
+    void close(boolean publish) {
+    }
+  }
+
+  private static class MissingSnapshot extends Snapshot {
+    private final long myCreated = System.currentTimeMillis();
+
+    @Override
+    boolean isExpired() {
+      return System.currentTimeMillis() - myCreated > MISSING_SNAPSHOT_TTL;
+    }
+  }
+
+  /**
+   * Snapshot file layout: magic and format version, data of files, table of files (count, then path, offset, length and CRC32 of
+   * data for each file), offset and CRC32 of the table.
+   */
+  private static class MountedSnapshot extends Snapshot {
+    private final File myFile;
+    private final RandomAccessFile myRandomAccessFile;
+    private final FileChannel myChannel;
+    private final Map<String, long[]> myEntries;
+
+    MountedSnapshot(@NotNull File file) throws IOException {
+      myFile = file;
+      myRandomAccessFile = new RandomAccessFile(file, "r");
+      myChannel = myRandomAccessFile.getChannel();
+      try {
+        long length = myChannel.size();
+        if (length < HEADER_SIZE + FOOTER_SIZE) throw new IOException("Truncated snapshot");
+        ByteBuffer header = readBytes(0, HEADER_SIZE);
+        if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) throw new IOException("Unknown snapshot format");
+
+        ByteBuffer footer = readBytes(length - FOOTER_SIZE, FOOTER_SIZE);
+        long tableOffset = footer.getLong();
+        long tableChecksum = footer.getLong();
+        if (tableOffset < HEADER_SIZE || tableOffset > length - FOOTER_SIZE) throw new IOException("Corrupted snapshot");
+        ByteBuffer table = readBytes(tableOffset, (int)(length - FOOTER_SIZE - tableOffset));
+        if (checksum(table.array(), 0, table.limit()) != tableChecksum) throw new IOException("Corrupted snapshot table");
+        DataInputStream stream = new DataInputStream(new UnsyncByteArrayInputStream(table.array()));
+        int count = DataInputOutputUtil.readINT(stream);
+        myEntries = new THashMap<>(count);
+        for (int i = 0; i < count; ++i) {
+          String path = IOUtil.readUTF(stream);
+          long offset = DataInputOutputUtil.readLONG(stream);
+          long dataLength = DataInputOutputUtil.readINT(stream);
+          long dataChecksum = DataInputOutputUtil.readLONG(stream);
+          if (offset < HEADER_SIZE || offset + dataLength > tableOffset) throw new IOException("Corrupted snapshot");
+          myEntries.put(path, new long[]{offset, dataLength, dataChecksum});
+        }
+      }
+      catch (IOException e) {
+        myRandomAccessFile.close();
+        throw e;
+      }
+    }
+
+    @Nullable
+    @Override
+    ByteSequence read(@NotNull String path) throws IOException {
+      long[] entry = myEntries.get(path);
+      if (entry == null) return null;
+      byte[] bytes = readBytes(entry[0], (int)entry[1]).array();
+      if (checksum(bytes, 0, bytes.length) != entry[2]) throw new IOException("Corrupted data of " + path + " in " + myFile);
+      return new ByteSequence(bytes);
+    }
+
+    @NotNull
+    private ByteBuffer readBytes(long offset, int length) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(length);
+      while (buffer.hasRemaining()) {
+        if (myChannel.read(buffer, offset + buffer.position()) < 0) throw new EOFException(myFile.getPath());
+      }
+      buffer.flip();
+      return buffer;
+    }
+
+    @Override
+    void close(boolean publish) {
+      try {
+        myRandomAccessFile.close();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+    }
+  }
+
+  private static class RecordedSnapshot extends Snapshot {
+    private final File myFile;
+    private final File myTempFile;
+    private final DataOutputStream myStream;
+    private final Map<String, long[]> myEntries = new THashMap<>(); // guarded by this
+    private long myOffset; // guarded by this
+    private boolean myClosed; // guarded by this
+
+    RecordedSnapshot(@NotNull File file) throws IOException {
+      myFile = file;
+      FileUtil.createDirectory(file.getParentFile());
+      myTempFile = FileUtil.createTempFile(file.getParentFile(), file.getName(), ".tmp", true, false);
+      myStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myTempFile)));
+      myStream.writeInt(MAGIC);
+      myStream.writeInt(FORMAT_VERSION);
+      myOffset = HEADER_SIZE;
+    }
+
+    @Override
+    boolean isRecording() {
+      return true;
+    }
+
+    @Override
+    synchronized void record(@NotNull String path, @NotNull BufferExposingByteArrayOutputStream data) throws IOException {
+      if (myClosed || myEntries.containsKey(path)) return;
+      myStream.write(data.getInternalBuffer(), 0, data.size());
+      myEntries.put(path, new long[]{myOffset, data.size(), checksum(data.getInternalBuffer(), 0, data.size())});
+      myOffset += data.size();
+    }
+
+    @Override
+    synchronized void close(boolean publish) {
+      if (myClosed) return;
+      myClosed = true;
+      try {
+        try {
+          BufferExposingByteArrayOutputStream table = new BufferExposingByteArrayOutputStream();
+          DataOutputStream tableStream = new DataOutputStream(table);
+          DataInputOutputUtil.writeINT(tableStream, myEntries.size());
+          for (Map.Entry<String, long[]> entry : myEntries.entrySet()) {
+            IOUtil.writeUTF(tableStream, entry.getKey());
+            DataInputOutputUtil.writeLONG(tableStream, entry.getValue()[0]);
+            DataInputOutputUtil.writeINT(tableStream, (int)entry.getValue()[1]);
+            DataInputOutputUtil.writeLONG(tableStream, entry.getValue()[2]);
+          }
+          myStream.write(table.getInternalBuffer(), 0, table.size());
+          myStream.writeLong(myOffset);
+          myStream.writeLong(checksum(table.getInternalBuffer(), 0, table.size()));
+        }
+        finally {
+          myStream.close();
+        }
+        if (publish && !myEntries.isEmpty() && !myFile.exists()) {
+          Files.move(myTempFile.toPath(), myFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+      }
+      catch (IOException e) {
+        LOG.info("Can't publish index snapshot " + myFile, e);
+      }
+      finally {
+        FileUtil.delete(myTempFile);
+      }
+    }
+  }
+
+  private static long checksum(@NotNull byte[] bytes, int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, offset, length);
+    return crc.getValue();
+  }
+}
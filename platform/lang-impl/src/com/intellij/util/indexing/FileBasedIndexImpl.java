@@ -76,6 +76,7 @@ import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.JBIterable;
 import com.intellij.util.gist.GistManager;
 import com.intellij.util.gist.GistManagerImpl;
+import com.intellij.util.indexing.containers.CompressedIdSet;
 import com.intellij.util.indexing.impl.InvertedIndexValueIterator;
 import com.intellij.util.indexing.impl.MapReduceIndex;
 import com.intellij.util.io.DataOutputStream;
@@ -89,7 +90,6 @@ import consulo.roots.types.SourcesOrderRootType;
 import gnu.trove.THashMap;
 import gnu.trove.THashSet;
 import gnu.trove.TIntArrayList;
-import gnu.trove.TIntHashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
@@ -104,6 +104,7 @@ import java.util.concurrent.Phaser;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -119,6 +120,8 @@ public class FileBasedIndexImpl extends FileBasedIndex {
   private static final NotificationGroup NOTIFICATIONS = new NotificationGroup("Indexing", NotificationDisplayType.BALLOON, false);
 
   private final List<ID<?, ?>> myIndicesForDirectories = new SmartList<>();
+  // nanoseconds spent opening the storage of each index, storages are opened in parallel by the initialization
+  private final Map<ID<?, ?>, Long> myIndexOpeningTimes = ContainerUtil.newConcurrentMap();
 
   private final Map<ID<?, ?>, DocumentUpdateTask> myUnsavedDataUpdateTasks = new THashMap<>();
 
@@ -147,6 +150,7 @@ public class FileBasedIndexImpl extends FileBasedIndex {
   private final AtomicInteger myUpdatingFiles = new AtomicInteger();
   private final Set<Project> myProjectsBeingUpdated = ContainerUtil.newConcurrentSet();
   private final IndexAccessValidator myAccessValidator = new IndexAccessValidator();
+  private final IndexUpdatePipeline<DeferredUpdate> myUpdatePipeline = new IndexUpdatePipeline<>(this::applyDeferredUpdates);
 
   @SuppressWarnings({"FieldCanBeLocal", "UnusedDeclaration"}) private volatile boolean myInitialized;
 
@@ -330,7 +334,7 @@ public class FileBasedIndexImpl extends FileBasedIndex {
   /**
    * @return true if registered index requires full rebuild for some reason, e.g. is just created or corrupted
    */
-  private static <K, V> boolean registerIndexer(@NotNull final FileBasedIndexExtension<K, V> extension, IndexConfiguration state) throws IOException {
+  private <K, V> boolean registerIndexer(@NotNull final FileBasedIndexExtension<K, V> extension, IndexConfiguration state) throws IOException {
     final ID<K, V> name = extension.getName();
     final int version = extension.getVersion();
 
@@ -350,16 +354,31 @@ public class FileBasedIndexImpl extends FileBasedIndex {
       IndexingStamp.rewriteVersion(versionFile, version);
     }
 
-    initIndexStorage(extension, version, versionFile, state);
+    final InputFilter inputFilter = extension.getInputFilter();
+    final Set<FileType> addedTypes = new THashSet<>();
+
+    if (inputFilter instanceof FileBasedIndex.FileTypeSpecificInputFilter) {
+      ((FileBasedIndex.FileTypeSpecificInputFilter)inputFilter).registerFileTypesUsedForIndexing(type -> {
+        if (type != null) addedTypes.add(type);
+      });
+    }
+    InputFilter filter = (project, file) -> file instanceof VirtualFileWithId && inputFilter.acceptInput(project, file);
+
+    long started = System.nanoTime();
+    state.registerIndex(name, initIndexStorage(extension, version, versionFile), filter, version, addedTypes);
+    myIndexOpeningTimes.put(name, System.nanoTime() - started);
 
     return versionChanged;
   }
 
-  private static <K, V> void initIndexStorage(@NotNull FileBasedIndexExtension<K, V> extension, int version, @NotNull File versionFile, IndexConfiguration state)
-          throws IOException {
+  @NotNull
+  private static <K, V> UpdatableIndex<K, V, FileContent> initIndexStorage(@NotNull FileBasedIndexExtension<K, V> extension,
+                                                                          int version,
+                                                                          @NotNull File versionFile) throws IOException {
     VfsAwareMapIndexStorage<K, V> storage = null;
     final ID<K, V> name = extension.getName();
     boolean contentHashesEnumeratorOk = false;
+    Exception lastError = null;
 
     for (int attempt = 0; attempt < 2; attempt++) {
       try {
@@ -376,24 +395,11 @@ public class FileBasedIndexImpl extends FileBasedIndex {
                 extension.traceKeyHashToVirtualFileMapping()
         );
 
-        final InputFilter inputFilter = extension.getInputFilter();
-        final Set<FileType> addedTypes = new THashSet<>();
-
-        if (inputFilter instanceof FileBasedIndex.FileTypeSpecificInputFilter) {
-          ((FileBasedIndex.FileTypeSpecificInputFilter)inputFilter).registerFileTypesUsedForIndexing(type -> {
-            if (type != null) addedTypes.add(type);
-          });
-        }
-
-        state.registerIndex(name,
-                            createIndex(extension, new MemoryIndexStorage<>(storage, name)),
-                            (project, file) -> file instanceof VirtualFileWithId && inputFilter.acceptInput(project, file),
-                            version,
-                            addedTypes);
-        break;
+        return createIndex(extension, new MemoryIndexStorage<>(storage, name));
       }
       catch (Exception e) {
         LOG.info(e);
+        lastError = e;
         boolean instantiatedStorage = storage != null;
         try {
           if (storage != null) storage.close();
@@ -410,6 +416,35 @@ public class FileBasedIndexImpl extends FileBasedIndex {
         IndexingStamp.rewriteVersion(versionFile, version);
       }
     }
+    throw new IOException("Can't initialize storage of index " + name, lastError);
+  }
+
+  private void logIndexOpeningTimes() {
+    List<Pair<ID<?, ?>, Long>> times = new ArrayList<>();
+    long total = 0;
+    for (Map.Entry<ID<?, ?>, Long> entry : myIndexOpeningTimes.entrySet()) {
+      times.add(Pair.create(entry.getKey(), entry.getValue()));
+      total += entry.getValue();
+    }
+    Collections.sort(times, (p1, p2) -> Long.compare(p2.second, p1.second));
+
+    StringBuilder message = new StringBuilder("Opened storages of " + times.size() + " indices in " + total / 1000000 + "ms total, slowest:");
+    for (int i = 0; i < Math.min(5, times.size()); i++) {
+      message.append(' ').append(times.get(i).first).append(" (").append(times.get(i).second / 1000000).append("ms)");
+    }
+    LOG.info(message.toString());
+  }
+
+  /**
+   * @return time in milliseconds spent opening storages of the indices, by index
+   */
+  @NotNull
+  public Map<ID<?, ?>, Long> getIndexOpeningTimes() {
+    Map<ID<?, ?>, Long> result = new THashMap<>();
+    for (Map.Entry<ID<?, ?>, Long> entry : myIndexOpeningTimes.entrySet()) {
+      result.put(entry.getKey(), entry.getValue() / 1000000);
+    }
+    return result;
   }
 
   private static void saveRegisteredIndicesAndDropUnregisteredOnes(@NotNull Collection<ID<?, ?>> ids) {
@@ -496,6 +531,7 @@ public class FileBasedIndexImpl extends FileBasedIndex {
             removeDataFromIndicesForFile(Math.abs(getIdMaskingNonIdBasedFile(file)));
           }
         }
+        myUpdatePipeline.dispose();
         IndexingStamp.flushCaches();
 
         IndexConfiguration state = getState();
@@ -615,6 +651,41 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     return false;
   }
 
+  @Override
+  public boolean processKeysWithPrefix(@NotNull ID<String, ?> indexId,
+                                       @NotNull String prefix,
+                                       @NotNull Processor<String> processor,
+                                       @NotNull GlobalSearchScope scope,
+                                       @Nullable IdFilter idFilter) {
+    try {
+      waitUntilIndicesAreInitialized();
+      final UpdatableIndex<String, ?, FileContent> index = getIndex(indexId);
+      if (index == null) {
+        return true;
+      }
+      ensureUpToDate(indexId, scope.getProject(), scope);
+      if (!(index instanceof VfsAwareMapReduceIndex)) {
+        return index.processAllKeys(key -> !key.startsWith(prefix) || processor.process(key), scope, idFilter);
+      }
+      // U+FFFF is not a character, so it can't follow the prefix in a key
+      return ((VfsAwareMapReduceIndex<String, ?, ?>)index).processKeysInRange(prefix, prefix + Character.MAX_VALUE, processor, scope, idFilter);
+    }
+    catch (StorageException e) {
+      scheduleRebuild(indexId, e);
+    }
+    catch (RuntimeException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof StorageException || cause instanceof IOException) {
+        scheduleRebuild(indexId, cause);
+      }
+      else {
+        throw e;
+      }
+    }
+
+    return false;
+  }
+
   private static final ThreadLocal<Integer> myUpToDateCheckState = new ThreadLocal<>();
 
   public static void disableUpToDateCheckForCurrentThread() {
@@ -934,7 +1005,7 @@ public class FileBasedIndexImpl extends FileBasedIndex {
                                                       @Nullable Condition<V> valueChecker,
                                                       @NotNull final Processor<VirtualFile> processor) {
     ProjectIndexableFilesFilter filesSet = projectIndexableFiles(filter.getProject());
-    final TIntHashSet set = collectFileIdsContainingAllKeys(indexId, dataKeys, filter, valueChecker, filesSet);
+    final CompressedIdSet set = collectFileIdsContainingAllKeys(indexId, dataKeys, filter, valueChecker, filesSet);
     return set != null && processVirtualFiles(set, filter, processor);
   }
 
@@ -1047,22 +1118,22 @@ public class FileBasedIndexImpl extends FileBasedIndex {
   }
 
   @Nullable
-  private <K, V> TIntHashSet collectFileIdsContainingAllKeys(@NotNull final ID<K, V> indexId,
-                                                             @NotNull final Collection<K> dataKeys,
-                                                             @NotNull final GlobalSearchScope filter,
-                                                             @Nullable final Condition<V> valueChecker,
-                                                             @Nullable final ProjectIndexableFilesFilter projectFilesFilter) {
-    ThrowableConvertor<UpdatableIndex<K, V, FileContent>, TIntHashSet, StorageException> convertor =
-            index -> InvertedIndexUtil.collectInputIdsContainingAllKeys(index, dataKeys, (k) -> {
+  private <K, V> CompressedIdSet collectFileIdsContainingAllKeys(@NotNull final ID<K, V> indexId,
+                                                                 @NotNull final Collection<K> dataKeys,
+                                                                 @NotNull final GlobalSearchScope filter,
+                                                                 @Nullable final Condition<V> valueChecker,
+                                                                 @Nullable final ProjectIndexableFilesFilter projectFilesFilter) {
+    ThrowableConvertor<UpdatableIndex<K, V, FileContent>, CompressedIdSet, StorageException> convertor =
+            index -> InvertedIndexUtil.intersectInputIdsContainingAllKeys(index, dataKeys, (k) -> {
               ProgressManager.checkCanceled();
               return true;
             }, valueChecker,
-                                                                        projectFilesFilter == null ? null : projectFilesFilter::containsFileId);
+                                                                          projectFilesFilter == null ? null : projectFilesFilter::containsFileId);
 
     return processExceptions(indexId, null, filter, convertor);
   }
 
-  private static boolean processVirtualFiles(@NotNull TIntHashSet ids,
+  private static boolean processVirtualFiles(@NotNull CompressedIdSet ids,
                                              @NotNull final GlobalSearchScope filter,
                                              @NotNull final Processor<VirtualFile> processor) {
     final PersistentFS fs = (PersistentFS)ManagingFS.getInstance();
@@ -1113,7 +1184,7 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     waitUntilIndicesAreInitialized();
     for (ID<?, ?> indexId : getState().getIndexIDs()) {
       try {
-        RebuildStatus.clearIndexIfNecessary(indexId, getIndex(indexId)::clear);
+        RebuildStatus.clearIndexIfNecessary(indexId, () -> getIndex(indexId).clear());
       }
       catch (StorageException e) {
         requestRebuild(indexId);
@@ -1123,6 +1194,7 @@ public class FileBasedIndexImpl extends FileBasedIndex {
   }
 
   private void clearIndex(@NotNull final ID<?, ?> indexId) throws StorageException {
+    myUpdatePipeline.waitForWrites(indexId);
     advanceIndexVersion(indexId);
 
     final UpdatableIndex<?, ?, FileContent> index = myState.getIndex(indexId);
@@ -1440,6 +1512,14 @@ public class FileBasedIndexImpl extends FileBasedIndex {
   }
 
   public void indexFileContent(@Nullable Project project, @NotNull com.intellij.ide.caches.FileContent content) {
+    indexFileContent(project, content, false);
+  }
+
+  /**
+   * @param deferStorageWrites whether storage writes of content dependent indices can be applied in background, the caller is
+   *                           responsible for calling {@link #waitForDeferredStorageWrites()} before indices are queried
+   */
+  void indexFileContent(@Nullable Project project, @NotNull com.intellij.ide.caches.FileContent content, boolean deferStorageWrites) {
     VirtualFile file = content.getVirtualFile();
     final int fileId = Math.abs(getIdMaskingNonIdBasedFile(file));
 
@@ -1452,11 +1532,12 @@ public class FileBasedIndexImpl extends FileBasedIndex {
       if (!file.isValid() || isTooLarge(file)) {
         removeDataFromIndicesForFile(fileId);
         if (file instanceof DeletedVirtualFileStub && ((DeletedVirtualFileStub)file).isResurrected()) {
-          doIndexFileContent(project, new com.intellij.ide.caches.FileContent(((DeletedVirtualFileStub)file).getOriginalFile()));
+          doIndexFileContent(project, new com.intellij.ide.caches.FileContent(((DeletedVirtualFileStub)file).getOriginalFile()),
+                             deferStorageWrites);
         }
       }
       else {
-        doIndexFileContent(project, content);
+        doIndexFileContent(project, content, deferStorageWrites);
       }
     }
     finally {
@@ -1466,7 +1547,26 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     myChangedFilesCollector.removeFileIdFromFilesScheduledForUpdate(fileId);
   }
 
-  private void doIndexFileContent(@Nullable Project project, @NotNull final com.intellij.ide.caches.FileContent content) {
+  void waitForDeferredStorageWrites() {
+    myUpdatePipeline.waitForAllWrites();
+  }
+
+  /**
+   * Publishes index snapshots of archives recorded while indexing, see {@link ArchiveIndexSnapshots}.
+   */
+  void publishArchiveSnapshots() {
+    IndexConfiguration state = getState();
+    for (ID<?, ?> indexId : state.getIndexIDs()) {
+      UpdatableIndex<?, ?, FileContent> index = state.getIndex(indexId);
+      if (index instanceof VfsAwareMapReduceIndex) {
+        ((VfsAwareMapReduceIndex)index).publishArchiveSnapshots();
+      }
+    }
+  }
+
+  private void doIndexFileContent(@Nullable Project project,
+                                  @NotNull final com.intellij.ide.caches.FileContent content,
+                                  final boolean deferStorageWrites) {
     final VirtualFile file = content.getVirtualFile();
 
     final FileType fileType = file.getFileType();
@@ -1510,7 +1610,7 @@ public class FileBasedIndexImpl extends FileBasedIndex {
 
           try {
             ProgressManager.checkCanceled();
-            updateSingleIndex(indexId, file, inputId, fc);
+            updateSingleIndex(indexId, file, inputId, fc, deferStorageWrites);
           }
           catch (ProcessCanceledException e) {
             cleanFileContent(fc, psiFile);
@@ -1557,6 +1657,14 @@ public class FileBasedIndexImpl extends FileBasedIndex {
   static final Key<Boolean> ourPhysicalContentKey = Key.create("physical.content.flag");
 
   private void updateSingleIndex(@NotNull ID<?, ?> indexId, VirtualFile file, final int inputId, @Nullable FileContent currentFC) {
+    updateSingleIndex(indexId, file, inputId, currentFC, false);
+  }
+
+  private void updateSingleIndex(@NotNull ID<?, ?> indexId,
+                                 VirtualFile file,
+                                 final int inputId,
+                                 @Nullable FileContent currentFC,
+                                 boolean deferStorageWrite) {
     if (!RebuildStatus.isOk(indexId) && !myIsUnitTestMode) {
       return; // the index is scheduled for rebuild, no need to update
     }
@@ -1577,7 +1685,12 @@ public class FileBasedIndexImpl extends FileBasedIndex {
       final Computable<Boolean> update = index.update(inputId, currentFC);
       updateCalculated = true;
 
-      scheduleUpdate(indexId, update, file, inputId, hasContent);
+      if (deferStorageWrite && needsFileContentLoading(indexId)) {
+        myUpdatePipeline.submit(indexId, new DeferredUpdate(update, file, inputId, hasContent));
+      }
+      else {
+        scheduleUpdate(indexId, update, file, inputId, hasContent);
+      }
     }
     catch (RuntimeException exception) {
       Throwable causeToRebuildIndex = getCauseToRebuildIndex(exception);
@@ -1616,21 +1729,85 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     }
   }
 
-  private final Lock myReadLock;
-  private final Lock myWriteLock;
+  // indexed stamps of a file are updated under the read lock of its stripe, invalidation of the file by VFS events takes the write lock
+  private final ReadWriteLock[] myFileLocks = new ReadWriteLock[16];
   {
-    ReadWriteLock lock = new ReentrantReadWriteLock();
-    myReadLock = lock.readLock();
-    myWriteLock = lock.writeLock();
+    for (int i = 0; i < myFileLocks.length; ++i) myFileLocks[i] = new ReentrantReadWriteLock();
+  }
+
+  @NotNull
+  private ReadWriteLock getFileLock(int fileId) {
+    return myFileLocks[Math.abs(fileId % myFileLocks.length)];
   }
+  private static class DeferredUpdate {
+    private final Computable<Boolean> myUpdate;
+    private final VirtualFile myFile;
+    private final int myInputId;
+    private final boolean myHasContent;
+
+    private DeferredUpdate(@NotNull Computable<Boolean> update, VirtualFile file, int inputId, boolean hasContent) {
+      myUpdate = update;
+      myFile = file;
+      myInputId = inputId;
+      myHasContent = hasContent;
+    }
+  }
+
+  private void applyDeferredUpdates(@NotNull ID<?, ?> indexId, @NotNull List<DeferredUpdate> updates) {
+    try {
+      UpdatableIndex<?, ?, FileContent> index = getIndex(indexId);
+      if (updates.size() == 1 || !(index instanceof MapReduceIndex)) {
+        for (DeferredUpdate update : updates) {
+          applyUpdate(indexId, update.myUpdate, update.myFile, update.myInputId, update.myHasContent);
+          IndexingStamp.flushCache(update.myInputId);
+        }
+        return;
+      }
+
+      final StorageGuard.StorageModeExitHandler lock = setDataBufferingEnabled(false);
+      boolean updated;
+      try {
+        updated = ((MapReduceIndex<?, ?, ?>)index).updateBatch(ContainerUtil.map(updates, update -> update.myUpdate));
+      }
+      finally {
+        lock.leave();
+      }
+      if (!updated) return;
+
+      for (DeferredUpdate update : updates) {
+        Lock readLock = getFileLock(update.myInputId).readLock();
+        readLock.lock();
+        try {
+          indexedStampUpdate(indexId, update.myFile, update.myInputId, update.myHasContent);
+        }
+        finally {
+          readLock.unlock();
+        }
+      }
+      for (DeferredUpdate update : updates) {
+        IndexingStamp.flushCache(update.myInputId);
+      }
+    }
+    catch (RuntimeException exception) {
+      if (getCauseToRebuildIndex(exception) == null) throw exception;
+      requestRebuild(indexId, exception);
+    }
+  }
+
   private void scheduleUpdate(@NotNull final ID<?, ?> indexId, final Computable<Boolean> update, VirtualFile file, final int inputId, final boolean hasContent) {
+    myUpdatePipeline.waitForWrites(indexId); // keep order with writes deferred earlier
+    applyUpdate(indexId, update, file, inputId, hasContent);
+  }
+
+  private void applyUpdate(@NotNull ID<?, ?> indexId, Computable<Boolean> update, VirtualFile file, int inputId, boolean hasContent) {
     if (updateWithBufferingEnabled(update)) {
-      myReadLock.lock();
+      Lock readLock = getFileLock(inputId).readLock();
+      readLock.lock();
       try {
         indexedStampUpdate(indexId, file, inputId, hasContent);
       }
       finally {
-        myReadLock.unlock();
+        readLock.unlock();
       }
     }
   }
@@ -1770,9 +1947,12 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     }
   }
 
+  private static final int VFS_EVENTS_PROCESSING_THREADS =
+    Math.max(1, SystemProperties.getIntProperty("idea.vfs.events.processing.threads", Runtime.getRuntime().availableProcessors()));
+
   private final class ChangedFilesCollector extends IndexedFilesListener {
     private final ConcurrentIntObjectMap<VirtualFile> myFilesToUpdate = ContainerUtil.createConcurrentIntObjectMap();
-    private final VfsEventsMerger myVfsEventsMerger = new VfsEventsMerger();
+    private final VfsEventsMerger myVfsEventsMerger = new VfsEventsMerger(VFS_EVENTS_PROCESSING_THREADS);
     private final Phaser myWorkersFinishedSync = new Phaser() {
       @Override
       protected boolean onAdvance(int phase, int registeredParties) {
@@ -1780,8 +1960,10 @@ public class FileBasedIndexImpl extends FileBasedIndex {
       }
     };
 
-    private final ExecutorService myVfsEventsExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("vfs event processor", 1);
-    private final AtomicInteger myScheduledVfsEventsWorkers = new AtomicInteger();
+    // every shard of the merger has at most one worker
+    private final ExecutorService myVfsEventsExecutor =
+      AppExecutorUtil.createBoundedApplicationPoolExecutor("vfs event processor", VFS_EVENTS_PROCESSING_THREADS);
+    private final AtomicIntegerArray myScheduledVfsEventsWorkers = new AtomicIntegerArray(VFS_EVENTS_PROCESSING_THREADS);
 
     @Override
     protected void buildIndicesForFileRecursively(@NotNull VirtualFile file, boolean contentChange) {
@@ -1895,13 +2077,17 @@ public class FileBasedIndexImpl extends FileBasedIndex {
       //assert ApplicationManager.getApplication().isReadAccessAllowed() || ShutDownTracker.isShutdownHookRunning();
       waitUntilIndicesAreInitialized();
 
-      ApplicationManager.getApplication().runReadAction(this::processFilesInReadAction);
+      // let workers process other shards while this thread goes through all of them
+      ensureUpToDateAsync();
+      ApplicationManager.getApplication().runReadAction(() -> processFilesInReadAction(-1));
     }
 
     void ensureUpToDateAsync() {
-      if (myVfsEventsMerger.getApproximateChangesCount() >= 20 && myScheduledVfsEventsWorkers.get() == 0) {
-        myScheduledVfsEventsWorkers.incrementAndGet();
-        myVfsEventsExecutor.submit(this::processFilesInReadActionWithYieldingToWriteAction);
+      for (int shard = 0; shard < myVfsEventsMerger.getShardCount(); ++shard) {
+        if (myVfsEventsMerger.getApproximateChangesCount(shard) >= 20 && myScheduledVfsEventsWorkers.compareAndSet(shard, 0, 1)) {
+          int finalShard = shard;
+          myVfsEventsExecutor.submit(() -> processFilesInReadActionWithYieldingToWriteAction(finalShard));
+        }
       }
     }
 
@@ -1909,16 +2095,21 @@ public class FileBasedIndexImpl extends FileBasedIndex {
       return myVfsEventsMerger.getApproximateChangesCount() + myFilesToUpdate.size();
     }
 
-    private void processFilesInReadAction() {
+    /**
+     * Processes changes of the given shard, or of all shards if it is negative, and waits until concurrent workers finish
+     * changes they took so far.
+     */
+    private void processFilesInReadAction(int shard) {
       assert ApplicationManager.getApplication().isReadAccessAllowed();
       myWorkersFinishedSync.register();
       int phase = myWorkersFinishedSync.getPhase();
       try {
-        myVfsEventsMerger.processChanges(info -> {
-          myWriteLock.lock();
+        VfsEventsMerger.VfsEventProcessor processor = info -> {
+          int fileId = info.getFileId();
+          Lock writeLock = getFileLock(fileId).writeLock();
+          writeLock.lock();
           try {
             ProgressManager.getInstance().executeNonCancelableSection(() -> {
-              int fileId = info.getFileId();
               VirtualFile file = info.getFile();
               if (info.isBeforeContentChanged()) FileBasedIndexImpl.this.doInvalidateIndicesForFile(fileId, file, true);
               if (info.isContentChanged()) scheduleFileForIndexing(null, fileId, file, true);
@@ -1927,24 +2118,30 @@ public class FileBasedIndexImpl extends FileBasedIndex {
             });
           }
           finally {
-            myWriteLock.unlock();
+            writeLock.unlock();
           }
           return true;
-        });
+        };
+        if (shard < 0) {
+          myVfsEventsMerger.processChanges(processor);
+        }
+        else {
+          myVfsEventsMerger.processChanges(shard, processor);
+        }
       } finally {
         myWorkersFinishedSync.arriveAndDeregister();
       }
       myWorkersFinishedSync.awaitAdvance(phase);
     }
 
-    private void processFilesInReadActionWithYieldingToWriteAction() {
+    private void processFilesInReadActionWithYieldingToWriteAction(int shard) {
       try {
-        while (myVfsEventsMerger.hasChanges()) {
-          ProgressManager.getInstance().runInReadActionWithWriteActionPriority(this::processFilesInReadAction);
+        while (myVfsEventsMerger.hasChanges(shard)) {
+          ProgressManager.getInstance().runInReadActionWithWriteActionPriority(() -> processFilesInReadAction(shard));
         }
       }
       finally {
-        myScheduledVfsEventsWorkers.decrementAndGet();
+        myScheduledVfsEventsWorkers.set(shard, 0);
       }
     }
   }
@@ -2364,6 +2561,7 @@ public class FileBasedIndexImpl extends FileBasedIndex {
         }
 
         state.freeze();
+        logIndexOpeningTimes();
         myState = state; // memory barrier
         // check if rebuild was requested for any index during registration
         for (ID<?, ?> indexId : state.getIndexIDs()) {
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.util.ConcurrencyUtil;
+import com.intellij.util.SystemProperties;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Storage write stage of bulk indexing.
+ * <p/>
+ * Indexing threads load file content (see {@link com.intellij.openapi.project.FileContentQueue}) and map it with index extensions,
+ * then pass the resulting updates here instead of waiting for the write lock of every index in turn. Updates of one index are applied
+ * in submission order by a single writer since index storages don't support concurrent writes, while different indices are written
+ * concurrently. Every index has a bounded queue of pending updates: indexing threads block when the storage doesn't keep up.
+ * Updates accumulated while the writer was busy are passed to it together, to be applied as a group commit.
+ *
+ * @author agent
+ */
+class IndexUpdatePipeline<T> {
+  private static final Logger LOG = Logger.getInstance(IndexUpdatePipeline.class);
+  private static final int MAX_PENDING_UPDATES = SystemProperties.getIntProperty("idea.indexing.max.pending.updates", 64);
+  private static final int MAX_BATCH_SIZE = SystemProperties.getIntProperty("idea.indexing.max.update.batch", 32);
+  private static final long WAIT_TIMEOUT_MS = 100;
+
+  interface Writer<T> {
+    /**
+     * Applies updates of the index in the given order. The writer should handle its failures itself, they are only logged.
+     * Cancelled writes are dropped, the writer shouldn't mark their files as indexed.
+     */
+    void write(@NotNull ID<?, ?> indexId, @NotNull List<T> updates);
+  }
+
+  private final Writer<T> myWriter;
+  private final int myMaxPendingUpdates;
+  private final ExecutorService myWriterExecutor =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("Index Storage Writer", Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+  private final ConcurrentMap<ID<?, ?>, IndexWriter> myWriters = ContainerUtil.newConcurrentMap();
+
+  IndexUpdatePipeline(@NotNull Writer<T> writer) {
+    this(writer, MAX_PENDING_UPDATES);
+  }
+
+  IndexUpdatePipeline(@NotNull Writer<T> writer, int maxPendingUpdates) {
+    myWriter = writer;
+    myMaxPendingUpdates = maxPendingUpdates;
+  }
+
+  /**
+   * Queues storage write of an index, blocks while the index already has too many pending writes.
+   */
+  void submit(@NotNull ID<?, ?> indexId, @NotNull T update) {
+    IndexWriter writer = myWriters.get(indexId);
+    if (writer == null) {
+      writer = ConcurrencyUtil.cacheOrGet(myWriters, indexId, new IndexWriter(indexId));
+    }
+    writer.submit(update);
+  }
+
+  /**
+   * Waits until all writes submitted for the index so far are applied.
+   */
+  void waitForWrites(@NotNull ID<?, ?> indexId) {
+    IndexWriter writer = myWriters.get(indexId);
+    if (writer != null) {
+      writer.waitForWrites();
+    }
+  }
+
+  void waitForAllWrites() {
+    for (IndexWriter writer : myWriters.values()) {
+      writer.waitForWrites();
+    }
+  }
+
+  /**
+   * Applies pending writes and stops the writer threads, no updates should be submitted afterwards.
+   */
+  void dispose() {
+    waitForAllWrites();
+    myWriterExecutor.shutdown();
+  }
+
+  protected void checkCanceled() {
+    ProgressManager.checkCanceled();
+  }
+
+  private class IndexWriter implements Runnable {
+    private final ID<?, ?> myIndexId;
+    private final Queue<T> myQueue = new ConcurrentLinkedQueue<T>();
+    private int myPendingCount; // submitted, but not finished writes; guarded by this
+    private boolean myScheduled; // guarded by this
+
+    IndexWriter(@NotNull ID<?, ?> indexId) {
+      myIndexId = indexId;
+    }
+
+    void submit(@NotNull T update) {
+      synchronized (this) {
+        boolean interrupted = false;
+        try {
+          while (myPendingCount >= myMaxPendingUpdates) {
+            checkCanceled();
+            interrupted |= doWait();
+          }
+        }
+        finally {
+          if (interrupted) Thread.currentThread().interrupt();
+        }
+        myQueue.add(update);
+        ++myPendingCount;
+        if (myScheduled) return;
+        myScheduled = true;
+      }
+      myWriterExecutor.execute(this);
+    }
+
+    synchronized void waitForWrites() {
+      boolean interrupted = false;
+      try {
+        while (myPendingCount > 0) {
+          interrupted |= doWait();
+        }
+      }
+      finally {
+        if (interrupted) Thread.currentThread().interrupt();
+      }
+    }
+
+    @Override
+    public void run() {
+      List<T> batch = new ArrayList<T>();
+      while (true) {
+        for (T update = myQueue.poll(); update != null; update = batch.size() < MAX_BATCH_SIZE ? myQueue.poll() : null) {
+          batch.add(update);
+        }
+        if (batch.isEmpty()) {
+          synchronized (this) {
+            if (myQueue.isEmpty()) {
+              myScheduled = false;
+              return;
+            }
+          }
+          continue;
+        }
+
+        try {
+          myWriter.write(myIndexId, batch);
+        }
+        catch (ProcessCanceledException ignored) {
+          // files of the batch aren't marked as indexed, so they are indexed again
+        }
+        catch (Throwable e) {
+          LOG.error(e);
+        }
+        finally {
+          synchronized (this) {
+            myPendingCount -= batch.size();
+            notifyAll();
+          }
+          batch.clear();
+        }
+      }
+    }
+
+    // returns true if the thread was interrupted, writes are waited for anyway and the caller restores the interrupt flag afterwards
+    private boolean doWait() {
+      try {
+        wait(WAIT_TIMEOUT_MS);
+        return false;
+      }
+      catch (InterruptedException e) {
+        return true;
+      }
+    }
+  }
+}
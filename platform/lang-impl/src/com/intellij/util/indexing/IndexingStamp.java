@@ -16,29 +16,20 @@
 
 package com.intellij.util.indexing;
 
+import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.io.FileUtilRt;
-import com.intellij.openapi.vfs.InvalidVirtualFileAccessException;
-import com.intellij.openapi.vfs.newvfs.FileAttribute;
 import com.intellij.openapi.vfs.newvfs.persistent.FSRecords;
-import com.intellij.util.SmartList;
 import com.intellij.util.SystemProperties;
-import com.intellij.util.containers.ConcurrentIntObjectMap;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.io.DataInputOutputUtil;
-import gnu.trove.TObjectLongHashMap;
-import gnu.trove.TObjectLongProcedure;
-import gnu.trove.TObjectProcedure;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -63,7 +54,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 public class IndexingStamp {
   private static final long INDEX_DATA_OUTDATED_STAMP = -2L;
 
-  private static final int VERSION = 15;
+  private static final int VERSION = 16;
   private static final ConcurrentMap<ID<?, ?>, Long> ourIndexIdToCreationStamp = ContainerUtil.newConcurrentMap();
   static final int INVALID_FILE_ID = 0;
   private static volatile long ourLastStamp; // ensure any file index stamp increases
@@ -98,6 +89,8 @@ public class IndexingStamp {
     }
     finally {
       ourIndexIdToCreationStamp.clear();
+      IndexingStampTable table = ourTable;
+      if (table != null) table.invalidateColumns();
       os.close();
       long max = Math.max(
               System.currentTimeMillis(),
@@ -153,7 +146,7 @@ public class IndexingStamp {
 
   public static boolean isFileIndexedStateCurrent(int fileId, ID<?, ?> indexName) {
     try {
-      return getIndexStamp(fileId, indexName) == getIndexCreationStamp(indexName);
+      return getTable().get(fileId < 0 ? -fileId : fileId, indexName) == IndexingStampTable.CURRENT;
     }
     catch (RuntimeException e) {
       final Throwable cause = e.getCause();
@@ -173,168 +166,35 @@ public class IndexingStamp {
     update(fileId, id, INDEX_DATA_OUTDATED_STAMP);
   }
 
-  /**
-   * The class is meant to be accessed from synchronized block only
-   */
-  private static class Timestamps {
-    private static final FileAttribute PERSISTENCE = new FileAttribute("__index_stamps__", 2, false);
-    private TObjectLongHashMap<ID<?, ?>> myIndexStamps;
-    private boolean myIsDirty = false;
+  private static volatile IndexingStampTable ourTable;
 
-    private Timestamps(@Nullable DataInputStream stream) throws IOException {
-      if (stream != null) {
+  @NotNull
+  private static IndexingStampTable getTable() {
+    IndexingStampTable table = ourTable;
+    if (table != null) return table;
+    synchronized (IndexingStamp.class) {
+      if (ourTable == null) {
         try {
-          int[] outdatedIndices = null;
-          long dominatingIndexStamp = DataInputOutputUtil.readTIME(stream);
-          long diff = dominatingIndexStamp - DataInputOutputUtil.timeBase;
-          if (diff > 0 && diff < ID.MAX_NUMBER_OF_INDICES) {
-            int numberOfOutdatedIndices = (int)diff;
-            outdatedIndices = new int[numberOfOutdatedIndices];
-            while(numberOfOutdatedIndices > 0) {
-              outdatedIndices[--numberOfOutdatedIndices] = DataInputOutputUtil.readINT(stream);
-            }
-            dominatingIndexStamp = DataInputOutputUtil.readTIME(stream);
-          }
-
-          while(stream.available() > 0) {
-            ID<?, ?> id = ID.findById(DataInputOutputUtil.readINT(stream));
-            if (id != null) {
-              long stamp = getIndexCreationStamp(id);
-              if (stamp == 0) continue; // All (indices) IDs should be valid in this running session (e.g. we can have ID instance existing but index is not registered)
-              if (myIndexStamps == null) myIndexStamps = new TObjectLongHashMap<ID<?, ?>>(5, 0.98f);
-              if (stamp <= dominatingIndexStamp) myIndexStamps.put(id, stamp);
-            }
-          }
-
-          if (outdatedIndices != null) {
-            for(int outdatedIndexId:outdatedIndices) {
-              ID<?, ?> id = ID.findById(outdatedIndexId);
-              if (id != null) {
-                long stamp = INDEX_DATA_OUTDATED_STAMP;
-                if (myIndexStamps == null) myIndexStamps = new TObjectLongHashMap<ID<?, ?>>(5, 0.98f);
-                if (stamp <= dominatingIndexStamp) myIndexStamps.put(id, stamp);
-              }
-            }
-          }
-        }
-        finally {
-          stream.close();
+          ourTable = new IndexingStampTable(new File(PathManager.getIndexRoot(), "stamps"), FSRecords.getCreationTimestamp());
         }
-      }
-    }
-
-    // Indexed stamp compact format:
-    // (DataInputOutputUtil.timeBase + numberOfOutdatedIndices outdated_index_id+)? (dominating_index_stamp) index_id*
-    // Note, that FSRecords.REASONABLY_SMALL attribute storage allocation policy will give an attribute 32 bytes to each file
-    // Compact format allows 22 indexed states in this state
-    private void writeToStream(final DataOutputStream stream) throws IOException {
-      if (myIndexStamps != null && !myIndexStamps.isEmpty()) {
-        final long[] data = new long[2];
-        final int dominatingStampIndex = 0;
-        final int numberOfOutdatedIndex = 1;
-        myIndexStamps.forEachEntry(
-                new TObjectLongProcedure<ID<?, ?>>() {
-                  @Override
-                  public boolean execute(ID<?, ?> a, long b) {
-                    if (b == INDEX_DATA_OUTDATED_STAMP) {
-                      ++data[numberOfOutdatedIndex];
-                      b = getIndexCreationStamp(a);
-                    }
-                    data[dominatingStampIndex] = Math.max(data[dominatingStampIndex], b);
-
-                    return true;
-                  }
-                }
-        );
-        if (data[numberOfOutdatedIndex] > 0) {
-          assert data[numberOfOutdatedIndex] < ID.MAX_NUMBER_OF_INDICES;
-          DataInputOutputUtil.writeTIME(stream, DataInputOutputUtil.timeBase + data[numberOfOutdatedIndex]);
-          myIndexStamps.forEachEntry(new TObjectLongProcedure<ID<?, ?>>() {
-            @Override
-            public boolean execute(final ID<?, ?> id, final long timestamp) {
-              try {
-                if (timestamp == INDEX_DATA_OUTDATED_STAMP) {
-                  DataInputOutputUtil.writeINT(stream, id.getUniqueId());
-                }
-                return true;
-              }
-              catch (IOException e) {
-                throw new RuntimeException(e);
-              }
-            }
-          });
+        catch (IOException e) {
+          throw new RuntimeException(e);
         }
-        DataInputOutputUtil.writeTIME(stream, data[dominatingStampIndex]);
-        myIndexStamps.forEachEntry(new TObjectLongProcedure<ID<?, ?>>() {
-          @Override
-          public boolean execute(final ID<?, ?> id, final long timestamp) {
-            try {
-              if (timestamp == INDEX_DATA_OUTDATED_STAMP) return true;
-              DataInputOutputUtil.writeINT(stream, id.getUniqueId());
-              return true;
-            }
-            catch (IOException e) {
-              throw new RuntimeException(e);
-            }
-          }
-        });
-      }
-      else {
-        DataInputOutputUtil.writeTIME(stream, DataInputOutputUtil.timeBase);
       }
-    }
-
-    private long get(ID<?, ?> id) {
-      return myIndexStamps != null? myIndexStamps.get(id) : 0L;
-    }
-
-    private void set(ID<?, ?> id, long tmst) {
-      if (myIndexStamps == null) myIndexStamps = new TObjectLongHashMap<ID<?, ?>>(5, 0.98f);
-
-      if (tmst == INDEX_DATA_OUTDATED_STAMP && !myIndexStamps.contains(id)) {
-        return;
-      }
-      long previous = myIndexStamps.put(id, tmst);
-      if (previous != tmst) myIsDirty = true;
-    }
-
-    public boolean isDirty() {
-      return myIsDirty;
+      return ourTable;
     }
   }
 
-  private static final ConcurrentIntObjectMap<Timestamps> myTimestampsCache = ContainerUtil.createConcurrentIntObjectMap();
-  private static final BlockingQueue<Integer> ourFinishedFiles = new ArrayBlockingQueue<Integer>(100);
-
   public static long getIndexStamp(int fileId, ID<?, ?> indexName) {
-    Lock readLock = getStripedLock(fileId).readLock();
-    readLock.lock();
-    try {
-      Timestamps stamp = createOrGetTimeStamp(fileId);
-      if (stamp != null) return stamp.get(indexName);
-      return 0;
-    } finally {
-      readLock.unlock();
-    }
-  }
-
-  private static Timestamps createOrGetTimeStamp(int id) {
-    boolean isValid = id > 0;
-    if (!isValid) {
-      id = -id;
-    }
-    Timestamps timestamps = myTimestampsCache.get(id);
-    if (timestamps == null) {
-      final DataInputStream stream = FSRecords.readAttributeWithLock(id, Timestamps.PERSISTENCE);
-      try {
-        timestamps = new Timestamps(stream);
-      }
-      catch (IOException e) {
-        throw new RuntimeException(e);
-      }
-      if (isValid) myTimestampsCache.put(id, timestamps);
+    if (fileId < 0) fileId = -fileId;
+    switch (getTable().get(fileId, indexName)) {
+      case IndexingStampTable.CURRENT:
+        return getIndexCreationStamp(indexName);
+      case IndexingStampTable.OUTDATED:
+        return INDEX_DATA_OUTDATED_STAMP;
+      default:
+        return 0;
     }
-    return timestamps;
   }
 
   public static void update(int fileId, @NotNull ID<?, ?> indexName, final long indexCreationStamp) {
@@ -342,8 +202,14 @@ public class IndexingStamp {
     Lock writeLock = getStripedLock(fileId).writeLock();
     writeLock.lock();
     try {
-      Timestamps stamp = createOrGetTimeStamp(fileId);
-      if (stamp != null) stamp.set(indexName, indexCreationStamp);
+      IndexingStampTable table = getTable();
+      if (indexCreationStamp == INDEX_DATA_OUTDATED_STAMP) {
+        if (table.get(fileId, indexName) != IndexingStampTable.NONE) table.set(fileId, indexName, IndexingStampTable.OUTDATED);
+      }
+      else {
+        boolean current = indexCreationStamp == getIndexCreationStamp(indexName);
+        table.set(fileId, indexName, current ? IndexingStampTable.CURRENT : IndexingStampTable.NONE);
+      }
     } finally {
       writeLock.unlock();
     }
@@ -352,65 +218,21 @@ public class IndexingStamp {
   @NotNull
   public static List<ID<?,?>> getNontrivialFileIndexedStates(int fileId) {
     if (fileId != INVALID_FILE_ID) {
-      Lock readLock = getStripedLock(fileId).readLock();
-      readLock.lock();
-      try {
-        Timestamps stamp = createOrGetTimeStamp(fileId);
-        if (stamp != null && stamp.myIndexStamps != null && !stamp.myIndexStamps.isEmpty()) {
-          final SmartList<ID<?, ?>> retained = new SmartList<ID<?, ?>>();
-          stamp.myIndexStamps.forEach(new TObjectProcedure<ID<?, ?>>() {
-            @Override
-            public boolean execute(ID<?, ?> object) {
-              retained.add(object);
-              return true;
-            }
-          });
-          return retained;
-        }
-      }
-      catch (InvalidVirtualFileAccessException ignored /*ok to ignore it here*/) {
-      }
-      finally {
-        readLock.unlock();
-      }
+      if (fileId < 0) fileId = -fileId;
+      return getTable().getNontrivialStates(fileId);
     }
     return Collections.emptyList();
   }
 
   public static void flushCaches() {
-    flushCache((Integer)null);
+    IndexingStampTable table = ourTable;
+    if (table != null) table.force();
   }
 
+  /**
+   * States are written to the memory mapped table right away, nothing to flush for a particular file.
+   */
   public static void flushCache(@Nullable Integer finishedFile) {
-    if (finishedFile != null && finishedFile == INVALID_FILE_ID) finishedFile = 0;
-    // todo make better (e.g. FinishedFiles striping, remove integers)
-    while (finishedFile == null || !ourFinishedFiles.offer(finishedFile)) {
-      List<Integer> files = new ArrayList<Integer>(ourFinishedFiles.size());
-      ourFinishedFiles.drainTo(files);
-
-      if (!files.isEmpty()) {
-        for (Integer file : files) {
-          Lock writeLock = getStripedLock(file).writeLock();
-          writeLock.lock();
-          try {
-            Timestamps timestamp = myTimestampsCache.remove(file);
-            if (timestamp == null) continue;
-
-            if (timestamp.isDirty() /*&& file.isValid()*/) {
-              final DataOutputStream sink = FSRecords.writeAttribute(file, Timestamps.PERSISTENCE);
-              timestamp.writeToStream(sink);
-              sink.close();
-            }
-          } catch (IOException e) {
-            throw new RuntimeException(e);
-          } finally {
-            writeLock.unlock();
-          }
-        }
-      }
-      if (finishedFile == null) break;
-      // else repeat until ourFinishedFiles.offer() succeeds
-    }
   }
 
   private static final ReadWriteLock[] ourLocks = new ReadWriteLock[16];
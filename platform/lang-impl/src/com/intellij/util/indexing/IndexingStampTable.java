@@ -0,0 +1,371 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.SmartList;
+import com.intellij.util.containers.ContainerUtil;
+import consulo.util.io.DirectBufferReflect;
+import gnu.trove.TLongArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Memory mapped table of indexed states: a row of 2-bit states per file id, a column per file based index.
+ * <p/>
+ * The table replaces per file attribute records: a state is read with a single byte access to the mapped buffer without locking,
+ * and writes go to the mapped buffer too, so they are persisted by the OS in batches and explicitly on {@link #force()}. The mapping
+ * is replaced under the exclusive lock when the table grows. A reader may still use the previous mapping at that moment, so replaced
+ * mappings are only unmapped on {@link #close()}.
+ * <p/>
+ * Each column remembers the creation stamp of its index. When the index is rebuilt (its creation stamp changes) the column is cleared
+ * the first time it's accessed, so states of the previous index generation are never reported as current. Columns and their stamps
+ * are kept in a small side file, when there are more columns than fit into a row the table is copied into a file with twice as wide rows.
+ * <p/>
+ * Writes to a row should be serialized by the caller.
+ *
+ * @author agent
+ */
+class IndexingStampTable {
+  private static final Logger LOG = Logger.getInstance(IndexingStampTable.class);
+
+  static final int NONE = 0;
+  static final int CURRENT = 1;
+  static final int OUTDATED = 2;
+
+  private static final int VERSION = 1;
+  private static final int STATES_PER_BYTE = 4;
+  private static final int INITIAL_ROW_SIZE = 16;
+  private static final int INITIAL_ROWS = 64 * 1024;
+
+  private final File myDir;
+  private final long myVfsCreationStamp;
+  // guarded by this
+  private final List<String> myColumnNames = new ArrayList<String>();
+  private final TLongArrayList myColumnStamps = new TLongArrayList();
+  private final ConcurrentMap<ID<?, ?>, Integer> myValidatedColumns = ContainerUtil.newConcurrentMap();
+  // writes to the mapping hold read lock, changes of the layout hold write lock, reads don't lock
+  private final ReadWriteLock myLayoutLock = new ReentrantReadWriteLock();
+  private volatile Layout myLayout;
+  // guarded by write lock of the layout
+  private final List<Layout> myRetiredLayouts = new ArrayList<Layout>();
+
+  private static class Layout {
+    private final RandomAccessFile myFile;
+    private final MappedByteBuffer myBuffer;
+    private final int myRowSize;
+    private final int myRows;
+
+    private Layout(@NotNull RandomAccessFile file, int rowSize, int rows) throws IOException {
+      myFile = file;
+      myRowSize = rowSize;
+      myRows = rows;
+      myBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long)rowSize * rows);
+    }
+
+    private int get(int fileId, int column) {
+      if (fileId >= myRows || column >= myRowSize * STATES_PER_BYTE) return NONE;
+      byte b = myBuffer.get(fileId * myRowSize + column / STATES_PER_BYTE);
+      return b >>> shift(column) & 3;
+    }
+
+    private void set(int fileId, int column, int state) {
+      int offset = fileId * myRowSize + column / STATES_PER_BYTE;
+      int b = myBuffer.get(offset) & ~(3 << shift(column)) | state << shift(column);
+      myBuffer.put(offset, (byte)b);
+    }
+
+    private static int shift(int column) {
+      return column % STATES_PER_BYTE * 2;
+    }
+
+    private void unmap() {
+      DirectBufferReflect.clean(myBuffer);
+    }
+  }
+
+  IndexingStampTable(@NotNull File dir, long vfsCreationStamp) throws IOException {
+    myDir = dir;
+    myVfsCreationStamp = vfsCreationStamp;
+
+    int rowSize = readColumns();
+    File dataFile = getDataFile(rowSize);
+    if (rowSize <= 0 || !dataFile.exists()) {
+      FileUtil.delete(myDir);
+      myColumnNames.clear();
+      myColumnStamps.clear();
+      rowSize = INITIAL_ROW_SIZE;
+      dataFile = getDataFile(rowSize);
+      FileUtil.createParentDirs(dataFile);
+      writeColumns(rowSize);
+    }
+    deleteDataFilesExcept(dataFile);
+
+    RandomAccessFile file = new RandomAccessFile(dataFile, "rw");
+    myLayout = new Layout(file, rowSize, Math.max(INITIAL_ROWS, (int)(file.length() / rowSize)));
+  }
+
+  int get(int fileId, @NotNull ID<?, ?> id) {
+    return myLayout.get(fileId, getColumn(id));
+  }
+
+  void set(int fileId, @NotNull ID<?, ?> id, int state) {
+    int column = getColumn(id);
+    myLayoutLock.readLock().lock();
+    try {
+      Layout layout = myLayout;
+      if (fileId < layout.myRows) {
+        layout.set(fileId, column, state);
+        return;
+      }
+      if (state == NONE) return;
+    }
+    finally {
+      myLayoutLock.readLock().unlock();
+    }
+
+    myLayoutLock.writeLock().lock();
+    try {
+      ensureRows(fileId + 1).set(fileId, column, state);
+    }
+    finally {
+      myLayoutLock.writeLock().unlock();
+    }
+  }
+
+  @NotNull
+  List<ID<?, ?>> getNontrivialStates(int fileId) {
+    List<String> names;
+    synchronized (this) {
+      names = new ArrayList<String>(myColumnNames);
+    }
+    List<ID<?, ?>> result = null;
+    for (int column = 0; column < names.size(); column++) {
+      if (myLayout.get(fileId, column) == NONE) continue;
+      ID<?, ?> id = ID.findByName(names.get(column));
+      if (id == null || getIndexCreationStamp(id) == 0) continue;
+      if (get(fileId, id) == NONE) continue; // column was stale
+      if (result == null) result = new SmartList<ID<?, ?>>();
+      result.add(id);
+    }
+    return result == null ? Collections.<ID<?, ?>>emptyList() : result;
+  }
+
+  /**
+   * Should be called when creation stamps of indices may change.
+   */
+  void invalidateColumns() {
+    myValidatedColumns.clear();
+  }
+
+  void force() {
+    myLayoutLock.readLock().lock();
+    try {
+      myLayout.myBuffer.force();
+    }
+    finally {
+      myLayoutLock.readLock().unlock();
+    }
+  }
+
+  void close() throws IOException {
+    myLayoutLock.writeLock().lock();
+    try {
+      Layout layout = myLayout;
+      layout.myBuffer.force();
+      layout.unmap();
+      layout.myFile.close();
+      for (Layout retired : myRetiredLayouts) {
+        retired.unmap();
+      }
+      myRetiredLayouts.clear();
+    }
+    finally {
+      myLayoutLock.writeLock().unlock();
+    }
+  }
+
+  protected long getIndexCreationStamp(@NotNull ID<?, ?> id) {
+    return IndexingStamp.getIndexCreationStamp(id);
+  }
+
+  private int getColumn(@NotNull ID<?, ?> id) {
+    Integer column = myValidatedColumns.get(id);
+    if (column != null) return column;
+
+    synchronized (this) {
+      try {
+        int index = myColumnNames.indexOf(id.toString());
+        if (index < 0) {
+          index = myColumnNames.size();
+          myColumnNames.add(id.toString());
+          myColumnStamps.add(0);
+          int rowSize = myLayout.myRowSize;
+          while (index >= rowSize * STATES_PER_BYTE) rowSize *= 2;
+          if (rowSize != myLayout.myRowSize) {
+            widenRows(rowSize);
+          }
+          else {
+            writeColumns(rowSize);
+          }
+        }
+
+        long creationStamp = getIndexCreationStamp(id);
+        if (myColumnStamps.get(index) != creationStamp) {
+          clearColumn(index);
+          myColumnStamps.set(index, creationStamp);
+          writeColumns(myLayout.myRowSize);
+        }
+        myValidatedColumns.put(id, index);
+        return index;
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  // under write lock of the layout
+  @NotNull
+  private Layout ensureRows(int rows) {
+    Layout layout = myLayout;
+    if (rows <= layout.myRows) return layout;
+    try {
+      Layout grown = new Layout(layout.myFile, layout.myRowSize, Math.max(rows, layout.myRows + (layout.myRows >> 1)));
+      myLayout = grown;
+      myRetiredLayouts.add(layout);
+      return grown;
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void clearColumn(int column) {
+    myLayoutLock.writeLock().lock();
+    try {
+      Layout layout = myLayout;
+      for (int fileId = 0; fileId < layout.myRows; fileId++) {
+        if (layout.get(fileId, column) != NONE) layout.set(fileId, column, NONE);
+      }
+      layout.myBuffer.force(); // before the new stamp of the column is written
+    }
+    finally {
+      myLayoutLock.writeLock().unlock();
+    }
+  }
+
+  private void widenRows(int rowSize) throws IOException {
+    myLayoutLock.writeLock().lock();
+    try {
+      Layout old = myLayout;
+      File dataFile = getDataFile(rowSize);
+      FileUtil.delete(dataFile);
+      Layout layout = new Layout(new RandomAccessFile(dataFile, "rw"), rowSize, old.myRows);
+      byte[] row = new byte[old.myRowSize];
+      for (int fileId = 0; fileId < old.myRows; fileId++) {
+        old.myBuffer.position(fileId * old.myRowSize);
+        old.myBuffer.get(row);
+        layout.myBuffer.position(fileId * rowSize);
+        layout.myBuffer.put(row);
+      }
+      layout.myBuffer.force();
+      writeColumns(rowSize);
+      myLayout = layout;
+      myRetiredLayouts.add(old);
+      old.myFile.close();
+      deleteDataFilesExcept(dataFile);
+    }
+    finally {
+      myLayoutLock.writeLock().unlock();
+    }
+  }
+
+  private File getDataFile(int rowSize) {
+    return new File(myDir, "stamps" + rowSize);
+  }
+
+  private void deleteDataFilesExcept(@NotNull File dataFile) {
+    File[] files = myDir.listFiles();
+    if (files == null) return;
+    for (File file : files) {
+      if (file.getName().startsWith("stamps") && !file.equals(dataFile) && !FileUtil.delete(file)) {
+        LOG.info("Can't delete " + file);
+      }
+    }
+  }
+
+  /**
+   * @return row size or -1 if there are no valid columns for the current VFS
+   */
+  private int readColumns() {
+    File file = new File(myDir, "columns");
+    if (!file.exists()) return -1;
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (in.readInt() != VERSION || in.readLong() != myVfsCreationStamp) return -1;
+        int rowSize = in.readInt();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          myColumnNames.add(in.readUTF());
+          myColumnStamps.add(in.readLong());
+        }
+        return rowSize;
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      myColumnNames.clear();
+      myColumnStamps.clear();
+      return -1;
+    }
+  }
+
+  private void writeColumns(int rowSize) throws IOException {
+    File file = new File(myDir, "columns");
+    File temp = new File(myDir, "columns.new");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+    try {
+      out.writeInt(VERSION);
+      out.writeLong(myVfsCreationStamp);
+      out.writeInt(rowSize);
+      out.writeInt(myColumnNames.size());
+      for (int i = 0; i < myColumnNames.size(); i++) {
+        out.writeUTF(myColumnNames.get(i));
+        out.writeLong(myColumnStamps.get(i));
+      }
+    }
+    finally {
+      out.close();
+    }
+    FileUtil.delete(file);
+    FileUtil.rename(temp, file);
+  }
+}
@@ -24,6 +24,7 @@ import com.intellij.util.indexing.impl.DebugAssertions;
 import com.intellij.util.indexing.impl.IndexStorage;
 import com.intellij.util.indexing.impl.UpdatableValueContainer;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.util.*;
@@ -126,6 +127,23 @@ public class MemoryIndexStorage<Key, Value> implements VfsAwareIndexStorage<Key,
 
   @Override
   public boolean processKeys(@NotNull final Processor<Key> processor, GlobalSearchScope scope, IdFilter idFilter) throws StorageException {
+    return doProcessKeys(null, null, processor, scope, idFilter);
+  }
+
+  @Override
+  public boolean processKeysInRange(@NotNull Key from,
+                                    @NotNull Key to,
+                                    @NotNull Processor<Key> processor,
+                                    GlobalSearchScope scope,
+                                    IdFilter idFilter) throws StorageException {
+    return doProcessKeys(from, to, processor, scope, idFilter);
+  }
+
+  private boolean doProcessKeys(@Nullable Key from,
+                                @Nullable Key to,
+                                @NotNull final Processor<Key> processor,
+                                GlobalSearchScope scope,
+                                IdFilter idFilter) throws StorageException {
     final Set<Key> stopList = new HashSet<>();
 
     Processor<Key> decoratingProcessor = key -> {
@@ -139,12 +157,17 @@ public class MemoryIndexStorage<Key, Value> implements VfsAwareIndexStorage<Key,
     };
 
     for (Key key : myMap.keySet()) {
+      if (from != null && !VfsAwareIndexStorage.isInRange(key, from, to)) continue;
       if (!decoratingProcessor.process(key)) {
         return false;
       }
       stopList.add(key);
     }
-    return ((VfsAwareIndexStorage<Key, Value>) myBackendStorage).processKeys(stopList.isEmpty() && myMap.isEmpty() ? processor : decoratingProcessor, scope, idFilter);
+    VfsAwareIndexStorage<Key, Value> backendStorage = (VfsAwareIndexStorage<Key, Value>)myBackendStorage;
+    Processor<Key> backendProcessor = stopList.isEmpty() && myMap.isEmpty() ? processor : decoratingProcessor;
+    return from == null
+           ? backendStorage.processKeys(backendProcessor, scope, idFilter)
+           : backendStorage.processKeysInRange(from, to, backendProcessor, scope, idFilter);
   }
 
   @Override
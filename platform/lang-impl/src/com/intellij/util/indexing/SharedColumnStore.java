@@ -0,0 +1,282 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.io.*;
+import com.intellij.util.io.DataOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Directory of columns of {@link SharedIndicesData}: a {@link MappedPersistentHashMap} of input id -> bytes per index.
+ * <p/>
+ * A column remembers the creation stamp of its index, it's replaced with an empty one when the index is rebuilt. Callers hold a reference
+ * to the column while using it ({@link #acquireColumn} / {@link Column#release}), a replaced column is closed when the last reference is
+ * released, and the new column isn't opened before that.
+ * <p/>
+ * Columns are a copy of the data kept by the indices themselves, so a column which may be inconsistent is dropped instead of being
+ * trusted: a clean marker is written after the column is forced and deleted before its next modification, a column without the marker
+ * is cleared on opening.
+ *
+ * @author agent
+ */
+class SharedColumnStore {
+  private static final Logger LOG = Logger.getInstance(SharedColumnStore.class);
+
+  private static final int VERSION = 1;
+
+  private final File myDir;
+  private final ConcurrentMap<ID<?, ?>, Column> myColumns = ContainerUtil.newConcurrentMap();
+  // replaced columns which are still referenced
+  private final ConcurrentMap<ID<?, ?>, Column> myClosingColumns = ContainerUtil.newConcurrentMap();
+
+  /**
+   * @param legacyData data file of the single map layout preceding the columns, it's deleted once when the store is created
+   */
+  SharedColumnStore(@NotNull File dir, @NotNull File legacyData) {
+    myDir = dir;
+    File versionFile = new File(dir, "version");
+    if (readLong(versionFile) != VERSION) {
+      IOUtil.deleteAllFilesStartingWith(legacyData);
+      FileUtil.delete(dir);
+      try {
+        writeLong(versionFile, VERSION);
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+    }
+  }
+
+  static class Column extends MappedPersistentHashMap<Integer, byte[]> {
+    private final long myIndexCreationStamp;
+    private final File myCleanMarker;
+    // one reference is held by the store while the column is current
+    private final AtomicInteger myReferences = new AtomicInteger(1);
+    private final CountDownLatch myClosed = new CountDownLatch(1);
+    // modifications hold read lock, forcing holds write lock
+    private final ReadWriteLock myUpdateLock = new ReentrantReadWriteLock();
+    private final Object myMarkerLock = new Object();
+    private volatile boolean myModified;
+
+    private Column(@NotNull File file, long indexCreationStamp, @NotNull File cleanMarker, boolean clean) throws IOException {
+      super(file, EnumeratorIntegerDescriptor.INSTANCE,
+            new DataExternalizer<byte[]>() {
+              @Override
+              public void save(@NotNull DataOutput out, byte[] value) throws IOException {
+                out.write(value);
+              }
+
+              @Override
+              public byte[] read(@NotNull DataInput in) throws IOException {
+                int available = ((InputStream)in).available();
+                byte[] result = new byte[available];
+                in.readFully(result);
+                return result;
+              } });
+      myIndexCreationStamp = indexCreationStamp;
+      myCleanMarker = cleanMarker;
+      myModified = !clean;
+    }
+
+    /**
+     * Stores the data of the input or removes it if the data is null.
+     */
+    void write(int inputId, @Nullable byte[] data) throws IOException {
+      myUpdateLock.readLock().lock();
+      try {
+        if (!myModified) {
+          synchronized (myMarkerLock) {
+            if (!myModified) {
+              // before any byte of the column changes
+              FileUtil.delete(myCleanMarker);
+              myModified = true;
+            }
+          }
+        }
+        if (data == null) {
+          remove(inputId);
+        }
+        else {
+          put(inputId, data);
+        }
+      }
+      finally {
+        myUpdateLock.readLock().unlock();
+      }
+    }
+
+    /**
+     * Forces the column and then marks it as clean.
+     */
+    void forceClean() {
+      myUpdateLock.writeLock().lock();
+      try {
+        force();
+        if (myModified && !isClosed()) {
+          try {
+            FileUtil.createIfDoesntExist(myCleanMarker);
+            myModified = false;
+          }
+          catch (Exception e) {
+            LOG.info(e);
+          }
+        }
+      }
+      finally {
+        myUpdateLock.writeLock().unlock();
+      }
+    }
+
+    private boolean acquire() {
+      while (true) {
+        int references = myReferences.get();
+        if (references == 0) return false;
+        if (myReferences.compareAndSet(references, references + 1)) return true;
+      }
+    }
+
+    void release() {
+      if (myReferences.decrementAndGet() > 0) return;
+      try {
+        forceClean();
+        close();
+      }
+      catch (IOException e) {
+        LOG.error(e);
+      }
+      finally {
+        myClosed.countDown();
+      }
+    }
+
+    private void awaitClosed() throws IOException {
+      try {
+        myClosed.await();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+    }
+  }
+
+  /**
+   * @return the current column of the index, the caller should {@link Column#release()} it when done
+   */
+  @NotNull
+  Column acquireColumn(@NotNull ID<?, ?> indexId) throws IOException {
+    long indexCreationStamp = getIndexCreationStamp(indexId);
+    while (true) {
+      Column column = myColumns.get(indexId);
+      if (column != null && column.myIndexCreationStamp == indexCreationStamp && column.acquire()) return column;
+
+      Column closing;
+      synchronized (this) {
+        column = myColumns.get(indexId);
+        if (column != null) {
+          if (column.myIndexCreationStamp == indexCreationStamp) continue;
+          // the replacement uses the same files, so it's opened only after the old column is closed
+          myColumns.remove(indexId);
+          myClosingColumns.put(indexId, column);
+          column.release();
+        }
+        closing = myClosingColumns.get(indexId);
+        if (closing == null) {
+          myColumns.put(indexId, openColumn(indexId, indexCreationStamp));
+          continue;
+        }
+      }
+      // other columns stay available while the references to the old one are released
+      closing.awaitClosed();
+      myClosingColumns.remove(indexId, closing);
+    }
+  }
+
+  protected long getIndexCreationStamp(@NotNull ID<?, ?> indexId) {
+    return IndexingStamp.getIndexCreationStamp(indexId);
+  }
+
+  @NotNull
+  private Column openColumn(@NotNull ID<?, ?> indexId, long indexCreationStamp) throws IOException {
+    final File file = new File(myDir, indexId.toString());
+    File stampFile = new File(myDir, indexId + ".stamp");
+    final File cleanMarker = new File(myDir, indexId + ".clean");
+    boolean clean = cleanMarker.exists() && readLong(stampFile) == indexCreationStamp;
+    if (!clean) {
+      FileUtil.delete(cleanMarker);
+      IOUtil.deleteAllFilesStartingWith(file);
+      writeLong(stampFile, indexCreationStamp);
+    }
+    return IOUtil.openCleanOrResetBroken(() -> new Column(file, indexCreationStamp, cleanMarker, clean), file);
+  }
+
+  void force() {
+    for (Column column : myColumns.values()) {
+      if (!column.acquire()) continue;
+      try {
+        column.forceClean();
+      }
+      finally {
+        column.release();
+      }
+    }
+  }
+
+  synchronized void close() {
+    for (Column column : myColumns.values()) {
+      column.release();
+    }
+    myColumns.clear();
+  }
+
+  private static long readLong(@NotNull File file) {
+    if (!file.exists()) return -1;
+    try {
+      DataInputStream in = new DataInputStream(new FileInputStream(file));
+      try {
+        return in.readLong();
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      return -1;
+    }
+  }
+
+  private static void writeLong(@NotNull File file, long value) throws IOException {
+    FileUtil.createParentDirs(file);
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    try {
+      out.writeLong(value);
+    }
+    finally {
+      out.close();
+    }
+  }
+}
@@ -40,6 +40,11 @@ class SharedMapBasedForwardIndex<Key, Value> extends AbstractForwardIndex<Key,Va
     Collection<Key> keys;
     if (SharedIndicesData.ourFileSharedIndicesEnabled) {
       keys = SharedIndicesData.recallFileData(inputId, myIndexId, mySnapshotIndexExternalizer);
+      // the shared column is written after the inputs index and is dropped if it may be inconsistent (see SharedColumnStore),
+      // so the inputs index is consulted only when the column has no data or to check
+      if (keys != null && !SharedIndicesData.DO_CHECKS) {
+        return new CollectionInputDataDiffBuilder<>(inputId, keys);
+      }
       Collection<Key> keysFromInputsIndex = myUnderlying.getInputsIndex().get(inputId);
 
       if ((keys == null && keysFromInputsIndex != null) ||
@@ -30,7 +30,6 @@ import com.intellij.util.CompressionUtil;
 import com.intellij.util.ExceptionUtil;
 import com.intellij.util.SmartList;
 import com.intellij.util.SystemProperties;
-import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.indexing.impl.DebugAssertions;
 import com.intellij.util.indexing.impl.MapReduceIndex;
 import com.intellij.util.io.*;
@@ -41,7 +40,6 @@ import org.jetbrains.annotations.NotNull;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class SnapshotInputMappings<Key, Value, Input> {
   private static final Logger LOG = Logger.getInstance(SnapshotInputMappings.class);
@@ -52,18 +50,22 @@ public class SnapshotInputMappings<Key, Value, Input> {
   private final IndexExtension<Key, Value, Input> myIndexExtension;
   private final DataIndexer<Key, Value, Input> myIndexer;
   private volatile PersistentHashMap<Integer, ByteSequence> myContents;
-  private volatile PersistentHashMap<Integer, Integer> myInputsSnapshotMapping;
+  private volatile MappedPersistentHashMap<Integer, Integer> myInputsSnapshotMapping;
   private volatile PersistentHashMap<Integer, String> myIndexingTrace;
 
   private final DataExternalizer<Collection<Key>> mySnapshotIndexExternalizer;
   private boolean myIsPsiBackedIndex;
 
   public SnapshotInputMappings(IndexExtension<Key, Value, Input> indexExtension) throws IOException {
+    this(indexExtension, indexExtension.getIndexer());
+  }
+
+  public SnapshotInputMappings(IndexExtension<Key, Value, Input> indexExtension, DataIndexer<Key, Value, Input> indexer) throws IOException {
     myIndexId = indexExtension.getName();
     myIsPsiBackedIndex = indexExtension instanceof PsiDependentIndex;
     mySnapshotIndexExternalizer = VfsAwareMapReduceIndex.createInputsIndexExternalizer(indexExtension);
     myValueExternalizer = indexExtension.getValueExternalizer();
-    myIndexer = indexExtension.getIndexer();
+    myIndexer = indexer;
     myIndexExtension = indexExtension;
     createMaps();
   }
@@ -197,11 +199,10 @@ public class SnapshotInputMappings<Key, Value, Input> {
   }
 
   public void clear() throws IOException {
-    List<File> baseDirs = ContainerUtil.list(myContents, myIndexingTrace, myInputsSnapshotMapping)
-            .stream()
-            .filter(Objects::nonNull)
-            .map(PersistentHashMap::getBaseFile)
-            .collect(Collectors.toList());
+    List<File> baseDirs = new ArrayList<>();
+    if (myContents != null) baseDirs.add(myContents.getBaseFile());
+    if (myIndexingTrace != null) baseDirs.add(myIndexingTrace.getBaseFile());
+    if (myInputsSnapshotMapping != null) baseDirs.add(myInputsSnapshotMapping.getBaseFile());
     try {
       close();
     }
@@ -236,16 +237,12 @@ public class SnapshotInputMappings<Key, Value, Input> {
     }
   }
 
-  private PersistentHashMap<Integer, Integer> createInputSnapshotMapping() throws IOException {
+  private MappedPersistentHashMap<Integer, Integer> createInputSnapshotMapping() throws IOException {
     final File fileIdToHashIdFile = new File(IndexInfrastructure.getIndexRootDir(myIndexId), "fileIdToHashId");
     try {
-      return new PersistentHashMap<Integer, Integer>(fileIdToHashIdFile, EnumeratorIntegerDescriptor.INSTANCE,
-                                                     EnumeratorIntegerDescriptor.INSTANCE, 4096) {
-        @Override
-        protected boolean wantNonnegativeIntegralValues() {
-          return true;
-        }
-      };
+      // both file ids and hash ids are inlined into the slots of the mapped table, a lookup doesn't read the log.
+      // A mapping of the previous format is reported as corrupted, so it's deleted and the index is rebuilt
+      return new MappedPersistentHashMap<>(fileIdToHashIdFile, EnumeratorIntegerDescriptor.INSTANCE, EnumeratorIntegerDescriptor.INSTANCE);
     }
     catch (IOException ex) {
       IOUtil.deleteAllFilesStartingWith(fileIdToHashIdFile);
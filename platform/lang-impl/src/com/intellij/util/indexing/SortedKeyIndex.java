@@ -0,0 +1,153 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.util.Processor;
+import com.intellij.util.io.PersistentEnumeratorBase;
+import com.intellij.util.io.PersistentHashMap;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Ordered view of the keys of a persistent map, used for range (and so prefix) key queries without enumerating all the keys.
+ * <p/>
+ * Only ids of the keys in the key enumerator of the map are kept in memory, sorted by key: keys themselves are read from the enumerator
+ * during binary search and enumeration of a range. The index is brought up to date lazily by queries: when the key storage has grown
+ * since the last query, keys of the ids which aren't in the index yet are kept in a sorted set, when there are too many of them the ids
+ * are sorted again. Like the map itself the index may contain keys which have no values anymore.
+ * <p/>
+ * Thread safe, it doesn't need the lock of the storage since the enumerator of the map is thread safe itself.
+ *
+ * @author agent
+ */
+class SortedKeyIndex<Key extends Comparable<? super Key>> {
+  private static final int MIN_ADDED_KEYS_TO_RESORT = 1024;
+
+  private final PersistentHashMap<Key, ?> myMap;
+  private int[] mySortedIds; // null until the first query
+  private int[] myIds; // the same ids in ascending order, to find the new ones
+  private final TIntHashSet myAddedIds = new TIntHashSet();
+  private final NavigableSet<Key> myAddedKeys = new TreeSet<>();
+  private int myKeysLength; // length of the key storage when the ids were collected
+
+  SortedKeyIndex(@NotNull PersistentHashMap<Key, ?> map) {
+    myMap = map;
+  }
+
+  /**
+   * Processes keys {@code k} such that {@code from <= k <= to}, in ascending order except for recently added ones.
+   */
+  synchronized boolean processKeysInRange(@NotNull Key from, @NotNull Key to, @NotNull Processor<Key> processor) throws IOException {
+    int[] ids = getSortedIds();
+    for (int i = lowerBound(ids, from); i < ids.length; i++) {
+      Key key = myMap.valueOf(ids[i]);
+      if (key.compareTo(to) > 0) break;
+      if (!processor.process(key)) return false;
+    }
+    for (Key key : myAddedKeys.subSet(from, true, to, true)) {
+      if (!processor.process(key)) return false;
+    }
+    return true;
+  }
+
+  @NotNull
+  private int[] getSortedIds() throws IOException {
+    // read before the records are collected: keys enumerated meanwhile are found by the next query if they are missed by this one
+    int keysLength = myMap.getLargestId();
+    int[] ids = mySortedIds;
+    if (ids != null && keysLength == myKeysLength) return ids;
+
+    final TIntArrayList records = new TIntArrayList();
+    myMap.traverseAllRecords(new PersistentEnumeratorBase.RecordsProcessor() {
+      @Override
+      public boolean process(int record) {
+        records.add(record);
+        return true;
+      }
+    });
+
+    if (ids != null) {
+      TIntArrayList newIds = new TIntArrayList();
+      for (int i = 0; i < records.size(); i++) {
+        int id = records.get(i);
+        if (Arrays.binarySearch(myIds, id) < 0 && !myAddedIds.contains(id)) newIds.add(id);
+      }
+      if (myAddedIds.size() + newIds.size() <= Math.max(MIN_ADDED_KEYS_TO_RESORT, ids.length / 8)) {
+        for (int i = 0; i < newIds.size(); i++) {
+          checkCanceled();
+          int id = newIds.get(i);
+          myAddedKeys.add(myMap.valueOf(id));
+          myAddedIds.add(id);
+        }
+        myKeysLength = keysLength;
+        return ids;
+      }
+    }
+
+    KeyAndId<Key>[] keys = new KeyAndId[records.size()];
+    for (int i = 0; i < keys.length; i++) {
+      checkCanceled();
+      keys[i] = new KeyAndId<>(myMap.valueOf(records.get(i)), records.get(i));
+    }
+    Arrays.sort(keys, (k1, k2) -> k1.key.compareTo(k2.key));
+
+    ids = new int[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      ids[i] = keys[i].id;
+    }
+    myIds = records.toNativeArray();
+    Arrays.sort(myIds);
+    myAddedIds.clear();
+    myAddedKeys.clear();
+    myKeysLength = keysLength;
+    return mySortedIds = ids;
+  }
+  protected void checkCanceled() {
+    ProgressManager.checkCanceled();
+  }
+
+  private int lowerBound(@NotNull int[] ids, @NotNull Key key) throws IOException {
+    int low = 0;
+    int high = ids.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (myMap.valueOf(ids[mid]).compareTo(key) < 0) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static class KeyAndId<Key extends Comparable<? super Key>> {
+    private final Key key;
+    private final int id;
+
+    private KeyAndId(@NotNull Key key, int id) {
+      this.key = key;
+      this.id = id;
+    }
+  }
+}
@@ -102,7 +102,12 @@ public class UnindexedFilesUpdater extends DumbModeTask {
   }
 
   private void indexFiles(ProgressIndicator indicator, List<VirtualFile> files) {
-    CacheUpdateRunner.processFiles(indicator, true, files, myProject, content -> myIndex.indexFileContent(myProject, content));
+    try {
+      CacheUpdateRunner.processFiles(indicator, true, files, myProject, content -> myIndex.indexFileContent(myProject, content, true));
+    }
+    finally {
+      myIndex.waitForDeferredStorageWrites();
+    }
   }
 
   @Override
@@ -110,6 +115,7 @@ public class UnindexedFilesUpdater extends DumbModeTask {
     myIndex.filesUpdateStarted(myProject);
     try {
       updateUnindexedFiles(indicator);
+      myIndex.publishArchiveSnapshots();
     }
     catch (ProcessCanceledException e) {
       LOG.info("Unindexed files update canceled");
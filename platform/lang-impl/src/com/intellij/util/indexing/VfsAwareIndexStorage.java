@@ -23,4 +23,21 @@ import org.jetbrains.annotations.Nullable;
 
 public interface VfsAwareIndexStorage<Key, Value> extends IndexStorage<Key, Value> {
   boolean processKeys(@NotNull Processor<Key> processor, GlobalSearchScope scope, @Nullable IdFilter idFilter) throws StorageException;
+
+  /**
+   * Processes keys {@code k} such that {@code from <= k <= to}, keys of the storage should be {@link Comparable}.
+   * Storages able to enumerate keys in order should do it without processing all the keys.
+   */
+  default boolean processKeysInRange(@NotNull Key from,
+                                     @NotNull Key to,
+                                     @NotNull Processor<Key> processor,
+                                     GlobalSearchScope scope,
+                                     @Nullable IdFilter idFilter) throws StorageException {
+    return processKeys(key -> !isInRange(key, from, to) || processor.process(key), scope, idFilter);
+  }
+
+  @SuppressWarnings("unchecked")
+  static <Key> boolean isInRange(@NotNull Key key, @NotNull Key from, @NotNull Key to) {
+    return ((Comparable<Key>)from).compareTo(key) <= 0 && ((Comparable<Key>)key).compareTo(to) <= 0;
+  }
 }
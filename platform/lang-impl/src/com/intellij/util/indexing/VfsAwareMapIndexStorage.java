@@ -49,6 +49,7 @@ public final class VfsAwareMapIndexStorage<Key, Value> extends MapIndexStorage<K
   private final boolean myBuildKeyHashToVirtualFileMapping;
   private AppendableStorageBackedByResizableMappedFile myKeyHashToVirtualFileMapping;
   private volatile int myLastScannedId;
+  private volatile SortedKeyIndex mySortedKeys; // created on first range query, updated by the queries
 
   private static final ConcurrentIntObjectMap<Boolean> ourInvalidatedSessionIds = ContainerUtil.createConcurrentIntObjectMap();
 
@@ -74,6 +75,7 @@ public final class VfsAwareMapIndexStorage<Key, Value> extends MapIndexStorage<K
   @Override
   protected void initMapAndCache() throws IOException {
     super.initMapAndCache();
+    mySortedKeys = null;
     myKeyHashToVirtualFileMapping = myBuildKeyHashToVirtualFileMapping ?
                                     new AppendableStorageBackedByResizableMappedFile(getProjectFile(), 4096, null, PagedFileStorage.MB, true) : null;
   }
@@ -148,56 +150,10 @@ public final class VfsAwareMapIndexStorage<Key, Value> extends MapIndexStorage<K
     l.lock();
     try {
       myCache.clear(); // this will ensure that all new keys are made into the map
-      if (myBuildKeyHashToVirtualFileMapping && idFilter != null) {
-        TIntHashSet hashMaskSet = null;
-        long l = System.currentTimeMillis();
-
-        File fileWithCaches = getSavedProjectFileValueIds(myLastScannedId, scope);
-        final boolean useCachedHashIds = ENABLE_CACHED_HASH_IDS &&
-                                         (scope instanceof ProjectScopeImpl || scope instanceof ProjectAndLibrariesScope) &&
-                                         fileWithCaches != null;
-        int id = myKeyHashToVirtualFileMapping.getCurrentLength();
-
-        if (useCachedHashIds && id == myLastScannedId) {
-          if (ourInvalidatedSessionIds.remove(id) == null) {
-            try {
-              hashMaskSet = loadHashedIds(fileWithCaches);
-            }
-            catch (IOException ignored) {
-            }
-          }
-        }
-
-        if (hashMaskSet == null) {
-          if (useCachedHashIds && myLastScannedId != 0) {
-            FileUtil.asyncDelete(fileWithCaches);
-          }
-
-          hashMaskSet = new TIntHashSet(1000);
-          final TIntHashSet finalHashMaskSet = hashMaskSet;
-          withLock(() -> {
-            myKeyHashToVirtualFileMapping.force();
-            ProgressManager.checkCanceled();
-
-            myKeyHashToVirtualFileMapping.processAll(key -> {
-              if (!idFilter.containsFileId(key[1])) return true;
-              finalHashMaskSet.add(key[0]);
-              ProgressManager.checkCanceled();
-              return true;
-            }, IntPairInArrayKeyDescriptor.INSTANCE);
-          });
-
-          if (useCachedHashIds) {
-            saveHashedIds(hashMaskSet, id, scope);
-          }
-        }
-
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("Scanned keyHashToVirtualFileMapping of " + myBaseStorageFile + " for " + (System.currentTimeMillis() - l));
-        }
-        final TIntHashSet finalHashMaskSet = hashMaskSet;
+      final TIntHashSet hashMaskSet = getKeyHashMask(scope, idFilter);
+      if (hashMaskSet != null) {
         return myMap.processKeys(key -> {
-          if (!finalHashMaskSet.contains(myKeyDescriptor.getHashCode(key))) return true;
+          if (!hashMaskSet.contains(myKeyDescriptor.getHashCode(key))) return true;
           return processor.process(key);
         });
       }
@@ -214,6 +170,109 @@ public final class VfsAwareMapIndexStorage<Key, Value> extends MapIndexStorage<K
     }
   }
 
+  @Override
+  public boolean processKeysInRange(@NotNull Key from,
+                                    @NotNull Key to,
+                                    @NotNull final Processor<Key> processor,
+                                    GlobalSearchScope scope,
+                                    @Nullable IdFilter idFilter) throws StorageException {
+    if (!(myMap instanceof PersistentHashMap) || myKeyDescriptor instanceof InlineKeyDescriptor || !(from instanceof Comparable)) {
+      return VfsAwareIndexStorage.super.processKeysInRange(from, to, processor, scope, idFilter);
+    }
+    final TIntHashSet hashMaskSet;
+    SortedKeyIndex sortedKeys;
+    l.lock();
+    try {
+      myCache.clear(); // this will ensure that all new keys are made into the map
+      hashMaskSet = getKeyHashMask(scope, idFilter);
+      sortedKeys = mySortedKeys;
+      if (sortedKeys == null) {
+        //noinspection unchecked
+        mySortedKeys = sortedKeys = new SortedKeyIndex((PersistentHashMap)myMap);
+      }
+    }
+    catch (IOException e) {
+      throw new StorageException(e);
+    }
+    catch (RuntimeException e) {
+      return unwrapCauseAndRethrow(e);
+    }
+    finally {
+      l.unlock();
+    }
+
+    // keys are sorted and read without the lock, so lookups and updates of the storage aren't blocked meanwhile
+    try {
+      //noinspection unchecked
+      return sortedKeys.processKeysInRange((Comparable)from, (Comparable)to, key -> {
+        if (hashMaskSet != null && !hashMaskSet.contains(myKeyDescriptor.getHashCode((Key)key))) return true;
+        return processor.process((Key)key);
+      });
+    }
+    catch (IOException e) {
+      throw new StorageException(e);
+    }
+    catch (RuntimeException e) {
+      return unwrapCauseAndRethrow(e);
+    }
+  }
+
+  /**
+   * @return hashes of the keys which have values in the files accepted by the filter, null if keys can't be filtered
+   */
+  @Nullable
+  private TIntHashSet getKeyHashMask(GlobalSearchScope scope, @Nullable final IdFilter idFilter) throws IOException {
+    if (!myBuildKeyHashToVirtualFileMapping || idFilter == null) return null;
+
+    TIntHashSet hashMaskSet = null;
+    long l = System.currentTimeMillis();
+
+    File fileWithCaches = getSavedProjectFileValueIds(myLastScannedId, scope);
+    final boolean useCachedHashIds = ENABLE_CACHED_HASH_IDS &&
+                                     (scope instanceof ProjectScopeImpl || scope instanceof ProjectAndLibrariesScope) &&
+                                     fileWithCaches != null;
+    int id = myKeyHashToVirtualFileMapping.getCurrentLength();
+
+    if (useCachedHashIds && id == myLastScannedId) {
+      if (ourInvalidatedSessionIds.remove(id) == null) {
+        try {
+          hashMaskSet = loadHashedIds(fileWithCaches);
+        }
+        catch (IOException ignored) {
+        }
+      }
+    }
+
+    if (hashMaskSet == null) {
+      if (useCachedHashIds && myLastScannedId != 0) {
+        FileUtil.asyncDelete(fileWithCaches);
+      }
+
+      hashMaskSet = new TIntHashSet(1000);
+      final TIntHashSet finalHashMaskSet = hashMaskSet;
+      withLock(() -> {
+        myKeyHashToVirtualFileMapping.force();
+        ProgressManager.checkCanceled();
+
+        myKeyHashToVirtualFileMapping.processAll(key -> {
+          if (!idFilter.containsFileId(key[1])) return true;
+          finalHashMaskSet.add(key[0]);
+          ProgressManager.checkCanceled();
+          return true;
+        }, IntPairInArrayKeyDescriptor.INSTANCE);
+      });
+
+      if (useCachedHashIds) {
+        saveHashedIds(hashMaskSet, id, scope);
+      }
+    }
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Scanned keyHashToVirtualFileMapping of " + myBaseStorageFile + " for " + (System.currentTimeMillis() - l));
+    }
+    return hashMaskSet;
+  }
+
   @NotNull
   private static TIntHashSet loadHashedIds(@NotNull File fileWithCaches) throws IOException {
     DataInputStream inputStream = null;
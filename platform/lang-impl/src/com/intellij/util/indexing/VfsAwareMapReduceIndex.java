@@ -21,6 +21,7 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.NotNullLazyValue;
 import com.intellij.openapi.util.UserDataHolder;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.impl.cache.impl.id.IdIndex;
@@ -59,14 +60,16 @@ public class VfsAwareMapReduceIndex<Key, Value, Input> extends MapReduceIndex<Ke
   private final AtomicBoolean myInMemoryMode = new AtomicBoolean();
   private final TIntObjectHashMap<Collection<Key>> myInMemoryKeys = new TIntObjectHashMap<Collection<Key>>();
   private final SnapshotInputMappings<Key, Value, Input> mySnapshotInputMappings;
+  @Nullable private final ArchiveIndexSnapshots<Key, Value> myArchiveSnapshots;
 
   public VfsAwareMapReduceIndex(@NotNull IndexExtension<Key, Value, Input> extension,
                                 @NotNull IndexStorage<Key, Value> storage) throws IOException {
     super(extension, storage, getForwardIndex(extension));
     SharedIndicesData.registerIndex(myIndexId, extension);
     mySnapshotInputMappings = myForwardIndex == null ?
-                              new SnapshotInputMappings<>(extension) :
+                              new SnapshotInputMappings<>(extension, this::mapInput) :
                               null;
+    myArchiveSnapshots = createArchiveSnapshots(extension);
     installMemoryModeListener();
   }
 
@@ -77,8 +80,9 @@ public class VfsAwareMapReduceIndex<Key, Value, Input> extends MapReduceIndex<Ke
     super(extension, storage, forwardIndex);
     SharedIndicesData.registerIndex(myIndexId, extension);
     mySnapshotInputMappings = myForwardIndex == null ?
-                              new SnapshotInputMappings<>(extension) :
+                              new SnapshotInputMappings<>(extension, this::mapInput) :
                               null;
+    myArchiveSnapshots = createArchiveSnapshots(extension);
     installMemoryModeListener();
   }
 
@@ -127,6 +131,76 @@ public class VfsAwareMapReduceIndex<Key, Value, Input> extends MapReduceIndex<Ke
     });
   }
 
+  @Override
+  protected Map<Key, Value> mapInput(Input content) {
+    if (myArchiveSnapshots != null && content instanceof FileContent && isContentPhysical(content)) {
+      FileContent fileContent = (FileContent)content;
+      Map<Key, Value> data = myArchiveSnapshots.read(fileContent.getFile());
+      if (data != null) {
+        data = restoreArchiveSnapshotData(fileContent, data);
+        if (data != null) return data;
+      }
+      data = super.mapInput(content);
+      if (myArchiveSnapshots.isRecording(fileContent.getFile())) {
+        Map<Key, Value> exported = exportArchiveSnapshotData(fileContent, data);
+        if (exported != null) myArchiveSnapshots.record(fileContent.getFile(), exported);
+      }
+      return data;
+    }
+    return super.mapInput(content);
+  }
+
+  /**
+   * Converts indexer result for the file to data saved to an archive snapshot, which is read on another machine.
+   *
+   * @return null if data of the file shouldn't be saved
+   */
+  @Nullable
+  protected Map<Key, Value> exportArchiveSnapshotData(@NotNull FileContent content, @NotNull Map<Key, Value> data) {
+    return data;
+  }
+
+  /**
+   * Converts data of the file read from an archive snapshot exported on another machine to the indexer result for the file.
+   *
+   * @return null if the data can't be used and the file should be indexed
+   */
+  @Nullable
+  protected Map<Key, Value> restoreArchiveSnapshotData(@NotNull FileContent content, @NotNull Map<Key, Value> data) {
+    return data;
+  }
+
+  /**
+   * @return version of the index data saved to archive snapshots, snapshots of other versions are not used
+   */
+  @NotNull
+  protected String getArchiveSnapshotVersion() {
+    return String.valueOf(myExtension.getVersion());
+  }
+
+  /**
+   * Publishes archive snapshots exported so far, see {@link ArchiveIndexSnapshots}.
+   */
+  void publishArchiveSnapshots() {
+    if (myArchiveSnapshots != null) myArchiveSnapshots.publish();
+  }
+
+  @Nullable
+  private ArchiveIndexSnapshots<Key, Value> createArchiveSnapshots(@NotNull IndexExtension<Key, Value, Input> extension) {
+    if (!ArchiveIndexSnapshots.isEnabled() ||
+        !(extension instanceof FileBasedIndexExtension) ||
+        !((FileBasedIndexExtension<Key, Value>)extension).hasArchiveSnapshots()) {
+      return null;
+    }
+    return new ArchiveIndexSnapshots<>(extension, new NotNullLazyValue<String>() {
+      @NotNull
+      @Override
+      protected String compute() {
+        return getArchiveSnapshotVersion();
+      }
+    });
+  }
+
   @Override
   public void setIndexedStateForFile(int fileId, @NotNull VirtualFile file) {
     IndexingStamp.setFileIndexedStateCurrent(fileId, myIndexId);
@@ -154,6 +228,24 @@ public class VfsAwareMapReduceIndex<Key, Value, Input> extends MapReduceIndex<Ke
     }
   }
 
+  /**
+   * @see VfsAwareIndexStorage#processKeysInRange
+   */
+  public boolean processKeysInRange(@NotNull Key from,
+                                    @NotNull Key to,
+                                    @NotNull Processor<Key> processor,
+                                    @NotNull GlobalSearchScope scope,
+                                    @Nullable IdFilter idFilter) throws StorageException {
+    final Lock lock = getReadLock();
+    try {
+      lock.lock();
+      return ((VfsAwareIndexStorage<Key, Value>)myStorage).processKeysInRange(from, to, processor, scope, idFilter);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
   @Override
   public void checkCanceled() {
     ProgressManager.checkCanceled();
@@ -191,6 +283,7 @@ public class VfsAwareMapReduceIndex<Key, Value, Input> extends MapReduceIndex<Ke
   @Override
   public void dispose() {
     super.dispose();
+    if (myArchiveSnapshots != null) myArchiveSnapshots.dispose();
     if (mySnapshotInputMappings != null) try {
       mySnapshotInputMappings.close();
     }
@@ -20,12 +20,45 @@ import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.containers.ConcurrentIntObjectMap;
 import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
+ * Coalesces events of a file until they are processed. Files are partitioned into shards by their id, shards can be processed
+ * concurrently while changes of one shard are processed one by one, so events of a file are always handled in order.
+ *
  * @author Maxim.Mossienko on 11/10/2016.
  */
 public class VfsEventsMerger {
+  private final ConcurrentIntObjectMap<ChangeInfo>[] myChangeInfos;
+  private final Lock[] myShardLocks;
+
+  public VfsEventsMerger() {
+    this(1);
+  }
+
+  @SuppressWarnings("unchecked")
+  public VfsEventsMerger(int shardCount) {
+    assert shardCount > 0;
+    myChangeInfos = new ConcurrentIntObjectMap[shardCount];
+    myShardLocks = new Lock[shardCount];
+    for (int i = 0; i < shardCount; ++i) {
+      myChangeInfos[i] = ContainerUtil.createConcurrentIntObjectMap();
+      myShardLocks[i] = new ReentrantLock();
+    }
+  }
+
+  public int getShardCount() {
+    return myChangeInfos.length;
+  }
+
+  public int getShard(int fileId) {
+    return Math.abs(fileId % myChangeInfos.length);
+  }
+
   public void recordFileEvent(int fileId, VirtualFile file, boolean contentChange) {
     updateChange(fileId, file, contentChange ? FILE_CONTENT_CHANGED : FILE_ADDED);
   }
@@ -35,10 +68,15 @@ public class VfsEventsMerger {
   }
 
   private void updateChange(int fileId, VirtualFile file, short mask) {
+    ConcurrentIntObjectMap<ChangeInfo> changeInfos = myChangeInfos[getShard(fileId)];
+    // changes are taken by workers concurrently, so a change that is already taken mustn't be put back merged into the new one
     while (true) {
-      ChangeInfo existingChangeInfo = myChangeInfos.get(fileId);
+      ChangeInfo existingChangeInfo = changeInfos.get(fileId);
       ChangeInfo newChangeInfo = new ChangeInfo(file, mask, existingChangeInfo);
-      if(myChangeInfos.put(fileId, newChangeInfo) == existingChangeInfo) break;
+      if (existingChangeInfo == null ? changeInfos.putIfAbsent(fileId, newChangeInfo) == null
+                                     : changeInfos.replace(fileId, existingChangeInfo, newChangeInfo)) {
+        break;
+      }
     }
   }
 
@@ -51,35 +89,67 @@ public class VfsEventsMerger {
   // with the processing then set of events will be not empty
   // 3. Method regularly checks for cancellations (thus can finish with PCEs) but event processor should process the change info atomically
   // (without PCE)
-  public boolean processChanges(VfsEventProcessor eventProcessor) {
-    if (!myChangeInfos.isEmpty()) {
-      int[] fileIds = myChangeInfos.keys(); // snapshot of the keys
-      for (int fileId : fileIds) {
-        ProgressManager.checkCanceled();
-        ChangeInfo info = myChangeInfos.remove(fileId);
-        if (info == null) continue;
+  public boolean processChanges(@NotNull VfsEventProcessor eventProcessor) {
+    for (int shard = 0; shard < myChangeInfos.length; ++shard) {
+      if (!processChanges(shard, eventProcessor)) return false;
+    }
+    return true;
+  }
 
+  // Same as processChanges(VfsEventProcessor) for the files of the shard. A change is taken and processed under the shard lock,
+  // so changes of the same file are never processed concurrently or out of order by different threads
+  public boolean processChanges(int shard, @NotNull VfsEventProcessor eventProcessor) {
+    ConcurrentIntObjectMap<ChangeInfo> changeInfos = myChangeInfos[shard];
+    if (!changeInfos.isEmpty()) {
+      Lock lock = myShardLocks[shard];
+      int[] fileIds = changeInfos.keys(); // snapshot of the keys
+      for (int fileId : fileIds) {
+        checkCanceled();
+        lock.lock();
         try {
+          ChangeInfo info = changeInfos.remove(fileId);
+          if (info == null) continue;
+
           if (!eventProcessor.process(info)) return false;
         }
         catch (ProcessCanceledException pce) { // todo remove
           FileBasedIndexImpl.LOG.error(pce);
           assert false;
         }
+        finally {
+          lock.unlock();
+        }
       }
     }
     return true;
   }
 
+  protected void checkCanceled() {
+    ProgressManager.checkCanceled();
+  }
+
   public boolean hasChanges() {
-    return !myChangeInfos.isEmpty();
+    for (ConcurrentIntObjectMap<ChangeInfo> changeInfos : myChangeInfos) {
+      if (!changeInfos.isEmpty()) return true;
+    }
+    return false;
+  }
+
+  public boolean hasChanges(int shard) {
+    return !myChangeInfos[shard].isEmpty();
   }
 
   public int getApproximateChangesCount() {
-    return myChangeInfos.size();
+    int count = 0;
+    for (ConcurrentIntObjectMap<ChangeInfo> changeInfos : myChangeInfos) {
+      count += changeInfos.size();
+    }
+    return count;
   }
 
-  private final ConcurrentIntObjectMap<ChangeInfo> myChangeInfos = ContainerUtil.createConcurrentIntObjectMap();
+  public int getApproximateChangesCount(int shard) {
+    return myChangeInfos[shard].size();
+  }
 
   private static final short FILE_ADDED = 1;
   private static final short FILE_REMOVED = 2;
@@ -24,6 +24,8 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
 import com.intellij.openapi.vfs.newvfs.ManagingFS;
 import com.intellij.util.ArrayUtil;
+import com.intellij.util.SmartList;
+import com.intellij.util.concurrency.AtomicFieldUpdater;
 import com.intellij.util.containers.ContainerUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -45,7 +47,7 @@ class FilePointerPartNode {
   // in case there is file pointer exists for this part, its info is saved here
   volatile Pair<VirtualFile, String> myFileAndUrl; // must not be both null
   private volatile long myLastUpdated = -1;
-  volatile int useCount;
+  private static final AtomicFieldUpdater<FilePointerPartNode, Pair> FILE_AND_URL_UPDATER = AtomicFieldUpdater.forFieldOfType(FilePointerPartNode.class, Pair.class);
 
   int pointersUnder;   // number of alive pointers in this node plus all nodes beneath
   private static final VirtualFileManager ourFileManager = VirtualFileManager.getInstance();
@@ -149,7 +151,12 @@ class FilePointerPartNode {
       assert child.parent == this;
     }
     childSum += leavesNumber();
-    assert (useCount == 0) == (leaves == null) : useCount + " - " + (leaves instanceof VirtualFilePointerImpl ? leaves : Arrays.toString((VirtualFilePointerImpl[])leaves));
+    // pointers are removed from the tree when they are disposed, usages are counted by the pointers themselves
+    List<VirtualFilePointerImpl> pointers = new SmartList<VirtualFilePointerImpl>();
+    addAllPointersTo(pointers);
+    for (VirtualFilePointerImpl pointer : pointers) {
+      assert pointer.myNode == this && !pointer.isKilled() : pointer + " - " + Arrays.toString(pointers.toArray());
+    }
     assert pointersUnder == childSum : "expected: "+pointersUnder+"; actual: "+childSum;
   }
 
@@ -204,10 +211,8 @@ class FilePointerPartNode {
       child.parent = splittedAway;
     }
     splittedAway.pointersUnder = pointersUnder;
-    splittedAway.useCount = useCount;
     splittedAway.associate(leaves, myFileAndUrl);
     associate(null, null);
-    useCount = 0;
     part = commonPredecessor;
     children = newNode == this ? new FilePointerPartNode[]{splittedAway} : new FilePointerPartNode[]{splittedAway, newNode};
     pointersUnder+=pointersToStore;
@@ -220,8 +225,26 @@ class FilePointerPartNode {
     int pointersNumber = leavesNumber();
     assert leaves != null : toString();
     associate(null, null);
-    useCount = 0;
     myLastUpdated = -1;
+    return decrementPointersUnder(pointersNumber);
+  }
+
+  // removes one of the pointers of this node, returns root node
+  @NotNull
+  FilePointerPartNode remove(@NotNull VirtualFilePointerImpl pointer) {
+    Object leaves = this.leaves;
+    if (!(leaves instanceof VirtualFilePointerImpl[])) {
+      assert leaves == pointer : toString();
+      return remove();
+    }
+    VirtualFilePointerImpl[] rest = ArrayUtil.remove((VirtualFilePointerImpl[])leaves, pointer);
+    assert rest.length == ((VirtualFilePointerImpl[])leaves).length - 1 : toString();
+    this.leaves = rest.length == 1 ? rest[0] : rest;
+    return decrementPointersUnder(1);
+  }
+
+  @NotNull
+  private FilePointerPartNode decrementPointersUnder(int pointersNumber) {
     FilePointerPartNode node;
     for (node = this; node.parent != null; node = node.parent) {
       node.pointersUnder-=pointersNumber;
@@ -236,11 +259,12 @@ class FilePointerPartNode {
     return indexOfFirstDifferentChar(path, start, part, 0);
   }
 
-  @NotNull
-    // returns pair.second != null always
+  // returns null if the node has lost its pointers meanwhile (e.g. it's been split by create() in another thread), pair.second != null otherwise
+  @Nullable
   Pair<VirtualFile, String> update() {
     long lastUpdated = myLastUpdated;
     Pair<VirtualFile, String> fileAndUrl = myFileAndUrl;
+    if (fileAndUrl == null) return null;
     long fsModCount = ourManagingFS.getStructureModificationCount();
     if (lastUpdated == fsModCount) return fileAndUrl;
     VirtualFile file = fileAndUrl.first;
@@ -277,12 +301,16 @@ class FilePointerPartNode {
     Pair<VirtualFile, String> result;
     if (changed) {
       result = Pair.create(file, url);
-      myFileAndUrl = result;
+      // the node may have been re-associated meanwhile, its new info must not be overwritten
+      if (!FILE_AND_URL_UPDATER.compareAndSet(this, fileAndUrl, result)) return result;
     }
     else {
       result = fileAndUrl;
     }
     myLastUpdated = fsModCount;
+    if (myFileAndUrl != result) {
+      myLastUpdated = -1; // re-associated after the check above, the new info is to be updated
+    }
     return result;
   }
 
@@ -318,10 +346,6 @@ class FilePointerPartNode {
     myLastUpdated = -1;
   }
 
-  int incrementUsageCount(int delta) {
-    return useCount+=delta;
-  }
-
   int numberOfPointersUnder() {
     return pointersUnder;
   }
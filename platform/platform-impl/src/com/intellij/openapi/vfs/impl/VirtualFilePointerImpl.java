@@ -27,6 +27,9 @@ import com.intellij.openapi.vfs.pointers.VirtualFilePointerListener;
 import com.intellij.openapi.vfs.pointers.VirtualFilePointerManager;
 import com.intellij.util.PathUtil;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
 
 class VirtualFilePointerImpl extends TraceableDisposable implements VirtualFilePointer {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vfs.impl.VirtualFilePointerImpl");
@@ -35,6 +38,10 @@ class VirtualFilePointerImpl extends TraceableDisposable implements VirtualFileP
   private static final boolean TRACE_CREATION = LOG.isDebugEnabled() || ApplicationManager.getApplication().isUnitTestMode();
 
   volatile FilePointerPartNode myNode; // null means disposed
+  // number of create() calls which returned this pointer and weren't disposed yet, -1 when the pointer is killed
+  private final AtomicInteger myUsages = new AtomicInteger();
+  // url of the pointer in the lookup map of the manager or null if it isn't there, guarded by the manager
+  String myRegisteredUrl;
 
   VirtualFilePointerImpl(VirtualFilePointerListener listener, @NotNull Disposable parentDisposable, Pair<VirtualFile, String> fileAndUrl) {
     super(TRACE_CREATION);
@@ -45,7 +52,8 @@ class VirtualFilePointerImpl extends TraceableDisposable implements VirtualFileP
   @NotNull
   public String getFileName() {
     if (!checkDisposed()) return "";
-    Pair<VirtualFile, String> result = myNode.update();
+    Pair<VirtualFile, String> result = update();
+    if (result == null) return "";
     VirtualFile file = result.first;
     if (file != null) {
       return file.getName();
@@ -58,21 +66,41 @@ class VirtualFilePointerImpl extends TraceableDisposable implements VirtualFileP
   @Override
   public VirtualFile getFile() {
     if (!checkDisposed()) return null;
-    Pair<VirtualFile, String> result = myNode.update();
-    return result.first;
+    Pair<VirtualFile, String> result = update();
+    return result == null ? null : result.first;
   }
 
   @Override
   @NotNull
   public String getUrl() {
-    if (isDisposed()) return "";
-    Pair<VirtualFile, String> update = myNode.update();
-    return update.second;
+    Pair<VirtualFile, String> update = update();
+    return update == null ? "" : update.second;
   }
 
   @NotNull
   String getUrlNoUpdate() {
-    return isDisposed() ? "" : myNode.myFileAndUrl.second;
+    while (true) {
+      FilePointerPartNode node = myNode;
+      if (node == null) return "";
+      Pair<VirtualFile, String> fileAndUrl = node.myFileAndUrl;
+      if (fileAndUrl != null) return fileAndUrl.second;
+    }
+  }
+
+  /**
+   * Pointers are moved between nodes by the manager under its lock while they are read here without it,
+   * so the node is looked up again if it has lost its pointers meanwhile.
+   *
+   * @return null if the pointer is disposed
+   */
+  @Nullable
+  Pair<VirtualFile, String> update() {
+    while (true) {
+      FilePointerPartNode node = myNode;
+      if (node == null) return null;
+      Pair<VirtualFile, String> result = node.update();
+      if (result != null) return result;
+    }
   }
 
   @Override
@@ -82,7 +110,7 @@ class VirtualFilePointerImpl extends TraceableDisposable implements VirtualFileP
     return PathUtil.toPresentableUrl(getUrl());
   }
 
-  private boolean checkDisposed() {
+  boolean checkDisposed() {
     if (isDisposed()) {
       ProgressManager.checkCanceled();
       LOG.error("Already disposed: URL='" + this + "'");
@@ -94,7 +122,7 @@ class VirtualFilePointerImpl extends TraceableDisposable implements VirtualFileP
 
   @Override
   public boolean isValid() {
-    Pair<VirtualFile, String> result = isDisposed() ? null : myNode.update();
+    Pair<VirtualFile, String> result = update();
     return result != null && result.first != null;
   }
 
@@ -104,17 +132,50 @@ class VirtualFilePointerImpl extends TraceableDisposable implements VirtualFileP
   }
 
   public void dispose() {
-    checkDisposed();
-    if (myNode.incrementUsageCount(-1) == 0) {
+    if (!checkDisposed()) return;
+    VirtualFilePointerManager pointerManager = VirtualFilePointerManager.getInstance();
+    if (pointerManager instanceof VirtualFilePointerManagerImpl) {
+      ((VirtualFilePointerManagerImpl)pointerManager).releasePointer(this, 1); // removes from the tree when it's the last usage
+    }
+    else if (releaseUsages(1) == 0 && markKilled()) {
       kill("URL when die: "+ toString());
-      VirtualFilePointerManager pointerManager = VirtualFilePointerManager.getInstance();
-      if (pointerManager instanceof VirtualFilePointerManagerImpl) {
-        ((VirtualFilePointerManagerImpl)pointerManager).removeNode(myNode, myListener); // remove from the tree
-      }
       myNode = null;
     }
   }
 
+  /**
+   * Adds a usage unless the pointer is killed. A pointer without usages may be acquired again until it's killed.
+   */
+  boolean tryAcquire() {
+    while (true) {
+      int usages = myUsages.get();
+      if (usages < 0) return false;
+      if (myUsages.compareAndSet(usages, usages + 1)) return true;
+    }
+  }
+
+  /**
+   * @return number of usages left, or -1 if the pointer has fewer usages than released (i.e. it's disposed more times than created)
+   */
+  int releaseUsages(int count) {
+    while (true) {
+      int usages = myUsages.get();
+      if (usages < count) return -1;
+      if (myUsages.compareAndSet(usages, usages - count)) return usages - count;
+    }
+  }
+
+  /**
+   * @return true if the pointer had no usages and is killed now, false if it has been acquired again or is already killed
+   */
+  boolean markKilled() {
+    return myUsages.compareAndSet(0, -1);
+  }
+
+  boolean isKilled() {
+    return myUsages.get() < 0;
+  }
+
   public boolean isDisposed() {
     return myNode == null;
   }
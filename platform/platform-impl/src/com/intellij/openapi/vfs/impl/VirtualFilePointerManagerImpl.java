@@ -50,8 +50,12 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vfs.impl.VirtualFilePointerManagerImpl");
   private final TempFileSystem TEMP_FILE_SYSTEM;
   private final LocalFileSystem LOCAL_FILE_SYSTEM;
-  // guarded by this
+  // guarded by this, as well as the trees of nodes.
+  // Pointers read their nodes' state without locking, so only changes of the trees and event handling are serialized
   private final Map<VirtualFilePointerListener, FilePointerPartNode> myPointers = new LinkedHashMap<VirtualFilePointerListener, FilePointerPartNode>();
+  // pointers by listener and url, so pointers which already exist are found and acquired without locking.
+  // Changed under the lock together with the trees, urls which don't match the pointer's url exactly are looked up in the trees
+  private final ConcurrentMap<PointerKey, VirtualFilePointerImpl> myUrlToPointer = ContainerUtil.newConcurrentMap();
 
   // compare by identity because VirtualFilePointerContainer has too smart equals
   // guarded by myContainers
@@ -137,13 +141,13 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
 
   @Override
   @NotNull
-  public synchronized VirtualFilePointer create(@NotNull String url, @NotNull Disposable parent, @Nullable VirtualFilePointerListener listener) {
+  public VirtualFilePointer create(@NotNull String url, @NotNull Disposable parent, @Nullable VirtualFilePointerListener listener) {
     return create(null, url, parent, listener);
   }
 
   @Override
   @NotNull
-  public synchronized VirtualFilePointer create(@NotNull VirtualFile file, @NotNull Disposable parent, @Nullable VirtualFilePointerListener listener) {
+  public VirtualFilePointer create(@NotNull VirtualFile file, @NotNull Disposable parent, @Nullable VirtualFilePointerListener listener) {
     return create(file, null, parent, listener);
   }
 
@@ -200,18 +204,23 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
     }
     // else url has come from VirtualFile.getPath() and is good enough
 
-    VirtualFilePointerImpl pointer = getOrCreate(parentDisposable, listener, path, Pair.create(file, url));
-    DelegatingDisposable.registerDisposable(parentDisposable, pointer);
+    VirtualFilePointerImpl pointer = myUrlToPointer.get(new PointerKey(listener, url));
+    if (pointer == null || !pointer.tryAcquire()) {
+      synchronized (this) {
+        pointer = getOrCreate(parentDisposable, listener, path, Pair.create(file, url));
+      }
+    }
+    // the usage taken above keeps the pointer alive until it's registered
+    DelegatingDisposable.registerDisposable(this, parentDisposable, pointer);
     return pointer;
   }
 
-  private final Map<String, IdentityVirtualFilePointer> myUrlToIdentity = new THashMap<String, IdentityVirtualFilePointer>();
+  private final ConcurrentMap<String, IdentityVirtualFilePointer> myUrlToIdentity = ContainerUtil.newConcurrentMap();
   @NotNull
   private IdentityVirtualFilePointer getOrCreateIdentity(@NotNull String url, @Nullable VirtualFile found) {
     IdentityVirtualFilePointer pointer = myUrlToIdentity.get(url);
     if (pointer == null) {
-      pointer = new IdentityVirtualFilePointer(found, url);
-      myUrlToIdentity.put(url, pointer);
+      pointer = ConcurrencyUtil.cacheOrGet(myUrlToIdentity, url, new IdentityVirtualFilePointer(found, url));
     }
     return pointer;
   }
@@ -251,16 +260,56 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
     if (pointer == null) {
       pointer = new VirtualFilePointerImpl(listener, parentDisposable, fileAndUrl);
       node.associate(pointer, fileAndUrl);
+      register(pointer, fileAndUrl.second);
     }
-    pointer.myNode.incrementUsageCount(1);
+    // pointers in the trees aren't killed, it's done under the lock after they are removed
+    boolean acquired = pointer.tryAcquire();
+    LOG.assertTrue(acquired, pointer);
 
     root.checkConsistency();
     return pointer;
   }
 
+  private void register(@NotNull VirtualFilePointerImpl pointer, @NotNull String url) {
+    if (myUrlToPointer.putIfAbsent(new PointerKey(pointer.getListener(), url), pointer) == null) {
+      pointer.myRegisteredUrl = url;
+    }
+  }
+
+  private void unregister(@NotNull VirtualFilePointerImpl pointer) {
+    String url = pointer.myRegisteredUrl;
+    if (url != null) {
+      myUrlToPointer.remove(new PointerKey(pointer.getListener(), url), pointer);
+      pointer.myRegisteredUrl = null;
+    }
+  }
+
+  private static class PointerKey {
+    @Nullable private final VirtualFilePointerListener myListener;
+    @NotNull private final String myUrl;
+
+    private PointerKey(@Nullable VirtualFilePointerListener listener, @NotNull String url) {
+      myListener = listener;
+      myUrl = url;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof PointerKey)) return false;
+      PointerKey key = (PointerKey)o;
+      return myUrl.equals(key.myUrl) && Comparing.equal(myListener, key.myListener);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * myUrl.hashCode() + Comparing.hashcode(myListener);
+    }
+  }
+
   @Override
   @NotNull
-  public synchronized VirtualFilePointer duplicate(@NotNull VirtualFilePointer pointer,
+  public VirtualFilePointer duplicate(@NotNull VirtualFilePointer pointer,
                                                    @NotNull Disposable parent,
                                                    @Nullable VirtualFilePointerListener listener) {
     VirtualFile file = pointer.getFile();
@@ -344,7 +393,7 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
 
   @Override
   @NotNull
-  public synchronized VirtualFilePointerContainer createContainer(@NotNull Disposable parent, @Nullable VirtualFilePointerListener listener) {
+  public VirtualFilePointerContainer createContainer(@NotNull Disposable parent, @Nullable VirtualFilePointerListener listener) {
     return registerContainer(parent, new VirtualFilePointerContainerImpl(this, parent, listener));
   }
 
@@ -440,13 +489,23 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
 
       myEvents = new ArrayList<EventDescriptor>();
       toFirePointers = toPointers(toFireEvents);
-      for (final VirtualFilePointerListener listener : myPointers.keySet()) {
+      // group the affected pointers by listener in a single pass, the listeners are notified in the order of registration
+      Map<VirtualFilePointerListener, List<VirtualFilePointer>> byListener = new THashMap<VirtualFilePointerListener, List<VirtualFilePointer>>();
+      for (VirtualFilePointer pointer : toFirePointers) {
+        VirtualFilePointerListener listener = ((VirtualFilePointerImpl)pointer).getListener();
         if (listener == null) continue;
-        List<VirtualFilePointer> filtered = ContainerUtil.filter(toFirePointers,
-                                                                 pointer -> ((VirtualFilePointerImpl)pointer).getListener() == listener);
-        if (!filtered.isEmpty()) {
-          EventDescriptor event = new EventDescriptor(listener, filtered.toArray(new VirtualFilePointer[filtered.size()]));
-          myEvents.add(event);
+        List<VirtualFilePointer> pointers = byListener.get(listener);
+        if (pointers == null) {
+          byListener.put(listener, pointers = new SmartList<VirtualFilePointer>());
+        }
+        pointers.add(pointer);
+      }
+      if (!byListener.isEmpty()) {
+        for (VirtualFilePointerListener listener : myPointers.keySet()) {
+          List<VirtualFilePointer> pointers = listener == null ? null : byListener.get(listener);
+          if (pointers != null) {
+            myEvents.add(new EventDescriptor(listener, pointers.toArray(new VirtualFilePointer[pointers.size()])));
+          }
         }
       }
     }
@@ -471,13 +530,16 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
       synchronized (this) {
         String urlBefore = node.myFileAndUrl.second;
         Pair<VirtualFile,String> after = node.update();
+        assert after != null : node; // the tree isn't changed while we hold the lock
         String urlAfter = after.second;
         if (URL_COMPARATOR.compare(urlBefore, urlAfter) != 0) {
           List<VirtualFilePointerImpl> myPointers = new SmartList<VirtualFilePointerImpl>();
           node.addAllPointersTo(myPointers);
 
           // url has changed, reinsert
-          int useCount = node.useCount;
+          for (VirtualFilePointerImpl pointer : myPointers) {
+            unregister(pointer);
+          }
           FilePointerPartNode root = node.remove();
           FilePointerPartNode newNode = root.findPointerOrCreate(VfsUtilCore.urlToPath(urlAfter), 0, after, myPointers.size());
           VirtualFilePointer existingPointer = newNode.getAnyPointer();
@@ -488,17 +550,19 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
               n.pointersUnder += myPointers.size();
             }
           }
+          for (VirtualFilePointerImpl pointer : myPointers) {
+            register(pointer, urlAfter);
+          }
           newNode.addAllPointersTo(myPointers);
           VirtualFilePointerImpl[] newMyPointers = myPointers.toArray(new VirtualFilePointerImpl[myPointers.size()]);
           newNode.associate(newMyPointers, after);
-          newNode.incrementUsageCount(useCount);
         }
       }
     }
 
     VirtualFilePointer[] pointersToFireArray = toPointers(myNodesToFire);
     for (VirtualFilePointer pointer : pointersToFireArray) {
-      ((VirtualFilePointerImpl)pointer).myNode.update();
+      ((VirtualFilePointerImpl)pointer).update();
     }
 
     for (EventDescriptor event : myEvents) {
@@ -512,13 +576,44 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
     myNodesToUpdateUrl = Collections.emptyList();
     myEvents = Collections.emptyList();
     myNodesToFire = Collections.emptyList();
-    for (FilePointerPartNode root : myPointers.values()) {
-      root.checkConsistency();
+    synchronized (this) {
+      for (FilePointerPartNode root : myPointers.values()) {
+        root.checkConsistency();
+      }
     }
   }
 
-  void removeNode(@NotNull FilePointerPartNode node, VirtualFilePointerListener listener) {
-    FilePointerPartNode root = node.remove();
+  /**
+   * Releases {@code count} usages of the pointer, the pointer is killed and removed from the tree when there are no usages left.
+   */
+  void releasePointer(@NotNull VirtualFilePointerImpl pointer, int count) {
+    String url = pointer.getUrlNoUpdate();
+    int after = pointer.releaseUsages(count);
+    if (after < 0) {
+      // e.g. two threads disposed the pointer with a single usage, both passed the disposed check before it was killed
+      try {
+        pointer.throwDisposalError("Already disposed: URL='" + url + "'");
+      }
+      catch (RuntimeException e) {
+        LOG.error(e);
+      }
+      return;
+    }
+    if (after > 0) return;
+
+    synchronized (this) {
+      // fails if the pointer has been acquired again by create() meanwhile
+      if (!pointer.markKilled()) return;
+      pointer.kill("URL when die: " + pointer);
+      unregister(pointer);
+      removeNode(pointer);
+      pointer.myNode = null;
+    }
+  }
+
+  private void removeNode(@NotNull VirtualFilePointerImpl pointer) {
+    VirtualFilePointerListener listener = pointer.getListener();
+    FilePointerPartNode root = pointer.myNode.remove(pointer);
     boolean rootNodeEmpty = root.children.length == 0 ;
     if (rootNodeEmpty) {
       myPointers.remove(listener);
@@ -532,16 +627,20 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
     private static final ConcurrentMap<Disposable, DelegatingDisposable> ourInstances =
             ContainerUtil.newConcurrentMap(ContainerUtil.<Disposable>identityStrategy());
     private final TObjectIntHashMap<VirtualFilePointerImpl> myCounts = new TObjectIntHashMap<VirtualFilePointerImpl>();
+    private final VirtualFilePointerManagerImpl myManager;
     private final Disposable myParent;
 
-    private DelegatingDisposable(@NotNull Disposable parent) {
+    private DelegatingDisposable(@NotNull VirtualFilePointerManagerImpl manager, @NotNull Disposable parent) {
+      myManager = manager;
       myParent = parent;
     }
 
-    private static void registerDisposable(@NotNull Disposable parentDisposable, @NotNull VirtualFilePointerImpl pointer) {
+    private static void registerDisposable(@NotNull VirtualFilePointerManagerImpl manager,
+                                           @NotNull Disposable parentDisposable,
+                                           @NotNull VirtualFilePointerImpl pointer) {
       DelegatingDisposable result = ourInstances.get(parentDisposable);
       if (result == null) {
-        DelegatingDisposable newDisposable = new DelegatingDisposable(parentDisposable);
+        DelegatingDisposable newDisposable = new DelegatingDisposable(manager, parentDisposable);
         result = ConcurrencyUtil.cacheOrGet(ourInstances, parentDisposable, newDisposable);
         if (result == newDisposable) {
           Disposer.register(parentDisposable, result);
@@ -560,9 +659,8 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
         myCounts.forEachEntry(new TObjectIntProcedure<VirtualFilePointerImpl>() {
           @Override
           public boolean execute(VirtualFilePointerImpl pointer, int disposeCount) {
-            int after = pointer.myNode.incrementUsageCount(-disposeCount + 1);
-            LOG.assertTrue(after > 0, after);
-            pointer.dispose();
+            if (!pointer.checkDisposed()) return true;
+            myManager.releasePointer(pointer, disposeCount);
             return true;
           }
         });
@@ -31,6 +31,7 @@ import com.intellij.openapi.vfs.impl.ZipHandler;
 import com.intellij.openapi.vfs.newvfs.persistent.FSRecords;
 import com.intellij.openapi.vfs.newvfs.persistent.FlushingDaemon;
 import com.intellij.util.CommonProcessors;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.MultiMap;
 import com.intellij.util.io.*;
@@ -56,6 +57,8 @@ public class JarHandler extends ZipHandler {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vfs.impl.jar.JarHandler");
 
   private static final String JARS_FOLDER = "archives";
+  private static final String ENTRY_INDEX_FOLDER = "archive_entries";
+  private static final boolean ourEntryIndexEnabled = SystemProperties.getBooleanProperty("idea.archive.entry.index", true);
   private static final int FS_TIME_RESOLUTION = 2000;
 
   private final ArchiveFileSystemBase myFileSystem;
@@ -71,6 +74,12 @@ public class JarHandler extends ZipHandler {
     return myFileSystem.createArchiveFile(path);
   }
 
+  @Nullable
+  @Override
+  protected File getEntryIndexDir() {
+    return ourEntryIndexEnabled ? new File(PathManager.getSystemPath(), ENTRY_INDEX_FOLDER) : null;
+  }
+
   @NotNull
   @Override
   protected File getFileToUse() {
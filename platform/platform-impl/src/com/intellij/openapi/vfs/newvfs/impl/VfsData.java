@@ -270,18 +270,105 @@ public class VfsData {
   public static class DirectoryData {
     private static final AtomicFieldUpdater<DirectoryData, KeyFMap> updater = AtomicFieldUpdater.forFieldOfType(DirectoryData.class, KeyFMap.class);
     @NotNull volatile KeyFMap myUserMap = KeyFMap.EMPTY_MAP;
-    @NotNull int[] myChildrenIds = ArrayUtil.EMPTY_INT_ARRAY;
+    // ids of children sorted by name, see setChildrenIds()
+    @NotNull private Object myChildrenIds = ArrayUtil.EMPTY_INT_ARRAY;
     private Set<String> myAdoptedNames;
 
     VirtualFileSystemEntry[] getFileChildren(int fileId, VirtualDirectoryImpl parent) {
       assert fileId > 0;
-      VirtualFileSystemEntry[] children = new VirtualFileSystemEntry[myChildrenIds.length];
-      for (int i = 0; i < myChildrenIds.length; i++) {
-        children[i] = assertNotNull(getFileById(myChildrenIds[i], parent));
+      Object ids = myChildrenIds;
+      VirtualFileSystemEntry[] children = new VirtualFileSystemEntry[getChildrenCount(ids)];
+      for (int i = 0; i < children.length; i++) {
+        children[i] = assertNotNull(getFileById(getChildId(ids, i), parent));
       }
       return children;
     }
 
+    /**
+     * @return immutable snapshot of children ids to be accessed via {@link #getChildrenCount(Object)} and {@link #getChildId(Object, int)},
+     * a new snapshot is created on every change
+     */
+    @NotNull
+    Object getChildrenIds() {
+      return myChildrenIds;
+    }
+
+    /**
+     * Children of a directory mostly get their ids from FSRecords together, so instead of an int per child the ids are stored as offsets
+     * from the smallest one in a byte[] or char[] (prefixed by that smallest id), whichever fits, and as a plain int[] otherwise.
+     * The passed array shouldn't be modified afterwards.
+     */
+    void setChildrenIds(@NotNull int[] ids) {
+      int min = Integer.MAX_VALUE;
+      int max = 0;
+      for (int id : ids) {
+        min = Math.min(min, id);
+        max = Math.max(max, id);
+      }
+      int span = max - min;
+
+      if (ids.length > 1 && span <= 0xFF) {
+        byte[] bytes = new byte[4 + ids.length];
+        bytes[0] = (byte)(min >>> 24);
+        bytes[1] = (byte)(min >>> 16);
+        bytes[2] = (byte)(min >>> 8);
+        bytes[3] = (byte)min;
+        for (int i = 0; i < ids.length; i++) {
+          bytes[4 + i] = (byte)(ids[i] - min);
+        }
+        myChildrenIds = bytes;
+      }
+      else if (ids.length > 2 && span <= 0xFFFF) {
+        char[] chars = new char[2 + ids.length];
+        chars[0] = (char)(min >>> 16);
+        chars[1] = (char)min;
+        for (int i = 0; i < ids.length; i++) {
+          chars[2 + i] = (char)(ids[i] - min);
+        }
+        myChildrenIds = chars;
+      }
+      else {
+        myChildrenIds = ids.length == 0 ? ArrayUtil.EMPTY_INT_ARRAY : ids;
+      }
+    }
+
+    static int getChildrenCount(@NotNull Object ids) {
+      if (ids instanceof byte[]) return ((byte[])ids).length - 4;
+      if (ids instanceof char[]) return ((char[])ids).length - 2;
+      return ((int[])ids).length;
+    }
+
+    static int getChildId(@NotNull Object ids, int index) {
+      if (ids instanceof byte[]) {
+        byte[] bytes = (byte[])ids;
+        int min = (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | bytes[3] & 0xFF;
+        return min + (bytes[4 + index] & 0xFF);
+      }
+      if (ids instanceof char[]) {
+        char[] chars = (char[])ids;
+        return (chars[0] << 16 | chars[1]) + chars[2 + index];
+      }
+      return ((int[])ids)[index];
+    }
+
+    static int indexOfChildId(@NotNull Object ids, int id) {
+      int count = getChildrenCount(ids);
+      for (int i = 0; i < count; i++) {
+        if (getChildId(ids, i) == id) return i;
+      }
+      return -1;
+    }
+
+    @NotNull
+    static int[] toIntArray(@NotNull Object ids) {
+      if (ids instanceof int[]) return ((int[])ids).clone();
+      int[] result = new int[getChildrenCount(ids)];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = getChildId(ids, i);
+      }
+      return result;
+    }
+
     boolean changeUserMap(KeyFMap oldMap, KeyFMap newMap) {
       return updater.compareAndSet(this, oldMap, newMap);
     }
@@ -318,7 +405,7 @@ public class VfsData {
     public String toString() {
       return "DirectoryData{" +
              "myUserMap=" + myUserMap +
-             ", myChildrenIds=" + Arrays.toString(myChildrenIds) +
+             ", myChildrenIds=" + Arrays.toString(toIntArray(myChildrenIds)) +
              ", myAdoptedNames=" + myAdoptedNames +
              '}';
     }
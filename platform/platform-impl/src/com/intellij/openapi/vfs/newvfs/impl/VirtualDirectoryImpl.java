@@ -108,7 +108,7 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
       myData.addAdoptedName(name, getFileSystem().isCaseSensitive());
     }
 
-    int indexInReal = findIndex(myData.myChildrenIds, name, ignoreCase);
+    int indexInReal = findIndex(myData.getChildrenIds(), name, ignoreCase);
     if (indexInReal >= 0) {
       // there suddenly can be that we ask to add name to adopted whereas it already contains in the real part
       // in this case we should remove it from there
@@ -122,10 +122,10 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
     synchronized (myData) {
       if (myData.isAdoptedName(name)) return NULL_VIRTUAL_FILE;
 
-      int[] array = myData.myChildrenIds;
-      int indexInReal = findIndex(array, name, ignoreCase);
+      Object ids = myData.getChildrenIds();
+      int indexInReal = findIndex(ids, name, ignoreCase);
       if (indexInReal >= 0) {
-        return VfsData.getFileById(array[indexInReal], this);
+        return VfsData.getFileById(VfsData.DirectoryData.getChildId(ids, indexInReal), this);
       }
       return null;
     }
@@ -163,11 +163,11 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
       // maybe another doFindChild() sneaked in the middle
       if (myData.isAdoptedName(name)) return NULL_VIRTUAL_FILE;
 
-      int[] array = myData.myChildrenIds;
-      int indexInReal = findIndex(array, name, ignoreCase);
+      Object ids = myData.getChildrenIds();
+      int indexInReal = findIndex(ids, name, ignoreCase);
       // double check
       if (indexInReal >= 0) {
-        return VfsData.getFileById(array[indexInReal], this);
+        return VfsData.getFileById(VfsData.DirectoryData.getChildId(ids, indexInReal), this);
       }
       if (allChildrenLoaded()) {
         return null;
@@ -181,8 +181,8 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
       }
       child = createChild(FileNameCache.storeName(name), id, delegate);
 
-      int[] after = myData.myChildrenIds;
-      if (after != array)  {
+      Object after = myData.getChildrenIds();
+      if (after != ids)  {
         // in tests when we call assertAccessInTests it can load a huge number of files which lead to children modification
         // so fall back to slow path
         addChild(child);
@@ -322,7 +322,7 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
           }
           return cmp;
         });
-        TIntHashSet prevChildren = new TIntHashSet(myData.myChildrenIds);
+        TIntHashSet prevChildren = new TIntHashSet(VfsData.DirectoryData.toIntArray(myData.getChildrenIds()));
         result = new int[childrenIds.length];
         for (int i = 0; i < childrenIds.length; i++) {
           FSRecords.NameId child = childrenIds[i];
@@ -341,7 +341,7 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
       }
 
       if (getId() > 0) {
-        myData.myChildrenIds = result;
+        myData.setChildrenIds(result);
         if (CHECK) {
           assertConsistency(ignoreCase, Arrays.asList(childrenIds));
         }
@@ -354,10 +354,10 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
 
   private void assertConsistency(boolean ignoreCase, @NotNull Object details) {
     if (!CHECK || ApplicationInfoImpl.isInPerformanceTest()) return;
-    int[] childrenIds = myData.myChildrenIds;
-    for (int i = 1; i < childrenIds.length; i++) {
-      int id = childrenIds[i];
-      int prev = childrenIds[i - 1];
+    Object childrenIds = myData.getChildrenIds();
+    for (int i = 1; i < VfsData.DirectoryData.getChildrenCount(childrenIds); i++) {
+      int id = VfsData.DirectoryData.getChildId(childrenIds, i);
+      int prev = VfsData.DirectoryData.getChildId(childrenIds, i - 1);
       CharSequence name = VfsData.getNameByFileId(id);
       CharSequence prevName = VfsData.getNameByFileId(prev);
       int cmp = compareNames(name, prevName, ignoreCase);
@@ -396,7 +396,7 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
   }
 
   public VirtualFileSystemEntry findChildById(int id, boolean cachedOnly) {
-    if (ArrayUtil.indexOf(myData.myChildrenIds, id) >= 0) {
+    if (VfsData.DirectoryData.indexOfChildId(myData.getChildrenIds(), id) >= 0) {
       return VfsData.getFileById(id, this);
     }
     if (cachedOnly) return null;
@@ -415,7 +415,7 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
     final String childName = child.getName();
     final boolean ignoreCase = !getFileSystem().isCaseSensitive();
     synchronized (myData) {
-      int indexInReal = findIndex(myData.myChildrenIds, childName, ignoreCase);
+      int indexInReal = findIndex(myData.getChildrenIds(), childName, ignoreCase);
 
       myData.removeAdoptedName(childName);
       if (indexInReal < 0) {
@@ -428,14 +428,14 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
   }
 
   private void insertChildAt(@NotNull VirtualFileSystemEntry file, int negativeIndex) {
-    @NotNull int[] array = myData.myChildrenIds;
+    @NotNull int[] array = VfsData.DirectoryData.toIntArray(myData.getChildrenIds());
     int[] appended = new int[array.length + 1];
     int i = -negativeIndex -1;
     System.arraycopy(array, 0, appended, 0, i);
     appended[i] = file.getId();
     assert appended[i] > 0 : file;
     System.arraycopy(array, i, appended, i + 1, array.length - i);
-    myData.myChildrenIds = appended;
+    myData.setChildrenIds(appended);
   }
 
   public void removeChild(@NotNull VirtualFile file) {
@@ -448,7 +448,7 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
   }
 
   private void removeFromArray(int index) {
-    myData.myChildrenIds = ArrayUtil.remove(myData.myChildrenIds, index);
+    myData.setChildrenIds(ArrayUtil.remove(VfsData.DirectoryData.toIntArray(myData.getChildrenIds()), index));
     ((PersistentFSImpl)PersistentFS.getInstance()).incStructuralModificationCount();
   }
 
@@ -468,13 +468,13 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
   }
 
   @SuppressWarnings("Duplicates")
-  private static int findIndex(final int[] array, @NotNull CharSequence name, boolean ignoreCase) {
+  private static int findIndex(@NotNull Object ids, @NotNull CharSequence name, boolean ignoreCase) {
     int low = 0;
-    int high = array.length - 1;
+    int high = VfsData.DirectoryData.getChildrenCount(ids) - 1;
 
     while (low <= high) {
       int mid = low + high >>> 1;
-      int cmp = -compareNames(VfsData.getNameByFileId(array[mid]), name, ignoreCase);
+      int cmp = -compareNames(VfsData.getNameByFileId(VfsData.DirectoryData.getChildId(ids, mid)), name, ignoreCase);
       if (cmp > 0) low = mid + 1;
       else if (cmp < 0) high = mid - 1;
       else return mid;
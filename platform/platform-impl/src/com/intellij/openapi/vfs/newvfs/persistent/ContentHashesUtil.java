@@ -15,7 +15,10 @@
  */
 package com.intellij.openapi.vfs.newvfs.persistent;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import com.intellij.openapi.util.ThreadLocalCachedValue;
+import com.intellij.util.io.Bits;
 import com.intellij.util.io.DifferentSerializableBytesImplyNonEqualityPolicy;
 import com.intellij.util.io.KeyDescriptor;
 import com.intellij.util.io.PagedFileStorage;
@@ -57,6 +60,22 @@ public class ContentHashesUtil {
 
   private static final int SIGNATURE_LENGTH = 20;
 
+  private static final HashFunction CONTENT_HASH_FUNCTION = Hashing.murmur3_128();
+  private static final int CONTENT_HASH_LENGTH = 16;
+
+  /**
+   * Calculates signature of VFS content: 128-bit non-cryptographic hash followed by content length,
+   * the signature has the same length as SHA-1 digest so contents and index hashes share enumerator format.
+   * Contents with equal signatures are considered equal and share a record.
+   */
+  @NotNull
+  public static byte[] calculateContentHash(@NotNull byte[] bytes, int offset, int length) {
+    byte[] signature = new byte[SIGNATURE_LENGTH];
+    CONTENT_HASH_FUNCTION.hashBytes(bytes, offset, length).writeBytesTo(signature, 0, CONTENT_HASH_LENGTH);
+    Bits.putInt(signature, CONTENT_HASH_LENGTH, length);
+    return signature;
+  }
+
   public static class HashEnumerator extends PersistentBTreeEnumerator<byte[]> {
     public HashEnumerator(File contentsHashesFile, PagedFileStorage.StorageLockContext storageLockContext) throws IOException {
       super(contentsHashesFile, new ContentHashesDescriptor(), 64 * 1024, storageLockContext);
@@ -41,17 +41,17 @@ import com.intellij.util.io.storage.*;
 import gnu.trove.TIntArrayList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
 import javax.swing.*;
 import java.awt.*;
 import java.io.*;
-import java.nio.charset.Charset;
-import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 
 import static com.intellij.util.io.IOUtil.deleteAllFilesStartingWith;
 
@@ -72,7 +72,7 @@ public class FSRecords implements Forceable {
   public static final boolean useSmallAttrTable = SystemProperties.getBooleanProperty("idea.use.small.attr.table.for.vfs", true);
   static final String VFS_FILES_EXTENSION = System.getProperty("idea.vfs.files.extension", ".dat");
 
-  private static final int VERSION = 21 + (weHaveContentHashes ? 0x10:0) + (IOUtil.ourByteBuffersUseNativeByteOrder ? 0x37:0) +
+  private static final int VERSION = 22 + (weHaveContentHashes ? 0x10:0) + (IOUtil.ourByteBuffersUseNativeByteOrder ? 0x37:0) +
                                      (persistentAttributesList ? 31 : 0) + (bulkAttrReadSupport ? 0x27:0) + (inlineAttributes ? 0x31 : 0) +
                                      (useSnappyForCompression ? 0x7f : 0) + (useSmallAttrTable ? 0x31 : 0) +
                                      (PersistentHashMapValueStorage.COMPRESSION_ENABLED ? 21:0);
@@ -111,9 +111,15 @@ public class FSRecords implements Forceable {
 
   private static final FileAttribute ourChildrenAttr = new FileAttribute("FsRecords.DIRECTORY_CHILDREN");
 
+  private static final ReentrantReadWriteLock lock;
   private static final ReentrantReadWriteLock.ReadLock r;
   private static final ReentrantReadWriteLock.WriteLock w;
 
+  // lock-free reads of fixed-size record fields: optimistic reads of this lock are validated against writers,
+  // it's held exclusively while some thread holds w, acquired on the outermost w acquisition and released on the outermost release only
+  private static final StampedLock ourRecordsStampLock = new StampedLock();
+  private static long ourRecordsWriteStamp; // guarded by w
+
   private static volatile int ourLocalModificationCount = 0;
   private static volatile boolean ourIsDisposed;
 
@@ -124,13 +130,27 @@ public class FSRecords implements Forceable {
     //noinspection ConstantConditions
     assert HEADER_SIZE <= RECORD_SIZE;
 
-    ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    lock = new ReentrantReadWriteLock();
     r = lock.readLock();
     w = lock.writeLock();
   }
 
-  static void writeAttributesToRecord(int id, int parentId, @NotNull FileAttributes attributes, @NotNull String name) {
+  private static void writeLock() {
     w.lock();
+    if (lock.getWriteHoldCount() == 1) {
+      ourRecordsWriteStamp = ourRecordsStampLock.writeLock(); // never contended, only the w holder takes it
+    }
+  }
+
+  private static void writeUnlock() {
+    if (lock.getWriteHoldCount() == 1) {
+      ourRecordsStampLock.unlockWrite(ourRecordsWriteStamp);
+    }
+    w.unlock();
+  }
+
+  static void writeAttributesToRecord(int id, int parentId, @NotNull FileAttributes attributes, @NotNull String name) {
+    writeLock();
     try {
       setName(id, name);
 
@@ -148,7 +168,7 @@ public class FSRecords implements Forceable {
       throw DbConnection.handleError(e);
     }
     finally {
-      w.unlock();
+      writeUnlock();
     }
   }
 
@@ -181,7 +201,7 @@ public class FSRecords implements Forceable {
 
 
     public static void connect() {
-      w.lock();
+      writeLock();
       try {
         if (!ourInitialized) {
           init();
@@ -190,7 +210,7 @@ public class FSRecords implements Forceable {
         }
       }
       finally {
-        w.unlock();
+        writeUnlock();
       }
     }
 
@@ -401,7 +421,7 @@ public class FSRecords implements Forceable {
     }
 
     public static void force() {
-      w.lock();
+      writeLock();
       try {
         if (myRecords != null) {
           markClean();
@@ -415,7 +435,7 @@ public class FSRecords implements Forceable {
         }
       }
       finally {
-        w.unlock();
+        writeUnlock();
       }
     }
 
@@ -593,7 +613,7 @@ public class FSRecords implements Forceable {
 
   // todo: Address  / capacity store in records table, size store with payload
   public static int createRecord() {
-    w.lock();
+    writeLock();
     try {
       DbConnection.markDirty();
 
@@ -616,7 +636,7 @@ public class FSRecords implements Forceable {
       throw DbConnection.handleError(e);
     }
     finally {
-      w.unlock();
+      writeUnlock();
     }
   }
 
@@ -634,7 +654,7 @@ public class FSRecords implements Forceable {
   }
 
   static void deleteRecordRecursively(int id) {
-    w.lock();
+    writeLock();
     try {
       incModCount(id);
       if (lazyVfsDataCleaning) {
@@ -647,7 +667,7 @@ public class FSRecords implements Forceable {
       throw DbConnection.handleError(e);
     }
     finally {
-      w.unlock();
+      writeUnlock();
     }
   }
 
@@ -660,7 +680,7 @@ public class FSRecords implements Forceable {
   }
 
   private static void markAsDeleted(final int id) {
-    w.lock();
+    writeLock();
     try {
       DbConnection.markDirty();
       addToFreeRecordsList(id);
@@ -669,7 +689,7 @@ public class FSRecords implements Forceable {
       throw DbConnection.handleError(e);
     }
     finally {
-      w.unlock();
+      writeUnlock();
     }
   }
 
@@ -682,7 +702,7 @@ public class FSRecords implements Forceable {
   }
 
   private static void deleteRecord(final int id) {
-    w.lock();
+    writeLock();
     try {
       DbConnection.markDirty();
       deleteContentAndAttributes(id);
@@ -694,7 +714,7 @@ public class FSRecords implements Forceable {
       throw DbConnection.handleError(e);
     }
     finally {
-      w.unlock();
+      writeUnlock();
     }
   }
 
@@ -789,7 +809,7 @@ public class FSRecords implements Forceable {
   }
 
   public static int findRootRecord(@NotNull String rootUrl) {
-    w.lock();
+    writeLock();
 
     try {
       DbConnection.markDirty();
@@ -843,12 +863,12 @@ public class FSRecords implements Forceable {
       throw DbConnection.handleError(e);
     }
     finally {
-      w.unlock();
+      writeUnlock();
     }
   }
 
   public static void deleteRootRecord(int id) {
-    w.lock();
+    writeLock();
 
     try {
       DbConnection.markDirty();
@@ -892,7 +912,7 @@ public class FSRecords implements Forceable {
       throw DbConnection.handleError(e);
     }
     finally {
-      w.unlock();
+      writeUnlock();
     }
   }
 
@@ -983,7 +1003,7 @@ public class FSRecords implements Forceable {
   }
 
   public static void updateList(int id, @NotNull int[] children) {
-    w.lock();
+    writeLock();
     try {
       DbConnection.markDirty();
       final DataOutputStream record = writeAttribute(id, ourChildrenAttr);
@@ -1007,7 +1027,7 @@ public class FSRecords implements Forceable {
       throw DbConnection.handleError(e);
     }
     finally {
-      w.unlock();
+      writeUnlock();
     }
   }
 
@@ -1034,30 +1054,18 @@ public class FSRecords implements Forceable {
   }
 
   public static int getModCount() {
-    r.lock();
-    try {
-      return getRecords().getInt(HEADER_GLOBAL_MOD_COUNT_OFFSET);
-    }
-    finally {
-      r.unlock();
-    }
+    return getRecordIntOptimistically(0, HEADER_GLOBAL_MOD_COUNT_OFFSET);
   }
 
   public static int getParent(int id) {
     try {
-      r.lock();
-      try {
-        final int parentId = getRecordInt(id, PARENT_OFFSET);
-        if (parentId == id) {
-          LOG.error("Cyclic parent child relations in the database. id = " + id);
-          return 0;
-        }
-
-        return parentId;
-      }
-      finally {
-        r.unlock();
+      final int parentId = getRecordIntOptimistically(id, PARENT_OFFSET);
+      if (parentId == id) {
+        LOG.error("Cyclic parent child relations in the database. id = " + id);
+        return 0;
       }
+
+      return parentId;
     }
     catch (Throwable e) {
       throw DbConnection.handleError(e);
@@ -1099,7 +1107,7 @@ public class FSRecords implements Forceable {
       return;
     }
 
-    w.lock();
+    writeLock();
     try {
       incModCount(id);
       putRecordInt(id, PARENT_OFFSET, parent);
@@ -1108,19 +1116,13 @@ public class FSRecords implements Forceable {
       throw DbConnection.handleError(e);
     }
     finally {
-      w.unlock();
+      writeUnlock();
     }
   }
 
   public static int getNameId(int id) {
     try {
-      r.lock();
-      try {
-        return getRecordInt(id, NAME_OFFSET);
-      }
-      finally {
-        r.unlock();
-      }
+      return getRecordIntOptimistically(id, NAME_OFFSET);
     }
     catch (Throwable e) {
       throw DbConnection.handleError(e);
@@ -1148,14 +1150,8 @@ public class FSRecords implements Forceable {
 
   public static CharSequence getNameSequence(int id) {
     try {
-      r.lock();
-      try {
-        final int nameId = getRecordInt(id, NAME_OFFSET);
-        return nameId != 0 ? FileNameCache.getVFileName(nameId) : "";
-      }
-      finally {
-        r.unlock();
-      }
+      final int nameId = getRecordIntOptimistically(id, NAME_OFFSET);
+      return nameId != 0 ? FileNameCache.getVFileName(nameId) : "";
     }
     catch (Throwable e) {
       throw DbConnection.handleError(e);
@@ -1178,7 +1174,7 @@ public class FSRecords implements Forceable {
   }
 
   public static void setName(int id, @NotNull String name) {
-    w.lock();
+    writeLock();
     try {
       incModCount(id);
       putRecordInt(id, NAME_OFFSET, getNames().enumerate(name));
@@ -1187,22 +1183,16 @@ public class FSRecords implements Forceable {
       throw DbConnection.handleError(e);
     }
     finally {
-      w.unlock();
+      writeUnlock();
     }
   }
 
   public static int getFlags(int id) {
-    r.lock();
-    try {
-      return getRecordInt(id, FLAGS_OFFSET);
-    }
-    finally {
-      r.unlock();
-    }
+    return getRecordIntOptimistically(id, FLAGS_OFFSET);
   }
 
   public static void setFlags(int id, int flags, final boolean markAsChange) {
-    w.lock();
+    writeLock();
     try {
       if (markAsChange) {
         incModCount(id);
@@ -1213,22 +1203,16 @@ public class FSRecords implements Forceable {
       throw DbConnection.handleError(e);
     }
     finally {
-      w.unlock();
+      writeUnlock();
     }
   }
 
   public static long getLength(int id) {
-    r.lock();
-    try {
-      return getRecords().getLong(getOffset(id, LENGTH_OFFSET));
-    }
-    finally {
-      r.unlock();
-    }
+    return getRecordLongOptimistically(id, LENGTH_OFFSET);
   }
 
   public static void setLength(int id, long len) {
-    w.lock();
+    writeLock();
     try {
       incModCount(id);
       getRecords().putLong(getOffset(id, LENGTH_OFFSET), len);
@@ -1237,22 +1221,16 @@ public class FSRecords implements Forceable {
       throw DbConnection.handleError(e);
     }
     finally {
-      w.unlock();
+      writeUnlock();
     }
   }
 
   public static long getTimestamp(int id) {
-    r.lock();
-    try {
-      return getRecords().getLong(getOffset(id, TIMESTAMP_OFFSET));
-    }
-    finally {
-      r.unlock();
-    }
+    return getRecordLongOptimistically(id, TIMESTAMP_OFFSET);
   }
 
   public static void setTimestamp(int id, long value) {
-    w.lock();
+    writeLock();
     try {
       incModCount(id);
       getRecords().putLong(getOffset(id, TIMESTAMP_OFFSET), value);
@@ -1261,18 +1239,12 @@ public class FSRecords implements Forceable {
       throw DbConnection.handleError(e);
     }
     finally {
-      w.unlock();
+      writeUnlock();
     }
   }
 
   public static int getModCount(int id) {
-    r.lock();
-    try {
-      return getRecordInt(id, MOD_COUNT_OFFSET);
-    }
-    finally {
-      r.unlock();
-    }
+    return getRecordIntOptimistically(id, MOD_COUNT_OFFSET);
   }
 
   private static void setModCount(int id, int value) {
@@ -1303,6 +1275,49 @@ public class FSRecords implements Forceable {
     getRecords().putInt(getOffset(id, offset), value);
   }
 
+  // reads a fixed-size record field without taking r when no writer holds w, re-reads it under r if a writer got in meanwhile
+  private static int getRecordIntOptimistically(int id, int offset) {
+    final long stamp = ourRecordsStampLock.tryOptimisticRead();
+    if (stamp != 0) {
+      try {
+        final int value = getRecordInt(id, offset);
+        if (ourRecordsStampLock.validate(stamp)) return value;
+      }
+      catch (RuntimeException e) {
+        if (ourRecordsStampLock.validate(stamp)) throw e;
+      }
+    }
+
+    r.lock();
+    try {
+      return getRecordInt(id, offset);
+    }
+    finally {
+      r.unlock();
+    }
+  }
+
+  private static long getRecordLongOptimistically(int id, int offset) {
+    final long stamp = ourRecordsStampLock.tryOptimisticRead();
+    if (stamp != 0) {
+      try {
+        final long value = getRecords().getLong(getOffset(id, offset));
+        if (ourRecordsStampLock.validate(stamp)) return value;
+      }
+      catch (RuntimeException e) {
+        if (ourRecordsStampLock.validate(stamp)) throw e;
+      }
+    }
+
+    r.lock();
+    try {
+      return getRecords().getLong(getOffset(id, offset));
+    }
+    finally {
+      r.unlock();
+    }
+  }
+
   private static int getOffset(int id, int offset) {
     return id * RECORD_SIZE + offset;
   }
@@ -1521,7 +1536,7 @@ public class FSRecords implements Forceable {
   }
 
   public static int acquireFileContent(int fileId) {
-    w.lock();
+    writeLock();
     try {
       int record = getContentRecordId(fileId);
       if (record > 0) getContentStorage().acquireRecord(record);
@@ -1531,12 +1546,12 @@ public class FSRecords implements Forceable {
       throw DbConnection.handleError(e);
     }
     finally {
-      w.unlock();
+      writeUnlock();
     }
   }
 
   public static void releaseContent(int contentId) {
-    w.lock();
+    writeLock();
     try {
       RefCountingStorage contentStorage = getContentStorage();
       if (weHaveContentHashes) {
@@ -1548,7 +1563,7 @@ public class FSRecords implements Forceable {
     catch (Throwable e) {
       throw DbConnection.handleError(e);
     } finally {
-      w.unlock();
+      writeUnlock();
     }
   }
 
@@ -1572,8 +1587,6 @@ public class FSRecords implements Forceable {
     return new ContentOutputStream(fileId, readOnly);
   }
 
-  private static final MessageDigest myDigest = ContentHashesUtil.createHashDigest();
-
   public static void writeContent(int fileId, ByteSequence bytes, boolean readOnly) throws IOException {
     try {
       new ContentOutputStream(fileId, readOnly).writeBytes(bytes);
@@ -1583,7 +1596,7 @@ public class FSRecords implements Forceable {
   }
 
   public static int storeUnlinkedContent(byte[] bytes) {
-    w.lock();
+    writeLock();
     try {
       int recordId;
 
@@ -1602,7 +1615,7 @@ public class FSRecords implements Forceable {
     catch (IOException e) {
       throw DbConnection.handleError(e);
     } finally {
-      w.unlock();
+      writeUnlock();
     }
   }
 
@@ -1647,7 +1660,7 @@ public class FSRecords implements Forceable {
       int page;
       RefCountingStorage contentStorage = getContentStorage();
       final boolean fixedSize;
-      w.lock();
+      writeLock();
       try {
         incModCount(myFileId);
 
@@ -1688,7 +1701,7 @@ public class FSRecords implements Forceable {
         contentStorage.writeBytes(page, bytes, fixedSize);
       }
       finally {
-        w.unlock();
+        writeUnlock();
       }
     }
   }
@@ -1700,14 +1713,8 @@ public class FSRecords implements Forceable {
 
   private static int findOrCreateContentRecord(byte[] bytes, int offset, int length) throws IOException {
     assert weHaveContentHashes;
-    byte[] digest;
-
     long started = DUMP_STATISTICS ? System.nanoTime():0;
-    myDigest.reset();
-    myDigest.update(String.valueOf(length - offset).getBytes(Charset.defaultCharset()));
-    myDigest.update("\0".getBytes(Charset.defaultCharset()));
-    myDigest.update(bytes, offset, length);
-    digest = myDigest.digest();
+    byte[] digest = ContentHashesUtil.calculateContentHash(bytes, offset, length);
     long done = DUMP_STATISTICS ? System.nanoTime() - started : 0;
     time += done;
 
@@ -1722,42 +1729,38 @@ public class FSRecords implements Forceable {
     int page = hashesEnumerator.enumerate(digest);
 
     if (page <= largestId) {
+      // the signature identifies the content (see ContentHashesUtil.calculateContentHash), a hit is shared without reading the record
       ++reuses;
       getContentStorage().acquireRecord(page);
       totalReuses += length;
+      return page;
+    }
 
-      if (DO_HARD_CONSISTENCY_CHECK) {
-        DataInputStream stream = doReadContentById(page);
-        int i = offset;
-        for(int c = 0; c < length; ++c) {
-          if (stream.available() == 0) {
-            assert false;
-          }
-          if (bytes[i++] != stream.readByte()) {
-            assert false;
-          }
-        }
-        if (stream.available() > 0) {
-          assert false;
-        }
+    int newRecord = getContentStorage().acquireNewRecord();
+    if (page != newRecord) {
+      assert false:"Unexpected content storage modification";
+    }
+    if (DO_HARD_CONSISTENCY_CHECK) {
+      if (hashesEnumerator.enumerate(digest) != page) {
+        assert false;
       }
-      return page;
-    } else {
-      int newRecord = getContentStorage().acquireNewRecord();
-      if (page != newRecord) {
-        assert false:"Unexpected content storage modification";
-      }
-      if (DO_HARD_CONSISTENCY_CHECK) {
-        if (hashesEnumerator.enumerate(digest) != page) {
-          assert false;
-        }
 
-        byte[] bytes1 = hashesEnumerator.valueOf(page);
-        if (!Arrays.equals(digest, bytes1)) {
-          assert false;
-        }
+      byte[] bytes1 = hashesEnumerator.valueOf(page);
+      if (!Arrays.equals(digest, bytes1)) {
+        assert false;
       }
-      return -page;
+    }
+    return -page;
+  }
+
+  @TestOnly
+  static int getContentRefCount(int contentId) {
+    r.lock();
+    try {
+      return getContentStorage().getRefCount(contentId);
+    }
+    finally {
+      r.unlock();
     }
   }
 
@@ -1779,7 +1782,7 @@ public class FSRecords implements Forceable {
         final BufferExposingByteArrayOutputStream _out = (BufferExposingByteArrayOutputStream)out;
 
         if (inlineAttributes && _out.size() < MAX_SMALL_ATTR_SIZE) {
-          w.lock();
+          writeLock();
           try {
 
             rewriteDirectoryRecordWithAttrContent(_out);
@@ -1788,11 +1791,11 @@ public class FSRecords implements Forceable {
             return;
           }
           finally {
-            w.unlock();
+            writeUnlock();
           }
         } else {
           int page;
-          w.lock();
+          writeLock();
           try {
             incModCount(myFileId);
             page = findAttributePage(myFileId, myAttribute, true);
@@ -1815,7 +1818,7 @@ public class FSRecords implements Forceable {
             }
           }
           finally {
-            w.unlock();
+            writeUnlock();
           }
         }
       }
@@ -1910,7 +1913,7 @@ public class FSRecords implements Forceable {
   }
 
   public static void dispose() {
-    w.lock();
+    writeLock();
     try {
       DbConnection.force();
       DbConnection.closeFiles();
@@ -1920,7 +1923,7 @@ public class FSRecords implements Forceable {
     }
     finally {
       ourIsDisposed = true;
-      w.unlock();
+      writeUnlock();
     }
   }
 
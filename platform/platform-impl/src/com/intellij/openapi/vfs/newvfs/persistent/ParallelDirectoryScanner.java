@@ -0,0 +1,268 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileAttributes;
+import com.intellij.openapi.util.io.FileSystemUtil;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.SystemProperties;
+import gnu.trove.THashMap;
+import gnu.trove.TObjectHashingStrategy;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reads listings of local directories together with attributes of their children for {@link RefreshWorker}, it's used for
+ * {@link com.intellij.openapi.vfs.impl.local.LocalFileSystemImpl} only.
+ * <p/>
+ * A listing is read in a single {@link DirectoryStream} pass, attributes of the children are read with {@link FileSystemUtil} (so they are
+ * the same as the file system reports) in parallel chunks for large directories.
+ * Listings of directories waiting in the refresh queue are prefetched on a bounded fork-join pool in the order they are queued, so
+ * the refresh thread mostly compares ready listings with the VFS and generates events, which keeps the events order the same as of
+ * a sequential refresh.
+ *
+ * @author agent
+ */
+class ParallelDirectoryScanner {
+  private static final Logger LOG = Logger.getInstance(ParallelDirectoryScanner.class);
+
+  static final boolean ENABLED = SystemProperties.getBooleanProperty("idea.vfs.parallel.refresh", true);
+  private static final int PARALLELISM =
+    SystemProperties.getIntProperty("idea.vfs.parallel.refresh.threads", Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())));
+  static final int MAX_PREFETCHED = PARALLELISM * 4;
+  private static final int ATTRIBUTES_CHUNK_SIZE = 256;
+
+  private static class PoolHolder {
+    private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+      @Override
+      public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("VFS Refresh Scanner " + thread.getPoolIndex());
+        return thread;
+      }
+    }, null, false);
+  }
+
+  private final TObjectHashingStrategy<String> myStrategy;
+  // directories to prefetch in the order they are queued
+  private final Set<VirtualFile> myWaiting = new LinkedHashSet<VirtualFile>();
+  private final Map<VirtualFile, ForkJoinTask<Listing>> myPrefetched = new HashMap<VirtualFile, ForkJoinTask<Listing>>();
+  private volatile boolean myDisposed;
+
+  static class Listing {
+    private final String[] myNames;
+    private final Map<String, FileAttributes> myAttributes;
+
+    private Listing(@NotNull String[] names, @NotNull Map<String, FileAttributes> attributes) {
+      myNames = names;
+      myAttributes = attributes;
+    }
+
+    @NotNull
+    String[] getNames() {
+      return myNames;
+    }
+
+    /**
+     * @return attributes of the child or null if it disappeared while the listing was read
+     */
+    @Nullable
+    FileAttributes getAttributes(@NotNull String name) {
+      return myAttributes.get(name);
+    }
+  }
+
+  ParallelDirectoryScanner(@NotNull TObjectHashingStrategy<String> strategy) {
+    myStrategy = strategy;
+  }
+
+  private static boolean isApplicable(@NotNull VirtualFile dir) {
+    return dir.getParent() != null; // roots may be fake ones
+  }
+
+  /**
+   * Queues prefetching of the listing of a directory which is going to be taken by {@link #take(VirtualFile)} or {@link #skip(VirtualFile)}.
+   */
+  void schedule(@NotNull VirtualFile dir) {
+    if (!isApplicable(dir) || myPrefetched.containsKey(dir)) return;
+    myWaiting.add(dir);
+    prefetch();
+  }
+
+  /**
+   * Drops the listing of a directory which won't be taken, e.g. it isn't dirty or isn't a directory anymore, so its place is given to
+   * the next queued directory.
+   */
+  void skip(@NotNull VirtualFile dir) {
+    ForkJoinTask<Listing> task = myPrefetched.remove(dir);
+    if (task != null) {
+      task.cancel(false);
+      prefetch();
+    }
+    else {
+      myWaiting.remove(dir);
+    }
+  }
+
+  /**
+   * @return prefetched listing of the directory, or the listing read right now if it wasn't prefetched; null if it can't be read
+   */
+  @Nullable
+  Listing take(@NotNull VirtualFile dir) {
+    ForkJoinTask<Listing> task = myPrefetched.remove(dir);
+    Listing listing;
+    if (task != null) {
+      try {
+        listing = task.join();
+      }
+      catch (RuntimeException e) {
+        LOG.warn(e);
+        listing = null;
+      }
+    }
+    else {
+      myWaiting.remove(dir);
+      listing = read(dir);
+    }
+    prefetch();
+    return listing;
+  }
+
+  /**
+   * @return the current listing of the directory or null if it can't be read
+   */
+  @Nullable
+  Listing read(@NotNull VirtualFile dir) {
+    return isApplicable(dir) ? readListing(dir.getPath()) : null;
+  }
+
+  void dispose() {
+    myDisposed = true;
+    for (ForkJoinTask<Listing> task : myPrefetched.values()) {
+      task.cancel(false);
+    }
+    myPrefetched.clear();
+    myWaiting.clear();
+  }
+
+  @TestOnly
+  int getPrefetchedCount() {
+    return myPrefetched.size();
+  }
+
+  private void prefetch() {
+    while (myPrefetched.size() < MAX_PREFETCHED && !myWaiting.isEmpty()) {
+      Iterator<VirtualFile> iterator = myWaiting.iterator();
+      VirtualFile dir = iterator.next();
+      iterator.remove();
+      final String path = dir.getPath();
+      myPrefetched.put(dir, PoolHolder.POOL.submit(new Callable<Listing>() {
+        @Override
+        public Listing call() {
+          return myDisposed ? null : readListing(path);
+        }
+      }));
+    }
+  }
+
+  @Nullable
+  private Listing readListing(@NotNull String path) {
+    List<Path> children = new ArrayList<Path>();
+    List<String> names = new ArrayList<String>();
+    try {
+      DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(FileUtil.toSystemDependentName(path)));
+      try {
+        for (Path child : stream) {
+          Path fileName = child.getFileName();
+          if (fileName == null) continue;
+          String name = fileName.toString();
+          if (VfsUtil.isBadName(name)) continue;
+          children.add(child);
+          names.add(name);
+        }
+      }
+      finally {
+        stream.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.debug(e);
+      return null;
+    }
+    catch (InvalidPathException e) {
+      LOG.debug(e);
+      return null;
+    }
+
+    FileAttributes[] attributes = new FileAttributes[children.size()];
+    ReadAttributesAction action = new ReadAttributesAction(children, attributes, 0, attributes.length);
+    if (attributes.length <= ATTRIBUTES_CHUNK_SIZE) {
+      action.compute();
+    }
+    else if (ForkJoinTask.getPool() == PoolHolder.POOL) {
+      action.invoke();
+    }
+    else {
+      PoolHolder.POOL.invoke(action);
+    }
+
+    Map<String, FileAttributes> attributesMap = new THashMap<String, FileAttributes>(attributes.length, myStrategy);
+    for (int i = 0; i < attributes.length; i++) {
+      if (attributes[i] != null) attributesMap.put(names.get(i), attributes[i]);
+    }
+    return new Listing(ArrayUtil.toStringArray(names), attributesMap);
+  }
+
+  private class ReadAttributesAction extends RecursiveAction {
+    private final List<Path> myChildren;
+    private final FileAttributes[] myResult;
+    private final int myFrom;
+    private final int myTo;
+
+    private ReadAttributesAction(@NotNull List<Path> children, @NotNull FileAttributes[] result, int from, int to) {
+      myChildren = children;
+      myResult = result;
+      myFrom = from;
+      myTo = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (myTo - myFrom > ATTRIBUTES_CHUNK_SIZE) {
+        int middle = (myFrom + myTo) >>> 1;
+        invokeAll(new ReadAttributesAction(myChildren, myResult, myFrom, middle), new ReadAttributesAction(myChildren, myResult, middle, myTo));
+        return;
+      }
+      for (int i = myFrom; i < myTo && !myDisposed; i++) {
+        myResult[i] = FileSystemUtil.getAttributes(myChildren.get(i).toString());
+      }
+    }
+  }
+}
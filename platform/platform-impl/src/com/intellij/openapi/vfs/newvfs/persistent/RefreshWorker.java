@@ -26,6 +26,7 @@ import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VFileProperty;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.impl.local.LocalFileSystemImpl;
 import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
 import com.intellij.openapi.vfs.newvfs.NewVirtualFileSystem;
 import com.intellij.openapi.vfs.newvfs.events.*;
@@ -60,6 +61,7 @@ public class RefreshWorker {
   private final Queue<Pair<NewVirtualFile, FileAttributes>> myRefreshQueue = new Queue<Pair<NewVirtualFile, FileAttributes>>(100);
   private final List<VFileEvent> myEvents = new ArrayList<VFileEvent>();
   private volatile boolean myCancelled;
+  private ParallelDirectoryScanner myScanner;
 
   public RefreshWorker(@NotNull NewVirtualFile refreshRoot, boolean isRecursive) {
     myIsRecursive = isRecursive;
@@ -93,12 +95,21 @@ public class RefreshWorker {
     }
 
     myRefreshQueue.addLast(pair(root, rootAttributes));
+    if (ParallelDirectoryScanner.ENABLED && fs instanceof LocalFileSystemImpl) {
+      myScanner = new ParallelDirectoryScanner(FilePathHashingStrategy.create(fs.isCaseSensitive()));
+    }
     try {
       processQueue(fs, PersistentFS.getInstance());
     }
     catch (RefreshCancelledException e) {
       LOG.debug("refresh cancelled");
     }
+    finally {
+      if (myScanner != null) {
+        myScanner.dispose();
+        myScanner = null;
+      }
+    }
   }
 
   private void processQueue(NewVirtualFileSystem fs, PersistentFS persistence) throws RefreshCancelledException {
@@ -109,13 +120,17 @@ public class RefreshWorker {
       NewVirtualFile file = pair.first;
       boolean fileDirty = file.isDirty();
       if (LOG.isTraceEnabled()) LOG.trace("file=" + file + " dirty=" + fileDirty);
-      if (!fileDirty) continue;
+      if (!fileDirty) {
+        skipListing(file);
+        continue;
+      }
 
       checkCancelled(file);
 
       FileAttributes attributes = pair.second != null ? pair.second : fs.getAttributes(file);
       if (attributes == null) {
         scheduleDeletion(file);
+        skipListing(file);
         continue;
       }
 
@@ -123,6 +138,7 @@ public class RefreshWorker {
       if (parent != null && checkAndScheduleFileTypeChange(parent, file, attributes)) {
         // ignore everything else
         file.markClean();
+        skipListing(file);
         continue ;
       }
 
@@ -132,6 +148,7 @@ public class RefreshWorker {
           fullDirRefresh(fs, persistence, strategy, (VirtualDirectoryImpl)file);
         }
         else {
+          skipListing(file);
           partialDirRefresh(fs, strategy, (VirtualDirectoryImpl)file);
         }
       }
@@ -178,7 +195,17 @@ public class RefreshWorker {
     }
   }
 
+  /**
+   * A listing prefetched for a directory which isn't going to be fully refreshed would otherwise hold a prefetching slot forever.
+   */
+  private void skipListing(@NotNull NewVirtualFile file) {
+    if (myScanner != null && file.isDirectory()) {
+      myScanner.skip(file);
+    }
+  }
+
   private void fullDirRefresh(NewVirtualFileSystem fs, PersistentFS persistence, TObjectHashingStrategy<String> strategy, VirtualDirectoryImpl dir) {
+    boolean retry = false;
     while (true) {
       // obtaining directory snapshot
       String[] currentNames;
@@ -194,7 +221,13 @@ public class RefreshWorker {
       }
 
       // reading children attributes
-      String[] upToDateNames = VfsUtil.filterNames(fs.list(dir));
+      ParallelDirectoryScanner.Listing listing = null;
+      if (myScanner != null) {
+        listing = retry ? myScanner.read(dir) : myScanner.take(dir);
+      }
+      retry = true;
+
+      String[] upToDateNames = listing != null ? listing.getNames() : VfsUtil.filterNames(fs.list(dir));
       Set<String> newNames = newTroveSet(strategy, upToDateNames);
       ContainerUtil.removeAll(newNames, currentNames);
       Set<String> deletedNames = newTroveSet(strategy, currentNames);
@@ -209,14 +242,14 @@ public class RefreshWorker {
       List<Pair<String, FileAttributes>> addedMap = ContainerUtil.newArrayListWithCapacity(newNames.size());
       for (String name : newNames) {
         checkCancelled(dir);
-        addedMap.add(pair(name, fs.getAttributes(new FakeVirtualFile(dir, name))));
+        addedMap.add(pair(name, listing != null ? listing.getAttributes(name) : fs.getAttributes(new FakeVirtualFile(dir, name))));
       }
 
       List<Pair<VirtualFile, FileAttributes>> updatedMap = ContainerUtil.newArrayListWithCapacity(children.length);
       for (VirtualFile child : children) {
         if (deletedNames.contains(child.getName())) continue;
         checkCancelled(dir);
-        updatedMap.add(pair(child, fs.getAttributes(child)));
+        updatedMap.add(pair(child, listing != null ? listing.getAttributes(child.getName()) : fs.getAttributes(child)));
       }
 
       // generating events unless a directory was changed in between
@@ -373,6 +406,9 @@ public class RefreshWorker {
       boolean upToDateIsDirectory = childAttributes.isDirectory();
       if (myIsRecursive || !upToDateIsDirectory) {
         myRefreshQueue.addLast(pair((NewVirtualFile)child, childAttributes));
+        if (myScanner != null && upToDateIsDirectory && ((NewVirtualFile)child).isDirty() && ((VirtualDirectoryImpl)child).allChildrenLoaded()) {
+          myScanner.schedule((VirtualDirectoryImpl)child);
+        }
       }
     }
   }
@@ -34,6 +34,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Set;
 
 /**
@@ -136,6 +137,13 @@ public abstract class ArchiveFileSystemBase extends ArchiveFileSystem implements
     return VfsImplUtil.getHandler(this, entryFile, JarHandler::new);
   }
 
+  @NotNull
+  @Override
+  public InputStream getInputStream(@NotNull VirtualFile file) throws IOException {
+    // large stored entries (e.g. nested archives) are streamed from the mapped archive instead of being loaded into the heap
+    return getHandler(file).getInputStream(getRelativePath(file));
+  }
+
   @Override
   public VirtualFile findFileByPath(@NotNull String path) {
     return VfsImplUtil.findFileByPath(this, path);
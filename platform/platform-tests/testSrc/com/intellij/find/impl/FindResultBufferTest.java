@@ -0,0 +1,106 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.impl;
+
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.testFramework.LightVirtualFile;
+import junit.framework.TestCase;
+
+/**
+ * @author agent
+ */
+public class FindResultBufferTest extends TestCase {
+  private static final int MATERIALIZED = 3;
+
+  public void testFirstResultsAreNotBuffered() {
+    FindResultBuffer buffer = new FindResultBuffer(MATERIALIZED, 100);
+    FileWithId file = new FileWithId(7);
+    for (int i = 0; i < MATERIALIZED; i++) {
+      assertFalse(buffer.add(file, i, i + 1));
+    }
+    assertEquals(0, buffer.getPendingCount());
+
+    assertTrue(buffer.add(file, 10, 11));
+    assertEquals(1, buffer.getPendingCount());
+    assertEquals(MATERIALIZED + 1, buffer.getResultCount());
+  }
+
+  public void testFilesWithoutIdAreNeverBuffered() {
+    FindResultBuffer buffer = new FindResultBuffer(0, 100);
+    assertFalse(buffer.add(new LightVirtualFile("a.txt"), 0, 1));
+    assertEquals(0, buffer.getPendingCount());
+  }
+
+  public void testRecordsAreReadPageByPage() {
+    int count = FindResultBuffer.PAGE_RECORDS * 2 + 5;
+    FindResultBuffer buffer = new FindResultBuffer(0, count);
+    for (int i = 0; i < count; i++) {
+      assertTrue(buffer.add(new FileWithId(i + 1), i, i * 2));
+    }
+    assertFalse(buffer.isFull());
+    assertEquals(count, buffer.getPendingCount());
+    assertEquals(3, buffer.getAllocatedPageCount());
+
+    int[] record = new int[3];
+    for (int i = 0; i < count; i++) {
+      assertTrue(buffer.nextRecord(record));
+      assertEquals(i + 1, record[0]);
+      assertEquals(i, record[1]);
+      assertEquals(i * 2, record[2]);
+      assertEquals(count - i - 1, buffer.getPendingCount());
+      // a page is released as soon as its last record is read
+      assertEquals(3 - (i + 1) / FindResultBuffer.PAGE_RECORDS, buffer.getAllocatedPageCount());
+    }
+    assertFalse(buffer.nextRecord(record));
+  }
+
+  public void testBufferIsCapped() {
+    FindResultBuffer buffer = new FindResultBuffer(MATERIALIZED, 10);
+    FileWithId file = new FileWithId(1);
+    for (int i = 0; i < MATERIALIZED + 10; i++) {
+      buffer.add(file, i, i);
+    }
+    assertFalse(buffer.isFull());
+
+    // results over the ceiling are swallowed, so they are neither shown nor kept
+    assertTrue(buffer.add(file, 100, 100));
+    assertTrue(buffer.isFull());
+    assertEquals(10, buffer.getPendingCount());
+    assertEquals(MATERIALIZED + 10, buffer.getResultCount());
+
+    int[] record = new int[3];
+    int last = -1;
+    while (buffer.nextRecord(record)) {
+      last = record[1];
+    }
+    assertEquals(MATERIALIZED + 9, last);
+    assertTrue(buffer.isFull());
+  }
+
+  private static class FileWithId extends LightVirtualFile implements VirtualFileWithId {
+    private final int myId;
+
+    FileWithId(int id) {
+      super("file" + id + ".txt");
+      myId = id;
+    }
+
+    @Override
+    public int getId() {
+      return myId;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import junit.framework.TestCase;
+
+public class TrigramQueryTest extends TestCase {
+  public void testText() {
+    assertQuery("bar & foo", TrigramQuery.forText("foo.Bar"));
+    assertQuery("abc & bcd", TrigramQuery.forText("abcd"));
+    assertNull(TrigramQuery.forText("ab.cd"));
+  }
+
+  public void testLiterals() {
+    assertRegExp("bar & foo", "foo\\.Bar");
+    assertRegExp("bar & foo", "foo.Bar");
+    assertRegExp("abc & bcd", "\\Qabcd\\E");
+    assertRegExp("abc & bcd", "^abcd$");
+    assertRegExp("foo", "\\bfoo\\b");
+  }
+
+  public void testEscapesAreNotLiterals() {
+    assertRegExp(null, "\\x41bc\\u0041bc");
+    assertRegExp(null, "\\p{Alpha}bc\\d+xy");
+    assertRegExp("abc", "\\x{41}abc\\1234");
+    assertRegExp(null, "[abc]{3}");
+    assertRegExp("xyz", "[a-z\\]x]xyz");
+  }
+
+  public void testQuantifiers() {
+    assertRegExp("abc", "abcd?");
+    assertRegExp("abc & cde", "abc+de");
+    assertRegExp("abc & cde", "abc{2,}de");
+    assertRegExp("abc & bcd", "abc{1}d");
+    assertRegExp("abc & def", "abcx*def");
+    assertRegExp("abc & def", "abcx{0,3}?def");
+    assertRegExp(null, "a*b*c*");
+  }
+
+  public void testGroupsAndAlternatives() {
+    assertRegExp("(foo | bar)", "foo|bar");
+    assertRegExp("get & (foo | bar)", "get(?:Foo|Bar)");
+    assertRegExp("abc & xyz", "abc(?<name>xyz)+");
+    assertRegExp("abc", "abc(xyz)?");
+    assertRegExp("abc", "abc(?=xyz)");
+    assertRegExp(null, "abc|x");
+    assertRegExp("(abc | xyz & (def | ghi))", "abc|(def|ghi)xyz");
+  }
+
+  public void testUnsupported() {
+    assertRegExp(null, "(?x)a b c");
+    assertRegExp(null, "abc)");
+    assertRegExp(null, "(abc");
+    assertRegExp("abc", "(?i)abc");
+  }
+
+  private static void assertRegExp(String expected, String regExp) {
+    assertQuery(expected, TrigramQuery.forRegExp(regExp));
+  }
+
+  private static void assertQuery(String expected, TrigramQuery query) {
+    assertEquals(expected, query == null ? null : query.toString());
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.impl;
+
+import com.intellij.openapi.util.io.FileUtil;
+import consulo.vfs.impl.archive.ArchiveFile;
+import consulo.vfs.impl.zip.ZipArchiveFile;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * @author agent
+ */
+public class ArchiveEntryIndexTest extends TestCase {
+  private static final long DAY = 24L * 60 * 60 * 1000;
+
+  private File myDir;
+  private File myIndexDir;
+  private File myArchive;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("archiveEntries", null);
+    myIndexDir = new File(myDir, "index");
+    myArchive = new File(myDir, "test.zip");
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(myArchive));
+    try {
+      for (String name : new String[]{"a/", "a/b.txt", "a/c/d.txt", "a/c/e/", "e.txt", "ü/ñ.txt", "a/./f.txt", "z/"}) {
+        out.putNextEntry(new ZipEntry(name));
+        if (!name.endsWith("/")) out.write(name.getBytes("UTF-8"));
+        out.closeEntry();
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      ZipHandler.clearFileAccessorCache();
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testIndexMatchesEntriesMap() throws IOException {
+    ZipHandler handler = createHandler(null);
+    Map<String, ArchiveHandler.EntryInfo> entries = handler.getEntriesMap();
+    String path = myArchive.getCanonicalPath();
+    ArchiveEntryIndex index = ArchiveEntryIndex.write(myIndexDir, path, myArchive.length(), myArchive.lastModified(), entries);
+
+    for (String relativePath : entries.keySet()) {
+      assertEntry(relativePath, entries.get(relativePath), index.getEntryInfo(relativePath));
+      assertEquals(relativePath, sorted(handler.list(relativePath)), sorted(index.list(relativePath)));
+    }
+    for (String relativePath : new String[]{"a/c/d", "a/b.txt/x", "b", "a/", "/a", "ü/n.txt"}) {
+      assertNull(relativePath, index.getEntryInfo(relativePath));
+      assertEquals(relativePath, 0, index.list(relativePath).length);
+    }
+
+    assertNotNull(ArchiveEntryIndex.open(myIndexDir, path, myArchive.length(), myArchive.lastModified()));
+    assertNull(ArchiveEntryIndex.open(myIndexDir, path, myArchive.length() + 1, myArchive.lastModified()));
+  }
+
+  public void testHandlerWithIndexMatchesHandlerWithoutIt() throws IOException {
+    ZipHandler plain = createHandler(null);
+    ZipHandler indexed = createHandler(myIndexDir);
+    Map<String, ArchiveHandler.EntryInfo> entries = plain.getEntriesMap();
+
+    for (String relativePath : entries.keySet()) {
+      assertEntry(relativePath, entries.get(relativePath), indexed.getEntryInfo(relativePath));
+      assertEquals(relativePath, sorted(plain.list(relativePath)), sorted(indexed.list(relativePath)));
+    }
+    File[] files = myIndexDir.listFiles();
+    assertNotNull(files);
+    assertEquals(1, files.length);
+  }
+
+  public void testIndexWithWrongPathsLengthIsDeleted() throws IOException {
+    ZipHandler handler = createHandler(null);
+    Map<String, ArchiveHandler.EntryInfo> entries = handler.getEntriesMap();
+    String path = myArchive.getCanonicalPath();
+    for (int delta : new int[]{-1, 1}) {
+      ArchiveEntryIndex.write(myIndexDir, path, myArchive.length(), myArchive.lastModified(), entries);
+      File[] files = myIndexDir.listFiles();
+      assertNotNull(files);
+      assertEquals(1, files.length);
+      byte[] bytes = FileUtil.loadFileBytes(files[0]);
+      FileUtil.writeToFile(files[0], Arrays.copyOf(bytes, bytes.length + delta));
+
+      assertNull(ArchiveEntryIndex.open(myIndexDir, path, myArchive.length(), myArchive.lastModified()));
+      assertFalse(files[0].exists());
+    }
+
+    // and the handler rebuilds it
+    ZipHandler indexed = createHandler(myIndexDir);
+    for (String relativePath : entries.keySet()) {
+      assertEntry(relativePath, entries.get(relativePath), indexed.getEntryInfo(relativePath));
+    }
+    assertNotNull(ArchiveEntryIndex.open(myIndexDir, path, myArchive.length(), myArchive.lastModified()));
+  }
+
+  public void testCleanupRemovesUnusedFiles() throws IOException {
+    long now = System.currentTimeMillis();
+    File recent = createIndexFile("recent", 10, now - DAY);
+    File old = createIndexFile("old", 10, now - 40 * DAY);
+
+    ArchiveEntryIndex.cleanup(myIndexDir, now - 30 * DAY, Long.MAX_VALUE);
+    assertTrue(recent.exists());
+    assertFalse(old.exists());
+  }
+
+  public void testCleanupRemovesLeastRecentlyUsedFilesOverSize() throws IOException {
+    long now = System.currentTimeMillis();
+    File first = createIndexFile("first", 100, now - 3 * DAY);
+    File second = createIndexFile("second", 100, now - 2 * DAY);
+    File third = createIndexFile("third", 100, now - DAY);
+
+    ArchiveEntryIndex.cleanup(myIndexDir, 0, 250);
+    assertFalse(first.exists());
+    assertTrue(second.exists());
+    assertTrue(third.exists());
+
+    ArchiveEntryIndex.cleanup(myIndexDir, 0, 100);
+    assertFalse(second.exists());
+    assertTrue(third.exists());
+  }
+
+  public void testOpeningMarksIndexUsed() throws IOException {
+    ZipHandler handler = createHandler(null);
+    String path = myArchive.getCanonicalPath();
+    ArchiveEntryIndex.write(myIndexDir, path, myArchive.length(), myArchive.lastModified(), handler.getEntriesMap());
+    File[] files = myIndexDir.listFiles();
+    assertNotNull(files);
+    assertEquals(1, files.length);
+    long now = System.currentTimeMillis();
+    assertTrue(files[0].setLastModified(now - 40 * DAY));
+
+    assertNotNull(ArchiveEntryIndex.open(myIndexDir, path, myArchive.length(), myArchive.lastModified()));
+    ArchiveEntryIndex.cleanup(myIndexDir, now - 30 * DAY, Long.MAX_VALUE);
+    assertTrue(files[0].exists());
+  }
+
+  @NotNull
+  private ZipHandler createHandler(@Nullable final File indexDir) {
+    return new ZipHandler(myArchive.getPath()) {
+      @Override
+      public ArchiveFile createArchiveFile(@NotNull String path) throws IOException {
+        return new ZipArchiveFile(path);
+      }
+
+      @Nullable
+      @Override
+      protected File getEntryIndexDir() {
+        return indexDir;
+      }
+    };
+  }
+
+  @NotNull
+  private File createIndexFile(@NotNull String name, int size, long lastModified) throws IOException {
+    File file = new File(myIndexDir, name);
+    FileUtil.writeToFile(file, new byte[size]);
+    assertTrue(file.setLastModified(lastModified));
+    return file;
+  }
+
+  private static void assertEntry(@NotNull String path, @NotNull ArchiveHandler.EntryInfo expected, @Nullable ArchiveHandler.EntryInfo actual) {
+    assertNotNull(path, actual);
+    assertEquals(path, expected.shortName.toString(), actual.shortName.toString());
+    assertEquals(path, expected.isDirectory, actual.isDirectory);
+    assertEquals(path, expected.length, actual.length);
+    assertEquals(path, expected.timestamp, actual.timestamp);
+    if (expected.parent == null) {
+      assertNull(path, actual.parent);
+    }
+    else {
+      assertEntry(path, expected.parent, actual.parent);
+    }
+  }
+
+  @NotNull
+  private static List<String> sorted(@NotNull String[] names) {
+    List<String> list = new ArrayList<String>(Arrays.asList(names));
+    Collections.sort(list);
+    return list;
+  }
+}
@@ -46,6 +46,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
 
 /**
  *  @author dsl
@@ -594,4 +596,56 @@ public class VirtualFilePointerTest extends PlatformLangTestCase {
     assertTrue(pointer1.isValid());
     assertTrue(pointer2.isValid());
   }
+
+  public void testConcurrentCreateAndDispose() throws Exception {
+    final LoggingListener listener = new LoggingListener();
+    final String[] urls = new String[16];
+    for (int i = 0; i < urls.length; i++) {
+      urls[i] = VfsUtilCore.pathToUrl("/a/b/c/concurrent" + i);
+    }
+    // a long living pointer, so its url is looked up without locking while the others are created and killed concurrently
+    VirtualFilePointer kept = myVirtualFilePointerManager.create(urls[0], disposable, listener);
+
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int t = 0; t < 8; t++) {
+      final int seed = t;
+      futures.add(ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          Random random = new Random(seed);
+          for (int i = 0; i < 20000; i++) {
+            String url = urls[random.nextInt(urls.length)];
+            VirtualFilePointerListener pointerListener = random.nextBoolean() ? listener : null;
+            Disposable parent = Disposer.newDisposable();
+            VirtualFilePointer pointer = myVirtualFilePointerManager.create(url, parent, pointerListener);
+            assertEquals(url, pointer.getUrl());
+            assertSame(pointer, myVirtualFilePointerManager.create(url, parent, pointerListener));
+            Disposer.dispose(parent);
+          }
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+
+    assertEquals(urls[0], kept.getUrl());
+    assertSame(kept, myVirtualFilePointerManager.create(urls[0], disposable, listener));
+  }
+
+  public void testConcurrentDoubleDisposeIsReported() {
+    Disposable parent = Disposer.newDisposable();
+    VirtualFilePointer pointer = myVirtualFilePointerManager.create(VfsUtilCore.pathToUrl("/a/b/c/double"), parent, null);
+    Disposer.dispose(parent);
+    assertFalse(pointer.isValid());
+
+    // the second of two concurrent dispose() calls, which passed the disposed check before the first one killed the pointer
+    try {
+      myVirtualFilePointerManager.releasePointer((VirtualFilePointerImpl)pointer, 1);
+      fail("Double dispose isn't reported");
+    }
+    catch (AssertionError e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Already disposed"));
+    }
+  }
 }
@@ -46,6 +46,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class LocalFileSystemTest extends PlatformLangTestCase {
   private LocalFileSystem myFS;
@@ -585,6 +586,89 @@ public class LocalFileSystemTest extends PlatformLangTestCase {
     }
   }
 
+  public void testRefreshOfDirectoriesChangedDuringScan() throws Exception {
+    File top = createTempDirectory(false);
+    // more directories than listings prefetched at once
+    final int count = 100;
+    for (int i = 0; i < count; i++) {
+      IoTestUtil.createTestFile(IoTestUtil.createTestDir(top, "dir" + i), "old.txt");
+    }
+    final VirtualFileSystemEntry topDir = (VirtualFileSystemEntry)myFS.refreshAndFindFileByIoFile(top);
+    assertNotNull(topDir);
+    for (VirtualFile dir : topDir.getChildren()) {
+      dir.getChildren();
+    }
+    topDir.refresh(false, true);
+
+    for (int i = 0; i < count; i++) {
+      IoTestUtil.createTestFile(new File(top, "dir" + i), "new.txt");
+    }
+    topDir.markDirtyRecursively();
+    final AtomicReference<String> first = new AtomicReference<String>();
+    try {
+      RefreshWorker.setCancellingCondition(new Function<VirtualFile, Boolean>() {
+        @Override
+        public Boolean fun(VirtualFile file) {
+          // all directories are queued (and some listings are prefetched) when the refresh reaches the first one
+          if (topDir.equals(file.getParent()) && first.compareAndSet(null, file.getName())) {
+            for (int i = 0; i < count; i++) {
+              VirtualFileSystemEntry dir = (VirtualFileSystemEntry)topDir.findChild("dir" + i);
+              assertNotNull(dir);
+              if (dir.equals(file)) continue;
+              if (i % 3 == 1) {
+                dir.markClean();
+              }
+              else if (i % 3 == 2) {
+                File ioDir = new File(dir.getPath());
+                FileUtil.delete(ioDir);
+                try {
+                  FileUtil.writeToFile(ioDir, "not a directory");
+                }
+                catch (IOException e) {
+                  throw new RuntimeException(e);
+                }
+              }
+            }
+          }
+          return false;
+        }
+      });
+      topDir.refresh(false, true);
+      assertNotNull(first.get());
+    }
+    finally {
+      RefreshWorker.setCancellingCondition(null);
+    }
+
+    for (int i = 0; i < count; i++) {
+      VirtualFile dir = topDir.findChild("dir" + i);
+      assertNotNull(dir);
+      if (dir.getName().equals(first.get())) continue;
+      if (i % 3 == 1) {
+        assertNull("refresh should skip clean directories", dir.findChild("new.txt"));
+      }
+      else if (i % 3 == 0) {
+        assertNotNull(dir.findChild("new.txt"));
+      }
+      assertFalse(((VirtualFileSystemEntry)dir).isDirty());
+    }
+
+    topDir.markDirtyRecursively();
+    topDir.refresh(false, true);
+    for (int i = 0; i < count; i++) {
+      VirtualFile child = topDir.findChild("dir" + i);
+      assertNotNull(child);
+      if (i % 3 == 2 && !child.getName().equals(first.get())) {
+        assertFalse(child.isDirectory());
+      }
+      else {
+        assertTrue(child.isDirectory());
+        assertNotNull(child.findChild("old.txt"));
+        assertNotNull(child.findChild("new.txt"));
+      }
+    }
+  }
+
   public void testInvalidFileName() {
     new WriteAction() {
       @Override
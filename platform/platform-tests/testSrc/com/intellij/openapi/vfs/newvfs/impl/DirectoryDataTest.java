@@ -0,0 +1,135 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.impl;
+
+import com.intellij.util.ArrayUtil;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Encoding of children ids in {@link VfsData.DirectoryData}.
+ *
+ * @author agent
+ */
+public class DirectoryDataTest extends TestCase {
+  private static final int BASE = 0x12345678;
+
+  public void testNoChildren() {
+    VfsData.DirectoryData data = new VfsData.DirectoryData();
+    assertIds(data, int[].class);
+    data.setChildrenIds(new int[0]);
+    assertIds(data, int[].class);
+    assertSame(ArrayUtil.EMPTY_INT_ARRAY, data.getChildrenIds());
+  }
+
+  public void testOneChild() {
+    assertIds(create(BASE), int[].class, BASE);
+    assertIds(create(1), int[].class, 1);
+    assertIds(create(Integer.MAX_VALUE), int[].class, Integer.MAX_VALUE);
+  }
+
+  public void testTwoChildren() {
+    assertIds(create(BASE + 1, BASE), byte[].class, BASE + 1, BASE);
+    assertIds(create(BASE, BASE + 255), byte[].class, BASE, BASE + 255);
+    // a char[] isn't smaller than an int[] for two children
+    assertIds(create(BASE + 256, BASE), int[].class, BASE + 256, BASE);
+    assertIds(create(BASE, BASE + 70000), int[].class, BASE, BASE + 70000);
+  }
+
+  public void testSpanLimits() {
+    assertIds(create(BASE + 7, BASE + 255, BASE), byte[].class, BASE + 7, BASE + 255, BASE);
+    assertIds(create(BASE + 7, BASE + 256, BASE), char[].class, BASE + 7, BASE + 256, BASE);
+    assertIds(create(BASE + 7, BASE + 65535, BASE), char[].class, BASE + 7, BASE + 65535, BASE);
+    assertIds(create(BASE + 7, BASE + 65536, BASE), int[].class, BASE + 7, BASE + 65536, BASE);
+  }
+
+  public void testLargeIds() {
+    int max = Integer.MAX_VALUE;
+    assertIds(create(max, max - 255, max - 1), byte[].class, max, max - 255, max - 1);
+    assertIds(create(max, max - 65535, max - 1), char[].class, max, max - 65535, max - 1);
+    assertIds(create(max, 1, max - 1), int[].class, max, 1, max - 1);
+    // offsets which don't fit a signed byte or char
+    assertIds(create(0x00FFFF80, 0x00FFFFFF, 0x01000000), byte[].class, 0x00FFFF80, 0x00FFFFFF, 0x01000000);
+    assertIds(create(0x0000FFFF, 0x0001FFFE, 0x00010000), char[].class, 0x0000FFFF, 0x0001FFFE, 0x00010000);
+  }
+
+  public void testEncodingChangesOnAddAndRemove() {
+    VfsData.DirectoryData data = new VfsData.DirectoryData();
+    add(data, 0, BASE);
+    assertIds(data, int[].class, BASE);
+    add(data, 0, BASE + 255);
+    assertIds(data, byte[].class, BASE + 255, BASE);
+    add(data, 1, BASE + 256);
+    assertIds(data, char[].class, BASE + 255, BASE + 256, BASE);
+    add(data, 3, BASE - 1);
+    assertIds(data, char[].class, BASE + 255, BASE + 256, BASE, BASE - 1);
+    add(data, 0, BASE + 65535);
+    assertIds(data, int[].class, BASE + 65535, BASE + 255, BASE + 256, BASE, BASE - 1);
+
+    remove(data, 4);
+    assertIds(data, char[].class, BASE + 65535, BASE + 255, BASE + 256, BASE);
+    remove(data, 0);
+    assertIds(data, char[].class, BASE + 255, BASE + 256, BASE);
+    remove(data, 1);
+    assertIds(data, byte[].class, BASE + 255, BASE);
+    remove(data, 1);
+    assertIds(data, int[].class, BASE + 255);
+    remove(data, 0);
+    assertIds(data, int[].class);
+  }
+
+  public void testSnapshotIsntChangedByUpdates() {
+    VfsData.DirectoryData data = create(BASE, BASE + 1, BASE + 2);
+    Object snapshot = data.getChildrenIds();
+    add(data, 3, BASE + 3);
+    remove(data, 0);
+    assertEquals(3, VfsData.DirectoryData.getChildrenCount(snapshot));
+    assertTrue(Arrays.equals(new int[]{BASE, BASE + 1, BASE + 2}, VfsData.DirectoryData.toIntArray(snapshot)));
+    assertIds(data, byte[].class, BASE + 1, BASE + 2, BASE + 3);
+  }
+
+  @NotNull
+  private static VfsData.DirectoryData create(@NotNull int... ids) {
+    VfsData.DirectoryData data = new VfsData.DirectoryData();
+    data.setChildrenIds(ids.clone());
+    return data;
+  }
+
+  // as VirtualDirectoryImpl does
+  private static void add(@NotNull VfsData.DirectoryData data, int index, int id) {
+    int[] ids = VfsData.DirectoryData.toIntArray(data.getChildrenIds());
+    data.setChildrenIds(ArrayUtil.insert(ids, index, id));
+  }
+
+  private static void remove(@NotNull VfsData.DirectoryData data, int index) {
+    data.setChildrenIds(ArrayUtil.remove(VfsData.DirectoryData.toIntArray(data.getChildrenIds()), index));
+  }
+
+  private static void assertIds(@NotNull VfsData.DirectoryData data, @NotNull Class<?> encoding, @NotNull int... expected) {
+    Object ids = data.getChildrenIds();
+    assertEquals(encoding, ids.getClass());
+    assertEquals(expected.length, VfsData.DirectoryData.getChildrenCount(ids));
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], VfsData.DirectoryData.getChildId(ids, i));
+      assertEquals(i, VfsData.DirectoryData.indexOfChildId(ids, expected[i]));
+    }
+    assertEquals(-1, VfsData.DirectoryData.indexOfChildId(ids, BASE - 2));
+    int[] array = VfsData.DirectoryData.toIntArray(ids);
+    assertTrue(Arrays.toString(array), Arrays.equals(expected, array));
+  }
+}
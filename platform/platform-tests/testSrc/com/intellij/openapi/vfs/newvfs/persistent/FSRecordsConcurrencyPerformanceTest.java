@@ -0,0 +1,112 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.testFramework.PlatformTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures how record field reads in {@link FSRecords} scale with the number of reader threads
+ * while a writer keeps updating random records.
+ */
+public class FSRecordsConcurrencyPerformanceTest extends PlatformTestCase {
+  private static final Logger LOG = Logger.getInstance(FSRecordsConcurrencyPerformanceTest.class);
+
+  private static final int RECORDS_COUNT = 1000000;
+  private static final int READS_PER_THREAD = 2000000;
+  private static final int MAX_THREADS = 8;
+
+  public void testReadThroughputWithConcurrentWriter() throws Exception {
+    final int parent = FSRecords.createRecord();
+    final int[] ids = new int[RECORDS_COUNT];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = FSRecords.createRecord();
+      FSRecords.setParent(ids[i], parent);
+    }
+
+    try {
+      long singleThreadThroughput = 0;
+      for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+        long elapsed = runReaders(ids, parent, threads);
+        long throughput = (long)threads * READS_PER_THREAD * 1000L / Math.max(1, elapsed);
+        if (threads == 1) singleThreadThroughput = throughput;
+        LOG.info(threads + " reader thread(s): " + throughput + " reads/s, scaling " +
+                 (singleThreadThroughput == 0 ? 1 : (double)throughput / singleThreadThroughput));
+      }
+    }
+    finally {
+      for (int id : ids) {
+        FSRecords.deleteRecordRecursively(id);
+      }
+      FSRecords.deleteRecordRecursively(parent);
+    }
+  }
+
+  private static long runReaders(final int[] ids, final int parent, int threads) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+    final AtomicBoolean stop = new AtomicBoolean();
+    try {
+      Future<?> writer = executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          Random random = new Random(0);
+          while (!stop.get()) {
+            FSRecords.setTimestamp(ids[random.nextInt(ids.length)], random.nextLong());
+          }
+          return null;
+        }
+      });
+
+      List<Future<?>> readers = new ArrayList<Future<?>>();
+      long started = System.currentTimeMillis();
+      for (int t = 0; t < threads; t++) {
+        final int seed = t;
+        readers.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            Random random = new Random(seed);
+            for (int i = 0; i < READS_PER_THREAD; i++) {
+              int id = ids[random.nextInt(ids.length)];
+              assertEquals(parent, FSRecords.getParent(id));
+              FSRecords.getFlags(id);
+              FSRecords.getTimestamp(id);
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> reader : readers) {
+        reader.get();
+      }
+      long elapsed = System.currentTimeMillis() - started;
+
+      stop.set(true);
+      writer.get();
+      return elapsed;
+    }
+    finally {
+      stop.set(true);
+      executor.shutdownNow();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.UsefulTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Sharing of equal file contents in the VFS content storage.
+ *
+ * @author agent
+ */
+public class FSRecordsContentTest extends UsefulTestCase {
+  private final List<Integer> myRecords = new ArrayList<Integer>();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    FSRecords.connect();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      for (int record : myRecords) {
+        FSRecords.deleteRecordRecursively(record);
+      }
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testEqualContentsShareRecord() throws IOException {
+    if (!FSRecords.weHaveContentHashes) return;
+
+    byte[] content = createContent(10000);
+    int first = createFile(content);
+    int second = createFile(content.clone());
+
+    int contentId = FSRecords.getContentId(first);
+    assertEquals(contentId, FSRecords.getContentId(second));
+    assertEquals(2, FSRecords.getContentRefCount(contentId));
+    assertContent(content, contentId);
+
+    assertEquals(contentId, FSRecords.storeUnlinkedContent(content.clone()));
+    assertEquals(3, FSRecords.getContentRefCount(contentId));
+    FSRecords.releaseContent(contentId);
+    assertEquals(2, FSRecords.getContentRefCount(contentId));
+  }
+
+  public void testDifferentContentsOfSameLengthAreNotShared() throws IOException {
+    byte[] content = createContent(10000);
+    byte[] changed = content.clone();
+    changed[changed.length / 2] ^= 1;
+    int first = createFile(content);
+    int second = createFile(changed);
+
+    int contentId = FSRecords.getContentId(first);
+    int changedContentId = FSRecords.getContentId(second);
+    assertTrue(contentId != changedContentId);
+    assertEquals(1, FSRecords.getContentRefCount(contentId));
+    assertEquals(1, FSRecords.getContentRefCount(changedContentId));
+    assertContent(content, contentId);
+    assertContent(changed, changedContentId);
+  }
+
+  public void testRefCountAfterDeletion() throws IOException {
+    if (!FSRecords.weHaveContentHashes) return;
+
+    byte[] content = createContent(100);
+    int first = createFile(content);
+    int second = createFile(content);
+    int contentId = FSRecords.getContentId(first);
+    assertEquals(2, FSRecords.getContentRefCount(contentId));
+
+    delete(first);
+    assertEquals(1, FSRecords.getContentRefCount(contentId));
+    assertContent(content, contentId);
+
+    // the record isn't freed while its content is shared, so equal content added later shares it again
+    int third = createFile(content);
+    assertEquals(contentId, FSRecords.getContentId(third));
+    assertEquals(2, FSRecords.getContentRefCount(contentId));
+
+    delete(second);
+    delete(third);
+    assertEquals(0, FSRecords.getContentRefCount(contentId));
+  }
+
+  private int createFile(@NotNull byte[] content) throws IOException {
+    int record = FSRecords.createRecord();
+    myRecords.add(record);
+    FSRecords.writeContent(record, new ByteSequence(content), false);
+    return record;
+  }
+
+  private void delete(int record) {
+    myRecords.remove((Integer)record);
+    int contentId = FSRecords.getContentId(record);
+    int refCount = FSRecords.getContentRefCount(contentId);
+    FSRecords.deleteRecordRecursively(record);
+    if (FSRecords.lazyVfsDataCleaning) {
+      // the content of a deleted record is kept until the record is reused after a restart, which releases it
+      assertEquals(refCount, FSRecords.getContentRefCount(contentId));
+      FSRecords.releaseContent(contentId);
+    }
+  }
+
+  @NotNull
+  private static byte[] createContent(int length) {
+    // contents of previous runs stay in the storage, so each run uses its own
+    byte[] unique = UUID.randomUUID().toString().getBytes();
+    byte[] content = new byte[length];
+    for (int i = 0; i < length; i++) {
+      content[i] = unique[i % unique.length];
+    }
+    return content;
+  }
+
+  private static void assertContent(@NotNull byte[] expected, int contentId) throws IOException {
+    DataInputStream stream = FSRecords.readContentById(contentId);
+    assertNotNull(stream);
+    try {
+      assertTrue(Arrays.equals(expected, FileUtil.loadBytes(stream)));
+    }
+    finally {
+      stream.close();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.LightVirtualFile;
+import com.intellij.testFramework.UsefulTestCase;
+import com.intellij.util.text.FilePathHashingStrategy;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * @author agent
+ */
+public class ParallelDirectoryScannerTest extends UsefulTestCase {
+  private static final VirtualFile ROOT = new LightVirtualFile("root");
+
+  private File myDir;
+  private ParallelDirectoryScanner myScanner;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("scanner", null);
+    myScanner = new ParallelDirectoryScanner(FilePathHashingStrategy.create(true));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myScanner.dispose();
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testPrefetchedListings() throws IOException {
+    VirtualFile[] dirs = createDirs(ParallelDirectoryScanner.MAX_PREFETCHED * 2);
+    for (VirtualFile dir : dirs) {
+      myScanner.schedule(dir);
+    }
+    assertEquals(ParallelDirectoryScanner.MAX_PREFETCHED, myScanner.getPrefetchedCount());
+
+    for (VirtualFile dir : dirs) {
+      assertListing(dir, myScanner.take(dir));
+    }
+    assertEquals(0, myScanner.getPrefetchedCount());
+  }
+
+  public void testSkippedDirectoriesFreePrefetchingSlots() throws IOException {
+    VirtualFile[] dirs = createDirs(ParallelDirectoryScanner.MAX_PREFETCHED * 4);
+    for (VirtualFile dir : dirs) {
+      myScanner.schedule(dir);
+    }
+
+    // like directories which became clean, were deleted or replaced with files before the refresh reached them
+    for (int i = 0; i < dirs.length; i++) {
+      if (i % 4 != 3) {
+        if (i % 4 == 2) replaceWithFile(dirs[i]);
+        myScanner.skip(dirs[i]);
+      }
+      else {
+        assertListing(dirs[i], myScanner.take(dirs[i]));
+      }
+      assertEquals(Math.min(ParallelDirectoryScanner.MAX_PREFETCHED, dirs.length - i - 1), myScanner.getPrefetchedCount());
+    }
+  }
+
+  public void testSkippingWaitingDirectory() throws IOException {
+    VirtualFile[] dirs = createDirs(ParallelDirectoryScanner.MAX_PREFETCHED + 2);
+    for (VirtualFile dir : dirs) {
+      myScanner.schedule(dir);
+    }
+    myScanner.skip(dirs[dirs.length - 1]);
+    myScanner.skip(dirs[0]);
+    assertEquals(ParallelDirectoryScanner.MAX_PREFETCHED, myScanner.getPrefetchedCount());
+
+    for (int i = 1; i < dirs.length - 1; i++) {
+      assertListing(dirs[i], myScanner.take(dirs[i]));
+    }
+    assertEquals(0, myScanner.getPrefetchedCount());
+  }
+
+  public void testDirectoryReplacedWithFileIsNotListed() throws IOException {
+    VirtualFile dir = createDirs(1)[0];
+    replaceWithFile(dir);
+    assertNull(myScanner.read(dir));
+  }
+
+  @NotNull
+  private VirtualFile[] createDirs(int count) throws IOException {
+    VirtualFile[] dirs = new VirtualFile[count];
+    for (int i = 0; i < count; i++) {
+      File dir = new File(myDir, "dir" + i);
+      FileUtil.writeToFile(new File(dir, "a" + i + ".txt"), "a");
+      FileUtil.writeToFile(new File(dir, "b.txt"), "b");
+      dirs[i] = new FakeDirectory(dir);
+    }
+    return dirs;
+  }
+
+  private static void replaceWithFile(@NotNull VirtualFile dir) throws IOException {
+    File file = new File(dir.getPath());
+    FileUtil.delete(file);
+    FileUtil.writeToFile(file, "not a directory");
+  }
+
+  private static void assertListing(@NotNull VirtualFile dir, ParallelDirectoryScanner.Listing listing) {
+    assertNotNull(listing);
+    String index = dir.getName().substring("dir".length());
+    assertSameElements(listing.getNames(), "a" + index + ".txt", "b.txt");
+    assertNotNull(listing.getAttributes("b.txt"));
+    assertEquals(1, listing.getAttributes("b.txt").length);
+  }
+
+  private static class FakeDirectory extends LightVirtualFile {
+    private final String myPath;
+
+    private FakeDirectory(@NotNull File dir) {
+      super(dir.getName());
+      myPath = FileUtil.toSystemIndependentName(dir.getPath());
+    }
+
+    @NotNull
+    @Override
+    public String getPath() {
+      return myPath;
+    }
+
+    @Override
+    public VirtualFile getParent() {
+      return ROOT;
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.stubs;
+
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.io.PersistentStringEnumerator;
+import com.intellij.util.io.UnsyncByteArrayInputStream;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * String table of serialized stub trees.
+ *
+ * @author agent
+ */
+public class StubSerializationHelperTest extends TestCase {
+  private File myDir;
+  private PersistentStringEnumerator myNameStorage;
+  private StubSerializationHelper myHelper;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("stubStrings", null);
+    myNameStorage = new PersistentStringEnumerator(new File(myDir, "names"));
+    myHelper = new StubSerializationHelper(myNameStorage);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myNameStorage.close();
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testStringTableRoundTrip() throws IOException {
+    List<String> strings = Arrays.asList(
+      "",
+      "a",
+      "LONGER_THAN_64K",
+      StringUtil.repeat("x", 254),
+      StringUtil.repeat("x", 255),
+      "üñ中",
+      // longer than 64K in UTF-8, these are written after a marker
+      StringUtil.repeat("y", 70000),
+      StringUtil.repeat("中", 30000),
+      "after long ones");
+    StubSerializationHelper.FileLocalStringEnumerator enumerator = read(write(strings));
+
+    // decoded out of order, twice
+    for (int round = 0; round < 2; round++) {
+      for (int i = strings.size() - 1; i >= 0; i--) {
+        assertEquals(strings.get(i), enumerator.valueOf(i + 1));
+      }
+    }
+    assertNull(enumerator.valueOf(0));
+  }
+
+  public void testRawStringsAreDroppedWhenAllAreDecoded() throws IOException {
+    StubSerializationHelper.FileLocalStringEnumerator enumerator = read(write(Arrays.asList("a", "b", StringUtil.repeat("c", 70000))));
+    assertTrue(enumerator.hasUndecodedStrings());
+    String a = enumerator.valueOf(1);
+    assertSame(a, enumerator.valueOf(1));
+    enumerator.valueOf(3);
+    assertTrue(enumerator.hasUndecodedStrings());
+    assertEquals("b", enumerator.valueOf(2));
+    assertFalse(enumerator.hasUndecodedStrings());
+
+    assertSame(a, enumerator.valueOf(1));
+    assertEquals("b", enumerator.valueOf(2));
+    assertEquals(70000, enumerator.valueOf(3).length());
+
+    assertFalse(read(write(new ArrayList<String>())).hasUndecodedStrings());
+  }
+
+  public void testConcurrentDecoding() throws Exception {
+    final List<String> strings = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      strings.add("string" + i);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      for (int attempt = 0; attempt < 20; attempt++) {
+        final StubSerializationHelper.FileLocalStringEnumerator enumerator = read(write(strings));
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+          futures.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              for (int i = 0; i < strings.size(); i++) {
+                assertEquals(strings.get(i), enumerator.valueOf(i + 1));
+              }
+              return null;
+            }
+          }));
+        }
+        for (Future<?> future : futures) {
+          future.get(30, TimeUnit.SECONDS);
+        }
+        assertFalse(enumerator.hasUndecodedStrings());
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @NotNull
+  private byte[] write(@NotNull List<String> strings) throws IOException {
+    StubSerializationHelper.FileLocalStringEnumerator enumerator = myHelper.new FileLocalStringEnumerator(true);
+    for (int i = 0; i < strings.size(); i++) {
+      assertEquals(i + 1, enumerator.enumerate(strings.get(i)));
+    }
+    BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    enumerator.writeStringTable(out);
+    out.writeInt(42); // the stub tree follows the table
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  @NotNull
+  private StubSerializationHelper.FileLocalStringEnumerator read(@NotNull byte[] bytes) throws IOException {
+    StubSerializationHelper.FileLocalStringEnumerator enumerator = myHelper.new FileLocalStringEnumerator(false);
+    DataInputStream in = new DataInputStream(new UnsyncByteArrayInputStream(bytes));
+    enumerator.readStringTable(in);
+    assertEquals(42, in.readInt());
+    assertEquals(-1, in.read());
+    return enumerator;
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.util.NotNullLazyValue;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.UsefulTestCase;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * @author agent
+ */
+public class ArchiveIndexSnapshotsTest extends UsefulTestCase {
+  private final List<ArchiveIndexSnapshots<String, String>> mySnapshots = new ArrayList<ArchiveIndexSnapshots<String, String>>();
+  private File myDir;
+  private File mySnapshotsDir;
+  private File myArchive;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("archiveSnapshots", null);
+    mySnapshotsDir = new File(myDir, "snapshots");
+    myArchive = new File(myDir, "lib.jar");
+    writeArchive(myArchive, "content");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      for (ArchiveIndexSnapshots<String, String> snapshots : mySnapshots) {
+        snapshots.dispose();
+      }
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testRoundTrip() throws IOException {
+    String key = archiveKey(myArchive);
+    export(key);
+
+    ArchiveIndexSnapshots<String, String> snapshots = create(false);
+    assertFalse(snapshots.isRecording(key));
+    assertEquals(data(), snapshots.read(key, "a/b.txt"));
+    assertEquals(Collections.<String, String>emptyMap(), snapshots.read(key, "c.txt"));
+    assertNull(snapshots.read(key, "missing.txt"));
+
+    // the same archive elsewhere, like on another machine, uses the same snapshot
+    File copy = new File(myDir, "copy/lib.jar");
+    FileUtil.copy(myArchive, copy);
+    assertTrue(copy.setLastModified(myArchive.lastModified() - 10000));
+    assertEquals(key, archiveKey(copy));
+  }
+
+  public void testSnapshotOfChangedArchiveIsNotUsed() throws IOException {
+    String key = archiveKey(myArchive);
+    export(key);
+
+    long timeStamp = myArchive.lastModified();
+    writeArchive(myArchive, "changed content");
+    assertTrue(myArchive.setLastModified(timeStamp + 10000));
+    String changedKey = archiveKey(myArchive);
+    assertNotNull(changedKey);
+    assertFalse(key.equals(changedKey));
+
+    ArchiveIndexSnapshots<String, String> snapshots = create(false);
+    assertNull(snapshots.read(changedKey, "a/b.txt"));
+    assertEquals(data(), snapshots.read(key, "a/b.txt"));
+  }
+
+  public void testCorruptedDataIsNotUsed() throws IOException {
+    String key = archiveKey(myArchive);
+    export(key);
+    File snapshot = snapshotFile(key);
+    byte[] bytes = FileUtil.loadFileBytes(snapshot);
+    // data of the first recorded file follow the header
+    bytes[8] ^= 1;
+    FileUtil.writeToFile(snapshot, bytes);
+
+    ArchiveIndexSnapshots<String, String> snapshots = create(false);
+    assertNull(snapshots.read(key, "a/b.txt"));
+    assertEquals(Collections.<String, String>emptyMap(), snapshots.read(key, "c.txt"));
+  }
+
+  public void testSnapshotWithCorruptedTableIsNotMounted() throws IOException {
+    String key = archiveKey(myArchive);
+    export(key);
+    File snapshot = snapshotFile(key);
+    byte[] bytes = FileUtil.loadFileBytes(snapshot);
+    // the table precedes its offset and checksum at the end
+    bytes[bytes.length - 17] ^= 1;
+    FileUtil.writeToFile(snapshot, bytes);
+
+    ArchiveIndexSnapshots<String, String> snapshots = create(false);
+    assertNull(snapshots.read(key, "a/b.txt"));
+    assertNull(snapshots.read(key, "c.txt"));
+
+    FileUtil.writeToFile(snapshot, new byte[]{1, 2, 3});
+    snapshots = create(false);
+    assertNull(snapshots.read(key, "a/b.txt"));
+  }
+
+  public void testFileWithoutCentralDirectoryHasNoKey() throws IOException {
+    File file = new File(myDir, "broken.jar");
+    FileUtil.writeToFile(file, "not an archive");
+    assertNull(archiveKey(file));
+  }
+
+  private void export(@NotNull String key) {
+    ArchiveIndexSnapshots<String, String> snapshots = create(true);
+    assertTrue(snapshots.isRecording(key));
+    snapshots.record(key, "a/b.txt", data());
+    snapshots.record(key, "c.txt", Collections.<String, String>emptyMap());
+    snapshots.publish();
+    assertTrue(snapshotFile(key).exists());
+  }
+
+  @NotNull
+  private ArchiveIndexSnapshots<String, String> create(boolean export) {
+    ID<String, String> id = ID.create(getClass().getSimpleName() + "." + getTestName(false));
+    ArchiveIndexSnapshots<String, String> snapshots =
+      new ArchiveIndexSnapshots<String, String>(id, EnumeratorStringDescriptor.INSTANCE, EnumeratorStringDescriptor.INSTANCE,
+                                                new NotNullLazyValue<String>() {
+                                                  @NotNull
+                                                  @Override
+                                                  protected String compute() {
+                                                    return "1";
+                                                  }
+                                                }, mySnapshotsDir, export);
+    mySnapshots.add(snapshots);
+    return snapshots;
+  }
+
+  @NotNull
+  private File snapshotFile(@NotNull String key) {
+    return new File(new File(mySnapshotsDir, key), getClass().getSimpleName() + "." + getTestName(false) + ".1");
+  }
+
+  @Nullable
+  private static String archiveKey(@NotNull File archive) {
+    return ArchiveIndexSnapshots.getArchiveKey(archive, archive.lastModified(), archive.length());
+  }
+
+  @NotNull
+  private static Map<String, String> data() {
+    Map<String, String> data = new HashMap<String, String>();
+    data.put("key", "value");
+    data.put("other key", "");
+    return data;
+  }
+
+  private static void writeArchive(@NotNull File archive, @NotNull String content) throws IOException {
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive));
+    try {
+      for (String name : new String[]{"a/b.txt", "c.txt"}) {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content.getBytes("UTF-8"));
+        out.closeEntry();
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.testFramework.UsefulTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * @author agent
+ */
+public class IndexUpdatePipelineTest extends UsefulTestCase {
+  private final ConcurrentMap<ID<?, ?>, List<Integer>> myWritten = new ConcurrentHashMap<ID<?, ?>, List<Integer>>();
+  private final List<IndexUpdatePipeline<Integer>> myPipelines = new ArrayList<IndexUpdatePipeline<Integer>>();
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      for (IndexUpdatePipeline<Integer> pipeline : myPipelines) {
+        pipeline.dispose();
+      }
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  // the pipeline is used from several threads
+  @Override
+  protected boolean runInDispatchThread() {
+    return false;
+  }
+
+  public void testUpdatesOfIndexAreWrittenInSubmissionOrder() {
+    IndexUpdatePipeline<Integer> pipeline = create(new RecordingWriter(), 8);
+    ID<?, ?> a = id("a");
+    ID<?, ?> b = id("b");
+    for (int i = 0; i < 1000; i++) {
+      pipeline.submit(a, i);
+      pipeline.submit(b, -i);
+    }
+    pipeline.waitForAllWrites();
+
+    assertEquals(1000, written(a).size());
+    assertEquals(1000, written(b).size());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, written(a).get(i).intValue());
+      assertEquals(-i, written(b).get(i).intValue());
+    }
+  }
+
+  public void testSubmitBlocksWhileTooManyUpdatesArePending() throws Exception {
+    final CountDownLatch writeStarted = new CountDownLatch(1);
+    final CountDownLatch writeAllowed = new CountDownLatch(1);
+    final IndexUpdatePipeline<Integer> pipeline = create(new RecordingWriter() {
+      @Override
+      public void write(@NotNull ID<?, ?> indexId, @NotNull List<Integer> updates) {
+        writeStarted.countDown();
+        try {
+          writeAllowed.await();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        super.write(indexId, updates);
+      }
+    }, 4);
+    final ID<?, ?> id = id("a");
+    for (int i = 0; i < 4; i++) {
+      pipeline.submit(id, i);
+    }
+    assertTrue(writeStarted.await(10, TimeUnit.SECONDS));
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> future = executor.submit(() -> pipeline.submit(id, 4));
+      try {
+        future.get(200, TimeUnit.MILLISECONDS);
+        fail("Update shouldn't be accepted while the writer is behind");
+      }
+      catch (TimeoutException ignored) {
+      }
+      // updates of other indices are accepted meanwhile
+      pipeline.submit(id("b"), 0);
+
+      writeAllowed.countDown();
+      future.get(10, TimeUnit.SECONDS);
+      pipeline.waitForWrites(id);
+      assertEquals(Arrays.asList(0, 1, 2, 3, 4), written(id));
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void testWaitForWritesReturnsAfterSubmittedUpdatesAreWritten() {
+    IndexUpdatePipeline<Integer> pipeline = create(new RecordingWriter() {
+      @Override
+      public void write(@NotNull ID<?, ?> indexId, @NotNull List<Integer> updates) {
+        try {
+          Thread.sleep(10);
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        super.write(indexId, updates);
+      }
+    }, 100);
+    ID<?, ?> id = id("a");
+    pipeline.waitForWrites(id); // nothing was submitted yet
+
+    for (int i = 0; i < 50; i++) {
+      pipeline.submit(id, i);
+    }
+    pipeline.waitForWrites(id);
+    assertEquals(50, written(id).size());
+  }
+
+  public void testInterruptIsRestoredAfterWaiting() {
+    final CountDownLatch writeAllowed = new CountDownLatch(1);
+    IndexUpdatePipeline<Integer> pipeline = create(new RecordingWriter() {
+      @Override
+      public void write(@NotNull ID<?, ?> indexId, @NotNull List<Integer> updates) {
+        try {
+          writeAllowed.await();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        super.write(indexId, updates);
+      }
+    }, 100);
+    ID<?, ?> id = id("a");
+    pipeline.submit(id, 0);
+
+    Thread.currentThread().interrupt();
+    writeAllowed.countDown();
+    pipeline.waitForWrites(id);
+    assertTrue(Thread.interrupted());
+    assertEquals(Collections.singletonList(0), written(id));
+  }
+
+  public void testCanceledWriteIsDropped() {
+    IndexUpdatePipeline<Integer> pipeline = create(new RecordingWriter() {
+      @Override
+      public void write(@NotNull ID<?, ?> indexId, @NotNull List<Integer> updates) {
+        if (updates.contains(0)) throw new ProcessCanceledException();
+        super.write(indexId, updates);
+      }
+    }, 100);
+    ID<?, ?> id = id("a");
+    pipeline.submit(id, 0);
+    pipeline.waitForWrites(id);
+    pipeline.submit(id, 1);
+    pipeline.waitForWrites(id);
+    assertEquals(Collections.singletonList(1), written(id));
+  }
+
+  @NotNull
+  private IndexUpdatePipeline<Integer> create(@NotNull IndexUpdatePipeline.Writer<Integer> writer, int maxPendingUpdates) {
+    IndexUpdatePipeline<Integer> pipeline = new IndexUpdatePipeline<Integer>(writer, maxPendingUpdates) {
+      @Override
+      protected void checkCanceled() {
+      }
+    };
+    myPipelines.add(pipeline);
+    return pipeline;
+  }
+
+  @NotNull
+  private ID<?, ?> id(@NotNull String name) {
+    return ID.create(getClass().getSimpleName() + "." + getTestName(false) + "." + name);
+  }
+
+  @NotNull
+  private List<Integer> written(@NotNull ID<?, ?> id) {
+    List<Integer> written = myWritten.get(id);
+    return written == null ? Collections.<Integer>emptyList() : written;
+  }
+
+  private class RecordingWriter implements IndexUpdatePipeline.Writer<Integer> {
+    @Override
+    public void write(@NotNull ID<?, ?> indexId, @NotNull List<Integer> updates) {
+      List<Integer> written = myWritten.get(indexId);
+      if (written == null) {
+        written = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Integer> existing = myWritten.putIfAbsent(indexId, written);
+        if (existing != null) written = existing;
+      }
+      written.addAll(updates);
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.UsefulTestCase;
+import gnu.trove.TObjectLongHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author agent
+ */
+public class IndexingStampTableTest extends UsefulTestCase {
+  private static final long VFS_STAMP = 42;
+
+  private final TObjectLongHashMap<ID<?, ?>> myCreationStamps = new TObjectLongHashMap<ID<?, ?>>();
+  private File myDir;
+  private IndexingStampTable myTable;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("stamps", null);
+    myTable = open(VFS_STAMP);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myTable.close();
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testStates() {
+    ID<?, ?> a = id("a");
+    ID<?, ?> b = id("b");
+    myTable.set(1, a, IndexingStampTable.CURRENT);
+    myTable.set(1, b, IndexingStampTable.OUTDATED);
+    myTable.set(2, b, IndexingStampTable.CURRENT);
+
+    assertEquals(IndexingStampTable.CURRENT, myTable.get(1, a));
+    assertEquals(IndexingStampTable.OUTDATED, myTable.get(1, b));
+    assertEquals(IndexingStampTable.NONE, myTable.get(2, a));
+    assertEquals(IndexingStampTable.CURRENT, myTable.get(2, b));
+    assertSameElements(myTable.getNontrivialStates(1), a, b);
+
+    myTable.set(1, a, IndexingStampTable.NONE);
+    assertEquals(IndexingStampTable.NONE, myTable.get(1, a));
+    assertSameElements(myTable.getNontrivialStates(1), b);
+  }
+
+  public void testRowsGrow() {
+    ID<?, ?> a = id("a");
+    myTable.set(5, a, IndexingStampTable.CURRENT);
+    int far = 1000 * 1000;
+    assertEquals(IndexingStampTable.NONE, myTable.get(far, a));
+    myTable.set(far, a, IndexingStampTable.NONE);
+    assertEquals(IndexingStampTable.NONE, myTable.get(far, a));
+
+    myTable.set(far, a, IndexingStampTable.OUTDATED);
+    assertEquals(IndexingStampTable.OUTDATED, myTable.get(far, a));
+    assertEquals(IndexingStampTable.CURRENT, myTable.get(5, a));
+  }
+
+  public void testRowsWiden() {
+    // 16 bytes per row initially, 4 states per byte
+    ID<?, ?>[] ids = new ID<?, ?>[100];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = id("column" + i);
+      myTable.set(i, ids[i], i % 2 == 0 ? IndexingStampTable.CURRENT : IndexingStampTable.OUTDATED);
+    }
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(i % 2 == 0 ? IndexingStampTable.CURRENT : IndexingStampTable.OUTDATED, myTable.get(i, ids[i]));
+      assertEquals(IndexingStampTable.NONE, myTable.get(i + 1, ids[i]));
+    }
+    assertSameElements(dataFiles(), "stamps32");
+  }
+
+  public void testColumnIsClearedWhenIndexIsRebuilt() {
+    ID<?, ?> a = id("a");
+    ID<?, ?> b = id("b");
+    myTable.set(1, a, IndexingStampTable.CURRENT);
+    myTable.set(1, b, IndexingStampTable.CURRENT);
+
+    myCreationStamps.put(a, 2);
+    // the table sees the new stamp only after invalidation, like after IndexingStamp.rewriteVersion
+    assertEquals(IndexingStampTable.CURRENT, myTable.get(1, a));
+    myTable.invalidateColumns();
+    assertEquals(IndexingStampTable.NONE, myTable.get(1, a));
+    assertEquals(IndexingStampTable.CURRENT, myTable.get(1, b));
+    assertSameElements(myTable.getNontrivialStates(1), b);
+  }
+
+  public void testStatesSurviveReopening() throws IOException {
+    ID<?, ?> a = id("a");
+    ID<?, ?>[] ids = new ID<?, ?>[70];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = id("column" + i);
+    }
+    myTable.set(3, a, IndexingStampTable.CURRENT);
+    myTable.set(100 * 1000, a, IndexingStampTable.OUTDATED);
+    myTable.set(4, ids[ids.length - 1], IndexingStampTable.CURRENT);
+
+    reopen(VFS_STAMP);
+    assertEquals(IndexingStampTable.CURRENT, myTable.get(3, a));
+    assertEquals(IndexingStampTable.OUTDATED, myTable.get(100 * 1000, a));
+    assertEquals(IndexingStampTable.CURRENT, myTable.get(4, ids[ids.length - 1]));
+    assertEquals(IndexingStampTable.NONE, myTable.get(4, a));
+
+    // a column rebuilt while the table was closed is cleared on the first access
+    myCreationStamps.put(a, 5);
+    reopen(VFS_STAMP);
+    assertEquals(IndexingStampTable.NONE, myTable.get(3, a));
+    assertEquals(IndexingStampTable.CURRENT, myTable.get(4, ids[ids.length - 1]));
+  }
+
+  public void testTableIsResetWhenVfsIsRecreated() throws IOException {
+    ID<?, ?>[] ids = new ID<?, ?>[70];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = id("column" + i);
+      myTable.set(i, ids[i], IndexingStampTable.CURRENT);
+    }
+    assertSameElements(dataFiles(), "stamps32");
+
+    reopen(VFS_STAMP + 1);
+    assertSameElements(dataFiles(), "stamps16");
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(IndexingStampTable.NONE, myTable.get(i, ids[i]));
+      assertEmpty(myTable.getNontrivialStates(i));
+    }
+  }
+
+  public void testReadsDontBlockOnLayoutChanges() throws Exception {
+    final ID<?, ?> a = id("a");
+    myTable.set(1, a, IndexingStampTable.CURRENT);
+    final AtomicBoolean done = new AtomicBoolean();
+    final AtomicInteger reads = new AtomicInteger();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Future<?> reader = executor.submit(() -> {
+      while (!done.get()) {
+        assertEquals(IndexingStampTable.CURRENT, myTable.get(1, a));
+        reads.incrementAndGet();
+      }
+    });
+    try {
+      // the rows grow several times, then get wider, while the old mappings are read
+      for (int i = 0; i < 10; i++) {
+        myTable.set(100 * 1000 * (i + 1), a, IndexingStampTable.OUTDATED);
+      }
+      for (int i = 0; i < 70; i++) {
+        myTable.set(2, id("column" + i), IndexingStampTable.CURRENT);
+      }
+      while (reads.get() < 1000) {
+        Thread.yield();
+      }
+    }
+    finally {
+      done.set(true);
+      executor.shutdown();
+    }
+    reader.get(10, TimeUnit.SECONDS);
+    assertEquals(IndexingStampTable.OUTDATED, myTable.get(1000 * 1000, a));
+    assertEquals(IndexingStampTable.CURRENT, myTable.get(2, id("column69")));
+  }
+
+  @NotNull
+  private ID<?, ?> id(@NotNull String name) {
+    ID<?, ?> id = ID.create(getClass().getSimpleName() + "." + getTestName(false) + "." + name);
+    if (!myCreationStamps.containsKey(id)) myCreationStamps.put(id, 1);
+    return id;
+  }
+
+  @NotNull
+  private String[] dataFiles() {
+    String[] names = myDir.list((dir, name) -> name.startsWith("stamps"));
+    return names == null ? new String[0] : names;
+  }
+
+  private void reopen(long vfsStamp) throws IOException {
+    myTable.close();
+    myTable = open(vfsStamp);
+  }
+
+  @NotNull
+  private IndexingStampTable open(long vfsStamp) throws IOException {
+    return new IndexingStampTable(myDir, vfsStamp) {
+      @Override
+      protected long getIndexCreationStamp(@NotNull ID<?, ?> id) {
+        return myCreationStamps.get(id);
+      }
+    };
+  }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.UsefulTestCase;
+import gnu.trove.TObjectLongHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * @author agent
+ */
+public class SharedColumnStoreTest extends UsefulTestCase {
+  private final TObjectLongHashMap<ID<?, ?>> myCreationStamps = new TObjectLongHashMap<ID<?, ?>>();
+  private final List<SharedColumnStore> myStores = new ArrayList<SharedColumnStore>();
+  private File myRoot;
+  private File myDir;
+  private ID<?, ?> myId;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myRoot = FileUtil.createTempDirectory("columns", null);
+    myDir = new File(myRoot, "inputs");
+    myId = ID.create(getClass().getSimpleName() + "." + getTestName(false));
+    myCreationStamps.put(myId, 1);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      for (SharedColumnStore store : myStores) {
+        store.close();
+      }
+      FileUtil.delete(myRoot);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  // the store is used from several threads
+  @Override
+  protected boolean runInDispatchThread() {
+    return false;
+  }
+
+  public void testWriteAndRead() throws IOException {
+    SharedColumnStore store = open(myDir);
+    write(store, 1, "one");
+    write(store, 2, "two");
+    write(store, 100000, "many");
+    assertEquals("one", read(store, 1));
+    assertEquals("many", read(store, 100000));
+    assertNull(read(store, 3));
+
+    write(store, 1, null);
+    assertNull(read(store, 1));
+    assertEquals("two", read(store, 2));
+  }
+
+  public void testDataSurvivesReopening() throws IOException {
+    SharedColumnStore store = open(myDir);
+    write(store, 1, "one");
+    write(store, 2, "two");
+    close(store);
+
+    store = open(myDir);
+    assertEquals("one", read(store, 1));
+    assertEquals("two", read(store, 2));
+  }
+
+  public void testColumnIsClearedWhenIndexIsRebuilt() throws IOException {
+    SharedColumnStore store = open(myDir);
+    write(store, 1, "one");
+    myCreationStamps.put(myId, 2);
+    assertNull(read(store, 1));
+    write(store, 2, "two");
+    close(store);
+
+    store = open(myDir);
+    assertEquals("two", read(store, 2));
+    myCreationStamps.put(myId, 3);
+    close(store);
+
+    // the index was rebuilt while the store was closed
+    store = open(myDir);
+    assertNull(read(store, 2));
+  }
+
+  public void testColumnModifiedAfterForcingIsDropped() throws IOException {
+    SharedColumnStore store = open(myDir);
+    write(store, 1, "one");
+    store.force();
+    File forced = copyFiles("forced");
+    write(store, 2, "two");
+    File modified = copyFiles("modified");
+
+    // copies of the files are what would be left by a crash at these points
+    SharedColumnStore afterForce = open(forced);
+    assertEquals("one", read(afterForce, 1));
+    assertNull(read(afterForce, 2));
+
+    SharedColumnStore afterModification = open(modified);
+    assertNull(read(afterModification, 1));
+    assertNull(read(afterModification, 2));
+
+    store.force();
+    SharedColumnStore afterSecondForce = open(copyFiles("forcedAgain"));
+    assertEquals("one", read(afterSecondForce, 1));
+    assertEquals("two", read(afterSecondForce, 2));
+  }
+
+  public void testReplacedColumnIsClosedAfterItsLastUse() throws Exception {
+    SharedColumnStore store = open(myDir);
+    write(store, 1, "one");
+
+    SharedColumnStore.Column old = store.acquireColumn(myId);
+    myCreationStamps.put(myId, 2);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<String> future = executor.submit(() -> read(store, 1));
+      try {
+        future.get(200, TimeUnit.MILLISECONDS);
+        fail("The new column shouldn't be opened while the old one is used");
+      }
+      catch (TimeoutException ignored) {
+      }
+      assertFalse(old.isClosed());
+      assertNotNull(old.get(1));
+
+      // the columns of other indices can be opened meanwhile
+      ID<?, ?> otherId = ID.create(myId + ".other");
+      myCreationStamps.put(otherId, 1);
+      Future<?> other = executor.submit(() -> {
+        SharedColumnStore.Column column = store.acquireColumn(otherId);
+        column.release();
+        return null;
+      });
+      other.get(10, TimeUnit.SECONDS);
+      old.release();
+
+      assertNull(future.get(10, TimeUnit.SECONDS));
+      assertTrue(old.isClosed());
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void testConcurrentUseAndReplacement() throws Exception {
+    SharedColumnStore store = open(myDir);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int thread = 0; thread < 4; thread++) {
+        final int base = thread * 1000;
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 1000; i++) {
+            write(store, base + i, "value" + i);
+            read(store, base + i);
+          }
+          return null;
+        }));
+      }
+      for (int stamp = 2; stamp < 20; stamp++) {
+        synchronized (myCreationStamps) {
+          myCreationStamps.put(myId, stamp);
+        }
+        store.force();
+      }
+      for (Future<?> future : futures) {
+        future.get(60, TimeUnit.SECONDS);
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void testLegacyDataIsDeletedOnce() throws IOException {
+    File legacy = new File(myRoot, "inputs.data");
+    File legacyLength = new File(myRoot, "inputs.data.len");
+    assertTrue(legacy.createNewFile());
+    assertTrue(legacyLength.createNewFile());
+
+    close(open(myDir));
+    assertFalse(legacy.exists());
+    assertFalse(legacyLength.exists());
+
+    assertTrue(legacy.createNewFile());
+    close(open(myDir));
+    assertTrue(legacy.exists());
+  }
+
+  @NotNull
+  private File copyFiles(@NotNull String name) throws IOException {
+    File copy = new File(myRoot, name);
+    FileUtil.copyDir(myDir, copy);
+    return copy;
+  }
+
+  @NotNull
+  private SharedColumnStore open(@NotNull File dir) {
+    SharedColumnStore store = new SharedColumnStore(dir, new File(dir.getParentFile(), dir.getName() + ".data")) {
+      @Override
+      protected long getIndexCreationStamp(@NotNull ID<?, ?> indexId) {
+        synchronized (myCreationStamps) {
+          return myCreationStamps.get(indexId);
+        }
+      }
+    };
+    myStores.add(store);
+    return store;
+  }
+
+  private void close(@NotNull SharedColumnStore store) {
+    myStores.remove(store);
+    store.close();
+  }
+
+  private void write(@NotNull SharedColumnStore store, int inputId, @Nullable String value) throws IOException {
+    SharedColumnStore.Column column = store.acquireColumn(myId);
+    try {
+      column.write(inputId, value == null ? null : value.getBytes("UTF-8"));
+    }
+    finally {
+      column.release();
+    }
+  }
+
+  @Nullable
+  private String read(@NotNull SharedColumnStore store, int inputId) throws IOException {
+    SharedColumnStore.Column column = store.acquireColumn(myId);
+    try {
+      byte[] bytes = column.get(inputId);
+      return bytes == null ? null : new String(bytes, "UTF-8");
+    }
+    finally {
+      column.release();
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.CommonProcessors;
+import com.intellij.util.io.EnumeratorIntegerDescriptor;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.PersistentHashMap;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * @author agent
+ */
+public class SortedKeyIndexTest extends TestCase {
+  private File myDir;
+  private PersistentHashMap<String, Integer> myMap;
+  private SortedKeyIndex<String> myIndex;
+  private final TreeSet<String> myKeys = new TreeSet<>();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("sortedKeys", null);
+    myMap = new PersistentHashMap<>(new File(myDir, "map"), EnumeratorStringDescriptor.INSTANCE, EnumeratorIntegerDescriptor.INSTANCE);
+    myIndex = new SortedKeyIndex<String>(myMap) {
+      @Override
+      protected void checkCanceled() {
+      }
+    };
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myMap.close();
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testRangesOfSortedKeys() throws IOException {
+    addKeys("foo", "bar", "baz", "fo", "food", "a", "z", "ba");
+
+    assertRange("ba", "bz");
+    assertRange("fo", "fo" + Character.MAX_VALUE);
+    assertRange("a", "a");
+    assertRange("c", "e");
+    assertRange("", "" + Character.MAX_VALUE);
+    assertRange("zz", "zzz");
+  }
+
+  public void testKeysAddedAfterSorting() throws IOException {
+    addKeys("foo", "bar");
+    assertRange("", "" + Character.MAX_VALUE);
+
+    addKeys("fob", "baz", "bar");
+    assertRange("ba", "bz");
+    assertRange("fo", "fo" + Character.MAX_VALUE);
+    assertRange("", "" + Character.MAX_VALUE);
+  }
+
+  public void testManyAddedKeysAreResorted() throws IOException {
+    Random random = new Random(42);
+    for (int i = 0; i < 100; i++) {
+      addKeys("key" + random.nextInt(100000));
+    }
+    assertRange("key1", "key2");
+
+    // more keys than kept in the added set, so the ids are sorted again
+    for (int i = 0; i < 3000; i++) {
+      addKeys("key" + random.nextInt(100000));
+    }
+    assertRange("key1", "key2");
+    assertRange("key55", "key56");
+    assertRange("", "" + Character.MAX_VALUE);
+  }
+
+  public void testProcessingStops() throws IOException {
+    addKeys("a", "b", "c");
+    CommonProcessors.FindFirstProcessor<String> processor = new CommonProcessors.FindFirstProcessor<>();
+    assertFalse(myIndex.processKeysInRange("a", "c", processor));
+    assertEquals("a", processor.getFoundValue());
+  }
+
+  public void testKeysAddedWhileQuerying() throws Exception {
+    addKeys("a", "b");
+    assertRange("", "" + Character.MAX_VALUE);
+
+    final List<String> added = Collections.synchronizedList(new ArrayList<>());
+    Thread writer = new Thread(() -> {
+      try {
+        for (int i = 0; i < 5000; i++) {
+          String key = "key" + i;
+          myMap.put(key, i);
+          added.add(key);
+        }
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }, "writer");
+    writer.start();
+    while (writer.isAlive()) {
+      // every key added before the query started is found
+      List<String> before = new ArrayList<>(added);
+      Set<String> actual = new HashSet<>();
+      assertTrue(myIndex.processKeysInRange("key", "key" + Character.MAX_VALUE, new CommonProcessors.CollectProcessor<>(actual)));
+      assertTrue(actual.containsAll(before));
+    }
+    writer.join();
+    myKeys.addAll(added);
+
+    assertRange("", "" + Character.MAX_VALUE);
+    assertRange("key1", "key2");
+  }
+
+  private void addKeys(String... keys) throws IOException {
+    for (String key : keys) {
+      myMap.put(key, key.length());
+      myKeys.add(key);
+    }
+  }
+
+  private void assertRange(String from, String to) throws IOException {
+    List<String> actual = new ArrayList<>();
+    assertTrue(myIndex.processKeysInRange(from, to, new CommonProcessors.CollectProcessor<>(actual)));
+    Collections.sort(actual);
+    assertEquals(new ArrayList<>(myKeys.subSet(from, true, to, true)), actual);
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.mock.MockVirtualFile;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * @author agent
+ */
+public class VfsEventsMergerTest extends TestCase {
+  public void testEventsOfFileAreMerged() {
+    VfsEventsMerger merger = create(4);
+    merger.recordBeforeFileEvent(1, file(1, 0), true);
+    merger.recordFileEvent(1, file(1, 1), true);
+    VfsEventsMerger.ChangeInfo info = assertOneChange(merger);
+    assertEquals("1:1", info.getFile().getName());
+    assertTrue(info.isBeforeContentChanged());
+    assertTrue(info.isContentChanged());
+    assertFalse(info.isFileRemoved());
+    assertFalse(info.isFileAdded());
+
+    // removal drops the changes before it
+    merger.recordFileEvent(1, file(1, 2), true);
+    merger.recordBeforeFileEvent(1, file(1, 3), false);
+    merger.recordFileEvent(1, file(1, 4), false);
+    info = assertOneChange(merger);
+    assertEquals("1:4", info.getFile().getName());
+    assertFalse(info.isContentChanged());
+    assertTrue(info.isFileRemoved());
+    assertTrue(info.isFileAdded());
+  }
+
+  public void testFilesArePartitionedIntoShards() {
+    VfsEventsMerger merger = create(4);
+    Map<Integer, Set<Integer>> expected = new HashMap<>();
+    // ids of files without persistent ids are negative
+    for (int id = -9; id <= 9; id++) {
+      if (id == 0) continue;
+      merger.recordFileEvent(id, file(id, 0), false);
+      merger.recordFileEvent(id, file(id, 1), true);
+      int shard = merger.getShard(id);
+      assertTrue(shard >= 0 && shard < merger.getShardCount());
+      assertEquals(shard, merger.getShard(id));
+      expected.computeIfAbsent(shard, k -> new HashSet<>()).add(id);
+    }
+    assertEquals(18, merger.getApproximateChangesCount());
+
+    for (int shard = 0; shard < merger.getShardCount(); shard++) {
+      Set<Integer> ids = expected.get(shard);
+      assertEquals(ids.size(), merger.getApproximateChangesCount(shard));
+      final Set<Integer> processed = new HashSet<>();
+      assertTrue(merger.processChanges(shard, info -> {
+        assertTrue(info.isFileAdded() && info.isContentChanged());
+        assertTrue(processed.add(fileId(info)));
+        return true;
+      }));
+      assertEquals(ids, processed);
+      assertFalse(merger.hasChanges(shard));
+    }
+    assertFalse(merger.hasChanges());
+  }
+
+  public void testProcessingStops() {
+    VfsEventsMerger merger = create(2);
+    for (int id = 1; id <= 4; id++) {
+      merger.recordFileEvent(id, file(id, 0), true);
+    }
+    assertFalse(merger.processChanges(info -> false));
+    assertEquals(3, merger.getApproximateChangesCount());
+  }
+
+  public void testConcurrentRecordingAndProcessing() throws Exception {
+    final VfsEventsMerger merger = create(4);
+    final int files = 32;
+    final int rounds = 3000;
+    final int[] lastRound = new int[files + 1]; // guarded by the shard locks
+    final AtomicIntegerArray processing = new AtomicIntegerArray(files + 1);
+    final AtomicIntegerArray contentChanges = new AtomicIntegerArray(files + 1);
+    final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    final VfsEventsMerger.VfsEventProcessor processor = info -> {
+      int id = fileId(info);
+      if (!processing.compareAndSet(id, 0, 1)) errors.add("file " + id + " is processed concurrently");
+      int round = round(info);
+      // a round records two events, they may be taken separately
+      if (round < lastRound[id]) errors.add("file " + id + ": round " + round + " after " + lastRound[id]);
+      lastRound[id] = round;
+      if (info.isContentChanged()) contentChanges.incrementAndGet(id);
+      if (!info.isContentChanged() && !info.isBeforeContentChanged()) errors.add("file " + id + ": " + info);
+      Thread.yield();
+      processing.set(id, 0);
+      return true;
+    };
+
+    final AtomicBoolean recorded = new AtomicBoolean();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> workers = new ArrayList<>();
+      for (int t = 0; t < 3; t++) {
+        final int worker = t;
+        workers.add(executor.submit(() -> {
+          Random random = new Random(worker);
+          while (!recorded.get()) {
+            // workers of shards and threads processing all shards at once, like FileBasedIndexImpl does
+            if (random.nextInt(4) == 0) {
+              merger.processChanges(processor);
+            }
+            else {
+              merger.processChanges(random.nextInt(merger.getShardCount()), processor);
+            }
+          }
+        }));
+      }
+      for (int round = 1; round <= rounds; round++) {
+        for (int id = 1; id <= files; id++) {
+          merger.recordBeforeFileEvent(id, file(id, round), true);
+          merger.recordFileEvent(id, file(id, round), true);
+        }
+      }
+      recorded.set(true);
+      for (Future<?> worker : workers) {
+        worker.get(60, TimeUnit.SECONDS);
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+    merger.processChanges(processor);
+
+    assertEquals(errors.toString(), 0, errors.size());
+    assertFalse(merger.hasChanges());
+    for (int id = 1; id <= files; id++) {
+      assertEquals(rounds, lastRound[id]);
+      // every content change is processed once, several of them may be merged
+      assertTrue(contentChanges.get(id) >= 1);
+      assertTrue(contentChanges.get(id) <= rounds);
+    }
+  }
+
+  @NotNull
+  private static VfsEventsMerger create(int shardCount) {
+    return new VfsEventsMerger(shardCount) {
+      @Override
+      protected void checkCanceled() {
+      }
+    };
+  }
+
+  @NotNull
+  private static VfsEventsMerger.ChangeInfo assertOneChange(@NotNull VfsEventsMerger merger) {
+    final List<VfsEventsMerger.ChangeInfo> infos = new ArrayList<>();
+    assertTrue(merger.processChanges(info -> infos.add(info)));
+    assertEquals(1, infos.size());
+    assertFalse(merger.hasChanges());
+    return infos.get(0);
+  }
+
+  // the file name keeps the id and the round of the event
+  @NotNull
+  private static MockVirtualFile file(int id, int round) {
+    return new MockVirtualFile(id + ":" + round);
+  }
+
+  private static int fileId(@NotNull VfsEventsMerger.ChangeInfo info) {
+    return Integer.parseInt(info.getFile().getName().split(":")[0]);
+  }
+
+  private static int round(@NotNull VfsEventsMerger.ChangeInfo info) {
+    return Integer.parseInt(info.getFile().getName().split(":")[1]);
+  }
+}
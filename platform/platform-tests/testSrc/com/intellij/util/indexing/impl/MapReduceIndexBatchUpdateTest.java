@@ -0,0 +1,182 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing.impl;
+
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.testFramework.UsefulTestCase;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+public class MapReduceIndexBatchUpdateTest extends UsefulTestCase {
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("mapReduceIndex", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testBatchUpdateEqualsSequentialUpdates() throws Exception {
+    WordIndex sequential = new WordIndex(new File(myDir, "sequential"));
+    WordIndex batched = new WordIndex(new File(myDir, "batched"));
+    try {
+      Object[][] updates = {{1, "a b c"}, {2, "b c d"}, {3, "a d"}, {1, "c e"}, {2, null}, {4, "e e a"}, {3, "a d"}};
+
+      List<Computable<Boolean>> batch = new ArrayList<Computable<Boolean>>();
+      for (Object[] update : updates) {
+        assertTrue(sequential.update((Integer)update[0], (String)update[1]).compute());
+        batch.add(batched.update((Integer)update[0], (String)update[1]));
+      }
+      assertTrue(batched.updateBatch(batch));
+
+      for (String word : new String[]{"a", "b", "c", "d", "e"}) {
+        assertEquals(word, collectInputs(sequential, word), collectInputs(batched, word));
+      }
+      assertEquals("{3=0, 4=2}", collectInputs(batched, "a").toString());
+      assertEquals("{}", collectInputs(batched, "b").toString());
+      assertEquals("{1=1, 4=0}", collectInputs(batched, "e").toString());
+    }
+    finally {
+      sequential.dispose();
+      batched.dispose();
+    }
+  }
+
+  private static Map<Integer, Integer> collectInputs(WordIndex index, String word) throws StorageException {
+    final Map<Integer, Integer> result = new TreeMap<Integer, Integer>();
+    index.getData(word).forEach(new ValueContainer.ContainerAction<Integer>() {
+      @Override
+      public boolean perform(int id, Integer value) {
+        result.put(id, value);
+        return true;
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Maps words of the text to their first position.
+   */
+  private static class WordIndex extends MapReduceIndex<String, Integer, String> {
+    private WordIndex(@NotNull File dir) throws IOException {
+      this(new WordIndexExtension(), dir);
+    }
+
+    private WordIndex(@NotNull final WordIndexExtension extension, @NotNull final File dir) throws IOException {
+      super(extension, new MapIndexStorage<String, Integer>(new File(dir, "storage"), EnumeratorStringDescriptor.INSTANCE,
+                                                           EnumeratorIntegerDescriptor.INSTANCE, 16, false) {
+        @Override
+        protected void checkCanceled() {
+        }
+      }, new MapBasedForwardIndex<String, Integer>(extension) {
+        @NotNull
+        @Override
+        public PersistentHashMap<Integer, Collection<String>> createMap() throws IOException {
+          return new PersistentHashMap<Integer, Collection<String>>(new File(dir, "forward"), EnumeratorIntegerDescriptor.INSTANCE,
+                                                                    new StringCollectionExternalizer());
+        }
+      });
+    }
+
+    @Override
+    public void checkCanceled() {
+    }
+
+    @Override
+    protected void requestRebuild(Exception e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static class WordIndexExtension extends IndexExtension<String, Integer, String> {
+    private static final ID<String, Integer> NAME = ID.create("test.words");
+
+    @NotNull
+    @Override
+    public ID<String, Integer> getName() {
+      return NAME;
+    }
+
+    @NotNull
+    @Override
+    public DataIndexer<String, Integer, String> getIndexer() {
+      return new DataIndexer<String, Integer, String>() {
+        @NotNull
+        @Override
+        public Map<String, Integer> map(@NotNull String inputData) {
+          Map<String, Integer> result = new HashMap<String, Integer>();
+          List<String> words = StringUtil.split(inputData, " ");
+          for (int i = words.size() - 1; i >= 0; i--) {
+            result.put(words.get(i), i);
+          }
+          return result;
+        }
+      };
+    }
+
+    @NotNull
+    @Override
+    public KeyDescriptor<String> getKeyDescriptor() {
+      return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @NotNull
+    @Override
+    public DataExternalizer<Integer> getValueExternalizer() {
+      return EnumeratorIntegerDescriptor.INSTANCE;
+    }
+
+    @Override
+    public int getVersion() {
+      return 0;
+    }
+  }
+
+  private static class StringCollectionExternalizer implements DataExternalizer<Collection<String>> {
+    @Override
+    public void save(@NotNull DataOutput out, Collection<String> value) throws IOException {
+      DataInputOutputUtil.writeINT(out, value.size());
+      for (String s : value) {
+        IOUtil.writeUTF(out, s);
+      }
+    }
+
+    @Override
+    public Collection<String> read(@NotNull DataInput in) throws IOException {
+      int size = DataInputOutputUtil.readINT(in);
+      List<String> result = new ArrayList<String>(size);
+      for (int i = 0; i < size; i++) {
+        result.add(IOUtil.readUTF(in));
+      }
+      return result;
+    }
+  }
+}
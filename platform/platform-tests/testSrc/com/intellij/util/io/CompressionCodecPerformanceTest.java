@@ -0,0 +1,186 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.Processor;
+import com.intellij.util.ThrowableRunnable;
+import junit.framework.TestCase;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares on-disk size and per chunk decompression latency of {@link CompressionCodecs} on sources of a real checkout.
+ * Sources are taken from directory given by {@code idea.compression.benchmark.dir} property, the current directory by default.
+ */
+public class CompressionCodecPerformanceTest extends TestCase {
+  private static final long MAX_CORPUS_SIZE = 16 * 1024 * 1024;
+  private static final int DECOMPRESSION_ROUNDS = 5;
+
+  public void testCodecsOnCheckoutSources() throws Exception {
+    File root = new File(System.getProperty("idea.compression.benchmark.dir", "."));
+    final List<byte[]> sources = new ArrayList<byte[]>();
+    final long[] corpusSize = {0};
+    FileUtil.processFilesRecursively(root, new Processor<File>() {
+      @Override
+      public boolean process(File file) {
+        if (file.isFile() && file.getName().endsWith(".java")) {
+          try {
+            byte[] bytes = FileUtil.loadFileBytes(file);
+            sources.add(bytes);
+            corpusSize[0] += bytes.length;
+          }
+          catch (IOException ignored) {
+          }
+        }
+        return corpusSize[0] < MAX_CORPUS_SIZE;
+      }
+    });
+    assertFalse("No sources found in " + root.getAbsolutePath(), sources.isEmpty());
+
+    final List<byte[]> trainingSamples = new ArrayList<byte[]>();
+    for (int i = 0; i < sources.size(); i += 2) {
+      trainingSamples.add(sources.get(i));
+    }
+    final byte[][] dictionary = new byte[1][];
+    PlatformTestUtil.startPerformanceTest("Dictionary training on " + trainingSamples.size() + " files", 10000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        dictionary[0] = CompressionCodecs.trainDictionary(trainingSamples);
+      }
+    }).cpuBound().attempts(1).assertTiming();
+
+    CompressionCodec[] codecs = {
+      CompressionCodecs.SNAPPY,
+      CompressionCodecs.DEFLATE,
+      SourceCodeCompressor.CODEC,
+      CompressionCodecs.deflate("deflate-trained", dictionary[0])
+    };
+
+    long uncompressedSize = measureFileSize(CompressionCodecs.NONE, sources);
+    for (CompressionCodec codec : codecs) {
+      long onDisk = measureFileSize(codec, sources);
+      assertTrue(codec.getId() + " takes " + onDisk + " bytes of " + uncompressedSize, onDisk < uncompressedSize);
+    }
+    for (CompressionCodec codec : codecs) {
+      measureDecompression(codec, sources);
+    }
+  }
+
+  public void testReopeningWithAnotherCodecFails() throws IOException {
+    File dir = FileUtil.createTempDirectory("codec", "reopen");
+    File file = new File(dir, "data");
+    try {
+      CompressedAppendableFile appendableFile = new CompressedAppendableFile(file, CompressionCodecs.DEFLATE);
+      byte[] bytes = "some data".getBytes();
+      appendableFile.append(bytes, bytes.length);
+      appendableFile.dispose();
+
+      try {
+        new CompressedAppendableFile(file, CompressionCodecs.SNAPPY);
+        fail("Codec mismatch isn't detected");
+      }
+      catch (IOException ignored) {
+      }
+
+      appendableFile = new CompressedAppendableFile(file, CompressionCodecs.DEFLATE);
+      byte[] read = new byte[bytes.length];
+      DataInputStream stream = appendableFile.getStream(0);
+      stream.readFully(read);
+      stream.close();
+      appendableFile.dispose();
+      assertTrue(Arrays.equals(bytes, read));
+    }
+    finally {
+      FileUtil.delete(dir);
+    }
+  }
+
+  private static long measureFileSize(CompressionCodec codec, List<byte[]> sources) throws IOException {
+    File dir = FileUtil.createTempDirectory("codec", codec.getId());
+    File file = new File(dir, "data");
+    CompressedAppendableFile appendableFile = new CompressedAppendableFile(file, codec);
+    try {
+      for (byte[] source : sources) {
+        appendableFile.append(source, source.length);
+      }
+      appendableFile.force();
+
+      byte[] first = sources.get(0);
+      byte[] read = new byte[first.length];
+      DataInputStream stream = appendableFile.getStream(0);
+      stream.readFully(read);
+      stream.close();
+      assertTrue(Arrays.equals(first, read));
+
+      long size = 0;
+      for (File f : dir.listFiles()) {
+        size += f.length();
+      }
+      return size;
+    }
+    finally {
+      appendableFile.dispose();
+      FileUtil.delete(dir);
+    }
+  }
+
+  private static void measureDecompression(final CompressionCodec codec, List<byte[]> sources) throws IOException {
+    final int chunkSize = PersistentBTreeEnumerator.PAGE_SIZE;
+    final List<byte[]> chunks = new ArrayList<byte[]>();
+    byte[] chunk = new byte[chunkSize];
+    int position = 0;
+    for (byte[] source : sources) {
+      for (int offset = 0; offset < source.length; ) {
+        int length = Math.min(chunkSize - position, source.length - offset);
+        System.arraycopy(source, offset, chunk, position, length);
+        offset += length;
+        position += length;
+        if (position == chunkSize) {
+          BufferExposingByteArrayOutputStream compressed = new BufferExposingByteArrayOutputStream();
+          DataOutputStream out = new DataOutputStream(compressed);
+          codec.compress(out, chunk, chunkSize);
+          out.close();
+          chunks.add(compressed.toByteArray());
+          position = 0;
+        }
+      }
+    }
+    if (chunks.isEmpty()) return;
+
+    // ~100 ns per byte budget is well above the slowest (deflate with dictionary) codec
+    int expectedMs = Math.max(100, (int)((long)chunks.size() * chunkSize * DECOMPRESSION_ROUNDS / 10000));
+    PlatformTestUtil.startPerformanceTest(codec.getId() + " decompression of " + chunks.size() + " chunks", expectedMs, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        for (int round = 0; round < DECOMPRESSION_ROUNDS; round++) {
+          for (byte[] compressed : chunks) {
+            byte[] decompressed = codec.decompress(new DataInputStream(new UnsyncByteArrayInputStream(compressed)));
+            assertEquals(chunkSize, decompressed.length);
+          }
+        }
+      }
+    }).cpuBound().assertTiming();
+  }
+}
@@ -8,6 +8,7 @@ import com.intellij.util.containers.IntObjectCache;
 import com.intellij.util.io.storage.Storage;
 import gnu.trove.THashSet;
 import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
 import java.util.*;
@@ -119,6 +120,50 @@ public class PersistentMapTest extends TestCase {
     assertTrue(myMap.isDirty());
   }
 
+  public void testIncrementalCompactionOnOpen() throws Exception {
+    final String value = StringUtil.repeat("0123456789", 1000);
+    for (int round = 0; round < 3; ++round) {
+      for (int i = 0; i < 1000; ++i) {
+        myMap.put("key" + i, value + round);
+      }
+    }
+    myMap.close();
+
+    final long[] sizes = new long[2];
+    PersistentHashMap.CompactionListener listener = new PersistentHashMap.CompactionListener() {
+      @Override
+      public void compactionFinished(@NotNull File file, long sizeBefore, long sizeAfter, long durationMs) {
+        sizes[0] = sizeBefore;
+        sizes[1] = sizeAfter;
+      }
+    };
+    PersistentHashMap.addCompactionListener(listener);
+    try {
+      myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+      // the map stays usable while values are copied
+      for (int i = 0; i < 1000; i += 2) {
+        myMap.put("key" + i, "changed" + i);
+      }
+      myMap.remove("key1");
+      assertEquals(value + 2, myMap.get("key3"));
+
+      myMap.waitForCompaction();
+    }
+    finally {
+      PersistentHashMap.removeCompactionListener(listener);
+    }
+
+    assertTrue(sizes[1] > 0 && sizes[1] < sizes[0] / 2);
+    assertFalse(myMap.makesSenseToCompact());
+    assertEquals(999, myMap.getAllKeysWithExistingMapping().size());
+    myMap.close();
+
+    myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+    assertNull(myMap.get("key1"));
+    assertEquals("changed0", myMap.get("key0"));
+    assertEquals(value + 2, myMap.get("key999"));
+  }
+
   public void testOpeningWithCompact() throws IOException {
     final int stringsCount = 5/*1000000*/;
     Set<String> strings = new HashSet<String>(stringsCount);
@@ -365,7 +410,7 @@ public class PersistentMapTest extends TestCase {
     return StringEnumeratorTest.createRandomString();
   }
 
-  public void testOpeningWithCompact3() throws IOException {
+  public void testOpeningWithCompact3() throws Exception {
     if (!DO_SLOW_TEST) return;
     File file = FileUtil.createTempFile("persistent", "map");
 
@@ -403,6 +448,7 @@ public class PersistentMapTest extends TestCase {
 
       map = new PersistentHashMap<String, Integer>(file, stringDescriptor, integerDescriptor);
       if (isSmall) map.compact();
+      map.waitForCompaction();
       assertTrue(!map.makesSenseToCompact());
       System.out.println(System.currentTimeMillis() - started);
       for (int i = 0; i < stringsCount; ++i) {
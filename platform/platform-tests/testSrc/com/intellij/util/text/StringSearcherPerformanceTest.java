@@ -0,0 +1,83 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.text;
+
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class StringSearcherPerformanceTest {
+  private static final String TEXT = generateText();
+
+  @Test
+  public void caseSensitive() throws Exception {
+    assertEquals(50, countOccurrences(new StringSearcher("processElementsWithWord", true, true)));
+    measure("StringSearcher case sensitive", 400, "processElementsWithWord", true);
+  }
+
+  @Test
+  public void caseInsensitive() throws Exception {
+    assertEquals(100, countOccurrences(new StringSearcher("PROCESSELEMENTSWITHWORD", false, true)));
+    measure("StringSearcher case insensitive", 600, "PROCESSELEMENTSWITHWORD", false);
+  }
+
+  @Test
+  public void multipleWords() throws Exception {
+    measure("StringSearcher multiple words", 1200, "processElementsWithWord", true, "searcher", false, "i", true, "LowLevelSearchUtil", true);
+  }
+
+  private static void measure(String what, int expectedMs, final Object... patternsAndCaseSensitivity) {
+    final StringSearcher[] searchers = new StringSearcher[patternsAndCaseSensitivity.length / 2];
+    for (int i = 0; i < searchers.length; i++) {
+      searchers[i] = new StringSearcher((String)patternsAndCaseSensitivity[2 * i], (Boolean)patternsAndCaseSensitivity[2 * i + 1], true);
+    }
+    PlatformTestUtil.startPerformanceTest(what, expectedMs, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        for (int i = 0; i < 20; i++) {
+          for (StringSearcher searcher : searchers) {
+            countOccurrences(searcher);
+          }
+        }
+      }
+    }).cpuBound().assertTiming();
+  }
+
+  private static int countOccurrences(StringSearcher searcher) {
+    int count = 0;
+    for (int index = searcher.scan(TEXT); index >= 0; index = searcher.scan(TEXT, index + 1, TEXT.length())) {
+      count++;
+    }
+    return count;
+  }
+
+  private static String generateText() {
+    String[] words = {"for", "int", "index", "searcher", "scan", "text", "process", "Elements", "With", "Word", "return", "null", "\n"};
+    Random random = new Random(42);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000000; i++) {
+      text.append(words[random.nextInt(words.length)]).append(i % 3 == 0 ? ' ' : '.');
+      if (i % 10000 == 0) {
+        text.append(i % 20000 == 0 ? "processElementsWithWord" : "ProcessElementsWithWord").append(' ');
+      }
+    }
+    return text.toString();
+  }
+}
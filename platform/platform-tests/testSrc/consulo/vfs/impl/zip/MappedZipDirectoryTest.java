@@ -0,0 +1,244 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.vfs.impl.zip;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.impl.ZipHandler;
+import consulo.vfs.impl.archive.ArchiveFile;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * @author agent
+ */
+public class MappedZipDirectoryTest extends TestCase {
+  private static final byte[] STORED = "stored content".getBytes();
+  private static final byte[] DEFLATED = "deflated content, deflated content, deflated content".getBytes();
+
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("mappedZip", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      ZipHandler.clearFileAccessorCache();
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testStoredAndDeflatedEntries() throws IOException {
+    File archive = createArchive("test.zip", null, null);
+    MappedZipDirectory directory = MappedZipDirectory.open(archive);
+    assertNotNull(directory);
+    try {
+      ZipFile zipFile = new ZipFile(archive);
+      try {
+        assertContent(STORED, directory.getStoredContent(zipFile.getEntry("dir/stored.txt")));
+        assertContent(new byte[0], directory.getStoredContent(zipFile.getEntry("empty.txt")));
+        assertNull(directory.getStoredContent(zipFile.getEntry("dir/deflated.txt")));
+        assertNull(directory.getStoredContent(new ZipEntry("missing.txt")));
+      }
+      finally {
+        zipFile.close();
+      }
+    }
+    finally {
+      directory.close();
+    }
+  }
+
+  public void testArchiveWithComment() throws IOException {
+    File archive = createArchive("comment.zip", "archive comment", null);
+    MappedZipDirectory directory = MappedZipDirectory.open(archive);
+    assertNotNull(directory);
+    try {
+      ZipFile zipFile = new ZipFile(archive);
+      try {
+        assertContent(STORED, directory.getStoredContent(zipFile.getEntry("dir/stored.txt")));
+      }
+      finally {
+        zipFile.close();
+      }
+    }
+    finally {
+      directory.close();
+    }
+  }
+
+  public void testArchiveWithPrefixIsNotMapped() throws IOException {
+    File archive = createArchive("prefix.zip", null, "#!/bin/sh\nexit 0\n".getBytes());
+    assertNull(MappedZipDirectory.open(archive));
+    assertArchiveContent(archive);
+  }
+
+  public void testZip64ArchiveIsNotMapped() throws IOException {
+    File archive = new File(myDir, "zip64.zip");
+    ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(archive)));
+    try {
+      // more entries than the end record can count
+      for (int i = 0; i < 0xFFFF + 1; i++) {
+        out.putNextEntry(new ZipEntry("d" + i + "/"));
+        out.closeEntry();
+      }
+    }
+    finally {
+      out.close();
+    }
+    assertNull(MappedZipDirectory.open(archive));
+  }
+
+  public void testChangedArchiveIsRemapped() throws IOException {
+    final File archive = createArchive("changed.zip", null, null);
+    ZipHandler handler = new ZipHandler(archive.getPath()) {
+      @Override
+      public ArchiveFile createArchiveFile(@NotNull String path) throws IOException {
+        return new ZipArchiveFile(path);
+      }
+    };
+    assertStream(STORED, handler.getInputStream("dir/stored.txt"));
+
+    // the archive is rewritten in place, the handler notices it and maps the new one
+    byte[] changed = "changed stored content".getBytes();
+    File replacement = new File(myDir, "replacement.zip");
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(replacement));
+    try {
+      putStored(out, "dir/stored.txt", changed);
+    }
+    finally {
+      out.close();
+    }
+    long timestamp = archive.lastModified();
+    FileUtil.copy(replacement, archive);
+    assertTrue(archive.setLastModified(timestamp - 10000));
+
+    assertStream(changed, handler.getInputStream("dir/stored.txt"));
+    handler.dispose();
+  }
+
+  public void testArchiveFileContent() throws IOException {
+    assertArchiveContent(createArchive("test.zip", "comment", null));
+  }
+
+  public void testHandlerStreams() throws IOException {
+    final File archive = createArchive("handler.zip", null, null);
+    ZipHandler handler = new ZipHandler(archive.getPath()) {
+      @Override
+      public ArchiveFile createArchiveFile(@NotNull String path) throws IOException {
+        return new ZipArchiveFile(path);
+      }
+    };
+
+    assertStream(STORED, handler.getInputStream("dir/stored.txt"));
+    assertStream(DEFLATED, handler.getInputStream("dir/deflated.txt"));
+    assertStream(new byte[0], handler.getInputStream("empty.txt"));
+    assertEquals(new String(STORED), new String(handler.contentsToByteArray("dir/stored.txt")));
+    assertEquals(new String(DEFLATED), new String(handler.contentsToByteArray("dir/deflated.txt")));
+    try {
+      handler.getInputStream("missing.txt");
+      fail();
+    }
+    catch (FileNotFoundException ignored) {
+    }
+
+    InputStream stream = handler.getInputStream("dir/stored.txt");
+    stream.close();
+    try {
+      stream.read();
+      fail();
+    }
+    catch (IOException ignored) {
+    }
+    handler.dispose();
+  }
+
+  private void assertArchiveContent(@NotNull File archive) throws IOException {
+    ZipArchiveFile file = new ZipArchiveFile(archive.getPath());
+    try {
+      assertContent(STORED, file.getBuffer(file.getEntry("dir/stored.txt")));
+      assertContent(DEFLATED, file.getBuffer(file.getEntry("dir/deflated.txt")));
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  @NotNull
+  private File createArchive(@NotNull String name, @Nullable String comment, @Nullable byte[] prefix) throws IOException {
+    File archive = new File(myDir, name);
+    OutputStream fileStream = new FileOutputStream(archive);
+    if (prefix != null) fileStream.write(prefix);
+    ZipOutputStream out = new ZipOutputStream(fileStream);
+    try {
+      out.putNextEntry(new ZipEntry("dir/"));
+      out.closeEntry();
+      putStored(out, "dir/stored.txt", STORED);
+      out.putNextEntry(new ZipEntry("dir/deflated.txt"));
+      out.write(DEFLATED);
+      out.closeEntry();
+      putStored(out, "empty.txt", new byte[0]);
+      if (comment != null) out.setComment(comment);
+    }
+    finally {
+      out.close();
+    }
+    return archive;
+  }
+
+  private static void putStored(@NotNull ZipOutputStream out, @NotNull String name, @NotNull byte[] content) throws IOException {
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(content.length);
+    entry.setCompressedSize(content.length);
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    entry.setCrc(crc.getValue());
+    out.putNextEntry(entry);
+    out.write(content);
+    out.closeEntry();
+  }
+
+  private static void assertContent(@NotNull byte[] expected, @Nullable ByteBuffer buffer) {
+    assertNotNull(buffer);
+    byte[] actual = new byte[buffer.remaining()];
+    buffer.duplicate().get(actual);
+    assertEquals(new String(expected), new String(actual));
+  }
+
+  private static void assertStream(@NotNull byte[] expected, @NotNull InputStream stream) throws IOException {
+    try {
+      assertEquals(new String(expected), new String(FileUtil.loadBytes(stream)));
+    }
+    finally {
+      stream.close();
+    }
+  }
+}
@@ -16,13 +16,16 @@
 package com.intellij.util.indexing;
 
 import com.intellij.openapi.util.Condition;
+import com.intellij.util.SmartList;
 import com.intellij.util.containers.EmptyIntHashSet;
+import com.intellij.util.indexing.containers.CompressedIdSet;
 import gnu.trove.TIntHashSet;
 import gnu.trove.TIntProcedure;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
+import java.util.List;
 
 public class InvertedIndexUtil {
   @NotNull
@@ -32,12 +35,38 @@ public class InvertedIndexUtil {
                                                                        @Nullable Condition<V> valueChecker,
                                                                        @Nullable ValueContainer.IntPredicate idChecker)
           throws StorageException {
-    TIntHashSet mainIntersection = null;
+    CompressedIdSet intersection = intersectInputIdsContainingAllKeys(index, dataKeys, keyChecker, valueChecker, idChecker);
+    if (intersection.isEmpty()) return EmptyIntHashSet.INSTANCE;
+
+    final TIntHashSet result = new TIntHashSet(intersection.size());
+    intersection.forEach(new TIntProcedure() {
+      @Override
+      public boolean execute(int id) {
+        result.add(id);
+        return true;
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Same as {@link #collectInputIdsContainingAllKeys} but keeps the intersection compressed, ids are iterated in ascending order.
+   */
+  @NotNull
+  public static <K, V, I> CompressedIdSet intersectInputIdsContainingAllKeys(@NotNull InvertedIndex<K, V, I> index,
+                                                                             @NotNull Collection<K> dataKeys,
+                                                                             @Nullable Condition<K> keyChecker,
+                                                                             @Nullable Condition<V> valueChecker,
+                                                                             @Nullable ValueContainer.IntPredicate idChecker)
+          throws StorageException {
+    CompressedIdSet mainIntersection = null;
 
     for (K dataKey : dataKeys) {
       if (keyChecker != null && !keyChecker.value(dataKey)) continue;
 
-      final TIntHashSet copy = new TIntHashSet();
+      // ids of the key are either collected from values or, for values much larger than the intersection, checked with predicates
+      CompressedIdSet keyIds = new CompressedIdSet();
+      final List<ValueContainer.IntPredicate> keyPredicates = new SmartList<ValueContainer.IntPredicate>();
       final ValueContainer<V> container = index.getData(dataKey);
 
       for (ValueContainer.ValueIterator<V> valueIt = container.getValueIterator(); valueIt.hasNext(); ) {
@@ -52,30 +81,40 @@ public class InvertedIndexUtil {
         if (mainIntersection == null || iterator.size() < mainIntersection.size() || (predicate = valueIt.getValueAssociationPredicate()) == null) {
           while (iterator.hasNext()) {
             final int id = iterator.next();
-            if (mainIntersection == null && (idChecker == null || idChecker.contains(id)) ||
-                mainIntersection != null && mainIntersection.contains(id)
-                    ) {
-              copy.add(id);
+            if (mainIntersection != null || idChecker == null || idChecker.contains(id)) {
+              keyIds.add(id);
             }
           }
         }
         else {
-          mainIntersection.forEach(new TIntProcedure() {
-            @Override
-            public boolean execute(int id) {
-              if (predicate.contains(id)) copy.add(id);
-              return true;
-            }
-          });
+          keyPredicates.add(predicate);
         }
       }
 
-      mainIntersection = copy;
+      if (mainIntersection == null) {
+        mainIntersection = keyIds;
+      }
+      else if (keyPredicates.isEmpty()) {
+        mainIntersection.retainAll(keyIds);
+      }
+      else {
+        final CompressedIdSet collectedIds = keyIds;
+        mainIntersection.retainAll(new ValueContainer.IntPredicate() {
+          @Override
+          public boolean contains(int id) {
+            if (collectedIds.contains(id)) return true;
+            for (ValueContainer.IntPredicate predicate : keyPredicates) {
+              if (predicate.contains(id)) return true;
+            }
+            return false;
+          }
+        });
+      }
       if (mainIntersection.isEmpty()) {
-        return EmptyIntHashSet.INSTANCE;
+        return mainIntersection;
       }
     }
 
-    return mainIntersection == null ? EmptyIntHashSet.INSTANCE : mainIntersection;
+    return mainIntersection == null ? new CompressedIdSet() : mainIntersection;
   }
 }
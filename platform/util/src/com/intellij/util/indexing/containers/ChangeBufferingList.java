@@ -35,6 +35,8 @@ import static com.intellij.util.indexing.impl.DebugAssertions.EXTRA_SANITY_CHECK
 public class ChangeBufferingList implements Cloneable {
   static final int MAX_FILES = 20000; // less than Short.MAX_VALUE
   //static final int MAX_FILES = 100;
+  // larger sets are kept compressed, plain sorted array is faster to build and query for smaller ones
+  static final int MAX_SORTED_SET_SIZE = CompressedIdSet.MAX_ARRAY_CHUNK_SIZE;
   private volatile int[] changes;
   private short length;
   private boolean hasRemovals;
@@ -46,23 +48,13 @@ public class ChangeBufferingList implements Cloneable {
   public ChangeBufferingList() { this(3); }
   public ChangeBufferingList(int length) {
     if (length > MAX_FILES) {
-      randomAccessContainer = new IdBitSet(length);
+      randomAccessContainer = new CompressedIdSet();
     } else {
       changes = new int[length];
     }
     checkSet = EXTRA_SANITY_CHECKS ? new IdSet(length) : null;
   }
 
-  static int[] calcMinMax(int[] set, int length) {
-    int max = Integer.MIN_VALUE;
-    int min = Integer.MAX_VALUE;
-    for(int i = 0; i < length; ++i) {
-      max = Math.max(max, set[i]);
-      min = Math.min(min, set[i]);
-    }
-    return new int[] {min, max};
-  }
-
   public void add(int value) {
     ensureCapacity(1);
     if (checkSet != null) checkSet.add(value);
@@ -125,11 +117,7 @@ public class ChangeBufferingList implements Cloneable {
       if (randomAccessContainer == null) {
         int someElementsNumberEstimation = length;
 
-        // todo we can check these lengths instead of only relying upon reaching MAX_FILES
-        //int lengthOfBitSet = IdBitSet.sizeInBytes(minMax[1], minMax[0]);
-        //int lengthOfIntSet = 4 * length;
-
-        if (someElementsNumberEstimation < MAX_FILES) {
+        if (someElementsNumberEstimation < MAX_SORTED_SET_SIZE) {
           if (!hasRemovals) {
             if (mayHaveDupes) {
               removingDupesAndSort();
@@ -142,10 +130,10 @@ public class ChangeBufferingList implements Cloneable {
           }
         }
         else if (!hasRemovals) {
-          idSet = new IdBitSet(changes, length, 0);
+          idSet = new CompressedIdSet(changes, length);
           copyChanges = false;
         } else {
-          idSet = new IdBitSet(calcMinMax(changes, length), 0);
+          idSet = new CompressedIdSet();
         }
       } else if (checkSet != null) {
         idSet = (RandomAccessIntContainer)randomAccessContainer.clone();
@@ -0,0 +1,548 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing.containers;
+
+import com.intellij.util.indexing.ValueContainer;
+import gnu.trove.TIntProcedure;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Set of non-negative ids split into chunks of 2^16 consecutive ids (in the spirit of Roaring bitmaps). Chunk keeps low 16 bits of its
+ * ids either in a sorted char array (2 bytes per id) or, when it has more than {@link #MAX_ARRAY_CHUNK_SIZE} ids, in a bitmap (8Kb).
+ * Sparse and dense posting lists thus take a fraction of int array or plain bitmap over the whole id range, while membership test stays
+ * logarithmic at worst and intersection works chunk by chunk.
+ *
+ * @author agent
+ */
+public class CompressedIdSet implements Cloneable, RandomAccessIntContainer {
+  private static final int CHUNK_SHIFT = 16;
+  private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+  private static final int BITMAP_WORDS = (1 << CHUNK_SHIFT) >> 6;
+  static final int MAX_ARRAY_CHUNK_SIZE = 4096; // array chunk of this size takes as much as bitmap one
+  private static final int MIN_BITMAP_CHUNK_SIZE = MAX_ARRAY_CHUNK_SIZE / 2; // hysteresis for add / remove sequences
+
+  private char[] myChunkKeys = new char[4];
+  private Chunk[] myChunks = new Chunk[4];
+  private int myChunkCount;
+  private int mySize;
+
+  public CompressedIdSet() {
+  }
+
+  public CompressedIdSet(@NotNull RandomAccessIntContainer set) {
+    IntIdsIterator iterator = set.intIterator();
+    while (iterator.hasNext()) {
+      add(iterator.next());
+    }
+  }
+
+  CompressedIdSet(int[] set, int count) {
+    for (int i = 0; i < count; ++i) add(set[i]);
+  }
+
+  @Override
+  public int size() {
+    return mySize;
+  }
+
+  public boolean isEmpty() {
+    return mySize == 0;
+  }
+
+  @Override
+  public boolean add(int value) {
+    assert value >= 0;
+    int index = findChunk(value >>> CHUNK_SHIFT);
+    Chunk chunk;
+    if (index < 0) {
+      index = -index - 1;
+      chunk = new ArrayChunk(4);
+      insertChunk(index, (char)(value >>> CHUNK_SHIFT), chunk);
+    }
+    else {
+      chunk = myChunks[index];
+    }
+
+    if (!chunk.add((char)(value & CHUNK_MASK))) return false;
+    if (chunk instanceof ArrayChunk && chunk.size() > MAX_ARRAY_CHUNK_SIZE) {
+      myChunks[index] = ((ArrayChunk)chunk).toBitmap();
+    }
+    ++mySize;
+    return true;
+  }
+
+  @Override
+  public boolean remove(int value) {
+    if (value < 0) return false;
+    int index = findChunk(value >>> CHUNK_SHIFT);
+    if (index < 0) return false;
+
+    Chunk chunk = myChunks[index];
+    if (!chunk.remove((char)(value & CHUNK_MASK))) return false;
+    --mySize;
+    if (chunk.size() == 0) {
+      removeChunk(index);
+    }
+    else if (chunk instanceof BitmapChunk && chunk.size() < MIN_BITMAP_CHUNK_SIZE) {
+      myChunks[index] = ((BitmapChunk)chunk).toArray();
+    }
+    return true;
+  }
+
+  @Override
+  public boolean contains(int value) {
+    if (value < 0) return false;
+    int index = findChunk(value >>> CHUNK_SHIFT);
+    return index >= 0 && myChunks[index].contains((char)(value & CHUNK_MASK));
+  }
+
+  /**
+   * Leaves in this set only ids contained in the other one.
+   */
+  public void retainAll(@NotNull CompressedIdSet other) {
+    int newCount = 0;
+    int newSize = 0;
+    for (int i = 0, j = 0; i < myChunkCount && j < other.myChunkCount; ) {
+      char key = myChunkKeys[i];
+      char otherKey = other.myChunkKeys[j];
+      if (key < otherKey) {
+        ++i;
+      }
+      else if (key > otherKey) {
+        ++j;
+      }
+      else {
+        Chunk intersection = myChunks[i].and(other.myChunks[j]);
+        if (intersection.size() > 0) {
+          myChunkKeys[newCount] = key;
+          myChunks[newCount++] = intersection;
+          newSize += intersection.size();
+        }
+        ++i;
+        ++j;
+      }
+    }
+    Arrays.fill(myChunks, newCount, myChunkCount, null);
+    myChunkCount = newCount;
+    mySize = newSize;
+  }
+
+  /**
+   * Leaves in this set only ids accepted by the predicate.
+   */
+  public void retainAll(@NotNull ValueContainer.IntPredicate predicate) {
+    int newCount = 0;
+    int newSize = 0;
+    for (int i = 0; i < myChunkCount; ++i) {
+      Chunk chunk = myChunks[i].filter(myChunkKeys[i] << CHUNK_SHIFT, predicate);
+      if (chunk.size() > 0) {
+        myChunkKeys[newCount] = myChunkKeys[i];
+        myChunks[newCount++] = chunk;
+        newSize += chunk.size();
+      }
+    }
+    Arrays.fill(myChunks, newCount, myChunkCount, null);
+    myChunkCount = newCount;
+    mySize = newSize;
+  }
+
+  public boolean forEach(@NotNull TIntProcedure procedure) {
+    for (int i = 0; i < myChunkCount; ++i) {
+      if (!myChunks[i].forEach(myChunkKeys[i] << CHUNK_SHIFT, procedure)) return false;
+    }
+    return true;
+  }
+
+  @Override
+  public IntIdsIterator intIterator() {
+    return new Iterator();
+  }
+
+  @Override
+  public ValueContainer.IntPredicate intPredicate() {
+    return new ValueContainer.IntPredicate() {
+      @Override
+      public boolean contains(int id) {
+        return CompressedIdSet.this.contains(id);
+      }
+    };
+  }
+
+  @Override
+  public void compact() {
+    for (int i = 0; i < myChunkCount; ++i) {
+      myChunks[i].trim();
+    }
+    if (myChunkCount < myChunks.length) {
+      myChunkKeys = Arrays.copyOf(myChunkKeys, Math.max(1, myChunkCount));
+      myChunks = Arrays.copyOf(myChunks, Math.max(1, myChunkCount));
+    }
+  }
+
+  @Override
+  public RandomAccessIntContainer ensureContainerCapacity(int diff) {
+    return this;
+  }
+
+  @Override
+  public CompressedIdSet clone() {
+    try {
+      CompressedIdSet clone = (CompressedIdSet)super.clone();
+      clone.myChunkKeys = myChunkKeys.clone();
+      clone.myChunks = new Chunk[myChunks.length];
+      for (int i = 0; i < myChunkCount; ++i) {
+        clone.myChunks[i] = myChunks[i].copy();
+      }
+      return clone;
+    }
+    catch (CloneNotSupportedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private int findChunk(int key) {
+    if (myChunkCount > 0 && myChunkKeys[myChunkCount - 1] == key) return myChunkCount - 1; // ids mostly come in ascending order
+    return Arrays.binarySearch(myChunkKeys, 0, myChunkCount, (char)key);
+  }
+
+  private void insertChunk(int index, char key, Chunk chunk) {
+    if (myChunkCount == myChunks.length) {
+      int newLength = myChunkCount < 8 ? 8 : myChunkCount + (myChunkCount >> 1);
+      myChunkKeys = Arrays.copyOf(myChunkKeys, newLength);
+      myChunks = Arrays.copyOf(myChunks, newLength);
+    }
+    System.arraycopy(myChunkKeys, index, myChunkKeys, index + 1, myChunkCount - index);
+    System.arraycopy(myChunks, index, myChunks, index + 1, myChunkCount - index);
+    myChunkKeys[index] = key;
+    myChunks[index] = chunk;
+    ++myChunkCount;
+  }
+
+  private void removeChunk(int index) {
+    System.arraycopy(myChunkKeys, index + 1, myChunkKeys, index, myChunkCount - index - 1);
+    System.arraycopy(myChunks, index + 1, myChunks, index, myChunkCount - index - 1);
+    myChunks[--myChunkCount] = null;
+  }
+
+  private abstract static class Chunk {
+    abstract int size();
+
+    abstract boolean add(char value);
+
+    abstract boolean remove(char value);
+
+    abstract boolean contains(char value);
+
+    /**
+     * @return index of the first value greater or equal to the given one in chunk's own terms, or -1
+     */
+    abstract int next(int from);
+
+    abstract int valueAt(int position);
+
+    @NotNull
+    abstract Chunk and(@NotNull Chunk other);
+
+    @NotNull
+    abstract Chunk filter(int base, @NotNull ValueContainer.IntPredicate predicate);
+
+    abstract boolean forEach(int base, @NotNull TIntProcedure procedure);
+
+    abstract void trim();
+
+    @NotNull
+    abstract Chunk copy();
+  }
+
+  private static class ArrayChunk extends Chunk {
+    private char[] myValues;
+    private int mySize;
+
+    ArrayChunk(int capacity) {
+      myValues = new char[capacity];
+    }
+
+    ArrayChunk(char[] values, int size) {
+      myValues = values;
+      mySize = size;
+    }
+
+    @Override
+    int size() {
+      return mySize;
+    }
+
+    @Override
+    boolean add(char value) {
+      int index = mySize > 0 && myValues[mySize - 1] < value ? -mySize - 1 : Arrays.binarySearch(myValues, 0, mySize, value);
+      if (index >= 0) return false;
+      index = -index - 1;
+      if (mySize == myValues.length) {
+        myValues = Arrays.copyOf(myValues, mySize < 64 ? mySize * 2 : mySize + (mySize >> 2));
+      }
+      System.arraycopy(myValues, index, myValues, index + 1, mySize - index);
+      myValues[index] = value;
+      ++mySize;
+      return true;
+    }
+
+    @Override
+    boolean remove(char value) {
+      int index = Arrays.binarySearch(myValues, 0, mySize, value);
+      if (index < 0) return false;
+      System.arraycopy(myValues, index + 1, myValues, index, mySize - index - 1);
+      --mySize;
+      return true;
+    }
+
+    @Override
+    boolean contains(char value) {
+      return Arrays.binarySearch(myValues, 0, mySize, value) >= 0;
+    }
+
+    @Override
+    int next(int from) {
+      return from < mySize ? from : -1;
+    }
+
+    @Override
+    int valueAt(int position) {
+      return myValues[position];
+    }
+
+    @NotNull
+    @Override
+    Chunk and(@NotNull Chunk other) {
+      char[] result = new char[Math.min(mySize, other.size())];
+      int size = 0;
+      if (other instanceof ArrayChunk) {
+        ArrayChunk array = (ArrayChunk)other;
+        for (int i = 0, j = 0; i < mySize && j < array.mySize; ) {
+          if (myValues[i] < array.myValues[j]) {
+            ++i;
+          }
+          else if (myValues[i] > array.myValues[j]) {
+            ++j;
+          }
+          else {
+            result[size++] = myValues[i];
+            ++i;
+            ++j;
+          }
+        }
+      }
+      else {
+        for (int i = 0; i < mySize; ++i) {
+          if (other.contains(myValues[i])) result[size++] = myValues[i];
+        }
+      }
+      return new ArrayChunk(result, size);
+    }
+
+    @NotNull
+    @Override
+    Chunk filter(int base, @NotNull ValueContainer.IntPredicate predicate) {
+      int size = 0;
+      for (int i = 0; i < mySize; ++i) {
+        if (predicate.contains(base | myValues[i])) myValues[size++] = myValues[i];
+      }
+      mySize = size;
+      return this;
+    }
+
+    @Override
+    boolean forEach(int base, @NotNull TIntProcedure procedure) {
+      for (int i = 0; i < mySize; ++i) {
+        if (!procedure.execute(base | myValues[i])) return false;
+      }
+      return true;
+    }
+
+    @Override
+    void trim() {
+      if (mySize < myValues.length) myValues = Arrays.copyOf(myValues, Math.max(1, mySize));
+    }
+
+    @NotNull
+    @Override
+    Chunk copy() {
+      return new ArrayChunk(myValues.clone(), mySize);
+    }
+
+    @NotNull
+    BitmapChunk toBitmap() {
+      BitmapChunk bitmap = new BitmapChunk();
+      for (int i = 0; i < mySize; ++i) {
+        bitmap.add(myValues[i]);
+      }
+      return bitmap;
+    }
+  }
+
+  private static class BitmapChunk extends Chunk {
+    private long[] myWords = new long[BITMAP_WORDS];
+    private int mySize;
+
+    @Override
+    int size() {
+      return mySize;
+    }
+
+    @Override
+    boolean add(char value) {
+      long mask = 1L << value;
+      int word = value >> 6;
+      if ((myWords[word] & mask) != 0) return false;
+      myWords[word] |= mask;
+      ++mySize;
+      return true;
+    }
+
+    @Override
+    boolean remove(char value) {
+      long mask = 1L << value;
+      int word = value >> 6;
+      if ((myWords[word] & mask) == 0) return false;
+      myWords[word] &= ~mask;
+      --mySize;
+      return true;
+    }
+
+    @Override
+    boolean contains(char value) {
+      return (myWords[value >> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    int next(int from) {
+      int word = from >> 6;
+      if (word >= BITMAP_WORDS) return -1;
+      long bits = myWords[word] & (-1L << from);
+      while (true) {
+        if (bits != 0) return (word << 6) + Long.numberOfTrailingZeros(bits);
+        if (++word == BITMAP_WORDS) return -1;
+        bits = myWords[word];
+      }
+    }
+
+    @Override
+    int valueAt(int position) {
+      return position;
+    }
+
+    @NotNull
+    @Override
+    Chunk and(@NotNull Chunk other) {
+      if (other instanceof ArrayChunk) return other.and(this);
+      BitmapChunk result = new BitmapChunk();
+      long[] otherWords = ((BitmapChunk)other).myWords;
+      for (int i = 0; i < BITMAP_WORDS; ++i) {
+        long word = myWords[i] & otherWords[i];
+        result.myWords[i] = word;
+        result.mySize += Long.bitCount(word);
+      }
+      return result.mySize < MIN_BITMAP_CHUNK_SIZE ? result.toArray() : result;
+    }
+
+    @NotNull
+    @Override
+    Chunk filter(int base, @NotNull ValueContainer.IntPredicate predicate) {
+      for (int value = next(0); value != -1; value = next(value + 1)) {
+        if (!predicate.contains(base | value)) remove((char)value);
+      }
+      return mySize < MIN_BITMAP_CHUNK_SIZE ? toArray() : this;
+    }
+
+    @Override
+    boolean forEach(int base, @NotNull TIntProcedure procedure) {
+      for (int value = next(0); value != -1; value = next(value + 1)) {
+        if (!procedure.execute(base | value)) return false;
+      }
+      return true;
+    }
+
+    @Override
+    void trim() {
+    }
+
+    @NotNull
+    @Override
+    Chunk copy() {
+      BitmapChunk copy = new BitmapChunk();
+      copy.myWords = myWords.clone();
+      copy.mySize = mySize;
+      return copy;
+    }
+
+    @NotNull
+    ArrayChunk toArray() {
+      char[] values = new char[Math.max(1, mySize)];
+      int size = 0;
+      for (int value = next(0); value != -1; value = next(value + 1)) {
+        values[size++] = (char)value;
+      }
+      return new ArrayChunk(values, size);
+    }
+  }
+
+  private class Iterator implements IntIdsIterator {
+    private int myChunkIndex;
+    private int myPosition = -1; // position of the next value in current chunk
+
+    Iterator() {
+      advance(0);
+    }
+
+    private void advance(int from) {
+      while (myChunkIndex < myChunkCount) {
+        myPosition = myChunks[myChunkIndex].next(from);
+        if (myPosition != -1) return;
+        ++myChunkIndex;
+        from = 0;
+      }
+      myPosition = -1;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return myPosition != -1;
+    }
+
+    @Override
+    public int next() {
+      int result = (myChunkKeys[myChunkIndex] << CHUNK_SHIFT) | myChunks[myChunkIndex].valueAt(myPosition);
+      advance(myPosition + 1);
+      return result;
+    }
+
+    @Override
+    public int size() {
+      return CompressedIdSet.this.size();
+    }
+
+    @Override
+    public boolean hasAscendingOrder() {
+      return true;
+    }
+
+    @Override
+    public IntIdsIterator createCopyInInitialState() {
+      return new Iterator();
+    }
+  }
+}
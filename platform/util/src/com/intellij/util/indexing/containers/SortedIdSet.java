@@ -207,8 +207,8 @@ public class SortedIdSet implements Cloneable, RandomAccessIntContainer {
   public RandomAccessIntContainer ensureContainerCapacity(int count) {
     int newSize = mySetLength + count;
     if (newSize < mySet.length) return this;
-    if (newSize > ChangeBufferingList.MAX_FILES) {
-      return new IdBitSet(this, count);
+    if (newSize > ChangeBufferingList.MAX_SORTED_SET_SIZE) {
+      return new CompressedIdSet(this);
     }
 
     newSize = ChangeBufferingList.calcNextArraySize(mySet.length, newSize);
@@ -27,13 +27,14 @@ import com.intellij.util.indexing.*;
 import com.intellij.util.io.DataExternalizer;
 import com.intellij.util.io.DataOutputStream;
 import com.intellij.util.io.UnsyncByteArrayInputStream;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.DataInputStream;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -189,28 +190,81 @@ public abstract class MapReduceIndex<Key,Value, Input> implements InvertedIndex<
   @NotNull
   @Override
   public final Computable<Boolean> update(final int inputId, @Nullable final Input content) {
-    final UpdateData<Key, Value> updateData = calculateUpdateData(inputId, content);
+    return new IndexUpdate(inputId, calculateUpdateData(inputId, content));
+  }
 
-    return new Computable<Boolean>() {
-      @Override
-      public Boolean compute() {
-        try {
-          updateWithMap(inputId, updateData);
-        }
-        catch (StorageException ex) {
-          LOG.info("Exception during updateWithMap:" + ex);
-          requestRebuild(ex);
-          return Boolean.FALSE;
-        }
-        catch (ProcessCanceledException ex) {
-          LOG.info("Exception during updateWithMap:" + ex);
-          requestRebuild(ex);
-          return Boolean.FALSE;
-        }
+  /**
+   * Applies several updates returned by {@link #update(int, Object)} of this index as one group commit: the write lock is taken once,
+   * key diffs of all inputs are ordered by key and written to the storage in one pass, so value container of a key shared by
+   * many inputs is loaded and changed once per group rather than once per input.
+   *
+   * @return false if the group wasn't applied and rebuild of the index was requested
+   */
+  public boolean updateBatch(@NotNull List<? extends Computable<Boolean>> updates) {
+    TIntArrayList inputIds = new TIntArrayList(updates.size());
+    List<UpdateData<Key, Value>> updateData = new ArrayList<UpdateData<Key, Value>>(updates.size());
+    for (Computable<Boolean> update : updates) {
+      if (!(update instanceof MapReduceIndex.IndexUpdate) || ((IndexUpdate)update).getIndex() != this) {
+        throw new IllegalArgumentException("Update " + update + " is not calculated by " + myIndexId + " index");
+      }
+      //noinspection unchecked
+      IndexUpdate indexUpdate = (IndexUpdate)update;
+      inputIds.add(indexUpdate.myInputId);
+      updateData.add(indexUpdate.myUpdateData);
+    }
+
+    try {
+      updateWithMap(inputIds, updateData);
+    }
+    catch (StorageException ex) {
+      LOG.info("Exception during updateWithMap:" + ex);
+      requestRebuild(ex);
+      return false;
+    }
+    catch (ProcessCanceledException ex) {
+      LOG.info("Exception during updateWithMap:" + ex);
+      requestRebuild(ex);
+      return false;
+    }
+    return true;
+  }
+
+  private class IndexUpdate implements Computable<Boolean> {
+    private final int myInputId;
+    private final UpdateData<Key, Value> myUpdateData;
 
-        return Boolean.TRUE;
+    private IndexUpdate(int inputId, @NotNull UpdateData<Key, Value> updateData) {
+      myInputId = inputId;
+      myUpdateData = updateData;
+    }
+
+    private MapReduceIndex<Key, Value, Input> getIndex() {
+      return MapReduceIndex.this;
+    }
+
+    @Override
+    public Boolean compute() {
+      try {
+        updateWithMap(myInputId, myUpdateData);
       }
-    };
+      catch (StorageException ex) {
+        LOG.info("Exception during updateWithMap:" + ex);
+        requestRebuild(ex);
+        return Boolean.FALSE;
+      }
+      catch (ProcessCanceledException ex) {
+        LOG.info("Exception during updateWithMap:" + ex);
+        requestRebuild(ex);
+        return Boolean.FALSE;
+      }
+
+      return Boolean.TRUE;
+    }
+
+    @Override
+    public String toString() {
+      return myInputId + "," + myUpdateData;
+    }
   }
 
   @NotNull
@@ -311,6 +365,111 @@ public abstract class MapReduceIndex<Key,Value, Input> implements InvertedIndex<
     }
   }
 
+  /**
+   * Group commit of {@link #updateWithMap(int, UpdateData)}s of the inputs, the same input may occur several times.
+   */
+  protected void updateWithMap(@NotNull TIntArrayList inputIds,
+                               @NotNull List<UpdateData<Key, Value>> updates) throws StorageException {
+    getWriteLock().lock();
+    try {
+      try {
+        ValueContainerImpl.ourDebugIndexInfo.set(myIndexId);
+        KeyUpdateCollector collector = new KeyUpdateCollector();
+        TIntHashSet groupInputIds = new TIntHashSet();
+        int groupStart = 0;
+        for (int i = 0; i < updates.size(); i++) {
+          if (!groupInputIds.add(inputIds.get(i))) {
+            // the diff of repeated input should be taken against the forward index updated by previous occurrence
+            applyKeyUpdates(collector.myUpdates);
+            updateForwardIndices(updates.subList(groupStart, i));
+            collector.myUpdates.clear();
+            groupInputIds.clear();
+            groupInputIds.add(inputIds.get(i));
+            groupStart = i;
+          }
+          updates.get(i).iterateKeys(collector, collector.myUpdatedKeyCollector, collector);
+        }
+        applyKeyUpdates(collector.myUpdates);
+        updateForwardIndices(updates.subList(groupStart, updates.size()));
+      }
+      catch (ProcessCanceledException e) {
+        throw e;
+      }
+      catch (Throwable e) { // e.g. IOException, AssertionError
+        throw new StorageException(e);
+      }
+      finally {
+        ValueContainerImpl.ourDebugIndexInfo.set(null);
+      }
+    }
+    finally {
+      getWriteLock().unlock();
+    }
+  }
+
+  private void applyKeyUpdates(@NotNull List<KeyUpdate<Key, Value>> updates) throws StorageException {
+    // stable sort: removal of input's values of a key precedes addition of its new value
+    Collections.sort(updates, KEY_HASH_ORDER);
+    for (KeyUpdate<Key, Value> update : updates) {
+      if (update.myRemove) {
+        myRemovedKeyProcessor.process(update.myKey, update.myInputId);
+      }
+      else {
+        myAddedKeyProcessor.process(update.myKey, update.myValue, update.myInputId);
+      }
+    }
+  }
+
+  private static <Key, Value> void updateForwardIndices(@NotNull List<UpdateData<Key, Value>> updates) throws IOException {
+    for (UpdateData<Key, Value> update : updates) {
+      update.updateForwardIndex();
+    }
+  }
+
+  private static final Comparator<KeyUpdate> KEY_HASH_ORDER = new Comparator<KeyUpdate>() {
+    @Override
+    public int compare(KeyUpdate o1, KeyUpdate o2) {
+      return Integer.compare(o1.myKeyHash, o2.myKeyHash);
+    }
+  };
+
+  private static class KeyUpdate<Key, Value> {
+    private final Key myKey;
+    private final int myKeyHash;
+    private final int myInputId;
+    private final Value myValue;
+    private final boolean myRemove;
+
+    private KeyUpdate(Key key, int inputId, Value value, boolean remove) {
+      myKey = key;
+      myKeyHash = key == null ? 0 : key.hashCode();
+      myInputId = inputId;
+      myValue = value;
+      myRemove = remove;
+    }
+  }
+
+  private class KeyUpdateCollector implements KeyValueUpdateProcessor<Key, Value>, RemovedKeyProcessor<Key> {
+    private final List<KeyUpdate<Key, Value>> myUpdates = new ArrayList<KeyUpdate<Key, Value>>();
+    private final KeyValueUpdateProcessor<Key, Value> myUpdatedKeyCollector = new KeyValueUpdateProcessor<Key, Value>() {
+      @Override
+      public void process(Key key, Value value, int inputId) {
+        KeyUpdateCollector.this.process(key, inputId);
+        KeyUpdateCollector.this.process(key, value, inputId);
+      }
+    };
+
+    @Override
+    public void process(Key key, Value value, int inputId) {
+      myUpdates.add(new KeyUpdate<Key, Value>(key, inputId, value, false));
+    }
+
+    @Override
+    public void process(Key key, int inputId) {
+      myUpdates.add(new KeyUpdate<Key, Value>(key, inputId, null, true));
+    }
+  }
+
   public static <Key, Value> void checkValuesHaveProperEqualsAndHashCode(@NotNull Map<Key, Value> data,
                                                                          @NotNull ID<Key, Value> indexId,
                                                                          @NotNull DataExternalizer<Value> valueExternalizer) {
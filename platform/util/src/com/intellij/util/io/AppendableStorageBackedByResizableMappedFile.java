@@ -321,7 +321,7 @@ public class AppendableStorageBackedByResizableMappedFile extends ResizeableMapp
     private final File myFile;
     private DataOutputStream myChunkLengthTableStream;
 
-    public MyCompressedAppendableFile(File file) {
+    public MyCompressedAppendableFile(File file) throws IOException {
       super(AppendableStorageBackedByResizableMappedFile.this.getPagedFileStorage().getFile());
       myFile = file;
     }
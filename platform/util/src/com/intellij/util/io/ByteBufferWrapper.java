@@ -26,6 +26,8 @@ public abstract class ByteBufferWrapper {
   protected final long myPosition;
   protected final long myLength;
   protected volatile boolean myDirty;
+  private volatile boolean myReferenced; // CLOCK reference bit, see PagedFileStorage.StorageLock
+  int myClockSlot = -1; // guarded by the allocation lock of PagedFileStorage.StorageLock
 
   protected ByteBufferWrapper(final File file, final long offset, final long length) {
     myFile = file;
@@ -44,6 +46,17 @@ public abstract class ByteBufferWrapper {
     return myDirty;
   }
 
+  final void markReferenced() {
+    if (!myReferenced) myReferenced = true;
+  }
+
+  // returns previous value of the reference bit
+  final boolean clearReferenced() {
+    if (!myReferenced) return false;
+    myReferenced = false;
+    return true;
+  }
+
   public abstract ByteBuffer getBuffer() throws IOException;
 
   public abstract void unmap();
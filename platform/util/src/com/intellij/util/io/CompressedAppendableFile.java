@@ -30,9 +30,10 @@ import java.util.Arrays;
 
 /**
  * Random read append only file, that internally consists of sequence of (compressed) chunks with the same length (buffer size) +
- * tail that is smaller that buffer size. Main file contains compressed data chunks, there are also chunk length table (.s) and incomplete
- * chunk file (.at).
- * (Decompressed) chunks are cached.
+ * tail that is smaller that buffer size. Main file contains compressed data chunks, there are also chunk length table (.s), incomplete
+ * chunk file (.at) and id of the codec the chunks are compressed with (.codec).
+ * (Decompressed) chunks are cached. Chunks are compressed with {@link CompressionCodec} given on creation, snappy by default; opening
+ * existing file with another codec fails.
  */
 public class CompressedAppendableFile {
   private final File myBaseFile;
@@ -54,19 +55,27 @@ public class CompressedAppendableFile {
   private long myUncompressedFileLength = -1;
 
   protected final int myAppendBufferLength;
+  private final CompressionCodec myCodec;
   private static final int myMinAppendBufferLength = 1024;
 
   public static final String INCOMPLETE_CHUNK_LENGTH_FILE_EXTENSION = ".s";
+  public static final String CODEC_FILE_EXTENSION = ".codec";
   @SuppressWarnings("unused") private final LowMemoryWatcher myLowMemoryWatcher;
 
-  public CompressedAppendableFile(File file) {
-    this(file, PersistentBTreeEnumerator.PAGE_SIZE);
+  public CompressedAppendableFile(File file) throws IOException {
+    this(file, CompressionCodecs.SNAPPY);
   }
 
-  private CompressedAppendableFile(File file, int bufferSize) {
+  public CompressedAppendableFile(File file, @NotNull CompressionCodec codec) throws IOException {
+    this(file, PersistentBTreeEnumerator.PAGE_SIZE, codec);
+  }
+
+  private CompressedAppendableFile(File file, int bufferSize, @NotNull CompressionCodec codec) throws IOException {
     myBaseFile = file;
     myAppendBufferLength = bufferSize;
+    myCodec = codec;
     assert bufferSize <= MAX_PAGE_LENGTH; // length of compressed buffer size should be in short range
+    checkCodec();
     myLowMemoryWatcher = LowMemoryWatcher.register(new Runnable() {
       @Override
       public void run() {
@@ -101,6 +110,41 @@ public class CompressedAppendableFile {
     );
   }
 
+  private File getCodecFile() {
+    return new File(myBaseFile.getPath() + CODEC_FILE_EXTENSION);
+  }
+
+  private void checkCodec() throws IOException {
+    File codecFile = getCodecFile();
+    String storedId;
+    if (codecFile.exists()) {
+      DataInputStream stream = new DataInputStream(new FileInputStream(codecFile));
+      try {
+        storedId = stream.readUTF();
+      }
+      finally {
+        stream.close();
+      }
+    }
+    else {
+      // files written before codec id was stored are always snappy compressed
+      storedId = getChunkLengthFile().exists() || getIncompleteChunkFile().exists() ? CompressionCodecs.SNAPPY.getId() : null;
+      if (storedId == null) {
+        DataOutputStream stream = new DataOutputStream(new FileOutputStream(codecFile));
+        try {
+          stream.writeUTF(myCodec.getId());
+        }
+        finally {
+          stream.close();
+        }
+        return;
+      }
+    }
+    if (!storedId.equals(myCodec.getId())) {
+      throw new IOException(myBaseFile + " is compressed with '" + storedId + "' codec, can't open it with '" + myCodec.getId() + "'");
+    }
+  }
+
   protected File getChunkLengthFile() {
     return new File(myBaseFile.getPath() + INCOMPLETE_CHUNK_LENGTH_FILE_EXTENSION);
   }
@@ -362,11 +406,11 @@ public class CompressedAppendableFile {
   }
 
   protected int compress(DataOutputStream compressedDataOut, byte[] buffer) throws IOException {
-    return CompressionUtil.writeCompressedWithoutOriginalBufferLength(compressedDataOut, buffer, myAppendBufferLength);
+    return myCodec.compress(compressedDataOut, buffer, myAppendBufferLength);
   }
 
   protected byte[] decompress(DataInputStream keysStream) throws IOException {
-    return CompressionUtil.readCompressedWithoutOriginalBufferLength(keysStream);
+    return myCodec.decompress(keysStream);
   }
 
   protected void saveChunk(BufferExposingByteArrayOutputStream compressedChunk, long endOfFileOffset) throws IOException {
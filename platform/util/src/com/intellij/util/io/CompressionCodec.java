@@ -0,0 +1,41 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compression algorithm used by a storage for its blocks, see {@link CompressionCodecs} for available implementations.
+ * <p/>
+ * Compressed block is written together with its length, so it can be read back from a stream. Codec (including its dictionary)
+ * is a part of the storage format: storage should change its version when the codec changes.
+ */
+public interface CompressionCodec {
+  @NotNull
+  String getId();
+
+  /**
+   * @return number of bytes of compressed data written
+   */
+  int compress(@NotNull DataOutput out, @NotNull byte[] bytes, int length) throws IOException;
+
+  @NotNull
+  byte[] decompress(@NotNull DataInput in) throws IOException;
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.util.CompressionUtil;
+import gnu.trove.THashSet;
+import gnu.trove.TObjectIntHashMap;
+import gnu.trove.TObjectIntProcedure;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Available {@link CompressionCodec}s.
+ *
+ * @author agent
+ */
+public class CompressionCodecs {
+  /**
+   * Keeps blocks as is, for data that doesn't compress or when decompression latency matters most.
+   */
+  public static final CompressionCodec NONE = new CompressionCodec() {
+    @NotNull
+    @Override
+    public String getId() {
+      return "none";
+    }
+
+    @Override
+    public int compress(@NotNull DataOutput out, @NotNull byte[] bytes, int length) throws IOException {
+      DataInputOutputUtil.writeINT(out, length);
+      out.write(bytes, 0, length);
+      return length;
+    }
+
+    @NotNull
+    @Override
+    public byte[] decompress(@NotNull DataInput in) throws IOException {
+      byte[] bytes = new byte[DataInputOutputUtil.readINT(in)];
+      in.readFully(bytes);
+      return bytes;
+    }
+  };
+
+  /**
+   * Fast codec with moderate ratio, default one for {@link CompressedAppendableFile}.
+   */
+  public static final CompressionCodec SNAPPY = new CompressionCodec() {
+    @NotNull
+    @Override
+    public String getId() {
+      return "snappy";
+    }
+
+    @Override
+    public int compress(@NotNull DataOutput out, @NotNull byte[] bytes, int length) throws IOException {
+      return CompressionUtil.writeCompressedWithoutOriginalBufferLength(out, bytes, length);
+    }
+
+    @NotNull
+    @Override
+    public byte[] decompress(@NotNull DataInput in) throws IOException {
+      return CompressionUtil.readCompressedWithoutOriginalBufferLength(in);
+    }
+  };
+
+  public static final CompressionCodec DEFLATE = deflate("deflate", null);
+
+  private static final int DEFAULT_DICTIONARY_SIZE = 32 * 1024; // deflate window, larger dictionary isn't referenced
+  private static final int DICTIONARY_SEGMENT_LENGTH = 12;
+  private static final int DICTIONARY_SEGMENT_STEP = 4;
+  private static final int MAX_DICTIONARY_CANDIDATES = 1024 * 1024;
+  // maps every byte to a single char, so bytes of segment can be restored from its string
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+  private CompressionCodecs() {
+  }
+
+  /**
+   * @return one of the predefined codecs, null if there's no codec with such id
+   */
+  @Nullable
+  public static CompressionCodec findById(@Nullable String id) {
+    for (CompressionCodec codec : new CompressionCodec[]{NONE, SNAPPY, DEFLATE, SourceCodeCompressor.CODEC}) {
+      if (codec.getId().equals(id)) return codec;
+    }
+    return null;
+  }
+
+  /**
+   * Deflate codec with preset dictionary. Small blocks of similar data (e.g. sources of a project) compress much better
+   * with dictionary made of their common fragments, see {@link #trainDictionary(Iterable)}.
+   */
+  @NotNull
+  public static CompressionCodec deflate(@NotNull String id, @Nullable byte[] dictionary) {
+    return new DeflateCodec(id, dictionary);
+  }
+
+  @NotNull
+  public static byte[] trainDictionary(@NotNull Iterable<byte[]> samples) {
+    return trainDictionary(samples, DEFAULT_DICTIONARY_SIZE);
+  }
+
+  /**
+   * Builds dictionary from fragments that occur in most of the samples. Fragments are placed in order of increasing frequency
+   * since deflate encodes shorter distances (to the dictionary end) with fewer bits.
+   */
+  @NotNull
+  public static byte[] trainDictionary(@NotNull Iterable<byte[]> samples, int maxSize) {
+    final TObjectIntHashMap<String> frequencies = new TObjectIntHashMap<String>();
+    THashSet<String> sampleSegments = new THashSet<String>();
+    for (byte[] sample : samples) {
+      sampleSegments.clear();
+      for (int i = 0; i + DICTIONARY_SEGMENT_LENGTH <= sample.length; i += DICTIONARY_SEGMENT_STEP) {
+        sampleSegments.add(new String(sample, i, DICTIONARY_SEGMENT_LENGTH, ISO_8859_1));
+      }
+      for (String segment : sampleSegments) {
+        if (!frequencies.increment(segment)) frequencies.put(segment, 1);
+      }
+      if (frequencies.size() > MAX_DICTIONARY_CANDIDATES) {
+        frequencies.retainEntries(new TObjectIntProcedure<String>() {
+          @Override
+          public boolean execute(String segment, int frequency) {
+            return frequency > 1;
+          }
+        });
+      }
+    }
+
+    final List<String> segments = new ArrayList<String>(frequencies.size());
+    frequencies.forEachEntry(new TObjectIntProcedure<String>() {
+      @Override
+      public boolean execute(String segment, int frequency) {
+        if (frequency > 1) segments.add(segment);
+        return true;
+      }
+    });
+    Collections.sort(segments, new Comparator<String>() {
+      @Override
+      public int compare(String o1, String o2) {
+        int diff = frequencies.get(o2) - frequencies.get(o1);
+        return diff != 0 ? diff : o1.compareTo(o2);
+      }
+    });
+
+    int count = Math.min(segments.size(), maxSize / DICTIONARY_SEGMENT_LENGTH);
+    byte[] dictionary = new byte[count * DICTIONARY_SEGMENT_LENGTH];
+    for (int i = 0; i < count; i++) {
+      byte[] segment = segments.get(i).getBytes(ISO_8859_1);
+      System.arraycopy(segment, 0, dictionary, dictionary.length - (i + 1) * DICTIONARY_SEGMENT_LENGTH, DICTIONARY_SEGMENT_LENGTH);
+    }
+    return dictionary;
+  }
+
+  private static class DeflateCodec implements CompressionCodec {
+    private final String myId;
+    @Nullable private final byte[] myDictionary;
+
+    private DeflateCodec(@NotNull String id, @Nullable byte[] dictionary) {
+      myId = id;
+      myDictionary = dictionary;
+    }
+
+    @NotNull
+    @Override
+    public String getId() {
+      return myId;
+    }
+
+    @Override
+    public int compress(@NotNull DataOutput out, @NotNull byte[] bytes, int length) throws IOException {
+      byte[] buffer = new byte[length + (length >> 4) + 64];
+      int compressedSize = 0;
+      // a stream per block, so blocks are compressed in parallel; its native memory is released right away
+      Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+      try {
+        if (myDictionary != null) deflater.setDictionary(myDictionary);
+        deflater.setInput(bytes, 0, length);
+        deflater.finish();
+
+        while (!deflater.finished()) {
+          if (compressedSize == buffer.length) {
+            byte[] newBuffer = new byte[buffer.length * 3 / 2];
+            System.arraycopy(buffer, 0, newBuffer, 0, compressedSize);
+            buffer = newBuffer;
+          }
+          compressedSize += deflater.deflate(buffer, compressedSize, buffer.length - compressedSize);
+        }
+      }
+      finally {
+        deflater.end();
+      }
+
+      DataInputOutputUtil.writeINT(out, compressedSize);
+      DataInputOutputUtil.writeINT(out, length);
+      out.write(buffer, 0, compressedSize);
+      return compressedSize;
+    }
+
+    @NotNull
+    @Override
+    public byte[] decompress(@NotNull DataInput in) throws IOException {
+      byte[] compressed = new byte[DataInputOutputUtil.readINT(in)];
+      byte[] result = new byte[DataInputOutputUtil.readINT(in)];
+      in.readFully(compressed);
+
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(compressed);
+        int size = 0;
+        while (size < result.length) {
+          int inflated = inflater.inflate(result, size, result.length - size);
+          if (inflated == 0) {
+            if (!inflater.needsDictionary() || myDictionary == null) throw new IOException("Corrupted " + myId + " block");
+            inflater.setDictionary(myDictionary);
+          }
+          size += inflated;
+        }
+        return result;
+      }
+      catch (DataFormatException e) {
+        throw new IOException(e);
+      }
+      catch (IllegalArgumentException e) { // dictionary mismatch
+        throw new IOException(e);
+      }
+      finally {
+        inflater.end();
+      }
+    }
+  }
+}
@@ -0,0 +1,628 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.Processor;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Alternative to {@link PersistentHashMap} keeping keys in a memory-mapped open addressing hash table.
+ * <p/>
+ * Every slot of the table holds the key hash and either the address of the key/value record in the append-only log file,
+ * or, for maps with {@link InlineKeyDescriptor} keys, the key itself and the value bytes when they fit into 8 bytes.
+ * Lookups therefore cost one probe sequence in the table plus at most one log read, and no in-heap caches are involved.
+ * <p/>
+ * Overwritten and removed records become garbage in the log. Once garbage dominates, the live records are copied into
+ * a second log a few slots at a time by a background task, readers and writers only wait for a single step.
+ *
+ * @author agent
+ */
+public class MappedPersistentHashMap<Key, Value> implements PersistentMap<Key, Value> {
+  private static final Logger LOG = Logger.getInstance(MappedPersistentHashMap.class);
+
+  private static final int MAGIC = 0x4d50484d;
+  private static final int VERSION = 1;
+
+  private static final int HEADER_MAGIC_OFFSET = 0;
+  private static final int HEADER_VERSION_OFFSET = 4;
+  private static final int HEADER_CAPACITY_OFFSET = 8;
+  private static final int HEADER_SIZE_OFFSET = 12;
+  private static final int HEADER_TOMBSTONES_OFFSET = 16;
+  private static final int HEADER_FLAGS_OFFSET = 20;
+  private static final int HEADER_GARBAGE_OFFSET = 24;
+  private static final int HEADER_COMPACTION_CURSOR_OFFSET = 32;
+  private static final int HEADER_COMPACTION_GARBAGE_OFFSET = 40;
+  private static final int HEADER_SIZE = 48;
+
+  private static final int HEADER_DIRTY_FLAG = 1;
+  private static final int HEADER_LOG_GENERATION_FLAG = 2;
+  private static final int HEADER_COMPACTING_FLAG = 4;
+
+  // slot: hash (4 bytes), flags (4 bytes), record address or inline value (8 bytes)
+  private static final int SLOT_SIZE = 16;
+  private static final int SLOT_FLAGS_OFFSET = 4;
+  private static final int SLOT_PAYLOAD_OFFSET = 8;
+
+  private static final int SLOT_USED = 1;
+  private static final int SLOT_REMOVED = 2;
+  private static final int SLOT_INLINE_VALUE = 4;
+  private static final int SLOT_LOG_GENERATION = 8;
+  private static final int INLINE_LENGTH_SHIFT = 8;
+  private static final int MAX_INLINE_VALUE_LENGTH = 8;
+
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final float MAX_LOAD_FACTOR = 0.7f;
+
+  private static final long MIN_GARBAGE_TO_COMPACT = 1024 * 1024;
+  private static final int COMPACTION_STEP_SLOTS = 4096;
+  private static final ExecutorService ourCompactionExecutor =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("MappedPersistentHashMap compaction", 1);
+
+  private final Object myLock = new Object();
+  private final File myFile;
+  private final KeyDescriptor<Key> myKeyDescriptor;
+  private final DataExternalizer<Value> myValueExternalizer;
+  private final boolean myInlineKeys;
+  private final PagedFileStorage.StorageLockContext myStorageLockContext = new PagedFileStorage.StorageLockContext(false);
+
+  private final ResizeableMappedFile myIndex;
+  private final ResizeableMappedFile[] myLogs = new ResizeableMappedFile[2];
+
+  private int myCapacity;
+  private int mySize;
+  private int myTombstones;
+  private int myLogGeneration;
+  private long myGarbage;
+  private boolean myCompacting;
+  private int myCompactionCursor;
+  private long myCompactionGarbage;
+  private boolean myCompactionScheduled;
+
+  private boolean myDirty;
+  private boolean myClosed;
+
+  public MappedPersistentHashMap(@NotNull File file,
+                                 @NotNull KeyDescriptor<Key> keyDescriptor,
+                                 @NotNull DataExternalizer<Value> valueExternalizer) throws IOException {
+    myFile = file;
+    myKeyDescriptor = keyDescriptor;
+    myValueExternalizer = valueExternalizer;
+    myInlineKeys = keyDescriptor instanceof InlineKeyDescriptor;
+
+    FileUtil.createParentDirs(file);
+    boolean exists = file.exists() && file.length() > 0;
+    myIndex = new ResizeableMappedFile(file, HEADER_SIZE + INITIAL_CAPACITY * SLOT_SIZE, myStorageLockContext,
+                                       PagedFileStorage.BUFFER_SIZE, true);
+    try {
+      if (exists) {
+        readHeader();
+      }
+      else {
+        myCapacity = INITIAL_CAPACITY;
+        myIndex.putInt(HEADER_MAGIC_OFFSET, MAGIC);
+        myIndex.putInt(HEADER_VERSION_OFFSET, VERSION);
+        myIndex.put(HEADER_SIZE + (long)myCapacity * SLOT_SIZE - 1, (byte)0);
+        writeHeader();
+        myIndex.force();
+      }
+
+      myLogs[myLogGeneration] = openLog(myLogGeneration);
+      if (myCompacting) {
+        // resumed by the next modification or forcing, the compaction task shouldn't see a partially constructed map
+        myLogs[1 - myLogGeneration] = openLog(1 - myLogGeneration);
+      }
+    }
+    catch (IOException e) {
+      closeFiles();
+      throw e;
+    }
+    catch (RuntimeException e) {
+      closeFiles();
+      throw e;
+    }
+  }
+
+  private void readHeader() throws IOException {
+    if (myIndex.getInt(HEADER_MAGIC_OFFSET) != MAGIC || myIndex.getInt(HEADER_VERSION_OFFSET) != VERSION) {
+      throw new PersistentEnumeratorBase.CorruptedException(myFile);
+    }
+    int flags = myIndex.getInt(HEADER_FLAGS_OFFSET);
+    if ((flags & HEADER_DIRTY_FLAG) != 0) {
+      throw new PersistentEnumeratorBase.CorruptedException(myFile);
+    }
+    myCapacity = myIndex.getInt(HEADER_CAPACITY_OFFSET);
+    mySize = myIndex.getInt(HEADER_SIZE_OFFSET);
+    myTombstones = myIndex.getInt(HEADER_TOMBSTONES_OFFSET);
+    myGarbage = myIndex.getLong(HEADER_GARBAGE_OFFSET);
+    myLogGeneration = (flags & HEADER_LOG_GENERATION_FLAG) != 0 ? 1 : 0;
+    myCompacting = (flags & HEADER_COMPACTING_FLAG) != 0;
+    myCompactionCursor = myIndex.getInt(HEADER_COMPACTION_CURSOR_OFFSET);
+    myCompactionGarbage = myIndex.getLong(HEADER_COMPACTION_GARBAGE_OFFSET);
+  }
+
+  private void writeHeader() {
+    int flags = (myDirty ? HEADER_DIRTY_FLAG : 0) |
+                (myLogGeneration == 1 ? HEADER_LOG_GENERATION_FLAG : 0) |
+                (myCompacting ? HEADER_COMPACTING_FLAG : 0);
+    myIndex.putInt(HEADER_CAPACITY_OFFSET, myCapacity);
+    myIndex.putInt(HEADER_SIZE_OFFSET, mySize);
+    myIndex.putInt(HEADER_TOMBSTONES_OFFSET, myTombstones);
+    myIndex.putInt(HEADER_FLAGS_OFFSET, flags);
+    myIndex.putLong(HEADER_GARBAGE_OFFSET, myGarbage);
+    myIndex.putInt(HEADER_COMPACTION_CURSOR_OFFSET, myCompactionCursor);
+    myIndex.putLong(HEADER_COMPACTION_GARBAGE_OFFSET, myCompactionGarbage);
+  }
+
+  @NotNull
+  private File getLogFile(int generation) {
+    return new File(myFile.getPath() + ".log" + generation);
+  }
+
+  @NotNull
+  private ResizeableMappedFile openLog(int generation) throws IOException {
+    return new ResizeableMappedFile(getLogFile(generation), 64 * 1024, myStorageLockContext, -1, false);
+  }
+
+  @Override
+  public Value get(Key key) throws IOException {
+    synchronized (myLock) {
+      int slot = findSlot(key);
+      if (slot < 0) return null;
+      return readValue(slot);
+    }
+  }
+
+  public boolean containsMapping(Key key) throws IOException {
+    synchronized (myLock) {
+      return findSlot(key) >= 0;
+    }
+  }
+
+  @Override
+  public void put(Key key, Value value) throws IOException {
+    BufferExposingByteArrayOutputStream valueBytes = new BufferExposingByteArrayOutputStream();
+    DataOutputStream valueStream = new DataOutputStream(valueBytes);
+    myValueExternalizer.save(valueStream, value);
+    valueStream.close();
+
+    synchronized (myLock) {
+      markDirty();
+      int slot = findSlot(key);
+      boolean newKey = slot < 0;
+      if (newKey) {
+        slot = -slot - 1;
+      }
+      else {
+        releaseRecord(slot);
+      }
+
+      int hash = myInlineKeys ? ((InlineKeyDescriptor<Key>)myKeyDescriptor).toInt(key) : myKeyDescriptor.getHashCode(key);
+      if (myInlineKeys && valueBytes.size() <= MAX_INLINE_VALUE_LENGTH) {
+        writeSlot(slot, hash, SLOT_USED | SLOT_INLINE_VALUE | (valueBytes.size() << INLINE_LENGTH_SHIFT),
+                  packInlineValue(valueBytes.getInternalBuffer(), valueBytes.size()));
+      }
+      else {
+        int generation = getWriteGeneration();
+        long address = appendRecord(myLogs[generation], key, valueBytes.getInternalBuffer(), valueBytes.size());
+        writeSlot(slot, hash, SLOT_USED | (generation == 1 ? SLOT_LOG_GENERATION : 0), address);
+      }
+
+      if (newKey) {
+        mySize++;
+        ensureCapacity();
+      }
+      checkCompaction();
+    }
+  }
+
+  public void remove(Key key) throws IOException {
+    synchronized (myLock) {
+      int slot = findSlot(key);
+      if (slot < 0) return;
+
+      markDirty();
+      releaseRecord(slot);
+      writeSlot(slot, 0, SLOT_REMOVED, 0);
+      mySize--;
+      myTombstones++;
+      checkCompaction();
+    }
+  }
+
+  public int size() {
+    synchronized (myLock) {
+      return mySize;
+    }
+  }
+
+  @Override
+  public boolean processKeys(Processor<Key> processor) throws IOException {
+    synchronized (myLock) {
+      for (int slot = 0; slot < myCapacity; slot++) {
+        int flags = getSlotFlags(slot);
+        if ((flags & SLOT_USED) == 0) continue;
+        if (!processor.process(readKey(slot, flags))) return false;
+      }
+      return true;
+    }
+  }
+
+  @Override
+  public boolean isClosed() {
+    synchronized (myLock) {
+      return myClosed;
+    }
+  }
+
+  @Override
+  public boolean isDirty() {
+    synchronized (myLock) {
+      return myDirty;
+    }
+  }
+
+  @Override
+  public void markDirty() {
+    synchronized (myLock) {
+      if (!myDirty) {
+        myDirty = true;
+        myIndex.putInt(HEADER_FLAGS_OFFSET, myIndex.getInt(HEADER_FLAGS_OFFSET) | HEADER_DIRTY_FLAG);
+        // the map was clean up to now, so only the header page is written
+        myIndex.force();
+      }
+    }
+  }
+
+  @NotNull
+  public File getBaseFile() {
+    return myFile;
+  }
+
+  @Override
+  public void force() {
+    synchronized (myLock) {
+      if (myClosed) return;
+      if (myCompacting) scheduleCompaction();
+      for (ResizeableMappedFile log : myLogs) {
+        if (log != null) log.force();
+      }
+      myDirty = false;
+      writeHeader();
+      myIndex.force();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (myLock) {
+      if (myClosed) return;
+      force();
+      myClosed = true;
+      closeFiles();
+    }
+  }
+
+  private void closeFiles() {
+    for (ResizeableMappedFile log : myLogs) {
+      if (log != null) log.close();
+    }
+    myIndex.close();
+  }
+
+  // returns slot index of the key or (-insertion slot - 1) if the key is absent
+  private int findSlot(Key key) throws IOException {
+    int hash = myInlineKeys ? ((InlineKeyDescriptor<Key>)myKeyDescriptor).toInt(key) : myKeyDescriptor.getHashCode(key);
+    int mask = myCapacity - 1;
+    int firstRemoved = -1;
+    for (int slot = mix(hash) & mask, probes = 0; probes < myCapacity; slot = (slot + 1) & mask, probes++) {
+      int flags = getSlotFlags(slot);
+      if (flags == 0) {
+        return -(firstRemoved != -1 ? firstRemoved : slot) - 1;
+      }
+      if ((flags & SLOT_REMOVED) != 0) {
+        if (firstRemoved == -1) firstRemoved = slot;
+        continue;
+      }
+      if (getSlotHash(slot) != hash) continue;
+      if (myInlineKeys || myKeyDescriptor.isEqual(key, readKey(slot, flags))) return slot;
+    }
+    assert firstRemoved != -1 : "No free slots in " + myFile;
+    return -firstRemoved - 1;
+  }
+
+  private static int mix(int hash) {
+    int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private Value readValue(int slot) throws IOException {
+    int flags = getSlotFlags(slot);
+    long payload = getSlotPayload(slot);
+    byte[] bytes;
+    if ((flags & SLOT_INLINE_VALUE) != 0) {
+      bytes = unpackInlineValue(payload, flags >>> INLINE_LENGTH_SHIFT);
+    }
+    else {
+      ResizeableMappedFile log = myLogs[getGeneration(flags)];
+      long address = payload;
+      if (!myInlineKeys) address += 4 + readInt(log, address);
+      bytes = new byte[readInt(log, address)];
+      log.get(address + 4, bytes, 0, bytes.length);
+    }
+    return myValueExternalizer.read(new DataInputStream(new UnsyncByteArrayInputStream(bytes)));
+  }
+
+  private Key readKey(int slot, int flags) throws IOException {
+    if (myInlineKeys) return ((InlineKeyDescriptor<Key>)myKeyDescriptor).fromInt(getSlotHash(slot));
+
+    ResizeableMappedFile log = myLogs[getGeneration(flags)];
+    long address = getSlotPayload(slot);
+    byte[] bytes = new byte[readInt(log, address)];
+    log.get(address + 4, bytes, 0, bytes.length);
+    return myKeyDescriptor.read(new DataInputStream(new UnsyncByteArrayInputStream(bytes)));
+  }
+
+  private long appendRecord(@NotNull ResizeableMappedFile log, Key key, byte[] value, int valueLength) throws IOException {
+    long address = log.length();
+    long position = address;
+    if (!myInlineKeys) {
+      BufferExposingByteArrayOutputStream keyBytes = new BufferExposingByteArrayOutputStream();
+      DataOutputStream keyStream = new DataOutputStream(keyBytes);
+      myKeyDescriptor.save(keyStream, key);
+      keyStream.close();
+      position = writeChunk(log, position, keyBytes.getInternalBuffer(), keyBytes.size());
+    }
+    writeChunk(log, position, value, valueLength);
+    return address;
+  }
+
+  private static long writeChunk(@NotNull ResizeableMappedFile log, long position, byte[] bytes, int length) {
+    byte[] lengthBytes = new byte[4];
+    Bits.putInt(lengthBytes, 0, length);
+    log.put(position, lengthBytes, 0, 4);
+    log.put(position + 4, bytes, 0, length);
+    return position + 4 + length;
+  }
+
+  private static int readInt(@NotNull ResizeableMappedFile log, long address) {
+    byte[] bytes = new byte[4];
+    log.get(address, bytes, 0, 4);
+    return Bits.getInt(bytes, 0);
+  }
+
+  private int getRecordLength(@NotNull ResizeableMappedFile log, long address) {
+    long position = address;
+    if (!myInlineKeys) position += 4 + readInt(log, position);
+    position += 4 + readInt(log, position);
+    return (int)(position - address);
+  }
+
+  // accounts the log record referenced by the slot as garbage
+  private void releaseRecord(int slot) {
+    int flags = getSlotFlags(slot);
+    if ((flags & SLOT_INLINE_VALUE) != 0) return;
+
+    int generation = getGeneration(flags);
+    long length = getRecordLength(myLogs[generation], getSlotPayload(slot));
+    if (generation == myLogGeneration) {
+      myGarbage += length;
+    }
+    else {
+      myCompactionGarbage += length;
+    }
+  }
+
+  private static long packInlineValue(byte[] bytes, int length) {
+    long result = 0;
+    for (int i = 0; i < length; i++) {
+      result |= (bytes[i] & 0xFFL) << (i * 8);
+    }
+    return result;
+  }
+
+  private static byte[] unpackInlineValue(long payload, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte)(payload >>> (i * 8));
+    }
+    return bytes;
+  }
+
+  private static int getGeneration(int flags) {
+    return (flags & SLOT_LOG_GENERATION) != 0 ? 1 : 0;
+  }
+
+  private int getWriteGeneration() {
+    return myCompacting ? 1 - myLogGeneration : myLogGeneration;
+  }
+
+  private static long getSlotOffset(int slot) {
+    return HEADER_SIZE + (long)slot * SLOT_SIZE;
+  }
+
+  private int getSlotHash(int slot) {
+    return myIndex.getInt(getSlotOffset(slot));
+  }
+
+  private int getSlotFlags(int slot) {
+    return myIndex.getInt(getSlotOffset(slot) + SLOT_FLAGS_OFFSET);
+  }
+
+  private long getSlotPayload(int slot) {
+    return myIndex.getLong(getSlotOffset(slot) + SLOT_PAYLOAD_OFFSET);
+  }
+
+  private void writeSlot(int slot, int hash, int flags, long payload) {
+    long offset = getSlotOffset(slot);
+    if (getSlotFlags(slot) == SLOT_REMOVED && (flags & SLOT_USED) != 0) myTombstones--;
+    myIndex.putInt(offset, hash);
+    myIndex.putInt(offset + SLOT_FLAGS_OFFSET, flags);
+    myIndex.putLong(offset + SLOT_PAYLOAD_OFFSET, payload);
+  }
+
+  private void ensureCapacity() {
+    if (mySize + myTombstones <= myCapacity * MAX_LOAD_FACTOR) return;
+
+    // slot positions change on rehash, so running compaction can't continue from its cursor
+    while (myCompacting) {
+      compactionStep(Integer.MAX_VALUE);
+    }
+
+    int oldCapacity = myCapacity;
+    int[] hashes = new int[mySize];
+    int[] flags = new int[mySize];
+    long[] payloads = new long[mySize];
+    int count = 0;
+    for (int slot = 0; slot < oldCapacity; slot++) {
+      int slotFlags = getSlotFlags(slot);
+      if ((slotFlags & SLOT_USED) == 0) continue;
+      hashes[count] = getSlotHash(slot);
+      flags[count] = slotFlags;
+      payloads[count] = getSlotPayload(slot);
+      count++;
+    }
+
+    int newCapacity = mySize * 2 > oldCapacity * MAX_LOAD_FACTOR ? oldCapacity * 2 : oldCapacity;
+    byte[] zeroes = new byte[SLOT_SIZE * 1024];
+    for (long offset = getSlotOffset(0), end = getSlotOffset(newCapacity); offset < end; offset += zeroes.length) {
+      myIndex.put(offset, zeroes, 0, (int)Math.min(zeroes.length, end - offset));
+    }
+    myCapacity = newCapacity;
+    myTombstones = 0;
+
+    int mask = newCapacity - 1;
+    for (int i = 0; i < count; i++) {
+      int slot = mix(hashes[i]) & mask;
+      while (getSlotFlags(slot) != 0) slot = (slot + 1) & mask;
+      writeSlot(slot, hashes[i], flags[i], payloads[i]);
+    }
+    writeHeader();
+  }
+
+  private void checkCompaction() throws IOException {
+    if (myCompacting) {
+      scheduleCompaction();
+      return;
+    }
+    long logLength = myLogs[myLogGeneration].length();
+    if (myGarbage < MIN_GARBAGE_TO_COMPACT || myGarbage * 2 < logLength) return;
+
+    int target = 1 - myLogGeneration;
+    FileUtil.delete(getLogFile(target));
+    FileUtil.delete(new File(getLogFile(target).getPath() + ".len"));
+    myLogs[target] = openLog(target);
+    myCompacting = true;
+    myCompactionCursor = 0;
+    myCompactionGarbage = 0;
+    writeHeader();
+    scheduleCompaction();
+  }
+
+  private void scheduleCompaction() {
+    if (myCompactionScheduled) return;
+    myCompactionScheduled = true;
+    ourCompactionExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        while (true) {
+          synchronized (myLock) {
+            if (myClosed || !myCompacting) {
+              myCompactionScheduled = false;
+              return;
+            }
+            try {
+              compactionStep(COMPACTION_STEP_SLOTS);
+            }
+            catch (Throwable e) {
+              myCompactionScheduled = false;
+              LOG.error("Compaction of " + myFile + " failed", e);
+              return;
+            }
+          }
+        }
+      }
+    });
+  }
+
+  // copies live records of next slots to the other log generation, switches the generation once all slots are processed
+  private void compactionStep(int maxSlots) {
+    int source = myLogGeneration;
+    int target = 1 - source;
+    int end = (int)Math.min(myCapacity, (long)myCompactionCursor + maxSlots);
+    for (int slot = myCompactionCursor; slot < end; slot++) {
+      int flags = getSlotFlags(slot);
+      if ((flags & SLOT_USED) == 0 || (flags & SLOT_INLINE_VALUE) != 0 || getGeneration(flags) != source) continue;
+
+      long address = getSlotPayload(slot);
+      byte[] record = new byte[getRecordLength(myLogs[source], address)];
+      myLogs[source].get(address, record, 0, record.length);
+      long newAddress = myLogs[target].length();
+      myLogs[target].put(newAddress, record, 0, record.length);
+      writeSlot(slot, getSlotHash(slot), flags ^ SLOT_LOG_GENERATION, newAddress);
+    }
+    myCompactionCursor = end;
+    if (end < myCapacity) return;
+
+    myLogs[target].force();
+    myLogGeneration = target;
+    myGarbage = myCompactionGarbage;
+    myCompacting = false;
+    myCompactionCursor = 0;
+    myCompactionGarbage = 0;
+    writeHeader();
+    myIndex.force();
+
+    myLogs[source].close();
+    myLogs[source] = null;
+    FileUtil.delete(getLogFile(source));
+    FileUtil.delete(new File(getLogFile(source).getPath() + ".len"));
+  }
+
+  @TestOnly
+  public void waitForCompaction() throws InterruptedException {
+    while (true) {
+      synchronized (myLock) {
+        if (!myCompacting || myClosed) return;
+        scheduleCompaction();
+      }
+      //noinspection BusyWait
+      Thread.sleep(10);
+    }
+  }
+
+  @TestOnly
+  public long getGarbageSize() {
+    synchronized (myLock) {
+      return myGarbage;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[" + myFile + "]";
+  }
+}
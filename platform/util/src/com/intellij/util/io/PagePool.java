@@ -19,6 +19,7 @@
  */
 package com.intellij.util.io;
 
+import com.intellij.util.ConcurrencyUtil;
 import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.hash.LinkedHashMap;
 import org.jetbrains.annotations.NotNull;
@@ -28,12 +29,35 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 2Q page cache: new pages enter the probational queue and are promoted to the protected queue on the second access.
+ * Keys of pages evicted from the probational queue are remembered in the ghost queue, a page re-requested while
+ * its key is there is admitted to the protected queue right away.
+ * <p/>
+ * Dirty evicted pages are written behind by a background thread; allocating threads only help with flushing
+ * when too many evicted pages are waiting for it.
+ */
+public class PagePool {
+  private static final int MAX_PENDING_FINALIZATIONS = 1000;
 
+  private static final ThreadPoolExecutor ourWriteBehindExecutor =
+    new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                           ConcurrencyUtil.newNamedThreadFactory("PagePool write-behind", true, Thread.NORM_PRIORITY));
+
+  static {
+    ourWriteBehindExecutor.allowCoreThreadTimeOut(true);
+  }
 
-@SuppressWarnings({"AssignmentToStaticFieldFromInstanceMethod"})
-public class PagePool {
   private final Map<PoolPageKey, Page> myProtectedQueue;
   private final Map<PoolPageKey, Page> myProbationalQueue;
+  // (file id, page number) pairs packed into longs, so the ghost queue doesn't keep disposed files reachable
+  private final Map<Long, Boolean> myGhostQueue;
+  private boolean myWriteBehindScheduled;
 
   private int finalizationId = 0;
 
@@ -46,10 +70,18 @@ public class PagePool {
   private PoolPageKey lastFinalizedKey = null;
 
   public PagePool(final int protectedPagesLimit, final int probationalPagesLimit) {
+    myGhostQueue = new LinkedHashMap<Long, Boolean>(probationalPagesLimit * 2, 1, false) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Long, Boolean> eldest) {
+        return size() > probationalPagesLimit;
+      }
+    };
+
     myProbationalQueue = new LinkedHashMap<PoolPageKey,Page>(probationalPagesLimit * 2, 1, true) {
       @Override
       protected boolean removeEldestEntry(final Map.Entry<PoolPageKey, Page> eldest) {
         if (size() > probationalPagesLimit) {
+          myGhostQueue.put(ghostKey(eldest.getKey().getOwner(), eldest.getKey().getOffset()), Boolean.TRUE);
           scheduleFinalization(eldest.getValue());
           return true;
         }
@@ -69,12 +101,14 @@ public class PagePool {
     };
   }
 
-  @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int hits = 0;
-  @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int cache_misses = 0;
-  @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int same_page_hits = 0;
-  @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int protected_queue_hits = 0;
-  @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int probational_queue_hits = 0;
-  @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int finalization_queue_hits = 0;
+  // statistics, guarded by lock
+  private long myRequests;
+  private long mySamePageHits;
+  private long myProtectedQueueHits;
+  private long myProbationalQueueHits;
+  private long myFinalizationQueueHits;
+  private long myGhostQueueHits;
+  private long myCacheMisses;
 
   public static final PagePool SHARED = new PagePool(
           SystemProperties.getIntProperty("idea.io.protected.pool.size", 256), // 256 * 8 = 2M
@@ -85,26 +119,54 @@ public class PagePool {
   private long lastOffset = 0;
   private Page lastHit = null;
 
-  @SuppressWarnings({"AssignmentToStaticFieldFromInstanceMethod"})
   @NotNull
   public Page alloc(RandomAccessDataFile owner, long offset) {
+    final Page page;
+    final int pendingFinalizations;
     synchronized (lock) {
       offset -= offset % Page.PAGE_SIZE;
-      hits++;
+      myRequests++;
 
       if (owner == lastOwner && offset == lastOffset) {
-        same_page_hits++;
+        mySamePageHits++;
         return lastHit;
       }
 
       lastOffset = offset;
       lastOwner = owner;
-      lastHit = hitQueues(owner, offset);
+      page = lastHit = hitQueues(owner, offset);
+      pendingFinalizations = myFinalizationQueue.size();
+    }
 
-      flushFinalizationQueue(Integer.MAX_VALUE);
+    if (pendingFinalizations > MAX_PENDING_FINALIZATIONS) {
+      flushFinalizationQueue(pendingFinalizations - MAX_PENDING_FINALIZATIONS);
+    }
+    if (pendingFinalizations > 0) {
+      scheduleWriteBehind();
+    }
 
-      return lastHit;
+    return page;
+  }
+
+  private void scheduleWriteBehind() {
+    synchronized (lock) {
+      if (myWriteBehindScheduled) return;
+      myWriteBehindScheduled = true;
     }
+
+    ourWriteBehindExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          flushFinalizationQueue(Integer.MAX_VALUE);
+        }
+        finally {
+          synchronized (lock) {
+            myWriteBehindScheduled = false;
+          }
+        }
+      }
+    });
   }
 
   private Page hitQueues(final RandomAccessDataFile owner, final long offset) {
@@ -112,13 +174,13 @@ public class PagePool {
 
     Page page = myProtectedQueue.get(key);
     if (page != null) {
-      protected_queue_hits++;
+      myProtectedQueueHits++;
       return page;
     }
 
     page = myProbationalQueue.remove(key);
     if (page != null) {
-      probational_queue_hits++;
+      myProbationalQueueHits++;
       toProtectedQueue(page);
       return page;
     }
@@ -126,33 +188,77 @@ public class PagePool {
     final FinalizationRequest request = myFinalizationQueue.remove(key);
     if (request != null) {
       page = request.page;
-      finalization_queue_hits++;
+      myFinalizationQueueHits++;
       toProtectedQueue(page);
       return page;
     }
 
-    cache_misses++;
+    myCacheMisses++;
     page = new Page(owner, offset);
 
-    myProbationalQueue.put(keyForPage(page), page);
+    if (myGhostQueue.remove(ghostKey(owner, offset)) != null) {
+      myGhostQueueHits++;
+      toProtectedQueue(page);
+    }
+    else {
+      myProbationalQueue.put(keyForPage(page), page);
+    }
 
     return page;
   }
 
-  //private long lastFlushTime = 0;
+  @NotNull
+  public Statistics getStatistics() {
+    synchronized (lock) {
+      return new Statistics(myRequests, mySamePageHits, myProtectedQueueHits, myProbationalQueueHits, myFinalizationQueueHits,
+                            myGhostQueueHits, myCacheMisses);
+    }
+  }
+
+  public static class Statistics {
+    public final long requests;
+    public final long samePageHits;
+    public final long protectedQueueHits;
+    public final long probationalQueueHits;
+    public final long finalizationQueueHits;
+    /**
+     * Misses of pages recently evicted from the probational queue, such pages are admitted to the protected queue
+     */
+    public final long ghostQueueHits;
+    public final long cacheMisses;
+
+    private Statistics(long requests,
+                       long samePageHits,
+                       long protectedQueueHits,
+                       long probationalQueueHits,
+                       long finalizationQueueHits,
+                       long ghostQueueHits,
+                       long cacheMisses) {
+      this.requests = requests;
+      this.samePageHits = samePageHits;
+      this.protectedQueueHits = protectedQueueHits;
+      this.probationalQueueHits = probationalQueueHits;
+      this.finalizationQueueHits = finalizationQueueHits;
+      this.ghostQueueHits = ghostQueueHits;
+      this.cacheMisses = cacheMisses;
+    }
+  }
 
-  private static double percent(int part, int whole) {
-    return ((double)part * 1000 / whole) / 10;
+  private static double percent(long part, long whole) {
+    return whole == 0 ? 0 : ((double)part * 1000 / whole) / 10;
   }
 
   @SuppressWarnings({"ALL"})
   public static void printStatistics() {
+    Statistics stats = SHARED.getStatistics();
+    long hits = stats.requests;
     System.out.println("Total requests: " + hits);
-    System.out.println("Same page hits: " + same_page_hits + " (" + percent(same_page_hits, hits) + "%)");
-    System.out.println("Protected queue hits: " + protected_queue_hits + " (" + percent(protected_queue_hits, hits) + "%)");
-    System.out.println("Probatinonal queue hits: " + probational_queue_hits + " (" + percent(probational_queue_hits, hits) + "%)");
-    System.out.println("Finalization queue hits: " + finalization_queue_hits + " (" + percent(finalization_queue_hits, hits) + "%)");
-    System.out.println("Cache misses: " + cache_misses + " (" + percent(cache_misses, hits) + "%)");
+    System.out.println("Same page hits: " + stats.samePageHits + " (" + percent(stats.samePageHits, hits) + "%)");
+    System.out.println("Protected queue hits: " + stats.protectedQueueHits + " (" + percent(stats.protectedQueueHits, hits) + "%)");
+    System.out.println("Probatinonal queue hits: " + stats.probationalQueueHits + " (" + percent(stats.probationalQueueHits, hits) + "%)");
+    System.out.println("Finalization queue hits: " + stats.finalizationQueueHits + " (" + percent(stats.finalizationQueueHits, hits) + "%)");
+    System.out.println("Cache misses: " + stats.cacheMisses + " (" + percent(stats.cacheMisses, hits) + "%), " +
+                       "ghost queue hits: " + stats.ghostQueueHits);
 
     System.out.println("Total reads: " + RandomAccessDataFile.totalReads + ". Bytes read: " + RandomAccessDataFile.totalReadBytes);
     System.out.println("Total writes: " + RandomAccessDataFile.totalWrites + ". Bytes written: " + RandomAccessDataFile.totalWriteBytes);
@@ -162,6 +268,10 @@ public class PagePool {
     return page.getKey();
   }
 
+  private static long ghostKey(@NotNull RandomAccessDataFile owner, long offset) {
+    return (long)owner.hashCode() << 32 | offset / Page.PAGE_SIZE & 0xFFFFFFFFL;
+  }
+
   private void toProtectedQueue(final Page page) {
     myProtectedQueue.put(keyForPage(page), page);
   }
@@ -265,7 +375,10 @@ public class PagePool {
     }
     finally {
       synchronized (lock) {
-        myFinalizationQueue.remove(page.getKey());
+        // the page may have been scheduled for finalization again while being flushed, keep the newer request
+        if (myFinalizationQueue.get(page.getKey()) == request) {
+          myFinalizationQueue.remove(page.getKey());
+        }
       }
       page.recycleIfFinalizationIdIsEqualTo(request.finalizationId);
     }
@@ -22,7 +22,7 @@ import com.intellij.openapi.util.SystemInfo;
 import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.ConcurrentIntObjectMap;
 import com.intellij.util.containers.ContainerUtil;
-import com.intellij.util.containers.hash.LinkedHashMap;
+import gnu.trove.TIntArrayList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -35,6 +35,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -80,7 +81,6 @@ public class PagedFileStorage implements Forceable {
     return Runtime.getRuntime().maxMemory();
   }
 
-  private static final int UNKNOWN_PAGE = -1;
   private static final int MAX_PAGES_COUNT = 0xFFFF;
   private static final int MAX_LIVE_STORAGES_COUNT = 0xFFFF;
   private static final ByteOrder ourNativeByteOrder = ByteOrder.nativeOrder();
@@ -91,17 +91,11 @@ public class PagedFileStorage implements Forceable {
 
   private final StorageLockContext myStorageLockContext;
   private final boolean myNativeBytesOrder;
-  private int myLastPage = UNKNOWN_PAGE;
-  private int myLastPage2 = UNKNOWN_PAGE;
-  private int myLastPage3 = UNKNOWN_PAGE;
-  private ByteBufferWrapper myLastBuffer;
-  private ByteBufferWrapper myLastBuffer2;
-  private ByteBufferWrapper myLastBuffer3;
-  private int myLastChangeCount;
-  private int myLastChangeCount2;
-  private int myLastChangeCount3;
+  // last accessed pages, immutable entries are published without locking, a lost update only costs a StorageLock lookup
+  private volatile LastAccessedPage myLastAccessedPage;
+  private volatile LastAccessedPage myLastAccessedPage2;
+  private volatile LastAccessedPage myLastAccessedPage3;
   private int myStorageIndex;
-  private final Object myLastAccessedBufferCacheLock = new Object();
 
   private final byte[] myTypedIOBuffer;
   private volatile boolean isDirty;
@@ -317,14 +311,9 @@ public class PagedFileStorage implements Forceable {
   private void unmapAll() {
     myStorageLockContext.myStorageLock.unmapBuffersForOwner(myStorageIndex, myStorageLockContext);
 
-    synchronized (myLastAccessedBufferCacheLock) {
-      myLastPage = UNKNOWN_PAGE;
-      myLastPage2 = UNKNOWN_PAGE;
-      myLastPage3 = UNKNOWN_PAGE;
-      myLastBuffer = null;
-      myLastBuffer2 = null;
-      myLastBuffer3 = null;
-    }
+    myLastAccessedPage = null;
+    myLastAccessedPage2 = null;
+    myLastAccessedPage3 = null;
   }
 
   public void resize(long newSize) throws IOException {
@@ -393,26 +382,15 @@ public class PagedFileStorage implements Forceable {
   }
 
   private ByteBufferWrapper getBufferWrapper(long page, boolean modify) {
-    synchronized (myLastAccessedBufferCacheLock) {
-      if (myLastPage == page) {
-        ByteBuffer buf = myLastBuffer.getCachedBuffer();
-        if (buf != null && myLastChangeCount == myStorageLockContext.myStorageLock.myMappingChangeCount) {
-          if (modify) markDirty(myLastBuffer);
-          return myLastBuffer;
-        }
-      } else if (myLastPage2 == page) {
-        ByteBuffer buf = myLastBuffer2.getCachedBuffer();
-        if (buf != null && myLastChangeCount2 == myStorageLockContext.myStorageLock.myMappingChangeCount) {
-          if (modify) markDirty(myLastBuffer2);
-          return myLastBuffer2;
-        }
-      } else if (myLastPage3 == page) {
-        ByteBuffer buf = myLastBuffer3.getCachedBuffer();
-        if (buf != null && myLastChangeCount3 == myStorageLockContext.myStorageLock.myMappingChangeCount) {
-          if (modify) markDirty(myLastBuffer3);
-          return myLastBuffer3;
-        }
-      }
+    // read before the lookup: any unmapping after this point makes the cached entry stale
+    final int mappingChangeCount = myStorageLockContext.myStorageLock.myMappingChangeCount;
+
+    ByteBufferWrapper cached = getCachedWrapper(myLastAccessedPage, page, mappingChangeCount);
+    if (cached == null) cached = getCachedWrapper(myLastAccessedPage2, page, mappingChangeCount);
+    if (cached == null) cached = getCachedWrapper(myLastAccessedPage3, page, mappingChangeCount);
+    if (cached != null) {
+      if (modify) markDirty(cached);
+      return cached;
     }
 
     try {
@@ -428,24 +406,12 @@ public class PagedFileStorage implements Forceable {
         buf.order(ourNativeByteOrder);
       }
 
-      synchronized (myLastAccessedBufferCacheLock) {
-        if (myLastPage != page) {
-          myLastPage3 = myLastPage2;
-          myLastBuffer3 = myLastBuffer2;
-          myLastChangeCount3 = myLastChangeCount2;
-
-          myLastPage2 = myLastPage;
-          myLastBuffer2 = myLastBuffer;
-          myLastChangeCount2 = myLastChangeCount;
-
-          myLastBuffer = byteBufferWrapper;
-          myLastPage = (int)page; // TODO long page
-        } else {
-          myLastBuffer = byteBufferWrapper;
-        }
-
-        myLastChangeCount = myStorageLockContext.myStorageLock.myMappingChangeCount;
+      LastAccessedPage last = myLastAccessedPage;
+      if (last == null || last.myPage != page) {
+        myLastAccessedPage3 = myLastAccessedPage2;
+        myLastAccessedPage2 = last;
       }
+      myLastAccessedPage = new LastAccessedPage((int)page, byteBufferWrapper, mappingChangeCount); // TODO long page
 
       return byteBufferWrapper;
     }
@@ -454,6 +420,27 @@ public class PagedFileStorage implements Forceable {
     }
   }
 
+  @Nullable
+  private static ByteBufferWrapper getCachedWrapper(@Nullable LastAccessedPage entry, long page, int mappingChangeCount) {
+    if (entry == null || entry.myPage != page || entry.myMappingChangeCount != mappingChangeCount) return null;
+    ByteBufferWrapper wrapper = entry.myWrapper;
+    if (wrapper.getCachedBuffer() == null) return null;
+    wrapper.markReferenced();
+    return wrapper;
+  }
+
+  private static class LastAccessedPage {
+    private final int myPage;
+    private final ByteBufferWrapper myWrapper;
+    private final int myMappingChangeCount;
+
+    private LastAccessedPage(int page, @NotNull ByteBufferWrapper wrapper, int mappingChangeCount) {
+      myPage = page;
+      myWrapper = wrapper;
+      myMappingChangeCount = mappingChangeCount;
+    }
+  }
+
   private void markDirty(ByteBufferWrapper buffer) {
     if (!isDirty) isDirty = true;
     buffer.markDirty();
@@ -480,22 +467,37 @@ public class PagedFileStorage implements Forceable {
     return isDirty;
   }
 
+  /**
+   * Shared cache of mapped pages for all storages registered with it.
+   * <p/>
+   * Lookups of already mapped pages go through a concurrent map and take no lock. Mapping, unmapping and eviction are serialized by
+   * {@code mySegmentsAllocationLock}; eviction uses the CLOCK (second chance) policy over the mapped pages: every hit sets the page's
+   * reference bit, and the clock hand evicts the first page whose bit is already cleared.
+   */
   public static class StorageLock {
     private static final int FILE_INDEX_MASK = 0xFFFF0000;
     private static final int FILE_INDEX_SHIFT = 16;
     public final StorageLockContext myDefaultStorageLockContext;
     private final ConcurrentIntObjectMap<PagedFileStorage> myIndex2Storage = ContainerUtil.createConcurrentIntObjectMap();
 
-    private final LinkedHashMap<Integer, ByteBufferWrapper> mySegments;
-    private final ReentrantLock mySegmentsAccessLock = new ReentrantLock(); // protects map operations of mySegments, needed for LRU order, mySize and myMappingChangeCount
-    // todo avoid locking for access
+    private final ConcurrentIntObjectMap<ByteBufferWrapper> mySegments = ContainerUtil.createConcurrentIntObjectMap();
 
+    // protects mapping / unmapping of segments, myClock, myClockHand, mySize and myMappingChangeCount updates
     private final ReentrantLock mySegmentsAllocationLock = new ReentrantLock();
+    // mapped segments in the clock order and their keys, free slots hold null and are reused, so slots of segments never move
+    private final List<ByteBufferWrapper> myClock = new ArrayList<ByteBufferWrapper>();
+    private final TIntArrayList myClockKeys = new TIntArrayList();
+    private final TIntArrayList myFreeClockSlots = new TIntArrayList();
+    private int myClockHand;
     private final ConcurrentLinkedQueue<ByteBufferWrapper> mySegmentsToRemove = new ConcurrentLinkedQueue<ByteBufferWrapper>();
     private volatile long mySize;
     private volatile long mySizeLimit;
     private volatile int myMappingChangeCount;
 
+    private final LongAdder myHits = new LongAdder();
+    private final LongAdder myMisses = new LongAdder();
+    private final LongAdder myEvictions = new LongAdder();
+
     public StorageLock() {
       this(true);
     }
@@ -504,25 +506,6 @@ public class PagedFileStorage implements Forceable {
       myDefaultStorageLockContext = new StorageLockContext(this, checkThreadAccess);
 
       mySizeLimit = UPPER_LIMIT;
-      mySegments = new LinkedHashMap<Integer, ByteBufferWrapper>(10, 0.75f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<Integer, ByteBufferWrapper> eldest) {
-          return mySize > mySizeLimit;
-        }
-
-        @Nullable
-        @Override
-        public ByteBufferWrapper remove(Object key) {
-          // this method can be called after removeEldestEntry
-          ByteBufferWrapper wrapper = super.remove(key);
-          if (wrapper != null) {
-            ++myMappingChangeCount;
-            mySegmentsToRemove.offer(wrapper);
-            mySize -= wrapper.myLength;
-          }
-          return wrapper;
-        }
-      };
     }
 
     public void lock() {
@@ -533,6 +516,27 @@ public class PagedFileStorage implements Forceable {
       myDefaultStorageLockContext.unlock();
     }
 
+    /**
+     * @return number of page lookups served by already mapped buffers
+     */
+    public long getHitCount() {
+      return myHits.sum();
+    }
+
+    /**
+     * @return number of page lookups which required mapping a buffer
+     */
+    public long getMissCount() {
+      return myMisses.sum();
+    }
+
+    /**
+     * @return number of buffers unmapped to keep mapped size within the limit
+     */
+    public long getEvictionCount() {
+      return myEvictions.sum();
+    }
+
     private int registerPagedFileStorage(@NotNull PagedFileStorage storage) {
       int registered = myIndex2Storage.size();
       assert registered <= MAX_LIVE_STORAGES_COUNT;
@@ -549,27 +553,24 @@ public class PagedFileStorage implements Forceable {
       return myIndex2Storage.get(index);
     }
 
-    private ByteBufferWrapper get(Integer key) {
-      ByteBufferWrapper wrapper;
-      try {         // fast path
-        mySegmentsAccessLock.lock();
-        wrapper = mySegments.get(key);
-        if (wrapper != null) return wrapper;
-      }
-      finally {
-        mySegmentsAccessLock.unlock();
+    private ByteBufferWrapper get(int key) {
+      ByteBufferWrapper wrapper = mySegments.get(key); // fast path
+      if (wrapper != null) {
+        wrapper.markReferenced();
+        myHits.increment();
+        return wrapper;
       }
 
       mySegmentsAllocationLock.lock();
       try {
         // check if anybody cared about our segment
-        mySegmentsAccessLock.lock();
-        try {
-          wrapper = mySegments.get(key);
-          if (wrapper != null) return wrapper;
-        } finally {
-          mySegmentsAccessLock.unlock();
+        wrapper = mySegments.get(key);
+        if (wrapper != null) {
+          wrapper.markReferenced();
+          myHits.increment();
+          return wrapper;
         }
+        myMisses.increment();
 
         long started = IOStatistics.DEBUG ? System.currentTimeMillis() : 0;
         wrapper = createValue(key);
@@ -582,14 +583,10 @@ public class PagedFileStorage implements Forceable {
           }
         }
 
-        mySegmentsAccessLock.lock();
-        try {
-          mySegments.put(key, wrapper);
-          mySize += wrapper.myLength;
-        }
-        finally {
-          mySegmentsAccessLock.unlock();
-        }
+        wrapper.markReferenced(); // don't let the clock hand evict just mapped segment right away
+        mySegments.put(key, wrapper);
+        addToClock(key, wrapper);
+        mySize += wrapper.myLength;
 
         ensureSize(mySizeLimit);
 
@@ -614,21 +611,54 @@ public class PagedFileStorage implements Forceable {
     private void ensureSize(long sizeLimit) {
       assert mySegmentsAllocationLock.isHeldByCurrentThread();
 
-      try {
-        mySegmentsAccessLock.lock();
-        while (mySize > sizeLimit) {
-          // we still have to drop something
-          mySegments.doRemoveEldestEntry();
-        }
-      } finally {
-        mySegmentsAccessLock.unlock();
+      while (mySize > sizeLimit && myClock.size() > myFreeClockSlots.size()) {
+        // we still have to drop something
+        if (myClockHand >= myClock.size()) myClockHand = 0;
+        int slot = myClockHand++;
+        ByteBufferWrapper wrapper = myClock.get(slot);
+        if (wrapper == null || wrapper.clearReferenced()) continue; // free slot or second chance
+        removeSegmentAt(slot);
+        myEvictions.increment();
       }
 
       disposeRemovedSegments();
     }
 
+    private void addToClock(int key, @NotNull ByteBufferWrapper wrapper) {
+      int slot;
+      if (myFreeClockSlots.isEmpty()) {
+        slot = myClock.size();
+        myClock.add(wrapper);
+        myClockKeys.add(key);
+      }
+      else {
+        slot = myFreeClockSlots.remove(myFreeClockSlots.size() - 1);
+        myClock.set(slot, wrapper);
+        myClockKeys.set(slot, key);
+      }
+      wrapper.myClockSlot = slot;
+    }
+
+    private void removeSegment(int key) {
+      assert mySegmentsAllocationLock.isHeldByCurrentThread();
+      ByteBufferWrapper wrapper = mySegments.get(key);
+      if (wrapper != null) removeSegmentAt(wrapper.myClockSlot);
+    }
+
+    private void removeSegmentAt(int clockSlot) {
+      ByteBufferWrapper wrapper = mySegments.remove(myClockKeys.get(clockSlot));
+      myClock.set(clockSlot, null);
+      myFreeClockSlots.add(clockSlot);
+      if (wrapper != null) {
+        wrapper.myClockSlot = -1;
+        ++myMappingChangeCount;
+        mySegmentsToRemove.offer(wrapper);
+        mySize -= wrapper.myLength;
+      }
+    }
+
     @NotNull
-    private ByteBufferWrapper createValue(Integer key) {
+    private ByteBufferWrapper createValue(int key) {
       final int storageIndex = key & FILE_INDEX_MASK;
       PagedFileStorage owner = getRegisteredPagedFileStorageByIndex(storageIndex);
       assert owner != null: "No storage for index " + storageIndex;
@@ -664,7 +694,7 @@ public class PagedFileStorage implements Forceable {
           long newSize = mySize - owner.myPageSize;
           if (newSize < 0) {
             LOG.info("Currently allocated:"+mySize);
-            LOG.info("Mapping failed due to OOME. Current buffers: " + mySegments);
+            LOG.info("Mapping failed due to OOME. Current buffers: " + mySegments.values());
             LOG.info(oome);
             try {
               Class<?> aClass = Class.forName("java.nio.Bits");
@@ -699,46 +729,33 @@ public class PagedFileStorage implements Forceable {
 
     @Nullable
     private Map<Integer, ByteBufferWrapper> getBuffersOrderedForOwner(int index, StorageLockContext storageLockContext) {
-      mySegmentsAccessLock.lock();
-      try {
-        checkThreadAccess(storageLockContext);
-        Map<Integer, ByteBufferWrapper> mineBuffers = null;
-        for (Map.Entry<Integer, ByteBufferWrapper> entry : mySegments.entrySet()) {
-          if ((entry.getKey() & FILE_INDEX_MASK) == index) {
-            if (mineBuffers == null) {
-              mineBuffers = new TreeMap<Integer, ByteBufferWrapper>(new Comparator<Integer>() {
-                @Override
-                public int compare(Integer o1, Integer o2) {
-                  return o1 - o2;
-                }
-              });
-            }
-            mineBuffers.put(entry.getKey(), entry.getValue());
+      checkThreadAccess(storageLockContext);
+      Map<Integer, ByteBufferWrapper> mineBuffers = null;
+      for (ConcurrentIntObjectMap.IntEntry<ByteBufferWrapper> entry : mySegments.entries()) {
+        if ((entry.getKey() & FILE_INDEX_MASK) == index) {
+          if (mineBuffers == null) {
+            mineBuffers = new TreeMap<Integer, ByteBufferWrapper>(new Comparator<Integer>() {
+              @Override
+              public int compare(Integer o1, Integer o2) {
+                return o1 - o2;
+              }
+            });
           }
+          mineBuffers.put(entry.getKey(), entry.getValue());
         }
-        return mineBuffers;
-      }
-      finally {
-        mySegmentsAccessLock.unlock();
       }
+      return mineBuffers;
     }
 
     private void unmapBuffersForOwner(int index, StorageLockContext storageLockContext) {
       final Map<Integer, ByteBufferWrapper> buffers = getBuffersOrderedForOwner(index, storageLockContext);
 
       if (buffers != null) {
-        mySegmentsAccessLock.lock();
+        mySegmentsAllocationLock.lock();
         try {
           for (Integer key : buffers.keySet()) {
-            mySegments.remove(key);
+            removeSegment(key);
           }
-        }
-        finally {
-          mySegmentsAccessLock.unlock();
-        }
-
-        mySegmentsAllocationLock.lock();
-        try {
           disposeRemovedSegments();
         } finally {
           mySegmentsAllocationLock.unlock();
@@ -773,14 +790,9 @@ public class PagedFileStorage implements Forceable {
     }
 
     public void invalidateBuffer(int page) {
-      mySegmentsAccessLock.lock();
-      try {
-        mySegments.remove(page);
-      } finally {
-        mySegmentsAccessLock.unlock();
-      }
       mySegmentsAllocationLock.lock();
       try {
+        removeSegment(page);
         disposeRemovedSegments();
       }
       finally {
@@ -106,6 +106,19 @@ public class PersistentEnumeratorDelegate<Data> implements Closeable, Forceable
     return myEnumerator.traverseAllRecords(recordsProcessor);
   }
 
+  /**
+   * @return length of the key storage, it grows when a new key is enumerated
+   */
+  public int getLargestId() {
+    myEnumerator.lockStorage();
+    try {
+      return myEnumerator.getLargestId();
+    }
+    finally {
+      myEnumerator.unlockStorage();
+    }
+  }
+
   public Collection<Data> getAllDataObjects(@Nullable final PersistentEnumeratorBase.DataFilter filter) throws IOException {
     return myEnumerator.getAllDataObjects(filter);
   }
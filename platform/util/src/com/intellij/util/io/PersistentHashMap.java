@@ -25,17 +25,19 @@ import com.intellij.util.CommonProcessors;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.Processor;
 import com.intellij.util.SystemProperties;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.LimitedPool;
 import com.intellij.util.containers.SLRUCache;
+import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 /**
  * @author Eugene Zhuravlev
@@ -88,6 +90,14 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   private static final boolean doHardConsistencyChecks = false;
   private volatile boolean myBusyReading;
 
+  // when enabled, compaction requested on open copies live values in background, a segment per step, instead of blocking the constructor
+  private static final boolean ourIncrementalCompaction = SystemProperties.getBooleanProperty("idea.persistent.hash.map.incremental.compact", true);
+  private static final int INCREMENTAL_COMPACTION_SEGMENT_SIZE = 1024 * 1024;
+  private static final ExecutorService ourCompactionExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("PersistentHashMap compaction", 1);
+  private static final List<CompactionListener> ourCompactionListeners = ContainerUtil.createLockFreeCopyOnWriteList();
+  @Nullable private IncrementalCompaction myIncrementalCompaction; // guarded by myEnumerator
+  private boolean myIncrementalCompactionPending; // guarded by myEnumerator
+
   private static class AppendStream extends DataOutputStream {
     private AppendStream() {
       super(null);
@@ -190,7 +200,13 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       myCanReEnumerate = myEnumerator.canReEnumerate();
 
       if (makesSenseToCompact()) {
-        compact();
+        if (ourIncrementalCompaction) {
+          // the compaction task shouldn't see a partially constructed map, it's started on the first access
+          myIncrementalCompactionPending = true;
+        }
+        else {
+          compact();
+        }
       }
     }
     catch (IOException e) {
@@ -346,6 +362,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   public final void put(Key key, Value value) throws IOException {
     if (myIsReadOnly) throw new IncorrectOperationException();
     synchronized (myEnumerator) {
+      startPendingCompaction();
       doPut(key, value);
     }
   }
@@ -422,6 +439,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   public final void appendData(Key key, @NotNull ValueDataAppender appender) throws IOException {
     if (myIsReadOnly) throw new IncorrectOperationException();
     synchronized (myEnumerator) {
+      startPendingCompaction();
       doAppendData(key, appender);
     }
   }
@@ -451,6 +469,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   @Override
   public final boolean processKeys(Processor<Key> processor) throws IOException {
     synchronized (myEnumerator) {
+      startPendingCompaction();
       myAppendCache.clear();
       return myEnumerator.iterateData(processor);
     }
@@ -465,6 +484,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
   public final boolean processKeysWithExistingMapping(Processor<Key> processor) throws IOException {
     synchronized (myEnumerator) {
+      startPendingCompaction();
       myAppendCache.clear();
       return myEnumerator.processAllDataObject(processor, new PersistentEnumerator.DataFilter() {
         @Override
@@ -478,6 +498,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   @Override
   public final Value get(Key key) throws IOException {
     synchronized (myEnumerator) {
+      startPendingCompaction();
       myBusyReading = true;
       try {
         return doGet(key);
@@ -565,6 +586,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
   public final boolean containsMapping(Key key) throws IOException {
     synchronized (myEnumerator) {
+      startPendingCompaction();
       return doContainsMapping(key);
     }
   }
@@ -592,6 +614,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   public final void remove(Key key) throws IOException {
     if (myIsReadOnly) throw new IncorrectOperationException();
     synchronized (myEnumerator) {
+      startPendingCompaction();
       doRemove(key);
     }
   }
@@ -634,6 +657,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     if (myIsReadOnly) return;
     if(myDoTrace) LOG.info("Forcing " + myStorageFile);
     synchronized (myEnumerator) {
+      startPendingCompaction();
       doForce();
     }
   }
@@ -670,6 +694,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     myEnumerator.lockStorage();
     try {
       try {
+        cancelIncrementalCompaction();
         myAppendCacheFlusher.stop();
         myAppendCache.clear();
       }
@@ -708,6 +733,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   public void compact() throws IOException {
     if (myIsReadOnly) throw new IncorrectOperationException();
     synchronized (myEnumerator) {
+      cancelIncrementalCompaction();
       force();
       LOG.info("Compacting "+myEnumerator.myFile.getPath());
       LOG.info("Live keys:" + ((int)(myLiveAndGarbageKeysCounter  / LIVE_KEY_MASK)) +
@@ -717,10 +743,9 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       final long now = System.currentTimeMillis();
 
       final File oldDataFile = getDataFile(myEnumerator.myFile);
-      final String oldDataFileBaseName = oldDataFile.getName();
-      final File[] oldFiles = getFilesInDirectoryWithNameStartingWith(oldDataFile, oldDataFileBaseName);
+      final File[] oldFiles = getFilesInDirectoryWithNameStartingWith(oldDataFile, oldDataFile.getName());
 
-      final String newPath = getDataFile(myEnumerator.myFile).getPath() + ".new";
+      final String newPath = getNewDataFile().getPath();
       final PersistentHashMapValueStorage newStorage = PersistentHashMapValueStorage.create(newPath, myIsReadOnly);
       myValueStorage.switchToCompactionMode();
       myEnumerator.markDirty(true);
@@ -752,35 +777,289 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         newStorage.dispose();
       }
 
-      myValueStorage.dispose();
+      final long newSize = newStorage.getSize();
+      replaceValueStorage(oldFiles, new File(newPath));
+
+      LOG.info("Compacted " + myEnumerator.myFile.getPath() + ":" + sizeBefore + " bytes into " + newSize + " bytes in " + (System.currentTimeMillis() - now) + "ms.");
+      myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
+      myEnumerator.putMetaData2( myLargeIndexWatermarkId );
+      if (myDoTrace) LOG.assertTrue(myEnumerator.isDirty());
+      fireCompactionFinished(sizeBefore, newSize, System.currentTimeMillis() - now);
+    }
+  }
+
+  @NotNull
+  private File getNewDataFile() {
+    return new File(getDataFile(myEnumerator.myFile).getPath() + ".new");
+  }
+
+  // disposes current value storage and moves files of already disposed compacted storage in its place
+  private void replaceValueStorage(@Nullable File[] oldFiles, @NotNull File newDataFile) throws IOException {
+    myValueStorage.dispose();
+
+    if (oldFiles != null) {
+      for(File f:oldFiles) {
+        assert FileUtil.deleteWithRenaming(f);
+      }
+    }
+
+    final File oldDataFile = getDataFile(myEnumerator.myFile);
+    final String oldDataFileBaseName = oldDataFile.getName();
+    final String newBaseName = newDataFile.getName();
+    final File[] newFiles = getFilesInDirectoryWithNameStartingWith(newDataFile, newBaseName);
+
+    if (newFiles != null) {
+      File parentFile = newDataFile.getParentFile();
+
+      // newFiles should get the same names as oldDataFiles
+      for (File f : newFiles) {
+        String nameAfterRename = StringUtil.replace(f.getName(), newBaseName, oldDataFileBaseName);
+        FileUtil.rename(f, new File(parentFile, nameAfterRename));
+      }
+    }
+
+    myValueStorage = PersistentHashMapValueStorage.create(oldDataFile.getPath(), myIsReadOnly);
+  }
+
+  /**
+   * Receives progress of value storage compactions. Methods are called under the lock of the map being compacted.
+   */
+  public abstract static class CompactionListener {
+    public void compactionStarted(@NotNull File file, int liveKeys, long valueStorageSize) {
+    }
+
+    public void compactionProgress(@NotNull File file, int processedKeys, int totalKeys, long copiedBytes) {
+    }
+
+    public void compactionFinished(@NotNull File file, long sizeBefore, long sizeAfter, long durationMs) {
+    }
+  }
+
+  public static void addCompactionListener(@NotNull CompactionListener listener) {
+    ourCompactionListeners.add(listener);
+  }
 
-      if (oldFiles != null) {
-        for(File f:oldFiles) {
-          assert FileUtil.deleteWithRenaming(f);
+  public static void removeCompactionListener(@NotNull CompactionListener listener) {
+    ourCompactionListeners.remove(listener);
+  }
+
+  private void fireCompactionFinished(long sizeBefore, long sizeAfter, long durationMs) {
+    for (CompactionListener listener : ourCompactionListeners) {
+      listener.compactionFinished(getBaseFile(), sizeBefore, sizeAfter, durationMs);
+    }
+  }
+
+  public boolean isCompactionInProgress() {
+    synchronized (myEnumerator) {
+      return myIncrementalCompaction != null;
+    }
+  }
+
+  @TestOnly
+  public void waitForCompaction() throws InterruptedException {
+    synchronized (myEnumerator) {
+      startPendingCompaction();
+    }
+    while (isCompactionInProgress()) {
+      //noinspection BusyWait
+      Thread.sleep(10);
+    }
+  }
+
+  private void startPendingCompaction() {
+    if (myIncrementalCompactionPending) {
+      myIncrementalCompactionPending = false;
+      startIncrementalCompaction();
+    }
+  }
+
+  private void startIncrementalCompaction() {
+    final IncrementalCompaction compaction = new IncrementalCompaction();
+    myIncrementalCompaction = compaction;
+
+    ourCompactionExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        boolean finished = false;
+        while (!finished) {
+          synchronized (myEnumerator) {
+            if (myIncrementalCompaction != compaction) return;
+            try {
+              finished = compaction.step();
+            }
+            catch (Throwable e) {
+              LOG.error("Incremental compaction of " + myStorageFile + " failed", e);
+              finished = true;
+              compaction.cancel();
+            }
+            if (finished) myIncrementalCompaction = null;
+          }
         }
       }
+    });
+  }
 
-      final long newSize = newStorage.getSize();
+  private void cancelIncrementalCompaction() {
+    myIncrementalCompactionPending = false;
+    if (myIncrementalCompaction != null) {
+      myIncrementalCompaction.cancel();
+      myIncrementalCompaction = null;
+    }
+  }
 
-      File newDataFile = new File(newPath);
-      final String newBaseName = newDataFile.getName();
-      final File[] newFiles = getFilesInDirectoryWithNameStartingWith(newDataFile, newBaseName);
+  // Copies live values into a new storage while the map stays usable. Values are copied in segments of limited size, each segment
+  // holds the map lock only for its own duration. Mappings still point into the current storage during copying, they are switched
+  // all at once in the last step, which also copies values that were changed after the copying had started.
+  private class IncrementalCompaction {
+    private final long myStarted = System.currentTimeMillis();
+    private File myNewDataFile;
+    private File[] myOldFiles;
+    private PersistentHashMapValueStorage myNewStorage;
+    private List<CompactionRecordInfo> myInfos;
+    private int myProcessed;
+    private long myCopiedBytes;
+    private long mySizeBefore;
+
+    // returns true when compaction is done
+    boolean step() throws IOException {
+      if (myInfos == null) {
+        start();
+        return false;
+      }
+      if (myProcessed < myInfos.size()) {
+        copyNextSegment();
+        return false;
+      }
+      switchStorage();
+      return true;
+    }
 
-      if (newFiles != null) {
-        File parentFile = newDataFile.getParentFile();
+    private void start() throws IOException {
+      File oldDataFile = getDataFile(myEnumerator.myFile);
+      myOldFiles = getFilesInDirectoryWithNameStartingWith(oldDataFile, oldDataFile.getName());
+      myNewDataFile = getNewDataFile();
+      deleteFilesStartingWith(myNewDataFile); // leftovers of compaction interrupted by exit
+      myNewStorage = PersistentHashMapValueStorage.create(myNewDataFile.getPath(), false);
+      mySizeBefore = myValueStorage.getSize();
+
+      final List<CompactionRecordInfo> infos = new ArrayList<CompactionRecordInfo>(10000);
+      collectLiveRecords(infos);
+      // read old storage sequentially
+      Collections.sort(infos, new Comparator<CompactionRecordInfo>() {
+        @Override
+        public int compare(CompactionRecordInfo o1, CompactionRecordInfo o2) {
+          return o1.valueAddress < o2.valueAddress ? -1 : o1.valueAddress == o2.valueAddress ? 0 : 1;
+        }
+      });
+      myInfos = infos;
 
-        // newFiles should get the same names as oldDataFiles
-        for (File f : newFiles) {
-          String nameAfterRename = StringUtil.replace(f.getName(), newBaseName, oldDataFileBaseName);
-          FileUtil.rename(f, new File(parentFile, nameAfterRename));
+      LOG.info("Started incremental compaction of " + myEnumerator.myFile.getPath() + ", live keys:" + infos.size() +
+               ", dead keys:" + ((int)(myLiveAndGarbageKeysCounter & DEAD_KEY_NUMBER_MASK)));
+      for (CompactionListener listener : ourCompactionListeners) {
+        listener.compactionStarted(getBaseFile(), infos.size(), mySizeBefore);
+      }
+    }
+
+    private void copyNextSegment() throws IOException {
+      long segmentBytes = 0;
+      while (myProcessed < myInfos.size() && segmentBytes < INCREMENTAL_COMPACTION_SEGMENT_SIZE) {
+        CompactionRecordInfo info = myInfos.get(myProcessed++);
+        myEnumerator.lockStorage();
+        try {
+          if (readValueId(info.address) != info.valueAddress) continue; // changed meanwhile, will be copied on switch
+
+          PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(info.valueAddress);
+          info.newValueAddress = myNewStorage.appendBytes(readResult.buffer, 0, readResult.buffer.length, 0);
+          segmentBytes += readResult.buffer.length;
+        }
+        finally {
+          myEnumerator.unlockStorage();
         }
       }
+      myCopiedBytes += segmentBytes;
 
-      myValueStorage = PersistentHashMapValueStorage.create(oldDataFile.getPath(), myIsReadOnly);
-      LOG.info("Compacted " + myEnumerator.myFile.getPath() + ":" + sizeBefore + " bytes into " + newSize + " bytes in " + (System.currentTimeMillis() - now) + "ms.");
+      for (CompactionListener listener : ourCompactionListeners) {
+        listener.compactionProgress(getBaseFile(), myProcessed, myInfos.size(), myCopiedBytes);
+      }
+    }
+
+    private void switchStorage() throws IOException {
+      myAppendCache.clear(); // appended chunks go into the current storage
+      myEnumerator.markDirty(true);
+
+      TIntObjectHashMap<CompactionRecordInfo> copied = new TIntObjectHashMap<CompactionRecordInfo>(myInfos.size());
+      for (CompactionRecordInfo info : myInfos) {
+        if (info.newValueAddress != NULL_ADDR) copied.put(info.address, info);
+      }
+      myInfos = null;
+
+      final List<CompactionRecordInfo> current = new ArrayList<CompactionRecordInfo>(copied.size());
+      collectLiveRecords(current);
+
+      int changed = 0;
+      for (CompactionRecordInfo info : current) {
+        CompactionRecordInfo copiedInfo = copied.get(info.address);
+        if (copiedInfo != null && copiedInfo.valueAddress == info.valueAddress) {
+          info.newValueAddress = copiedInfo.newValueAddress;
+        }
+        else {
+          PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(info.valueAddress);
+          info.newValueAddress = myNewStorage.appendBytes(readResult.buffer, 0, readResult.buffer.length, 0);
+          ++changed;
+        }
+      }
+
+      myEnumerator.lockStorage();
+      try {
+        myLiveAndGarbageKeysCounter = 0;
+        myReadCompactionGarbageSize = 0;
+        for (CompactionRecordInfo info : current) {
+          updateValueId(info.address, info.newValueAddress, info.valueAddress, null, info.key);
+          myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
+        }
+      }
+      finally {
+        myEnumerator.unlockStorage();
+      }
+
+      final long newSize = myNewStorage.getSize();
+      myNewStorage.dispose();
+      myNewStorage = null;
+      replaceValueStorage(myOldFiles, myNewDataFile);
       myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
-      myEnumerator.putMetaData2( myLargeIndexWatermarkId );
-      if (myDoTrace) LOG.assertTrue(myEnumerator.isDirty());
+      myEnumerator.putMetaData2(myLargeIndexWatermarkId);
+
+      long duration = System.currentTimeMillis() - myStarted;
+      LOG.info("Compacted incrementally " + myEnumerator.myFile.getPath() + ":" + mySizeBefore + " bytes into " + newSize + " bytes in " +
+               duration + "ms, values changed during compaction:" + changed);
+      fireCompactionFinished(mySizeBefore, newSize, duration);
+    }
+
+    private void collectLiveRecords(@NotNull final List<CompactionRecordInfo> infos) throws IOException {
+      myEnumerator.lockStorage();
+      try {
+        traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
+          @Override
+          public boolean process(final int keyId) throws IOException {
+            final long record = readValueId(keyId);
+            if (record != NULL_ADDR) {
+              infos.add(new CompactionRecordInfo(getCurrentKey(), record, keyId));
+            }
+            return true;
+          }
+        });
+      }
+      finally {
+        myEnumerator.unlockStorage();
+      }
+    }
+
+    void cancel() {
+      if (myNewStorage != null) {
+        myNewStorage.dispose();
+        myNewStorage = null;
+        deleteFilesStartingWith(myNewDataFile);
+      }
     }
   }
 
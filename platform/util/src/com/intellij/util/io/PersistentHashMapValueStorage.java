@@ -22,6 +22,7 @@ package com.intellij.util.io;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.util.ObjectUtil;
 import com.intellij.util.SystemProperties;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -49,6 +50,10 @@ public class PersistentHashMapValueStorage {
     public static final ThreadLocal<ExceptionalIOCancellationCallback> EXCEPTIONAL_IO_CANCELLATION = new ThreadLocal<ExceptionalIOCancellationCallback>();
     public static final ThreadLocal<Boolean> READONLY = new ThreadLocal<Boolean>();
     public static final ThreadLocal<Boolean> COMPACT_CHUNKS_WITH_VALUE_DESERIALIZATION = new ThreadLocal<Boolean>();
+    /**
+     * Codec for values of compressed storage, {@code idea.compression.codec} one by default
+     */
+    public static final ThreadLocal<CompressionCodec> COMPRESSION_CODEC = new ThreadLocal<CompressionCodec>();
   }
 
   public interface ExceptionalIOCancellationCallback {
@@ -100,6 +105,7 @@ public class PersistentHashMapValueStorage {
   private final CompressedAppendableFile myCompressedAppendableFile;
 
   public static final boolean COMPRESSION_ENABLED = SystemProperties.getBooleanProperty("idea.compression.enabled", true);
+  private static final CompressionCodec DEFAULT_CODEC = ObjectUtil.notNull(CompressionCodecs.findById(System.getProperty("idea.compression.codec")), CompressionCodecs.SNAPPY);
 
   public PersistentHashMapValueStorage(String path) throws IOException {
     myExceptionalIOCancellationCallback = CreationTimeOptions.EXCEPTIONAL_IO_CANCELLATION.get();
@@ -108,7 +114,8 @@ public class PersistentHashMapValueStorage {
     myPath = path;
     myFile = new File(path);
 
-    myCompressedAppendableFile = COMPRESSION_ENABLED ? new MyCompressedAppendableFile() : null;
+    CompressionCodec codec = CreationTimeOptions.COMPRESSION_CODEC.get();
+    myCompressedAppendableFile = COMPRESSION_ENABLED ? new MyCompressedAppendableFile(codec != null ? codec : DEFAULT_CODEC) : null;
     if (myCompressedAppendableFile != null) {
       mySize = myCompressedAppendableFile.length();  // volatile write
     } else {
@@ -689,8 +696,8 @@ public class PersistentHashMapValueStorage {
 
   private class MyCompressedAppendableFile extends CompressedAppendableFile {
 
-    public MyCompressedAppendableFile() {
-      super(PersistentHashMapValueStorage.this.myFile);
+    public MyCompressedAppendableFile(@NotNull CompressionCodec codec) throws IOException {
+      super(PersistentHashMapValueStorage.this.myFile, codec);
     }
 
     @NotNull
@@ -60,6 +60,11 @@ public class SourceCodeCompressor {
     INFLATE_BUFFER = new byte[4096];
   }
 
+  /**
+   * Codec with the same preset dictionary, storages can use it for blocks of source code
+   */
+  public static final CompressionCodec CODEC = CompressionCodecs.deflate("source-code", PRESET_BUF);
+
   public static synchronized byte[] compress(byte[] source, int off, int len) {
     try {
       DEFLATER.reset();
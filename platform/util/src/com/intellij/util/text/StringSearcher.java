@@ -20,7 +20,6 @@ import com.intellij.openapi.util.text.StringUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Arrays;
 import java.util.Locale;
 
 public class StringSearcher {
@@ -29,7 +28,8 @@ public class StringSearcher {
   private final String myPattern;
   private final char[] myPatternArray;
   private final int myPatternLength;
-  private final int[] mySearchTable = new int[128];
+  private final int[] mySearchTable = new int[128]; // shifts by the last text char under the pattern, for ASCII chars
+  private final boolean myPatternIsAscii;
   private final boolean myCaseSensitive;
   private final boolean myForwardDirection;
   private final boolean myJavaIdentifier;
@@ -59,7 +59,8 @@ public class StringSearcher {
     myForwardDirection = forwardDirection;
     myPatternArray = myCaseSensitive ? myPattern.toCharArray() : myPattern.toLowerCase(Locale.US).toCharArray();
     myPatternLength = myPatternArray.length;
-    Arrays.fill(mySearchTable, -1);
+    myPatternIsAscii = isAscii(myPatternArray);
+    fillSearchTable();
     myJavaIdentifier = lookForJavaIdentifiersOnlyIfPossible &&
                        (pattern.isEmpty() ||
                         Character.isJavaIdentifierPart(pattern.charAt(0)) &&
@@ -103,6 +104,9 @@ public class StringSearcher {
     if (_end > textLength) {
       throw new AssertionError("end > length, " + _end + ">" + textLength);
     }
+    if (textArray == null) {
+      textArray = CharArrayUtil.fromSequenceWithoutCopying(text);
+    }
     if (myForwardDirection) {
       if (myPatternLength == 1) {
         // optimization
@@ -114,17 +118,11 @@ public class StringSearcher {
       while (start <= end) {
         int i = myPatternLength - 1;
         char lastChar = textArray != null ? textArray[start + i] : text.charAt(start + i);
-        if (!myCaseSensitive) {
-          lastChar = StringUtil.toLowerCase(lastChar);
-        }
-        if (myPatternArray[i] == lastChar) {
+        if (charEquals(myPatternArray[i], lastChar)) {
           i--;
           while (i >= 0) {
             char c = textArray != null ? textArray[start + i] : text.charAt(start + i);
-            if (!myCaseSensitive) {
-              c = StringUtil.toLowerCase(c);
-            }
-            if (myPatternArray[i] != c) break;
+            if (!charEquals(myPatternArray[i], c)) break;
             i--;
           }
           if (i < 0) {
@@ -132,18 +130,7 @@ public class StringSearcher {
           }
         }
 
-        int step = lastChar < 128 ? mySearchTable[lastChar] : 1;
-
-        if (step <= 0) {
-          int index;
-          for (index = myPatternLength - 2; index >= 0; index--) {
-            if (myPatternArray[index] == lastChar) break;
-          }
-          step = myPatternLength - index - 1;
-          mySearchTable[lastChar] = step;
-        }
-
-        start += step;
+        start += getShift(lastChar);
       }
       return -1;
     }
@@ -153,37 +140,54 @@ public class StringSearcher {
       while (start <= end - myPatternLength + 1) {
         int i = myPatternLength - 1;
         char lastChar = textArray != null ? textArray[end - (start + i)] : text.charAt(end - (start + i));
-        if (!myCaseSensitive) {
-          lastChar = StringUtil.toLowerCase(lastChar);
-        }
-        if (myPatternArray[myPatternLength - 1 - i] == lastChar) {
+        if (charEquals(myPatternArray[myPatternLength - 1 - i], lastChar)) {
           i--;
           while (i >= 0) {
             char c = textArray != null ? textArray[end - (start + i)] : text.charAt(end - (start + i));
-            if (!myCaseSensitive) {
-              c = StringUtil.toLowerCase(c);
-            }
-            if (myPatternArray[myPatternLength - 1 - i] != c) break;
+            if (!charEquals(myPatternArray[myPatternLength - 1 - i], c)) break;
             i--;
           }
           if (i < 0) return end - start - myPatternLength + 1;
         }
 
-        int step = lastChar < 128 ? mySearchTable[lastChar] : 1;
+        start += getShift(lastChar);
+      }
+      return -1;
+    }
+  }
 
-        if (step <= 0) {
-          int index;
-          for (index = myPatternLength - 2; index >= 0; index--) {
-            if (myPatternArray[myPatternLength - 1 - index] == lastChar) break;
-          }
-          step = myPatternLength - index - 1;
-          mySearchTable[lastChar] = step;
-        }
+  private boolean charEquals(char patternChar, char c) {
+    return patternChar == c || !myCaseSensitive && StringUtil.toLowerCase(c) == patternChar;
+  }
 
-        start += step;
+  /**
+   * Boyer-Moore-Horspool shift: the distance from the last occurrence of the char in the pattern (not counting the last pattern char)
+   * to the pattern end, in the search direction.
+   */
+  private void fillSearchTable() {
+    for (char c = 0; c < mySearchTable.length; c++) {
+      char patternChar = myCaseSensitive ? c : StringUtil.toLowerCase(c);
+      int index;
+      for (index = myPatternLength - 2; index >= 0; index--) {
+        int patternIndex = myForwardDirection ? index : myPatternLength - 1 - index;
+        if (myPatternArray[patternIndex] == patternChar) break;
       }
-      return -1;
+      mySearchTable[c] = myPatternLength - index - 1;
+    }
+  }
+
+  private int getShift(char lastChar) {
+    if (lastChar < 128) return mySearchTable[lastChar];
+    // a non-ASCII text char can match an ASCII pattern only if its lower case is ASCII (e.g. Kelvin sign)
+    if (myPatternIsAscii && (myCaseSensitive || StringUtil.toLowerCase(lastChar) >= 128)) return myPatternLength;
+    return 1;
+  }
+
+  private static boolean isAscii(@NotNull char[] chars) {
+    for (char c : chars) {
+      if (c >= 128) return false;
     }
+    return true;
   }
 
   /**
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing.containers;
+
+import com.intellij.util.indexing.ValueContainer;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class CompressedIdSetTest extends TestCase {
+  public void testRandomAddRemoveAgainstTreeSet() {
+    Random random = new Random(42);
+    CompressedIdSet set = new CompressedIdSet();
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+
+    for (int i = 0; i < 200000; i++) {
+      // dense region turns chunks into bitmaps and back, sparse one keeps them arrays
+      int id = random.nextBoolean() ? random.nextInt(20000) : random.nextInt(Integer.MAX_VALUE);
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(id), set.remove(id));
+      }
+      else {
+        assertEquals(expected.add(id), set.add(id));
+      }
+    }
+
+    assertSameIds(expected, set);
+    for (int i = 0; i < 1000; i++) {
+      int id = random.nextInt(20000);
+      assertEquals(expected.contains(id), set.contains(id));
+    }
+    assertFalse(set.contains(-1));
+  }
+
+  public void testRetainAll() {
+    CompressedIdSet multiplesOf2 = new CompressedIdSet();
+    CompressedIdSet multiplesOf3 = new CompressedIdSet();
+    TreeSet<Integer> multiplesOf6 = new TreeSet<Integer>();
+    for (int i = 1; i < 300000; i++) {
+      if (i % 2 == 0) multiplesOf2.add(i);
+      if (i % 3 == 0 && i < 100000 || i % 999 == 0) multiplesOf3.add(i);
+      if (i % 6 == 0 && i < 100000 || i % 999 == 0 && i % 2 == 0) multiplesOf6.add(i);
+    }
+
+    CompressedIdSet copy = multiplesOf2.clone();
+    copy.retainAll(multiplesOf3);
+    assertSameIds(multiplesOf6, copy);
+
+    multiplesOf2.retainAll(new ValueContainer.IntPredicate() {
+      @Override
+      public boolean contains(int id) {
+        return id % 3 == 0 && id < 100000 || id % 999 == 0;
+      }
+    });
+    assertSameIds(multiplesOf6, multiplesOf2);
+    assertTrue(multiplesOf3.contains(3)); // argument is not changed
+  }
+
+  public void testChangeBufferingListSwitchesToCompressedSet() {
+    ChangeBufferingList list = new ChangeBufferingList();
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+    for (int i = 1; i <= 3 * ChangeBufferingList.MAX_FILES; i += 3) {
+      list.add(i);
+      expected.add(i);
+      if (i % 7 == 0) {
+        list.remove(i);
+        expected.remove(i);
+      }
+      if (i % 5000 == 1) {
+        assertTrue(list.intPredicate().contains(i) == expected.contains(i)); // forces random access container
+      }
+    }
+
+    List<Integer> actual = new ArrayList<Integer>();
+    IntIdsIterator iterator = list.sortedIntIterator();
+    assertEquals(expected.size(), iterator.size());
+    while (iterator.hasNext()) actual.add(iterator.next());
+    assertEquals(new ArrayList<Integer>(expected), actual);
+  }
+
+  private static void assertSameIds(TreeSet<Integer> expected, CompressedIdSet set) {
+    assertEquals(expected.size(), set.size());
+    List<Integer> actual = new ArrayList<Integer>();
+    IntIdsIterator iterator = set.intIterator();
+    while (iterator.hasNext()) actual.add(iterator.next());
+    assertEquals(new ArrayList<Integer>(expected), actual);
+
+    actual.clear();
+    iterator = iterator.createCopyInInitialState();
+    while (iterator.hasNext()) actual.add(iterator.next());
+    assertEquals(expected.size(), actual.size());
+  }
+}
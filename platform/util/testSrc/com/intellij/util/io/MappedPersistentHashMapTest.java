@@ -0,0 +1,148 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.CommonProcessors;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+public class MappedPersistentHashMapTest extends TestCase {
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("mappedMap", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testPutGetRemoveAndReopen() throws Exception {
+    File file = new File(myDir, "map");
+    MappedPersistentHashMap<String, String> map = createStringMap(file);
+    try {
+      for (int i = 0; i < 10000; i++) {
+        map.put("key" + i, "value" + i);
+      }
+      map.put("key42", "updated");
+      for (int i = 0; i < 10000; i += 2) {
+        map.remove("key" + i);
+      }
+      assertEquals(5000, map.size());
+    }
+    finally {
+      map.close();
+    }
+
+    map = createStringMap(file);
+    try {
+      assertFalse(map.isDirty());
+      assertEquals(5000, map.size());
+      assertNull(map.get("key42"));
+      assertFalse(map.containsMapping("key0"));
+      assertEquals("value43", map.get("key43"));
+      assertEquals("value9999", map.get("key9999"));
+
+      CommonProcessors.CollectProcessor<String> processor = new CommonProcessors.CollectProcessor<String>();
+      map.processKeys(processor);
+      Set<String> keys = new HashSet<String>(processor.getResults());
+      assertEquals(5000, keys.size());
+      assertTrue(keys.contains("key1"));
+      assertFalse(keys.contains("key2"));
+    }
+    finally {
+      map.close();
+    }
+  }
+
+  public void testInlineKeysAndValues() throws Exception {
+    File file = new File(myDir, "inline");
+    MappedPersistentHashMap<Integer, Integer> map =
+      new MappedPersistentHashMap<Integer, Integer>(file, EnumeratorIntegerDescriptor.INSTANCE, EnumeratorIntegerDescriptor.INSTANCE);
+    try {
+      for (int i = 0; i < 100000; i++) {
+        map.put(i, -i);
+      }
+      for (int i = 0; i < 100000; i++) {
+        assertEquals(Integer.valueOf(-i), map.get(i));
+      }
+      assertFalse(new File(file.getPath() + ".log0").length() > PagedFileStorage.MB);
+    }
+    finally {
+      map.close();
+    }
+  }
+
+  public void testUncleanShutdownIsDetected() throws Exception {
+    File file = new File(myDir, "dirty");
+    MappedPersistentHashMap<String, String> map = createStringMap(file);
+    map.put("key", "value");
+    // the map is not forced, as if the process died
+
+    try {
+      createStringMap(file).close();
+      fail("Dirty map must not be opened");
+    }
+    catch (PersistentEnumeratorBase.CorruptedException ignored) {
+    }
+    finally {
+      map.close();
+    }
+  }
+
+  public void testOverwrittenRecordsAreCompacted() throws Exception {
+    File file = new File(myDir, "compacted");
+    String value = StringUtil.repeatSymbol('x', 1000);
+    MappedPersistentHashMap<String, String> map = createStringMap(file);
+    try {
+      for (int round = 0; round < 20; round++) {
+        for (int i = 0; i < 500; i++) {
+          map.put("key" + i, value + round);
+        }
+      }
+      map.waitForCompaction();
+      assertTrue(map.getGarbageSize() < 2 * PagedFileStorage.MB);
+      for (int i = 0; i < 500; i++) {
+        assertEquals(value + 19, map.get("key" + i));
+      }
+    }
+    finally {
+      map.close();
+    }
+
+    map = createStringMap(file);
+    try {
+      assertEquals(500, map.size());
+      assertEquals(value + 19, map.get("key499"));
+    }
+    finally {
+      map.close();
+    }
+  }
+
+  private static MappedPersistentHashMap<String, String> createStringMap(File file) throws Exception {
+    return new MappedPersistentHashMap<String, String>(file, EnumeratorStringDescriptor.INSTANCE, EnumeratorStringDescriptor.INSTANCE);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+
+public class PagePoolTest extends TestCase {
+  private static final int PAGES = 64;
+
+  private File myFile;
+  private PagePool myPool;
+  private RandomAccessDataFile myDataFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myFile = FileUtil.createTempFile("pagePool", ".dat");
+    myPool = new PagePool(4, 4);
+    myDataFile = new RandomAccessDataFile(myFile, myPool);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myDataFile.dispose();
+    FileUtil.delete(myFile);
+    super.tearDown();
+  }
+
+  public void testEvictedPagesAreWrittenBehind() throws Exception {
+    for (int i = 0; i < PAGES; i++) {
+      myDataFile.putInt((long)i * Page.PAGE_SIZE, i);
+    }
+    for (int i = 0; i < PAGES; i++) {
+      assertEquals(i, myDataFile.getInt((long)i * Page.PAGE_SIZE));
+    }
+
+    myDataFile.force();
+    assertEquals((long)(PAGES - 1) * Page.PAGE_SIZE + 4, myDataFile.physicalLength());
+  }
+
+  public void testRecentlyEvictedPageIsAdmittedToProtectedQueue() throws Exception {
+    myDataFile.getInt(0);
+    for (int i = 1; i <= 4; i++) {
+      myDataFile.getInt((long)i * Page.PAGE_SIZE); // pushes the first page out of the probational queue
+    }
+
+    long ghostHits = myPool.getStatistics().ghostQueueHits;
+    myDataFile.getInt(0);
+    assertEquals(ghostHits + 1, myPool.getStatistics().ghostQueueHits);
+
+    long protectedHits = myPool.getStatistics().protectedQueueHits;
+    myDataFile.getInt(Page.PAGE_SIZE);
+    myDataFile.getInt(0);
+    assertEquals(protectedHits + 1, myPool.getStatistics().protectedQueueHits);
+  }
+
+  public void testGhostEntriesAreKeptPerFile() throws Exception {
+    myDataFile.getInt(0);
+    for (int i = 1; i <= 4; i++) {
+      myDataFile.getInt((long)i * Page.PAGE_SIZE);
+    }
+
+    File otherFile = FileUtil.createTempFile("pagePool", ".dat");
+    RandomAccessDataFile other = new RandomAccessDataFile(otherFile, myPool);
+    try {
+      long ghostHits = myPool.getStatistics().ghostQueueHits;
+      other.getInt(0);
+      assertEquals(ghostHits, myPool.getStatistics().ghostQueueHits);
+    }
+    finally {
+      other.dispose();
+      FileUtil.delete(otherFile);
+    }
+  }
+}
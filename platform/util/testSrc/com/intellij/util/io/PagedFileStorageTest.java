@@ -21,8 +21,12 @@ import junit.framework.TestCase;
 import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.*;
 
 public class PagedFileStorageTest extends TestCase {
   private final PagedFileStorage.StorageLock lock = new PagedFileStorage.StorageLock();
@@ -118,6 +122,58 @@ public class PagedFileStorageTest extends TestCase {
     }
   }
 
+  public void testConcurrentReadsAreServedFromMappedPages() throws Exception {
+    final int pageSize = 1024 * 1024;
+    final int pages = 16;
+    final PagedFileStorage.StorageLock storageLock = new PagedFileStorage.StorageLock(false);
+    File file = FileUtil.createTempFile("concurrent", ".tmp");
+    final PagedFileStorage storage = new PagedFileStorage(file, storageLock, pageSize, true);
+    try {
+      storage.resize((long)pageSize * pages);
+      for (int addr = 0; addr < pageSize * pages; addr += 4) {
+        storage.putInt(addr, addr);
+      }
+      storage.close();
+      final long hitsBefore = storageLock.getHitCount();
+      final long missesBefore = storageLock.getMissCount();
+
+      int threads = 8;
+      final int readsPerThread = 2000000;
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < threads; i++) {
+          final int seed = i;
+          futures.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+              Random random = new Random(seed);
+              for (int j = 0; j < readsPerThread; j++) {
+                int addr = random.nextInt(pageSize * pages / 4) * 4;
+                assertEquals(addr, storage.getInt(addr));
+              }
+              return null;
+            }
+          }));
+        }
+        for (Future<?> future : futures) {
+          future.get();
+        }
+      }
+      finally {
+        executor.shutdownNow();
+      }
+
+      assertEquals(pages, storageLock.getMissCount() - missesBefore);
+      assertTrue(storageLock.getHitCount() > hitsBefore);
+      assertEquals(0, storageLock.getEvictionCount());
+    }
+    finally {
+      storage.close();
+      assertTrue(file.delete());
+    }
+  }
+
   private static final SimpleDateFormat FORMATTER = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
 
   private static void printPct(int pct) {
@@ -21,6 +21,9 @@ package com.intellij.util.text;
 
 import junit.framework.TestCase;
 
+import java.util.Locale;
+import java.util.Random;
+
 public class StringSearcherTest extends TestCase {
   public void testSearchPatternAtTheEnd() {
     final String pattern = "bc";
@@ -32,4 +35,42 @@ public class StringSearcherTest extends TestCase {
     assertEquals(text.indexOf("bc"), index);
   }
 
+  public void testCaseInsensitiveSearch() {
+    StringSearcher searcher = new StringSearcher("fooBar", false, true);
+    assertEquals(4, searcher.scan("xfoofoobaR"));
+    assertEquals(-1, searcher.scan("xfoofoobaR", 5, 10));
+    assertEquals(2, new StringSearcher("\u00e9t\u00e9", false, true).scan("l'\u00c9t\u00c9"));
+  }
+
+  public void testRandomTextsAgainstIndexOf() {
+    Random random = new Random(42);
+    for (int i = 0; i < 2000; i++) {
+      String text = randomString(random, random.nextInt(200));
+      String pattern = randomString(random, 1 + random.nextInt(4));
+      boolean caseSensitive = random.nextBoolean();
+      String lowerText = caseSensitive ? text : text.toLowerCase(Locale.US);
+      String lowerPattern = caseSensitive ? pattern : pattern.toLowerCase(Locale.US);
+
+      StringSearcher forward = new StringSearcher(pattern, caseSensitive, true);
+      int start = text.isEmpty() ? 0 : random.nextInt(text.length());
+      int index = lowerText.indexOf(lowerPattern, start);
+      assertEquals(text + " " + pattern, index, forward.scan(text, start, text.length()));
+      assertEquals(text + " " + pattern, index, forward.scan(text, text.toCharArray(), start, text.length()));
+
+      if (text.isEmpty()) continue;
+      StringSearcher backward = new StringSearcher(pattern, caseSensitive, false);
+      int end = random.nextInt(text.length());
+      assertEquals(text + " " + pattern, lowerText.lastIndexOf(lowerPattern, end - pattern.length() + 1), backward.scan(text, 0, end));
+    }
+  }
+
+  private static String randomString(Random random, int length) {
+    String chars = "abAB_\u00e9\u00c9\u212a";
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      builder.append(chars.charAt(random.nextInt(chars.length())));
+    }
+    return builder.toString();
+  }
+
 }